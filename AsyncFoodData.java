@@ -0,0 +1,388 @@
+package application;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the slow FoodData operations (loads, saves, exports, filters and
+ * type-ahead searches) in the background and hands back a CompletableFuture
+ * for each, so a user interface thread never waits on them.
+ *
+ * Work runs on a virtual thread per task when the Java runtime has them,
+ * and on a pool of daemon threads otherwise.  Cancelling a returned future
+ * stops its work: a load or save notices at its next progress report and
+ * gives up, leaving the foods or the file it was replacing as they were, a
+ * search stops at its next check, and a filter's result is simply dropped.
+ * Progress listeners are called from the worker threads, so a user
+ * interface has to post what they report back to its own thread.
+ *
+ * Filters run against the ConcurrentFoodData's published snapshot and
+ * type-ahead searches under its read lock, and both get the same query
+ * plans as on the calling thread: the name index, intersected ordinal sets
+ * and column scans.  Saves write a snapshot, so they answer for the foods
+ * as they were when they started however long they take, and never keep
+ * edits waiting.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class AsyncFoodData implements Closeable {
+
+    // Rows written between two progress reports on a save
+    private static final int ROWS_PER_REPORT = 4096;
+
+    // The foods the operations run on
+    private final ConcurrentFoodData foods;
+
+    // Runs each operation
+    private final ExecutorService executor;
+
+
+    /**
+     * Public constructor that runs the operations on virtual threads where
+     * the runtime has them
+     *
+     * @param foods the foods to run the operations on
+     */
+    public AsyncFoodData(ConcurrentFoodData foods) {
+        this(foods, newDefaultExecutor());
+    }
+
+    /**
+     * Public constructor
+     *
+     * @param foods the foods to run the operations on
+     * @param executor runs each operation; it is shut down by close()
+     */
+    public AsyncFoodData(ConcurrentFoodData foods, ExecutorService executor) {
+        this.foods = foods;
+        this.executor = executor;
+    }
+
+    /**
+     * Makes an executor that starts a virtual thread for each task, found by
+     * reflection since they only exist from Java 21, or a pool of daemon
+     * threads on older runtimes
+     *
+     * @return the executor
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            //No virtual threads on this runtime, or only as a disabled preview
+        }
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "food-data-worker");
+            thread.setDaemon(true); //Never keeps the application from exiting
+            return thread;
+        });
+    }
+
+    /**
+     * Accessor for foods
+     *
+     * @return the foods the operations run on
+     */
+    public ConcurrentFoodData getFoodData() {
+        return foods;
+    }
+
+
+    /**
+     * Loads the food items in a file in the background, replacing the ones
+     * already held once the whole file has been parsed.  If the file can't
+     * be read, the future completes with an UncheckedIOException and the
+     * foods already held are kept.
+     *
+     * @param filePath path of the file to load
+     * @param progress told how many bytes of the file have been parsed, or null
+     * @return completes with the number of foods after the load
+     * @see FoodData#loadFoodItems(String, ForkJoinPool, ProgressListener)
+     */
+    public CompletableFuture<Integer> loadFoodItems(String filePath, ProgressListener progress) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        ProgressListener listener = watch(result, progress);
+        return submit(result, () -> {
+            foods.loadFoodItems(filePath, ForkJoinPool.commonPool(), listener);
+            return foods.size();
+        });
+    }
+
+    /**
+     * Finds the food items whose name contains the given text, ignoring
+     * case, in the background
+     *
+     * @param substring the text to search for
+     * @return completes with the matching food items, ordered by name
+     * @see FoodData#filterByName(String)
+     */
+    public CompletableFuture<List<FoodItem>> filterByName(String substring) {
+        return submit(new CompletableFuture<>(), () -> foods.filterByName(substring));
+    }
+
+    /**
+     * Finds the food items that fulfill ALL the provided rules in the
+     * background
+     *
+     * @param rules list of rules, in the same format as for FoodData
+     * @return completes with the matching food items
+     * @see FoodData#filterByNutrients(List)
+     */
+    public CompletableFuture<List<FoodItem>> filterByNutrients(List<String> rules) {
+        return submit(new CompletableFuture<>(), () -> foods.filterByNutrients(rules));
+    }
+
+    /**
+     * Runs the next search of a type-ahead session in the background.
+     * Cancelling the future interrupts the search, which stops at its next
+     * check, and starting another search in the session makes this one
+     * complete with a CancellationException.  The search counts as started
+     * when this is called, so of several searches started in a row, the
+     * last one is the one that completes, whichever thread gets to it first.
+     *
+     * @param session the search session
+     * @param substring the text to search for
+     * @return completes with the matching food items, ordered by name
+     * @see SearchSession#search(String)
+     */
+    public CompletableFuture<List<FoodItem>> search(SearchSession session, String substring) {
+        Supplier<List<FoodItem>> search = session.searchLater(substring);
+        return submit(new CompletableFuture<>(), search::get);
+    }
+
+    /**
+     * Saves every food item, sorted by name, to a CSV file that can be
+     * loaded back, in the background
+     *
+     * @param filename the file to write, replaced if it exists
+     * @param progress told how many food items have been written, or null
+     * @return completes with the number of food items written
+     * @see FoodData#saveFoodItems(String)
+     */
+    public CompletableFuture<Long> saveFoodItems(String filename, ProgressListener progress) {
+        return exportFoodItems(new File(filename).toPath(), FoodExporter.Format.CSV, false, progress);
+    }
+
+    /**
+     * Exports every food item, sorted by name, to a file in the background.
+     * The foods are written from a snapshot taken once the export starts on
+     * the executor, so the calling thread does no work for it.  The file is
+     * written to a temporary file of its own in the same directory and then
+     * moved into place, so exports running at the same time never share a
+     * file, and if the export fails or is cancelled, only the temporary file
+     * is deleted and any file already at the path is left as it was.
+     *
+     * @param path the file to write, replaced if it exists
+     * @param format the format to write
+     * @param gzip whether to compress the file with gzip
+     * @param progress told how many food items have been written, or null
+     * @return completes with the number of food items written
+     */
+    public CompletableFuture<Long> exportFoodItems(Path path, FoodExporter.Format format,
+        boolean gzip, ProgressListener progress) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        ProgressListener listener = watch(result, progress);
+        return submit(result, () -> {
+            List<FoodItem> all = foods.snapshot().getAllFoodItems(); //Taken here, off the calling thread
+            Iterator<FoodItem> rows = new ReportingIterator(all.iterator(), all.size(), listener);
+            Path temp = Files.createTempFile(path.toAbsolutePath().getParent(),
+                path.getFileName() + ".", ".tmp");
+            long written;
+            try {
+                written = FoodExporter.export(rows, temp, format, gzip);
+                if (result.isCancelled()) { //Cancelled after the last row was written
+                    throw new CancellationException("Export to " + path + " was cancelled");
+                }
+            }
+            catch (Exception e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        });
+    }
+
+    /**
+     * Stops taking new operations.  The ones already started run to the end
+     * unless their futures are cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+
+    /**
+     * Runs a task on the executor and completes the future with its result.
+     * Cancelling the future interrupts the task, or stops it starting if it
+     * is still queued.
+     *
+     * @param result the future to complete
+     * @param task the task to run
+     * @return the future
+     */
+    private <T> CompletableFuture<T> submit(CompletableFuture<T> result, Callable<T> task) {
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                try {
+                    result.complete(task.call());
+                }
+                catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wraps a progress listener so it stops the work once the future has
+     * been cancelled
+     *
+     * @param result the future of the work
+     * @param progress the listener to pass reports on to, or null
+     * @return the wrapped listener
+     */
+    private static ProgressListener watch(CompletableFuture<?> result, ProgressListener progress) {
+        return (done, total) -> {
+            if (result.isCancelled()) {
+                throw new CancellationException();
+            }
+            if (progress != null) {
+                progress.progress(done, total);
+            }
+        };
+    }
+
+
+    /**
+     * Counts the food items an export takes, reporting every few thousand
+     */
+    private static class ReportingIterator implements Iterator<FoodItem> {
+
+        // The food items being exported
+        private final Iterator<FoodItem> foods;
+
+        // Number of food items in all
+        private final long total;
+
+        // Told how many food items have been taken
+        private final ProgressListener progress;
+
+        // Number of food items taken so far
+        private long taken;
+
+        /**
+         * Private constructor
+         *
+         * @param foods the food items being exported
+         * @param total number of food items in all
+         * @param progress told how many food items have been taken
+         */
+        private ReportingIterator(Iterator<FoodItem> foods, long total, ProgressListener progress) {
+            this.foods = foods;
+            this.total = total;
+            this.progress = progress;
+            progress.progress(0, total);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            return foods.hasNext();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public FoodItem next() {
+            FoodItem food = foods.next();
+            taken++;
+            if (taken % ROWS_PER_REPORT == 0 || taken == total) {
+                progress.progress(taken, total);
+            }
+            return food;
+        }
+    }
+
+
+    /**
+     * Loads the sample foods in the background while reporting progress,
+     * filters them and saves them, then starts an export and cancels it.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        AsyncFoodData async = new AsyncFoodData(new ConcurrentFoodData());
+        AtomicLong reports = new AtomicLong();
+        int loaded = async.loadFoodItems("foodItems.csv", (done, total) -> reports.incrementAndGet())
+            .join();
+        System.out.println("Loaded " + loaded + " foods with " + reports.get() + " progress reports");
+
+        List<FoodItem> found = async.filterByNutrients(Arrays.asList("calories >= 100", "protein >= 5"))
+            .thenCombine(async.filterByName("a"), (byNutrients, byName) -> {
+                byNutrients.retainAll(byName);
+                return byNutrients;
+            }).join();
+        System.out.println(found.size() + " foods have calories >= 100, protein >= 5 and an 'a' in their name");
+
+        try {
+            Path saved = Files.createTempFile("foods", ".csv");
+            System.out.println("Saved " + async.saveFoodItems(saved.toString(), null).join() + " foods");
+            Files.delete(saved);
+
+            CompletableFuture<Long> export = async.exportFoodItems(saved, FoodExporter.Format.JSON_LINES,
+                false, null);
+            export.cancel(true);
+            try {
+                export.join();
+            }
+            catch (CancellationException e) {
+                System.out.println("Export cancelled, file written: " + Files.exists(saved));
+            }
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        finally {
+            async.close();
+        }
+    }
+
+} // End of class AsyncFoodData
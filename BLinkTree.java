@@ -0,0 +1,910 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+
+/**
+ * A B+ tree that many threads can insert into and search at the same time,
+ * for ingest jobs that load one index from several producer threads.
+ *
+ * It is a B-link tree (Lehman and Yao): besides its keys, every node keeps
+ * a high key, the largest key it may hold, and a link to its right
+ * sibling.  When a node splits, the new right half is linked in next to it
+ * before its parent hears about it, so a thread that arrives at the left
+ * half looking for a key that has moved simply follows the link to the
+ * right.  That is what lets a split hold only the node being split, and
+ * later its parent, rather than the whole path from the root.
+ *
+ * Each node has a StampedLock as its latch.  Searches, and inserts on the
+ * way down, read a node without locking it: they take an optimistic stamp,
+ * read the node, and keep what they read only if no writer changed the
+ * node in the meantime, falling back to the read lock otherwise.  Inserts
+ * lock just the leaf they change, so inserts into different leaves run in
+ * parallel, and a split then locks the parent to add the new child.  Locks
+ * are only ever taken from a node to its right sibling or its parent, so
+ * threads can't deadlock.
+ *
+ * As in BPTree, each distinct key takes a single leaf slot and the values
+ * inserted under it are kept in a PostingList in insertion order.  Entries
+ * can't be removed.  A range search is not a snapshot: it returns every
+ * value that was in the tree when the search started, and may or may not
+ * include values inserted while it ran.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <K> key - expect a string that is the type of id for each item
+ * @param <V> value - expect a user-defined type that stores all data for a food item
+ */
+public class BLinkTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
+
+    // Root of the tree, replaced (by the thread holding the old root's latch) when the tree grows
+    private volatile Node root;
+
+    // Branching factor is the number of children nodes
+    // for internal nodes of the tree
+    private final int branchingFactor;
+
+    // Number of key-value pairs in the tree
+    private final LongAdder size;
+
+
+    /**
+     * Public constructor
+     *
+     * @param branchingFactor the number of children each node can have
+     */
+    public BLinkTree(int branchingFactor) {
+        if (branchingFactor <= 2) {
+            throw new IllegalArgumentException(
+               "Illegal branching factor: " + branchingFactor);
+        }
+        this.branchingFactor = branchingFactor;
+        this.size = new LongAdder();
+        this.root = new LeafNode();
+    }
+
+
+    /*
+     * Inserts the key and value in the appropriate nodes in the tree.  Safe
+     * to call from any number of threads at once.
+     *
+     * Note: key-value pairs with duplicate keys can be inserted into the tree.
+     * The value is added to the key's posting list after any values already
+     * stored under it.
+     *
+     * @param key the key to insert
+     * @param value the value to insert at this key
+     */
+    @Override
+    public void insert(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys can not be inserted");
+        }
+        List<InternalNode> path = new ArrayList<InternalNode>();
+        Node node = descend(key, path, 0);
+        node.lock();
+        node = lockRight(node, key);
+        ((LeafNode) node).insert(key, value);
+        size.increment();
+
+        //Split overflowing nodes bottom-up, holding a node until its parent is locked
+        while (node.isOverflow()) {
+            Node right = node.split();
+            K separator = node.highKey;
+            InternalNode parent = findParent(node, separator, path);
+            if (parent == null) { //The node is the root, so grow the tree by a level
+                root = new InternalNode(separator, node, right);
+                break;
+            }
+            parent.lock();
+            parent = (InternalNode) lockRight(parent, separator);
+            node.unlock();
+            parent.insertChild(separator, right);
+            node = parent;
+        }
+        node.unlock();
+    }
+
+
+    /**
+     * Gets the number of key-value pairs in the tree.  While inserts are
+     * running the count may be a little behind.
+     *
+     * @return the number of pairs
+     */
+    public long size() {
+        return size.sum();
+    }
+
+
+    /**
+     * Gets the values that satisfy the given range
+     * search arguments.
+     *
+     * Value of comparator can be one of these:
+     * "<=", "==", ">="
+     *
+     * If comparator is null, empty, or not according
+     * to required form, return empty list.
+     *
+     * @param key to be searched
+     * @param comparator is a string
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    @Override
+    public List<V> rangeSearch(K key, String comparator) {
+        if (key == null || comparator == null) {
+            return new ArrayList<V>();
+        }
+        if (comparator.contentEquals(">=")) {
+            return rangeSearch(key, true, null, true);
+        }
+        else if (comparator.contentEquals("<=")) {
+            return rangeSearch(null, true, key, true);
+        }
+        else if (comparator.contentEquals("==")) {
+            return rangeSearch(key, true, key, true);
+        }
+        return new ArrayList<V>();
+    }
+
+
+    /**
+     * Gets the values whose keys lie between low and high, in key order.
+     * The tree is descended once to the first leaf in range, then the leaves
+     * are read left to right through their links.
+     *
+     * @param low the lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to low are included
+     * @param high the upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to high are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K low, boolean lowInclusive, K high, boolean highInclusive) {
+        List<V> results = new ArrayList<V>();
+        if (low != null && high != null) {
+            int order = low.compareTo(high);
+            if (order > 0 || (order == 0 && !(lowInclusive && highInclusive))) {
+                return results; //The bounds don't leave any keys in between
+            }
+        }
+        Node leaf = low == null ? leftmost(0) : descend(low, null, 0);
+        while (leaf != null) { //A sibling only holds keys above its left neighbour's high key, so nothing is read twice
+            leaf = ((LeafNode) leaf).read(low, lowInclusive, high, highInclusive, results);
+        }
+        return results;
+    }
+
+
+    /**
+     * Walks down from the root to the node at the given level that covers a
+     * key, moving right wherever a node has split and its upper half no
+     * longer holds the key
+     *
+     * @param key the key to look for
+     * @param path if not null, gets each internal node descended through,
+     *        from the top down
+     * @param level the level to stop at, 0 for the leaves
+     * @return the node at that level whose range held the key when it was read
+     */
+    private Node descend(K key, List<InternalNode> path, int level) {
+        Node node = root;
+        while (true) {
+            Node next = node.level == level ? node.moveRight(key) : node.next(key);
+            if (next == null) {
+                return node;
+            }
+            if (next.level < node.level && path != null) {
+                path.add((InternalNode) node);
+            }
+            node = next;
+        }
+    }
+
+
+    /**
+     * Finds the leftmost node of a level
+     *
+     * @param level the level to look at, 0 for the leaves
+     * @return the node holding the smallest keys of the level
+     */
+    private Node leftmost(int level) {
+        Node node = root;
+        while (node.level > level) {
+            node = ((InternalNode) node).firstChild();
+        }
+        return node;
+    }
+
+
+    /**
+     * Moves right from a locked node, with lock coupling, until reaching the
+     * node whose range holds the key
+     *
+     * @param node a locked node left of or at the node holding the key
+     * @param key the key to find the node for
+     * @return the node holding the key, now locked, with every node before it unlocked
+     */
+    private Node lockRight(Node node, K key) {
+        while (node.isLeftOf(key)) {
+            Node right = node.right;
+            right.lock();
+            node.unlock();
+            node = right;
+        }
+        return node;
+    }
+
+
+    /**
+     * Finds the parent to add a split node's new sibling to.  Normally this
+     * is the node the insert descended through, but if the tree grew after
+     * the insert passed the root, the parent level is descended to afresh.
+     *
+     * @param node the node that split, which the caller holds locked
+     * @param separator the node's high key after the split
+     * @param path the internal nodes the insert descended through
+     * @return the parent (or a node to its left), or null if node is the root
+     */
+    private InternalNode findParent(Node node, K separator, List<InternalNode> path) {
+        if (!path.isEmpty()) {
+            return path.remove(path.size() - 1);
+        }
+        if (root == node) { //Only the thread holding the root's latch can replace the root
+            return null;
+        }
+        return (InternalNode) descend(separator, path, node.level + 1);
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     *
+     * Prints each level on its own line, left to right along the sibling
+     * links.  Only meaningful while no inserts are running.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int level = root.level; level >= 0; level--) {
+            sb.append('{');
+            for (Node node = leftmost(level); node != null; node = node.right) {
+                sb.append(node.toString());
+                if (node.right != null) {
+                    sb.append(", ");
+                }
+            }
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * This abstract class represents any type of node in the tree
+     * This class is a super class of the LeafNode and InternalNode types.
+     */
+    private abstract class Node {
+
+        // Latch guarding the node.  Writers hold the write lock; readers
+        // validate an optimistic stamp, or take the read lock if that fails
+        final StampedLock latch;
+
+        // Stamp of the write lock, only read by the thread holding it
+        private long writeStamp;
+
+        // Height of the node above the leaves, which are at level 0
+        final int level;
+
+        // Array of keys, only the first numKeys slots are in use.  It has one
+        // spare slot so a node can overflow by a single key before it is split
+        Object[] keys;
+
+        // Number of keys currently stored in the node
+        int numKeys;
+
+        // Largest key the node may hold, or null for the last node of its level
+        K highKey;
+
+        // Next node to the right on the same level, or null for the last one
+        Node right;
+
+        /**
+         * Package constructor
+         *
+         * @param level the height of the node above the leaves
+         */
+        Node(int level) {
+            this.latch = new StampedLock();
+            this.level = level;
+            this.keys = new Object[branchingFactor];
+            this.numKeys = 0;
+        }
+
+        /**
+         * Gets the key stored in the given slot
+         *
+         * @param index the slot to read
+         * @return the key at index
+         */
+        @SuppressWarnings("unchecked")
+        K keyAt(int index) {
+            return (K) keys[index];
+        }
+
+        /**
+         * Binary searches the keys for the first slot whose key is greater than
+         * or equal to the given key
+         *
+         * @param key the key to look for
+         * @return the number of keys strictly less than key
+         */
+        int lowerBound(K key) {
+            int low = 0;
+            int high = numKeys;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keyAt(mid).compareTo(key) < 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Determines if a key is beyond this node's range, so it belongs to a
+         * node further right
+         *
+         * @param key the key to check
+         * @return true if key is greater than the high key
+         */
+        boolean isLeftOf(K key) {
+            return highKey != null && key.compareTo(highKey) > 0;
+        }
+
+        /**
+         * Locks the node for writing
+         */
+        void lock() {
+            writeStamp = latch.writeLock();
+        }
+
+        /**
+         * Unlocks a node locked with lock()
+         */
+        void unlock() {
+            latch.unlockWrite(writeStamp);
+        }
+
+        /**
+         * Reads the next node to visit on the way to a key without locking:
+         * the right sibling if the key is past this node, otherwise the child
+         * covering it, or null if this is the leaf covering it.  The read is
+         * repeated under the read lock if a writer got in the way.
+         *
+         * @param key the key being looked for
+         * @return the next node, or null to stop here
+         */
+        Node next(K key) {
+            long stamp = latch.tryOptimisticRead();
+            if (stamp != 0) { //Zero means a writer holds the latch right now
+                try {
+                    Node next = step(key);
+                    if (latch.validate(stamp)) {
+                        return next;
+                    }
+                }
+                catch (RuntimeException e) {
+                    //A writer changed the arrays mid-read; the read lock below gives a consistent answer
+                }
+            }
+            stamp = latch.readLock();
+            try {
+                return step(key);
+            }
+            finally {
+                latch.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Reads the right sibling if the key is past this node, like next(),
+         * but never descends
+         *
+         * @param key the key being looked for
+         * @return the right sibling, or null if this node covers the key
+         */
+        Node moveRight(K key) {
+            long stamp = latch.tryOptimisticRead();
+            if (stamp != 0) {
+                Node next = isLeftOf(key) ? right : null;
+                if (latch.validate(stamp)) {
+                    return next;
+                }
+            }
+            stamp = latch.readLock();
+            try {
+                return isLeftOf(key) ? right : null;
+            }
+            finally {
+                latch.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Picks the next node to visit on the way to a key.  Callers hold the
+         * latch or validate a stamp around it.
+         *
+         * @param key the key being looked for
+         * @return the next node, or null to stop here
+         */
+        abstract Node step(K key);
+
+        /**
+         * Splits an overflowing node, which the caller holds locked.  The
+         * upper half moves to a new node linked in as the right sibling, and
+         * this node's high key becomes the separator to add to the parent.
+         *
+         * @return the new right sibling
+         */
+        abstract Node split();
+
+        /**
+         * Determines if the current node has too many keys
+         *
+         * @return boolean- true if the node has too many keys, false otherwise
+         */
+        boolean isOverflow() {
+            return numKeys > (branchingFactor - 1);
+        }
+
+        public String toString() {
+            return Arrays.asList(keys).subList(0, numKeys).toString();
+        }
+
+    } // End of abstract class Node
+
+    /**
+     * This class represents an internal node of the tree.
+     */
+    private class InternalNode extends Node {
+
+        // Array of children nodes, always one more in use than there are keys.
+        // The last child covers the keys up to the node's high key
+        Object[] children;
+
+        /**
+         * Package constructor
+         *
+         * @param level the height of the node above the leaves
+         */
+        InternalNode(int level) {
+            super(level);
+            this.children = new Object[branchingFactor + 1];
+        }
+
+        /**
+         * Package constructor for a new root over the two halves of a split
+         */
+        InternalNode(K separator, Node left, Node right) {
+            this(left.level + 1);
+            keys[0] = separator;
+            children[0] = left;
+            children[1] = right;
+            numKeys = 1;
+        }
+
+        /**
+         * Gets the child stored in the given slot
+         *
+         * @param index the slot to read
+         * @return the child at index
+         */
+        @SuppressWarnings("unchecked")
+        Node child(int index) {
+            return (Node) children[index];
+        }
+
+        /**
+         * Gets the first child.  The first child of a node never changes, so
+         * no latch is needed.
+         *
+         * @return the child in slot 0
+         */
+        Node firstChild() {
+            return child(0);
+        }
+
+        Node step(K key) {
+            return isLeftOf(key) ? right : child(lowerBound(key));
+        }
+
+        /**
+         * Adds the new right sibling of a split child, with the child's new
+         * high key as the separator in front of it.  The caller holds the
+         * node locked and has moved right until the separator is in range.
+         *
+         * @param separator the split child's high key
+         * @param newChild the new right sibling of the split child
+         */
+        void insertChild(K separator, Node newChild) {
+            int index = lowerBound(separator); //The split child sits here, its old upper bound is above the separator
+            System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+            System.arraycopy(children, index + 1, children, index + 2, numKeys - index);
+            keys[index] = separator;
+            children[index + 1] = newChild;
+            numKeys++;
+        }
+
+        /**
+         * Moves the keys and children after the median to a new right
+         * sibling.  The median becomes this node's high key.
+         *
+         * @see Node#split
+         */
+        Node split() {
+            int medianIndex = numKeys / 2;
+            InternalNode sibling = new InternalNode(level);
+
+            int numRightKeys = numKeys - medianIndex - 1; //The median moves up, everything after it goes to the right
+            System.arraycopy(keys, medianIndex + 1, sibling.keys, 0, numRightKeys);
+            System.arraycopy(children, medianIndex + 1, sibling.children, 0, numRightKeys + 1);
+            sibling.numKeys = numRightKeys;
+            sibling.highKey = highKey;
+            sibling.right = right;
+
+            highKey = keyAt(medianIndex);
+            right = sibling; //Readers find the sibling through the link until the parent knows about it
+            numKeys = medianIndex;
+            Arrays.fill(keys, medianIndex, keys.length, null);
+            Arrays.fill(children, medianIndex + 1, children.length, null);
+            return sibling;
+        }
+
+    } // End of class InternalNode
+
+
+    /**
+     * This class represents a leaf node of the tree.
+     */
+    private class LeafNode extends Node {
+
+        // Array of values, parallel to the keys array.  A slot holds the value
+        // itself, or a PostingList when several values share the slot's key
+        Object[] values;
+
+        /**
+         * Package constructor
+         */
+        LeafNode() {
+            super(0);
+            values = new Object[branchingFactor];
+        }
+
+        Node step(K key) {
+            return isLeftOf(key) ? right : null;
+        }
+
+        /**
+         * Inserts key and value in the appropriate slot of this leaf, which
+         * the caller holds locked
+         *
+         * @param key the key to insert
+         * @param value the value to associate with the given key
+         */
+        void insert(K key, V value) {
+            int index = lowerBound(key);
+            if (index < numKeys && keyAt(index).compareTo(key) == 0) { //The key is already here, so add to the end of its postings
+                Object slot = values[index];
+                if (slot instanceof PostingList) {
+                    ((PostingList) slot).add(value);
+                }
+                else {
+                    values[index] = new PostingList(slot, value, 0);
+                }
+                return;
+            }
+            System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+            System.arraycopy(values, index, values, index + 1, numKeys - index);
+            keys[index] = key;
+            values[index] = value;
+            numKeys++;
+        }
+
+        /**
+         * Moves the entries after the median to a new right sibling.  The
+         * median stays here and becomes this leaf's high key.
+         *
+         * @see Node#split
+         */
+        Node split() {
+            int medianIndex = numKeys / 2;
+            LeafNode sibling = new LeafNode();
+
+            int numRightKeys = numKeys - medianIndex - 1;
+            System.arraycopy(keys, medianIndex + 1, sibling.keys, 0, numRightKeys);
+            System.arraycopy(values, medianIndex + 1, sibling.values, 0, numRightKeys);
+            sibling.numKeys = numRightKeys;
+            sibling.highKey = highKey;
+            sibling.right = right;
+
+            highKey = keyAt(medianIndex);
+            right = sibling;
+            numKeys = medianIndex + 1;
+            Arrays.fill(keys, numKeys, keys.length, null);
+            Arrays.fill(values, numKeys, values.length, null);
+            return sibling;
+        }
+
+        /**
+         * Adds the values of this leaf that fall in a range to a list.  The
+         * leaf is read without locking and read again (under the read lock if
+         * need be) if a writer changed it meanwhile, so only a consistent
+         * read is added.
+         *
+         * @param low the lower bound, or null for no lower bound
+         * @param lowInclusive true if keys equal to low are included
+         * @param high the upper bound, or null for no upper bound
+         * @param highInclusive true if keys equal to high are included
+         * @param results the list to add the values to
+         * @return the next leaf to read, or null if the range ends in this one
+         */
+        Node read(K low, boolean lowInclusive, K high, boolean highInclusive, List<V> results) {
+            int mark = results.size();
+            long stamp = latch.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Node next = collect(low, lowInclusive, high, highInclusive, results);
+                    if (latch.validate(stamp)) {
+                        return next;
+                    }
+                }
+                catch (RuntimeException e) {
+                    //A writer changed the leaf mid-read; read it again under the read lock
+                }
+                results.subList(mark, results.size()).clear();
+            }
+            stamp = latch.readLock();
+            try {
+                return collect(low, lowInclusive, high, highInclusive, results);
+            }
+            finally {
+                latch.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Adds the values in range to a list.  Callers hold the latch or
+         * validate a stamp around it.
+         *
+         * @see #read
+         */
+        @SuppressWarnings("unchecked")
+        private Node collect(K low, boolean lowInclusive, K high, boolean highInclusive,
+            List<V> results) {
+            int index = low == null ? 0 : lowerBound(low);
+            if (!lowInclusive && index < numKeys && keyAt(index).compareTo(low) == 0) {
+                index++; //Each key has one slot, so skipping it skips every value equal to low
+            }
+            for (; index < numKeys; index++) {
+                if (high != null) {
+                    int order = keyAt(index).compareTo(high);
+                    if (order > 0 || (order == 0 && !highInclusive)) {
+                        return null;
+                    }
+                }
+                Object slot = values[index];
+                if (slot instanceof PostingList) {
+                    PostingList postings = (PostingList) slot;
+                    for (int i = 0; i < postings.size(); i++) {
+                        results.add((V) postings.get(i));
+                    }
+                }
+                else {
+                    results.add((V) slot);
+                }
+            }
+            if (high != null && highKey != null && highKey.compareTo(high) >= 0) {
+                return null; //Nothing to the right can be in range
+            }
+            return right;
+        }
+
+    } // End of class LeafNode
+
+
+    /**
+     * Stress tests the tree from several threads and checks the results are
+     * linearizable: once an insert has returned, every search that starts
+     * afterwards must see it.  Writer threads insert overlapping keys and
+     * publish each pair once its insert returns; reader threads look up
+     * published pairs and scan the whole tree, which must stay in key
+     * order.  Finally the tree must hold exactly the pairs inserted, and
+     * insert throughput is measured for growing numbers of threads.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int numWriters = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        int insertsPerWriter = 100000;
+        BLinkTree<Integer, String> tree = new BLinkTree<>(16);
+        ConcurrentHashMap<Integer, List<String>> inserted = new ConcurrentHashMap<>();
+        List<String> published = Collections.synchronizedList(new ArrayList<String>());
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong checks = new AtomicLong();
+        ExecutorService threads = Executors.newFixedThreadPool(numWriters + 2);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            final int writer = w;
+            tasks.add(threads.submit(() -> {
+                Random random = new Random(writer);
+                for (int i = 0; i < insertsPerWriter; i++) {
+                    int key = random.nextInt(insertsPerWriter); //Writers share keys, so posting lists are contended too
+                    String value = key + ":" + writer + ":" + i; //Values start with their key, so scans can check the order
+                    tree.insert(key, value);
+                    inserted.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<String>())).add(value);
+                    if (i % 64 == 0) {
+                        published.add(value);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            final int reader = r;
+            tasks.add(threads.submit(() -> {
+                Random random = new Random(100 + reader);
+                while (!done.get()) {
+                    String value;
+                    synchronized (published) {
+                        if (published.isEmpty()) {
+                            continue;
+                        }
+                        value = published.get(random.nextInt(published.size()));
+                    }
+                    int key = keyOf(value);
+                    if (!tree.rangeSearch(key, "==").contains(value)) {
+                        throw new IllegalStateException("Completed insert of " + key + " not found");
+                    }
+                    if (reader == 0 && checks.get() % 100 == 0 && !inKeyOrder(tree.rangeSearch(null, true, null, true))) {
+                        throw new IllegalStateException("Scan out of key order"); //Now and then check a whole scan
+                    }
+                    checks.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (int t = 0; t < numWriters; t++) {
+                tasks.get(t).get();
+            }
+            done.set(true);
+            for (int t = numWriters; t < tasks.size(); t++) {
+                tasks.get(t).get();
+            }
+        }
+        catch (InterruptedException | ExecutionException e) {
+            done.set(true);
+            System.out.println("Stress test failed: " + e.getMessage());
+            threads.shutdownNow();
+            return;
+        }
+        threads.shutdown();
+
+        //Every pair must be there exactly once, and the keys must come back in order
+        long expected = 0;
+        for (List<String> values : inserted.values()) {
+            expected += values.size();
+        }
+        List<String> all = tree.rangeSearch(null, true, null, true);
+        boolean consistent = tree.size() == expected && all.size() == expected && inKeyOrder(all);
+        for (int key = 0; key < insertsPerWriter && consistent; key++) {
+            List<String> found = tree.rangeSearch(key, "==");
+            List<String> values = inserted.get(key);
+            consistent = values == null ? found.isEmpty()
+                : found.size() == values.size() && found.containsAll(values);
+        }
+        System.out.println(numWriters + " writers inserted " + expected + " pairs while readers ran "
+            + checks.get() + " checks: " + (consistent ? "consistent" : "INCONSISTENT"));
+
+        //Throughput as threads are added, against one lock around a BPTree
+        int numInserts = 1 << 20;
+        for (int numThreads = 1; numThreads <= Runtime.getRuntime().availableProcessors(); numThreads *= 2) {
+            BLinkTree<Integer, Integer> linkTree = new BLinkTree<>(64);
+            BPTree<Integer, Integer> lockedTree = new BPTree<>(64);
+            long linkNanos = timeInserts(numThreads, numInserts, key -> linkTree.insert(key, key));
+            long lockedNanos = timeInserts(numThreads, numInserts, key -> {
+                synchronized (lockedTree) {
+                    lockedTree.insert(key, key);
+                }
+            });
+            System.out.println(numThreads + " threads: B-link tree " + (numInserts * 1000L / Math.max(1, linkNanos / 1000))
+                + " inserts/ms, locked BPTree " + (numInserts * 1000L / Math.max(1, lockedNanos / 1000)) + " inserts/ms");
+        }
+    }
+
+    /**
+     * Determines if the values from a stress test scan are in key order
+     *
+     * @param values values that start with their key and a colon
+     * @return true if the keys never decrease
+     */
+    private static boolean inKeyOrder(List<String> values) {
+        int previousKey = Integer.MIN_VALUE;
+        for (String value : values) {
+            int key = keyOf(value);
+            if (key < previousKey) {
+                return false;
+            }
+            previousKey = key;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the key a stress test value was inserted under
+     *
+     * @param value a value that starts with its key and a colon
+     * @return the key
+     */
+    private static int keyOf(String value) {
+        return Integer.parseInt(value.substring(0, value.indexOf(':')));
+    }
+
+    /**
+     * Times inserting random keys from several threads at once
+     *
+     * @param numThreads the number of threads to insert from
+     * @param numInserts the total number of inserts, shared between the threads
+     * @param insert inserts one key
+     * @return the time taken in nanoseconds
+     */
+    private static long timeInserts(int numThreads, int numInserts, IntConsumer insert) {
+        ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> tasks = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < numThreads; t++) {
+            final int seed = t;
+            tasks.add(threads.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < numInserts / numThreads; i++) {
+                    insert.accept(random.nextInt());
+                }
+            }));
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+        catch (InterruptedException | ExecutionException e) {
+            System.out.println(e.getMessage());
+        }
+        finally {
+            threads.shutdown();
+        }
+        return System.nanoTime() - start;
+    }
+
+} // End of class BLinkTree
@@ -1,25 +1,50 @@
 package application;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
-import java.util.Stack;
-import java.util.TreeSet;
 
 /**
  * Implementation of a B+ tree to allow efficient access to
- * many different indexes of a large data set. 
+ * many different indexes of a large data set.
  * BPTree objects are created for each type of index
  * needed by the program.  BPTrees provide an efficient
  * range search as compared to other types of data structures
  * due to the ability to perform log_m N lookups and
  * linear in-order traversals of the data items.
- * 
+ *
+ * Every node keeps its keys (and its values or children) in fixed size
+ * arrays that are allocated once, so finding the child to descend into or
+ * the slot to insert at is a binary search over contiguous memory instead
+ * of a walk over a linked list.
+ *
+ * Each distinct key is stored once.  When more than one value is inserted
+ * under the same key the leaf slot holds a PostingList of the values in
+ * insertion order, so heavily repeated keys (lots of foods with 0 grams of
+ * fiber) take a single slot and an equality lookup reads a single leaf.
+ *
+ * snapshot() hands out a read-only, point-in-time copy of the tree in
+ * constant time.  The snapshot shares every node with the tree, and from
+ * then on the tree copies a shared node (and the path above it) before
+ * changing it, so nothing a snapshot can reach is ever modified and any
+ * number of threads can read a snapshot while the tree keeps changing.
+ * Nodes record the version of the tree they were created in, and taking a
+ * snapshot starts a new version, which is how the tree tells its own nodes
+ * from shared ones.  Leaves are not linked to each other, since a link
+ * would tie a shared leaf to its newer neighbours; cursors keep the path
+ * down from the root instead and step to the next leaf through it.
+ *
  * @author sapan (sapan@cs.wisc.edu), Shannon Morison (smorison@epic.com)
  *
  * @param <K> key - expect a string that is the type of id for each item
@@ -29,15 +54,27 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
     // Root of the tree
     private Node root;
-    
-    // Branching factor is the number of children nodes 
+
+    // Branching factor is the number of children nodes
     // for internal nodes of the tree
     private int branchingFactor;
-    
-    
+
+    // Number of key-value pairs in the tree
+    private int size;
+
+    // Number of inserts, deletes and bulk loads so far, so a values() view knows when its cursor is stale
+    private int modificationCount;
+
+    // Version of the nodes the tree may change in place; older nodes may be shared with a snapshot
+    private int writeVersion;
+
+    // True if this tree is a snapshot, which can't be changed
+    private boolean readOnly;
+
+
     /**
      * Public constructor
-     * 
+     *
      * @param branchingFactor the number of children each node can have
      */
     public BPTree(int branchingFactor) {
@@ -48,56 +85,530 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
         this.branchingFactor = branchingFactor;
         root = null;
     }
-    
-    
+
+
     /*
      * Inserts the key and value in the appropriate nodes in the tree
-     * 
+     *
      * Note: key-value pairs with duplicate keys can be inserted into the tree.
-     * 
+     * The value is added to the key's posting list after any values already
+     * stored under it.
+     *
      * @param key the key to insert (for the food list, the amount of a given nutrient)
      * @param value the value to insert at this key (for the food list, the food ID)
      */
     @Override
     public void insert(K key, V value) {
-    	
+        checkWritable();
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys can not be inserted");
+        }
         if (root == null) { //If we haven't added anything yet, make the first node
         	root = new LeafNode();
-        	root.insert(key, value);
-        }
-        else if (root instanceof BPTree.LeafNode) { //Deal with the special case where the root is a leaf
-    		root.insert(key, value);
-    		if (root.isOverflow()) { //If adding the value makes the root too big, split it
-    			root = root.split();
-    		}
-    	}
-    	else { //The root is an internal node, so just use its insert function
-    		root.insert(key, value);
-    		if (root.isOverflow()) {
-    			root = root.split();
-    		}
-    	}
+        }
+        root = writable(root);
+        root.insert(key, value); //Leaves and internal nodes both know how to insert below themselves
+        if (root.isOverflow()) { //If adding the value makes the root too big, split it and grow the tree by a level
+            root = root.split();
+        }
+        size++;
+        modificationCount++;
+    }
+
+
+    /**
+     * Removes one entry with the given key and value from the tree.  Nodes
+     * left with too few keys borrow from a sibling or are merged with one,
+     * and the tree shrinks by a level when the root runs out of keys.
+     *
+     * @param key the key of the entry to remove
+     * @param value the value of the entry to remove (compared with equals)
+     * @return true if an entry was removed, false if there was no such entry
+     */
+    public boolean delete(K key, V value) {
+        checkWritable();
+        if (key == null || root == null) {
+            return false;
+        }
+        root = writable(root);
+        if (!root.delete(key, value)) {
+            return false;
+        }
+        if (root.numKeys == 0) {
+            root = (root instanceof BPTree.InternalNode) ? ((InternalNode) root).child(0) : null; //The root only needs to hold one key, or one child when internal
+        }
+        size--;
+        modificationCount++;
+        return true;
+    }
+
+
+    /**
+     * Gets the number of key-value pairs in the tree
+     *
+     * @return the number of pairs
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Takes a read-only snapshot of the tree as it is now.  Nothing is
+     * copied up front: the snapshot shares the tree's nodes, and the tree
+     * copies each shared node the first time it changes it afterwards.  The
+     * snapshot can be read from any thread, while the tree changes, without
+     * locking.  Nodes only the snapshot still holds are garbage collected
+     * along with it.
+     *
+     * @return the snapshot, which throws UnsupportedOperationException if changed
+     */
+    public BPTree<K, V> snapshot() {
+        if (readOnly) {
+            return this; //A snapshot never changes, so it can be its own snapshot
+        }
+        BPTree<K, V> snapshot = new BPTree<K, V>(branchingFactor);
+        snapshot.root = root;
+        snapshot.size = size;
+        snapshot.readOnly = true;
+        writeVersion++; //Every node reachable now is shared from here on
+        return snapshot;
+    }
+
+
+    /**
+     * Determines if the tree is a snapshot, which can't be changed
+     *
+     * @return true if the tree is read-only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+
+    /**
+     * Rejects a change to a snapshot
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("A snapshot of a tree can not be changed");
+        }
+    }
+
+
+    /**
+     * Gets a node the tree can change in place: the node itself if it was
+     * created in the current version, otherwise a copy of it.  The caller
+     * puts the copy in place of the node.
+     *
+     * @param node the node about to be changed
+     * @return the node, or its copy if the node may be shared with a snapshot
+     */
+    private Node writable(Node node) {
+        return node.version == writeVersion ? node : node.copy();
     }
-    
-    
+
+
+    /**
+     * Gets a read-only view of the values in key order.  Nothing is copied:
+     * iterating the view walks the leaves in order, and get(i) skips over
+     * whole leaves to reach position i.  The view keeps the cursor of its
+     * last get(i), so reading positions in ascending order (as a list
+     * control does while scrolling) carries on from there instead of
+     * starting over at the first leaf each time.  The view always shows the
+     * current contents of the tree, but the tree must not be modified while
+     * the view is being iterated.
+     *
+     * @return a list view of the values
+     */
+    public List<V> values() {
+        return new AbstractList<V>() {
+            // Cursor of the last get(i), positioned just after the value it returned
+            private Cursor<V> cursor;
+
+            // Position the cursor returns next
+            private int cursorIndex;
+
+            // Value the last get(i) returned, at position cursorIndex - 1
+            private V lastValue;
+
+            // Modification count of the tree when the cursor was started
+            private int cursorModifications;
+
+            @Override
+            public synchronized V get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                if (cursor != null && cursorModifications == modificationCount
+                    && index == cursorIndex - 1) {
+                    return lastValue;
+                }
+                if (cursor == null || cursorModifications != modificationCount || index < cursorIndex) {
+                    cursor = scan(null, null); //Going backwards, or the tree changed, so start over
+                    cursorIndex = 0;
+                    cursorModifications = modificationCount;
+                }
+                lastValue = cursor.skip(index - cursorIndex).next();
+                cursorIndex = index + 1;
+                return lastValue;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return scan(null, null); //Cursors don't support remove, so the view stays read-only
+            }
+        };
+    }
+
+
     /*
      * (non-Javadoc)
      * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
      */
     @Override
     public List<V> rangeSearch(K key, String comparator) {
-        if (!comparator.contentEquals(">=") && 
-            !comparator.contentEquals("==") && 
-            !comparator.contentEquals("<=") )
+        if (key == null || comparator == null) {
             return new ArrayList<V>();
+        }
+        if (comparator.contentEquals(">=")) {
+            return scan(key, null).toList();
+        }
+        else if (comparator.contentEquals("<=")) {
+            return scan(null, key).toList();
+        }
+        else if (comparator.contentEquals("==")) {
+            return scan(key, key).toList();
+        }
+        return new ArrayList<V>();
+    }
+
+
+    /**
+     * Gets the values whose keys lie between low and high, in key order.
+     * The tree is only descended once and only the leaves between the two
+     * bounds are read.
+     *
+     * Example:
+     *     rangeSearch(50.0, true, 200.0, false) returns all the values
+     *     with keys >= 50.0 and < 200.0
+     *
+     * @param low the lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to low are included
+     * @param high the upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to high are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K low, boolean lowInclusive, K high, boolean highInclusive) {
+        return scan(low, lowInclusive, high, highInclusive).toList();
+    }
+
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to (both inclusive), in key order.  Values are read from the leaves
+     * as the cursor advances, so nothing is copied up front.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lowest key to include, or null to start at the smallest key
+     * @param to the highest key to include, or null to run to the largest key
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(K from, K to) {
+        return scan(from, true, to, true);
+    }
+
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to, in key order, with each bound either inclusive or exclusive.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lower bound, or null to start at the smallest key
+     * @param fromInclusive true if keys equal to from are included
+     * @param to the upper bound, or null to run to the largest key
+     * @param toInclusive true if keys equal to to are included
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from != null && to != null) {
+            int order = from.compareTo(to);
+            if (order > 0 || (order == 0 && !(fromInclusive && toInclusive))) {
+                return new RangeCursor(null, null, true, to, toInclusive); //The bounds don't leave any keys in between
+            }
+        }
+        return new RangeCursor(root, from, fromInclusive, to, toInclusive);
+    }
+
+
+    /**
+     * Replaces the contents of the tree with the given key-value pairs.
+     *
+     * Instead of inserting the pairs one at a time, they are sorted by key
+     * once and the tree is built bottom-up: the leaves are packed in key
+     * order, then each level of internal nodes is built over the one below
+     * it until a single root remains.  Pairs with equal keys keep the order
+     * they were given in.
+     *
+     * @param keys the keys to load, keys.get(i) belongs with values.get(i)
+     * @param values the values to load
+     * @param fillFactor how full to pack each node, between 0 (exclusive) and 1
+     *        (inclusive); leaving room lets later inserts go in without splitting
+     */
+    public void bulkLoad(List<K> keys, List<V> values, double fillFactor) {
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException(
+               "Number of keys (" + keys.size() + ") does not match number of values (" + values.size() + ")");
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+        }
+        checkWritable();
+        final Object[] keyArray = keys.toArray();
+        Object[] valueArray = values.toArray();
+        for (Object key : keyArray) {
+            if (key == null) {
+                throw new IllegalArgumentException("Null keys can not be inserted");
+            }
+        }
+
+        Integer[] order = new Integer[keyArray.length]; //Sort positions rather than pairs so keys and values stay together
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() { //Arrays.sort on objects is stable, so duplicates keep their order
+            public int compare(Integer a, Integer b) {
+                return loadedKey(keyArray, a).compareTo(loadedKey(keyArray, b));
+            }
+        });
+
+        root = null;
+        size = order.length;
+        modificationCount++;
+        if (order.length == 0) {
+            return;
+        }
+
+        //Collapse each run of equal keys into one slot, wrapping the run's values in a posting list
+        Object[] sortedValues = new Object[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedValues[i] = valueArray[order[i]];
+        }
+        Object[] slotKeys = new Object[order.length];
+        Object[] slotValues = new Object[order.length];
+        int numEntries = 0;
+        int runStart = 0;
+        while (runStart < order.length) {
+            K key = loadedKey(keyArray, order[runStart]);
+            int runEnd = runStart + 1;
+            while (runEnd < order.length && key.compareTo(loadedKey(keyArray, order[runEnd])) == 0) {
+                runEnd++;
+            }
+            slotKeys[numEntries] = key;
+            slotValues[numEntries] = runEnd - runStart == 1 ? sortedValues[runStart]
+                : new PostingList(sortedValues, runStart, runEnd - runStart, writeVersion);
+            numEntries++;
+            runStart = runEnd;
+        }
+
+        //Pack the leaves, spreading the entries evenly so the last leaf isn't left nearly empty
+        int leafSize = Math.max(1, Math.min(branchingFactor - 1, (int) Math.round((branchingFactor - 1) * fillFactor)));
+        int numLeaves = (numEntries + leafSize - 1) / leafSize;
+        List<Node> level = new ArrayList<Node>(numLeaves);
+        List<K> levelMaxKeys = new ArrayList<K>(numLeaves); //Largest key under each node, used as separators in the level above
+        int entry = 0;
+        for (int i = 0; i < numLeaves; i++) {
+            int numKeys = numEntries / numLeaves + (i < numEntries % numLeaves ? 1 : 0);
+            LeafNode leaf = new LeafNode();
+            for (int j = 0; j < numKeys; j++) {
+                leaf.keys[j] = slotKeys[entry];
+                leaf.values[j] = slotValues[entry];
+                entry++;
+            }
+            leaf.numKeys = numKeys;
+            level.add(leaf);
+            levelMaxKeys.add(leaf.keyAt(numKeys - 1));
+        }
+
+        //Build each internal level over the one below until only the root is left.  At least three
+        //children per parent guarantees the even spread never leaves a parent with a single child
+        int fanout = Math.max(3, Math.min(branchingFactor, (int) Math.round(branchingFactor * fillFactor)));
+        while (level.size() > 1) {
+            int numChildren = level.size();
+            int numParents = (numChildren + fanout - 1) / fanout;
+            List<Node> parents = new ArrayList<Node>(numParents);
+            List<K> parentMaxKeys = new ArrayList<K>(numParents);
+            int child = 0;
+            for (int i = 0; i < numParents; i++) {
+                int numParentChildren = numChildren / numParents + (i < numChildren % numParents ? 1 : 0);
+                InternalNode parent = new InternalNode();
+                for (int j = 0; j < numParentChildren; j++) {
+                    parent.children[j] = level.get(child);
+                    if (j > 0) {
+                        parent.keys[j - 1] = levelMaxKeys.get(child - 1); //Separators are the largest key on their left
+                    }
+                    child++;
+                }
+                parent.numKeys = numParentChildren - 1;
+                parents.add(parent);
+                parentMaxKeys.add(levelMaxKeys.get(child - 1));
+            }
+            level = parents;
+            levelMaxKeys = parentMaxKeys;
+        }
+        root = level.get(0);
+    }
+
+    /**
+     * Gets one of the keys passed to bulkLoad back from the array it was
+     * copied into
+     *
+     * @param keyArray the keys, copied out of the list passed to bulkLoad
+     * @param index position of the key in the array
+     * @return the key
+     */
+    @SuppressWarnings("unchecked")
+    private K loadedKey(Object[] keyArray, int index) {
+        return (K) keyArray[index];
+    }
+
+
+    /**
+     * Writes the tree to a snapshot: its settings, then its nodes depth
+     * first from left to right, leaves holding their keys and values.
+     * readSnapshot() rebuilds the same nodes from them without sorting or
+     * inserting anything.
+     *
+     * @param out where to write the tree
+     * @param keyCodec writes each key
+     * @param valueCodec writes each value
+     * @throws IOException if the tree can't be written
+     */
+    public void writeSnapshot(DataOutput out, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec)
+        throws IOException {
+        out.writeInt(branchingFactor);
+        out.writeInt(size);
+        out.writeBoolean(root != null);
+        if (root != null) {
+            writeNode(out, root, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * Writes a node and everything below it to a snapshot
+     *
+     * @param out where to write the node
+     * @param node the node to write
+     * @param keyCodec writes each key
+     * @param valueCodec writes each value
+     * @throws IOException if the node can't be written
+     */
+    private void writeNode(DataOutput out, Node node, SnapshotCodec<K> keyCodec,
+        SnapshotCodec<V> valueCodec) throws IOException {
+        boolean isLeaf = node instanceof BPTree.LeafNode;
+        out.writeBoolean(isLeaf);
+        out.writeInt(node.numKeys);
+        for (int i = 0; i < node.numKeys; i++) {
+            keyCodec.write(out, node.keyAt(i));
+        }
+        if (isLeaf) {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < leaf.numKeys; i++) {
+                int numValues = leaf.postingSize(i);
+                out.writeInt(numValues);
+                for (int j = 0; j < numValues; j++) {
+                    valueCodec.write(out, leaf.valueAt(i, j));
+                }
+            }
+        }
         else {
-        	List<V> returnValues = new LinkedList<V>(); 
-        	returnValues = root.rangeSearch(key, comparator); 
-        	return returnValues;
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i <= internal.numKeys; i++) {
+                writeNode(out, internal.child(i), keyCodec, valueCodec);
+            }
+        }
+    }
+
+    /**
+     * Reads a tree written by writeSnapshot()
+     *
+     * @param in the buffer to read from, positioned at the tree
+     * @param keyCodec reads each key
+     * @param valueCodec reads each value
+     * @return the tree
+     * @throws IOException if the bytes don't hold a valid tree
+     */
+    public static <K extends Comparable<K>, V> BPTree<K, V> readSnapshot(ByteBuffer in,
+        SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        int branchingFactor = in.getInt();
+        int size = in.getInt();
+        BPTree<K, V> tree;
+        try {
+            tree = new BPTree<>(branchingFactor);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Illegal tree in snapshot: " + e.getMessage());
         }
+        tree.size = size;
+        if (in.get() != 0) {
+            tree.root = tree.readNode(in, keyCodec, valueCodec);
+        }
+        return tree;
     }
-    
-    
+
+    /**
+     * Reads a node written by writeNode() and everything below it
+     *
+     * @param in the buffer to read from, positioned at the node
+     * @param keyCodec reads each key
+     * @param valueCodec reads each value
+     * @return the node
+     * @throws IOException if the bytes don't hold a valid node
+     */
+    private Node readNode(ByteBuffer in, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec)
+        throws IOException {
+        boolean isLeaf = in.get() != 0;
+        int numKeys = in.getInt();
+        if (numKeys < 0 || numKeys >= branchingFactor || (!isLeaf && numKeys == 0)) {
+            throw new IOException("Illegal number of keys in snapshot node: " + numKeys);
+        }
+        Node node = isLeaf ? new LeafNode() : new InternalNode();
+        for (int i = 0; i < numKeys; i++) {
+            node.keys[i] = keyCodec.read(in);
+        }
+        node.numKeys = numKeys;
+        if (isLeaf) {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < numKeys; i++) {
+                int numValues = in.getInt();
+                if (numValues < 1) {
+                    throw new IOException("Illegal number of values in snapshot leaf: " + numValues);
+                }
+                Object[] values = new Object[numValues];
+                for (int j = 0; j < numValues; j++) {
+                    values[j] = valueCodec.read(in);
+                }
+                leaf.values[i] = numValues == 1 ? values[0] : new PostingList(values, 0, numValues, writeVersion);
+            }
+        }
+        else {
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i <= numKeys; i++) {
+                internal.children[i] = readNode(in, keyCodec, valueCodec);
+            }
+        }
+        return node;
+    }
+
+
     /*
      * (non-Javadoc)
      * @see java.lang.Object#toString()
@@ -119,7 +630,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
                     if (it.hasNext())
                         sb.append(", ");
                     if (node instanceof BPTree.InternalNode)
-                        nextQueue.add(((InternalNode) node).children);
+                        nextQueue.add(((InternalNode) node).childList());
                 }
                 sb.append('}');
                 if (!queue.isEmpty())
@@ -132,30 +643,114 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
         }
         return sb.toString();
     }
-    
-    
+
+
     /**
      * This abstract class represents any type of node in the tree
      * This class is a super class of the LeafNode and InternalNode types.
-     * 
+     *
      * @author sapan, smorison
      */
     private abstract class Node {
-        
-        // List of keys
-        List<K> keys;
-        
+
+        // Array of keys, only the first numKeys slots are in use.  It has one
+        // spare slot so a node can overflow by a single key before it is split
+        Object[] keys;
+
+        // Number of keys currently stored in the node
+        int numKeys;
+
+        // Version of the tree the node was created in
+        final int version;
+
         /**
          * Package constructor
          */
         Node() {
-           this.keys = new LinkedList<K>();
+           this.keys = new Object[branchingFactor];
+           this.numKeys = 0;
+           this.version = writeVersion;
+        }
+
+        /**
+         * Package constructor for a copy of a node, created in the tree's
+         * current version
+         *
+         * @param original the node to copy
+         */
+        Node(Node original) {
+           this.keys = original.keys.clone();
+           this.numKeys = original.numKeys;
+           this.version = writeVersion;
+        }
+
+        /**
+         * Gets the key stored in the given slot
+         *
+         * @param index the slot to read
+         * @return the key at index
+         */
+        @SuppressWarnings("unchecked")
+        K keyAt(int index) {
+            return (K) keys[index];
+        }
+
+        /**
+         * Binary searches the keys for the first slot whose key is greater than
+         * or equal to the given key
+         *
+         * @param key the key to look for
+         * @return the number of keys strictly less than key
+         */
+        int lowerBound(K key) {
+            int low = 0;
+            int high = numKeys;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keyAt(mid).compareTo(key) < 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Binary searches the keys for the first slot whose key is strictly
+         * greater than the given key
+         *
+         * @param key the key to look for
+         * @return the number of keys less than or equal to key
+         */
+        int upperBound(K key) {
+            int low = 0;
+            int high = numKeys;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keyAt(mid).compareTo(key) <= 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
         }
-        
+
+        /**
+         * Copies the node so the copy can be changed without affecting any
+         * snapshot that shares the original
+         *
+         * @return the copy
+         */
+        abstract Node copy();
+
         /**
-         * Inserts key and value in the appropriate leaf node 
+         * Inserts key and value in the appropriate leaf node
          * and balances the tree if required by splitting
-         *  
+         *
          * @param key
          * @param value
          */
@@ -163,445 +758,798 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
 
         /**
          * Gets the first leaf key of the tree
-         * 
+         *
          * @return key
          */
         abstract K getFirstLeafKey();
-        
+
         /**
-         * Gets the new sibling created after splitting the node
-         * 
+         * Splits an overflowing node in two and returns a new parent holding
+         * the promoted key with the two halves as its children
+         *
          * @return Node
          */
         abstract Node split();
-        
-        /*
-         * (non-Javadoc)
-         * @see BPTree#rangeSearch(java.lang.Object, java.lang.String)
+
+        /**
+         * Removes one entry with the given key and value from below this node,
+         * rebalancing any child that drops under the minimum number of keys
+         *
+         * @param key the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        abstract boolean delete(K key, V value);
+
+        /**
+         * Moves the last entry (or child) of the left sibling into this node
+         *
+         * @param leftSibling the node directly to the left of this one
+         * @param parent the parent of both nodes
+         * @param separatorIndex the slot of the parent key between the two nodes
+         */
+        abstract void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex);
+
+        /**
+         * Moves the first entry (or child) of the right sibling into this node
+         *
+         * @param rightSibling the node directly to the right of this one
+         * @param parent the parent of both nodes
+         * @param separatorIndex the slot of the parent key between the two nodes
          */
-        abstract List<V> rangeSearch(K key, String comparator);
+        abstract void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex);
+
+        /**
+         * Appends everything in the right sibling to this node.  The parent is
+         * left for the caller to fix up.
+         *
+         * @param rightSibling the node directly to the right of this one
+         * @param separator the parent key between the two nodes
+         */
+        abstract void mergeWithRight(Node rightSibling, K separator);
+
+        /**
+         * Gets the fewest keys a node other than the root may hold once
+         * entries start being deleted
+         *
+         * @return the minimum number of keys
+         */
+        int minKeys() {
+            return (branchingFactor - 1) / 2;
+        }
 
         /**
          * Determines if the current node has too many keys
-         * 
+         *
          * @return boolean- true if the node has too many keys, false otherwise
          */
-        abstract boolean isOverflow();
-        
+        boolean isOverflow() {
+            return numKeys > (branchingFactor - 1);
+        }
+
+        /**
+         * Determines if the current node has too few keys, which happens
+         * when entries are deleted from it
+         *
+         * @return boolean- true if the node has too few keys, false otherwise
+         */
+        boolean isUnderflow() {
+            return numKeys < minKeys();
+        }
+
         public String toString() {
-            return keys.toString();
+            return Arrays.asList(keys).subList(0, numKeys).toString();
         }
-    
+
     } // End of abstract class Node
-    
+
     /**
      * This class represents an internal node of the tree.
      * This class is a concrete sub class of the abstract Node class
      * and provides implementation of the operations
      * required for internal (non-leaf) nodes.
-     * 
+     *
      * @author sapan, smorison
      */
     private class InternalNode extends Node {
 
-        // List of children nodes
-        List<Node> children;
-       
-        
+        // Array of children nodes, always one more in use than there are keys
+        Object[] children;
+
+
         /**
          * Package constructor
          */
         InternalNode() {
             super();
-            this.children = new LinkedList<Node>(); //Initialize the list that holds the children
+            this.children = new Object[branchingFactor + 1]; //Initialize the array that holds the children
         }
-        
+
         /**
-         * Package constructor that adds a key to the keys list
+         * Package constructor for a copy of an internal node.  The copy shares
+         * the original's children until they are changed in turn.
+         *
+         * @param original the node to copy
          */
-        InternalNode(K key) {
-            super();
-            this.children = new LinkedList<Node>(); //Initialize the list that holds the children
-            keys.add(key); //Add a key to the list (makes it easier to do split functions)
+        InternalNode(InternalNode original) {
+            super(original);
+            this.children = original.children.clone();
         }
-        
+
         /**
-         * Gets the first  key of the node
-         * 
-         * @return key- the lowest value in the node
+         * Package constructor that adds a key and the two children on either side of it
          */
-        K getFirstLeafKey() {
-            return keys.get(0);
+        InternalNode(K key, Node left, Node right) {
+            this();
+            keys[0] = key;
+            children[0] = left;
+            children[1] = right;
+            numKeys = 1;
         }
-        
+
         /**
-         * Determines if this node has too many keys
-         * 
-         * @return true if the node has too many keys, false otherwise
+         * Gets the child stored in the given slot
+         *
+         * @param index the slot to read
+         * @return the child at index
          */
-        boolean isOverflow() {
-        	int numKeys = keys.size();
-        	if (numKeys > (branchingFactor - 1)) {
-        		return true;
-        	}
-            return false;
+        @SuppressWarnings("unchecked")
+        Node child(int index) {
+            return (Node) children[index];
         }
-        
+
         /**
-         * Inserts key and value in the current node 
-         * Splitting (if needed) is handled by the insert function in the BPTree parent
-         *  
+         * Gets a child that is about to be changed, first replacing it with a
+         * copy if it may be shared with a snapshot
+         *
+         * @param index the slot of the child
+         * @return the child, safe to change in place
+         */
+        Node writableChild(int index) {
+            Node child = writable(child(index));
+            children[index] = child;
+            return child;
+        }
+
+        Node copy() {
+            return new InternalNode(this);
+        }
+
+        /**
+         * Gets the children in use as a list (used for printing the tree)
+         *
+         * @return the children of this node
+         */
+        @SuppressWarnings("unchecked")
+        List<Node> childList() {
+            List<Node> childList = new ArrayList<Node>(numKeys + 1);
+            for (int i = 0; i <= numKeys; i++) {
+                childList.add((Node) children[i]);
+            }
+            return childList;
+        }
+
+        /**
+         * Gets the first  key of the node
+         *
+         * @return key- the lowest value in the node
+         */
+        K getFirstLeafKey() {
+            return keyAt(0);
+        }
+
+        /**
+         * Inserts key and value below the current node
+         * Children that overflow are split here, splitting this node is
+         * handled by its own parent (or by the BPTree if this is the root)
+         *
          * @param key- the key to insert into the node (will determine the ordering)
          * @param value- the value to associate with the given key
          */
         void insert(K key, V value) {
-        	Stack<Node> nodesTraversed = new Stack<Node>(); //Create a stack to store the nodes we're traversing 
-        	Node currNode = this; //Start traversing the tree at the current node
-        	nodesTraversed.push(currNode); //Add the current node to the stack so we deal with splitting it later as needed
-    		while (!(currNode instanceof BPTree.LeafNode)) { //Keep traversing the tree until we reach a leaf
-    			int insertLoc = 0;
-    			for (K currKey : currNode.keys) {
-    				if (key.compareTo(currKey) > 0) { //Traverse the keys to figure out which child to examine
-    					insertLoc++;
-    				}
-    			}
-    			InternalNode currInternal = (InternalNode)currNode; //Cast this to an internal node (we know it's not a leaf node since we're in the while loop)
-    			currNode = currInternal.children.get(insertLoc); //Get the correct child for this insertion
-    			nodesTraversed.add(currNode);
-    		}
-    		
-    		currNode.insert(key, value); //Insert the key/value pair into the leaf
-    		
-    		int numNodesTraversed = nodesTraversed.size();
-    		Node nodeToCheck;
-    		InternalNode newParent;
-    		InternalNode oldParent;
-    		int childIndex;
-    		for (int i = 0; i < numNodesTraversed; i++) { //Go through all the nodes we've traversed, starting with the leaf, to see if they need to be split
-    			nodeToCheck = nodesTraversed.pop();
-    			if (nodeToCheck.isOverflow()) {
-    				newParent = (InternalNode)nodeToCheck.split(); //Since this is a parent node, it's not a leaf, so we can safely cast it to an InternalNode
-    				if (!nodesTraversed.isEmpty()) { //If we aren't at the root, we need to merge our new parent with the current node
-    					oldParent = (InternalNode)nodesTraversed.peek(); //Get the original node this one was linked to--we can safely cast to an InternalNode since we know it's not a leaf
-    					childIndex = oldParent.children.indexOf(nodeToCheck);
-    					oldParent.children.remove(nodeToCheck); //Since we split the node, we want to remove the old node link and readd the new link to the split node with the merge function
-    					oldParent.merge(newParent, childIndex);
-    				}
-    				else {
-    					nodeToCheck = newParent;
-    				}
-    			}
-    		}
-        }
-        
-        /**
-         * Gets the new parent created after splitting the node
-         * 
+            int childIndex = lowerBound(key); //Binary search for the child that covers this key
+            Node child = writableChild(childIndex);
+            child.insert(key, value);
+            if (child.isOverflow()) {
+                merge((InternalNode) child.split(), childIndex); //Splitting always hands back an internal node with a single key
+            }
+        }
+
+        /**
+         * Gets the new parent created after splitting the node.  The current
+         * node keeps the lower half and becomes the left child.
+         *
          * @return Node- the new parent created after splitting the node
          */
         Node split() {
-            InternalNode left = new InternalNode(); //Get two new nodes for the split of the values
+            int medianIndex = numKeys / 2; //Find the median index--should be the middle of our key array since it's sorted
+            K median = keyAt(medianIndex);
             InternalNode right = new InternalNode();
-            
-            int medianIndex = (int)(keys.size()/2); //Find the median index--should be the middle of our key list since it's sorted
-            K median = keys.get(medianIndex);
-            InternalNode newParent = new InternalNode(median); //Make a new internal node and add the promoted key
-            
-            newParent.children.add(left); //Link the new parent to the two new leaf nodes
-            newParent.children.add(right);
-            
-            for (int i = 0; i < medianIndex; i++) { //Add all the values in the keys list that are less than the median to the new left child
-            	left.keys.add(keys.get(i));
-            }
-            
-            for (int j = (medianIndex + 1); j < keys.size(); j++) { //Add all the values in the keys list greater than the median to the new right child
-            	right.keys.add(keys.get(j));
-            }
-            
-            int numChildren = (int) (children.size()/2); //Figure out how many children should go to each node
-            
-            for (int k = 0; k < numChildren; k++) {
-            	left.children.add(children.get(k)); //Since the children should be in order, we can just get the first half and add them to the new left node
-            }
-            
-            for (int l = numChildren; l < children.size(); l++) { //Attach the second half of children to the right side
-            	right.children.add(children.get(l));
-            }
-            
-           return newParent;
-        }
-        
+
+            int numRightKeys = numKeys - medianIndex - 1; //The median moves up, everything after it goes to the right
+            System.arraycopy(keys, medianIndex + 1, right.keys, 0, numRightKeys);
+            System.arraycopy(children, medianIndex + 1, right.children, 0, numRightKeys + 1);
+            right.numKeys = numRightKeys;
+
+            Arrays.fill(keys, medianIndex, numKeys, null); //Clear the moved slots so they can be garbage collected
+            Arrays.fill(children, medianIndex + 1, numKeys + 1, null);
+            numKeys = medianIndex;
+
+            return new InternalNode(median, this, right);
+        }
+
         /**
          * Takes another internal node resulting from splitting and adds its key and children to the current node
          * Assumes the mergeNode only has one key (this function is only used for merging nodes returned by splitting so this will always be the case)
-         * 
+         *
          * @param mergeNode- the node to merge with the current one (assumes this resulted from splitting a node)
-         * @param childIndex- the index that the split node 
+         * @param childIndex- the index of the child that was split
          */
         private void merge(InternalNode mergeNode, int childIndex) {
-        	this.keys.add(childIndex, mergeNode.keys.get(0)); //We should add this new key in the same position as the original child node was (so if it was the second child, the promoted node should be key 2)
-        	for (Node child: mergeNode.children) {//Iterate over all the children in the merge node and add them to this node, starting at the index of the child we're replacing
-        		this.children.add(childIndex, child);
-        		childIndex++;
-        	}
-        }
-        
-        /**
-         * (non-Javadoc)
-         * @see BPTree.Node#rangeSearch(java.lang.Comparable, java.lang.String)
-         */
-        List<V> rangeSearch(K key, String comparator) {
-        	List<V> returnValues = new LinkedList<V>();
-        	Node currNode = this;
-        	while (!(currNode instanceof BPTree.LeafNode)) { //Keep traversing the tree until we reach a leaf where our key should fit which will be our starting leaf
-    			int searchLoc = 0;
-    			for (K currKey : currNode.keys) {
-    				if (key.compareTo(currKey) > 0) { //Traverse the keys to figure out which child has the value we're looking for
-    					searchLoc++;
-    				}
-    			}
-    			InternalNode currInternal = (InternalNode)currNode; //Cast this to an internal node (we know it's not a leaf node since we're in the while loop)
-    			currNode = currInternal.children.get(searchLoc); //Get the correct child for this insertion
-    		}
-            
-        	LeafNode startingNode = (LeafNode)currNode; //We should be able to safely cast this since we looped until we reached a leaf
-        	LeafNode checkedNode = new LeafNode();
-        	if (comparator.contentEquals("==")) {
-        		K lowKey = startingNode.getFirstLeafKey();
-        		while (lowKey.compareTo(key) == 0) { //Keep looking at previous nodes until we find one that doesn't start with a key that equals our key--that's where we start
-        			startingNode = startingNode.previous;
-        			if (startingNode != null) {
-        				lowKey = startingNode.getFirstLeafKey();
-        			}
-        		} 
-        		returnValues.addAll(startingNode.rangeSearch(key, comparator));
-        		checkedNode = startingNode.next;
-        		while ((checkedNode != null) && (key.compareTo(checkedNode.getFirstLeafKey()) == 0)) { //Keep looping over all the nodes until the keys get too high or there are no more
-        			returnValues.addAll(checkedNode.rangeSearch(key, comparator));
-        			checkedNode = checkedNode.next;
-        		}
-        	}
-        	
-        	else if (comparator.contentEquals("<=")) {
-        		int numStartingKeys = startingNode.keys.size();
-        		K highKey = startingNode.keys.get(numStartingKeys - 1); //Find the last (highest) key in the keys array
-        		while ((highKey.compareTo(key) <= 0) && (startingNode != null)) { //Keep looking at the next node until we find a node where the last key is higher than the value we're checking for--that's where we start
-        			startingNode = startingNode.next;
-        			if (startingNode != null) {
-        				numStartingKeys = startingNode.keys.size();
-        				highKey = startingNode.keys.get(numStartingKeys - 1);
-        			}
-        		}
-        		returnValues.addAll(startingNode.rangeSearch(key, comparator)); //Add all the relevant values in our starting node
-        		checkedNode = startingNode.previous; 
-        		while (checkedNode != null) { //Add all the values in all previous nodes to our return values list as well
-        			returnValues.addAll(checkedNode.values);
-        			checkedNode = checkedNode.previous;
-        		}
-        	}
-        	
-        	else if (comparator.contentEquals(">=")) {
-        		K lowKey = startingNode.getFirstLeafKey(); //Find the first (lowest) key in the array
-        		while ((lowKey.compareTo(key) >= 0) && (startingNode != null)) { //Keep looking at the previous node until we find a node where the first key is lower than the value we're searching for-that's where we start
-        			startingNode = startingNode.previous;
-        			if (startingNode != null) {
-            			lowKey = startingNode.getFirstLeafKey();
-        			}
-        		}
-        		returnValues.addAll(startingNode.rangeSearch(key, comparator)); //Add all the relevant values in our starting node
-        		checkedNode = startingNode.next; 
-        		while (checkedNode != null) { //Add all the values in all subsequent nodes to our return values list as well
-        			returnValues.addAll(checkedNode.values);
-        			checkedNode = checkedNode.next;
-        		}
-        	}
-        	
-            return returnValues;
-        }
-    
+            System.arraycopy(keys, childIndex, keys, childIndex + 1, numKeys - childIndex); //Open a gap for the promoted key
+            System.arraycopy(children, childIndex + 1, children, childIndex + 2, numKeys - childIndex);
+            keys[childIndex] = mergeNode.keys[0];
+            children[childIndex] = mergeNode.children[0]; //The split node's halves take the original child's place
+            children[childIndex + 1] = mergeNode.children[1];
+            numKeys++;
+        }
+
+        /**
+         * Removes one entry with the given key and value from below this node.
+         * Each key is stored only once, so only the child covering the key
+         * needs to be searched.
+         *
+         * @param key the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        boolean delete(K key, V value) {
+            int childIndex = lowerBound(key);
+            Node child = writableChild(childIndex);
+            if (!child.delete(key, value)) {
+                return false;
+            }
+            if (child.isUnderflow()) {
+                rebalance(childIndex);
+            }
+            return true;
+        }
+
+        /**
+         * Brings a child that has too few keys back up to the minimum, either
+         * by borrowing from a sibling that can spare a key or by merging it
+         * with a sibling
+         *
+         * @param childIndex the slot of the child that underflowed
+         */
+        private void rebalance(int childIndex) {
+            Node child = child(childIndex);
+            Node left = childIndex > 0 ? child(childIndex - 1) : null;
+            Node right = childIndex < numKeys ? child(childIndex + 1) : null;
+            if (left != null && left.numKeys > minKeys()) {
+                child.borrowFromLeft(writableChild(childIndex - 1), this, childIndex - 1);
+            }
+            else if (right != null && right.numKeys > minKeys()) {
+                child.borrowFromRight(writableChild(childIndex + 1), this, childIndex);
+            }
+            else if (left != null) { //Neither sibling can spare a key, so fold the child into one of them
+                writableChild(childIndex - 1).mergeWithRight(child, keyAt(childIndex - 1));
+                removeSeparator(childIndex - 1);
+            }
+            else {
+                child.mergeWithRight(right, keyAt(childIndex));
+                removeSeparator(childIndex);
+            }
+        }
+
+        /**
+         * Removes a key and the child to its right, after that child has been
+         * merged into its left sibling
+         *
+         * @param separatorIndex the slot of the key to remove
+         */
+        private void removeSeparator(int separatorIndex) {
+            int numMoved = numKeys - separatorIndex - 1;
+            System.arraycopy(keys, separatorIndex + 1, keys, separatorIndex, numMoved);
+            System.arraycopy(children, separatorIndex + 2, children, separatorIndex + 1, numMoved);
+            keys[numKeys - 1] = null;
+            children[numKeys] = null;
+            numKeys--;
+        }
+
+        /**
+         * Rotates the left sibling's last child through the parent into the
+         * front of this node
+         *
+         * @see Node#borrowFromLeft
+         */
+        void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex) {
+            InternalNode left = (InternalNode) leftSibling;
+            System.arraycopy(keys, 0, keys, 1, numKeys);
+            System.arraycopy(children, 0, children, 1, numKeys + 1);
+            keys[0] = parent.keys[separatorIndex]; //The parent key comes down and the sibling's last key goes up
+            children[0] = left.children[left.numKeys];
+            numKeys++;
+            parent.keys[separatorIndex] = left.keys[left.numKeys - 1];
+            left.keys[left.numKeys - 1] = null;
+            left.children[left.numKeys] = null;
+            left.numKeys--;
+        }
+
+        /**
+         * Rotates the right sibling's first child through the parent onto the
+         * end of this node
+         *
+         * @see Node#borrowFromRight
+         */
+        void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex) {
+            InternalNode right = (InternalNode) rightSibling;
+            keys[numKeys] = parent.keys[separatorIndex]; //The parent key comes down and the sibling's first key goes up
+            children[numKeys + 1] = right.children[0];
+            numKeys++;
+            parent.keys[separatorIndex] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.numKeys - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.numKeys);
+            right.keys[right.numKeys - 1] = null;
+            right.children[right.numKeys] = null;
+            right.numKeys--;
+        }
+
+        /**
+         * Pulls the separator down and appends the right sibling's keys and
+         * children to this node
+         *
+         * @see Node#mergeWithRight
+         */
+        void mergeWithRight(Node rightSibling, K separator) {
+            InternalNode right = (InternalNode) rightSibling;
+            keys[numKeys] = separator;
+            System.arraycopy(right.keys, 0, keys, numKeys + 1, right.numKeys);
+            System.arraycopy(right.children, 0, children, numKeys + 1, right.numKeys + 1);
+            numKeys += right.numKeys + 1;
+        }
+
     } // End of class InternalNode
-    
-    
+
+
     /**
      * This class represents a leaf node of the tree.
      * This class is a concrete sub class of the abstract Node class
      * and provides implementation of the operations that
      * required for leaf nodes.
-     * 
+     *
      * @author sapan, smorison
      */
     private class LeafNode extends Node {
-        
-        // List of values
-        List<V> values;
-        
-        // Reference to the next leaf node
-        LeafNode next;
-        
-        // Reference to the previous leaf node
-        LeafNode previous;
-                
+
+        // Array of values, parallel to the keys array.  A slot holds the value
+        // itself, or a PostingList when several values share the slot's key
+        Object[] values;
+
         /**
          * Package constructor
-         * 
-         * @param parent- the parent node for this leaf (will always be an internal node)
          */
         LeafNode() {
             super();
-            values = new LinkedList<V>(); //Initialize the list of values in the leaf node
+            values = new Object[branchingFactor]; //Initialize the array of values in the leaf node
         }
-        
-        
+
         /**
-         * Gets the first key of the leaf
-         * 
-         * @return key- the lowest value in the leaf
+         * Package constructor for a copy of a leaf.  Posting lists are shared
+         * with the original until one of them is changed.
+         *
+         * @param original the leaf to copy
          */
-        K getFirstLeafKey() {
-            return keys.get(0);
+        LeafNode(LeafNode original) {
+            super(original);
+            values = original.values.clone();
+        }
+
+        Node copy() {
+            return new LeafNode(this);
+        }
+
+        /**
+         * Gets the posting list in a slot that is about to be changed, first
+         * replacing it with a copy if it may be shared with a snapshot
+         *
+         * @param index the slot holding the posting list
+         * @return the posting list, safe to change in place
+         */
+        PostingList writablePostings(int index) {
+            PostingList postings = (PostingList) values[index];
+            if (postings.getVersion() != writeVersion) {
+                postings = postings.copy(writeVersion);
+                values[index] = postings;
+            }
+            return postings;
         }
-        
+
         /**
-         * Determines if this node has too many keys
-         * 
-         * @return true if the node has too many keys, false otherwise
+         * Gets the number of values stored under the key in the given slot
+         *
+         * @param index the slot to read
+         * @return the number of values at index
          */
-        boolean isOverflow() {
-        	int numKeys = keys.size();
-        	if (numKeys > (branchingFactor - 1)) {
-        		return true;
-        	}
-            return false;
+        int postingSize(int index) {
+            Object slot = values[index];
+            return slot instanceof PostingList ? ((PostingList) slot).size() : 1;
         }
-        
+
+        /**
+         * Gets one of the values stored under the key in the given slot
+         *
+         * @param index the slot to read
+         * @param position the position of the value among the slot's values
+         * @return the value
+         */
+        @SuppressWarnings("unchecked")
+        V valueAt(int index, int position) {
+            Object slot = values[index];
+            return (V) (slot instanceof PostingList ? ((PostingList) slot).get(position) : slot);
+        }
+
         /**
-         * Inserts key and value in the appropriate node 
-         * The splitting to balance the node if required is handled by the insert function in the 
-         * main B Tree class since it knows what the parent is 
-         *  
+         * Gets the first key of the leaf
+         *
+         * @return key- the lowest value in the leaf
+         */
+        K getFirstLeafKey() {
+            return keyAt(0);
+        }
+
+        /**
+         * Inserts key and value in the appropriate slot of this leaf
+         * The splitting to balance the node if required is handled by the
+         * parent since it knows where the leaf sits
+         *
          * @param key- the key to insert into the node (will determine the ordering)
          * @param value- the value to associate with the given key
          */
         void insert(K key, V value) {
-        	int index = 0;
-        	for (K currKey : keys) { //Loop over all the keys to determine where to insert the new key (basically, find the point where the keys are bigger than the new one)
-        		if (currKey.compareTo(key) < 0) {
-        			index++;
-        		}
-        	}
-        	keys.add(index, key); //Add the key at the specified place--this ensures our key linked list is sorted
-            values.add(index, value);
-        }
-        
-        /**
-         * Gets the new parent created after splitting the node
-         * 
+            int index = lowerBound(key);
+            if (index < numKeys && keyAt(index).compareTo(key) == 0) { //The key is already here, so add to the end of its postings
+                Object slot = values[index];
+                if (slot instanceof PostingList) {
+                    writablePostings(index).add(value);
+                }
+                else {
+                    values[index] = new PostingList(slot, value, writeVersion);
+                }
+                return;
+            }
+            System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+            System.arraycopy(values, index, values, index + 1, numKeys - index);
+            keys[index] = key;
+            values[index] = value;
+            numKeys++;
+        }
+
+        /**
+         * Gets the new parent created after splitting the node.  The current
+         * leaf keeps the lower half (including the median) and a new leaf to
+         * its right takes the rest.
+         *
          * @return Node- the new parent created after splitting the node
          */
         Node split() {
-            LeafNode currPrev = previous; 
-            LeafNode currNext = next;
-            LeafNode left = new LeafNode(); //Get two new nodes for the split of the values
+            int medianIndex = numKeys / 2; //Find the median index--should be the middle of our key array since it's sorted
+            K median = keyAt(medianIndex);
             LeafNode right = new LeafNode();
 
-            int medianIndex = (int)(keys.size()/2); //Find the median index--should be the middle of our key list since it's sorted
-            K median = keys.get(medianIndex);
-            InternalNode newParent = new InternalNode(median); //Make a new internal node for the promoted key and go ahead and add it
-            
-            newParent.children.add(left); //Link the new parent to the two new leaf nodes
-            newParent.children.add(right);
-            
-            for (int i = 0; i <= medianIndex; i++) { //Add all the values in the keys list that are less than the median to the new left child
-            	left.insert(keys.get(i), values.get(i));
-            }
-            
-            for (int j = (medianIndex + 1); j < keys.size(); j++) { //Add the second half of the values to the new right child
-            	right.insert(keys.get(j), values.get(j));
-            }
-            
-            left.previous = currPrev; //Reset all the previous and next nodes correctly
-            left.next = right;
-            right.previous = left;
-            right.next = currNext;
-            if (currPrev != null) {
-            	currPrev.next = left;
-            }
-            if (currNext != null) {
-            	currNext.previous = right;
-            }
-            
-            
-            return newParent;
-        }
-        
-        /**
-         * Gets the values that satisfy the given range 
-         * search arguments.
-         * 
-         * Value of comparator can be one of these: 
-         * "<=", "==", ">="
-         * 
-         * Example:
-         *     If given key = 2.5 and comparator = ">=":
-         *         return all the values with the corresponding 
-         *      keys >= 2.5
-         *      
-         * If key is null or not found, return empty list.
-         * If comparator is null, empty, or not according
-         * to required form, return empty list.
-         * 
-         * @param key to be searched
-         * @param comparator is a string
-         * @return list of values that are the result of the 
-         * range search; if nothing found, return empty list
-         */
-        List<V> rangeSearch(K key, String comparator) {
-            List<V> matchedValues = new LinkedList<V>();
-            K currKey;
-            if (comparator.contentEquals("==")) { //Start by looping over all the keys to see which equal the compared key
-            	for (int i = 0; i < keys.size(); i++) {
-            		currKey = keys.get(i);
-            		if (currKey.compareTo(key) == 0) {
-            			matchedValues.add(values.get(i));
-            		}
-            		else if (currKey.compareTo(key) > 0) {
-            			break; //Quit looping when we hit a key that's bigger than the one we're looking for
-            		}
-            	}
-            }
-            else if (comparator.contentEquals("<=")) { //Now check which keys are less than or equal to the compared key
-            	for (int j = 0; j < keys.size(); j++) {
-            		currKey = keys.get(j);
-            		if (currKey.compareTo(key) <= 0) {
-            			matchedValues.add(values.get(j));
-            		}
-            		else if (currKey.compareTo(key) > 0) {
-            			break; //Quit looping when we hit a key that's bigger than the one we're looking for
-            		}
-            	}
-            }
-            else if (comparator.contentEquals(">=")) { //Now find the values with keys greater than the compared to key (search the other way through the keys list so we can stop if the keys get too small)
-            	for (int l = keys.size() - 1 ; l >= 0; l--) {
-            		currKey = keys.get(l);
-            		if (currKey.compareTo(key) >= 0) {
-            			matchedValues.add(values.get(l));
-            		}
-            		else if (currKey.compareTo(key) < 0) {
-            			break; //Quit looping when we hit a key that's smaller than the one we're looking for
-            		}
-            	}
-            }
-            return matchedValues;
-        }
-        
+            int numRightKeys = numKeys - medianIndex - 1;
+            System.arraycopy(keys, medianIndex + 1, right.keys, 0, numRightKeys); //Move the second half straight over to the new right leaf
+            System.arraycopy(values, medianIndex + 1, right.values, 0, numRightKeys);
+            right.numKeys = numRightKeys;
+            Arrays.fill(keys, medianIndex + 1, numKeys, null);
+            Arrays.fill(values, medianIndex + 1, numKeys, null);
+            numKeys = medianIndex + 1;
+
+            return new InternalNode(median, this, right);
+        }
+
+        /**
+         * Removes one entry with the given key and value from this leaf
+         *
+         * @param key the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        boolean delete(K key, V value) {
+            int index = lowerBound(key);
+            if (index == numKeys || keyAt(index).compareTo(key) != 0) {
+                return false;
+            }
+            Object slot = values[index];
+            if (slot instanceof PostingList) { //Other values share the key, so the slot stays
+                PostingList postings = writablePostings(index);
+                if (!postings.remove(value)) {
+                    return false;
+                }
+                if (postings.size() == 1) {
+                    values[index] = postings.get(0);
+                }
+                return true;
+            }
+            if (!Objects.equals(slot, value)) {
+                return false;
+            }
+            System.arraycopy(keys, index + 1, keys, index, numKeys - index - 1);
+            System.arraycopy(values, index + 1, values, index, numKeys - index - 1);
+            numKeys--;
+            keys[numKeys] = null;
+            values[numKeys] = null;
+            return true;
+        }
+
+        /**
+         * Moves the left sibling's last entry to the front of this leaf
+         *
+         * @see Node#borrowFromLeft
+         */
+        void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex) {
+            LeafNode left = (LeafNode) leftSibling;
+            System.arraycopy(keys, 0, keys, 1, numKeys);
+            System.arraycopy(values, 0, values, 1, numKeys);
+            left.numKeys--;
+            keys[0] = left.keys[left.numKeys];
+            values[0] = left.values[left.numKeys];
+            numKeys++;
+            left.keys[left.numKeys] = null;
+            left.values[left.numKeys] = null;
+            parent.keys[separatorIndex] = left.keys[left.numKeys - 1]; //The separator is always the largest key on its left
+        }
+
+        /**
+         * Moves the right sibling's first entry to the end of this leaf
+         *
+         * @see Node#borrowFromRight
+         */
+        void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex) {
+            LeafNode right = (LeafNode) rightSibling;
+            keys[numKeys] = right.keys[0];
+            values[numKeys] = right.values[0];
+            numKeys++;
+            right.numKeys--;
+            System.arraycopy(right.keys, 1, right.keys, 0, right.numKeys);
+            System.arraycopy(right.values, 1, right.values, 0, right.numKeys);
+            right.keys[right.numKeys] = null;
+            right.values[right.numKeys] = null;
+            parent.keys[separatorIndex] = keys[numKeys - 1];
+        }
+
+        /**
+         * Appends the right sibling's entries to this leaf
+         *
+         * @see Node#mergeWithRight
+         */
+        void mergeWithRight(Node rightSibling, K separator) {
+            LeafNode right = (LeafNode) rightSibling;
+            System.arraycopy(right.keys, 0, keys, numKeys, right.numKeys);
+            System.arraycopy(right.values, 0, values, numKeys, right.numKeys);
+            numKeys += right.numKeys;
+        }
+
     } // End of class LeafNode
-    
-    
+
+
+    /**
+     * Cursor that walks the leaves from a lower bound up to an optional upper
+     * bound, handing out one value at a time.  Leaves are not linked to each
+     * other, so that a leaf can be shared by several versions of the tree;
+     * instead the cursor keeps the path of internal nodes down to its leaf
+     * and climbs back up that path to reach the next one.
+     */
+    private class RangeCursor implements Cursor<V> {
+
+        // Internal nodes on the path from the root to the current leaf
+        private final List<InternalNode> path;
+
+        // Slot of the child followed at each internal node on the path
+        private final int[] slots;
+
+        // Leaf the cursor is reading, null once the range is used up
+        private LeafNode leaf;
+
+        // Slot in the leaf of the next value to hand out
+        private int index;
+
+        // Position of the next value among the values stored in that slot
+        private int position;
+
+        // Slot in the leaf where the range stops
+        private int end;
+
+        // True if the upper bound falls inside the current leaf, so nothing after it is in range
+        private boolean lastLeaf;
+
+        // Upper bound of the range, or null if the range has no upper bound
+        private final K high;
+
+        // True if keys equal to high are in the range
+        private final boolean highInclusive;
+
+        // Number of values the cursor may still produce
+        private long remaining;
+
+        /**
+         * Package constructor
+         *
+         * @param start the root of the tree to read, or null for an empty cursor
+         * @param low the lower bound, or null for no lower bound
+         * @param lowInclusive true if keys equal to low are included
+         * @param high the upper bound, or null for no upper bound
+         * @param highInclusive true if keys equal to high are included
+         */
+        RangeCursor(Node start, K low, boolean lowInclusive, K high, boolean highInclusive) {
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.remaining = Long.MAX_VALUE;
+            int height = 0;
+            for (Node node = start; node instanceof BPTree.InternalNode; node = ((InternalNode) node).child(0)) {
+                height++; //Every leaf is at the same depth, so the leftmost path gives the height
+            }
+            this.path = new ArrayList<InternalNode>(height);
+            this.slots = new int[height];
+            if (start == null) {
+                return;
+            }
+
+            //Descend to the leaf where the range starts, remembering the way back up
+            Node node = start;
+            while (node instanceof BPTree.InternalNode) {
+                InternalNode internal = (InternalNode) node;
+                int slot = low == null ? 0 : lowInclusive ? internal.lowerBound(low) : internal.upperBound(low);
+                slots[path.size()] = slot;
+                path.add(internal);
+                node = internal.child(slot);
+            }
+            LeafNode startingLeaf = (LeafNode) node;
+            int startingIndex = low == null ? 0
+                : lowInclusive ? startingLeaf.lowerBound(low) : startingLeaf.upperBound(low);
+            enterLeaf(startingLeaf, startingIndex);
+        }
+
+        /**
+         * Finds the leaf after the current one by climbing the path until a
+         * node has a child further right, then descending along the leftmost
+         * children of that child
+         *
+         * @return the next leaf, or null if the current leaf is the last
+         */
+        private LeafNode nextLeaf() {
+            int depth = path.size();
+            while (depth > 0 && slots[depth - 1] == path.get(depth - 1).numKeys) {
+                depth--;
+            }
+            if (depth == 0) {
+                return null;
+            }
+            slots[depth - 1]++;
+            Node node = path.get(depth - 1).child(slots[depth - 1]);
+            while (depth < path.size()) {
+                InternalNode internal = (InternalNode) node;
+                path.set(depth, internal);
+                slots[depth] = 0;
+                node = internal.child(0);
+                depth++;
+            }
+            return (LeafNode) node;
+        }
+
+        /**
+         * Positions the cursor at the given slot, moving on through the leaves
+         * until it finds a slot that is still in range
+         *
+         * @param nextLeaf the leaf to move to
+         * @param startingIndex the slot to start at in that leaf
+         */
+        private void enterLeaf(LeafNode nextLeaf, int startingIndex) {
+            leaf = nextLeaf;
+            index = startingIndex;
+            position = 0;
+            while (leaf != null) {
+                end = leaf.numKeys;
+                lastLeaf = high != null && end > 0 && isPastHigh(leaf.keyAt(end - 1)); //Only compare against the bound once per leaf
+                if (lastLeaf) {
+                    end = highInclusive ? leaf.upperBound(high) : leaf.lowerBound(high);
+                }
+                if (index < end) {
+                    return;
+                }
+                leaf = lastLeaf ? null : nextLeaf();
+                index = 0;
+            }
+        }
+
+        /**
+         * Determines if a key is beyond the upper bound of the range
+         *
+         * @param key the key to check
+         * @return true if key is out of range
+         */
+        private boolean isPastHigh(K key) {
+            int order = key.compareTo(high);
+            return highInclusive ? order > 0 : order >= 0;
+        }
+
+        /**
+         * Moves by up to n values within the current leaf
+         *
+         * @param n the most values to move by
+         * @return the number of values actually moved by
+         */
+        private long advance(long n) {
+            long target = Math.min(n, remaining);
+            long step = 0;
+            while (step < target && index < end) {
+                int left = leaf.postingSize(index) - position; //Values left in the current slot
+                if (target - step < left) {
+                    position += (int) (target - step);
+                    step = target;
+                }
+                else {
+                    step += left;
+                    index++;
+                    position = 0;
+                }
+            }
+            remaining -= step;
+            if (index >= end) {
+                enterLeaf(lastLeaf ? null : nextLeaf(), 0);
+            }
+            return step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && remaining > 0;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V value = leaf.valueAt(index, position);
+            advance(1);
+            return value;
+        }
+
+        @Override
+        public Cursor<V> skip(long n) {
+            while (n > 0 && hasNext()) {
+                n -= advance(n); //Skips a whole leaf's worth of values at a time
+            }
+            return this;
+        }
+
+        @Override
+        public Cursor<V> limit(long n) {
+            if (n < 0) {
+                throw new IllegalArgumentException("Illegal limit: " + n);
+            }
+            remaining = n;
+            return this;
+        }
+
+        @Override
+        public long count() {
+            long numValues = 0;
+            while (hasNext()) {
+                numValues += advance(Long.MAX_VALUE);
+            }
+            return numValues;
+        }
+
+    } // End of class RangeCursor
+
+
     /**
      * Contains a basic test scenario for a BPTree instance.
      * It shows a simple example of the use of this class
      * and its related types.
-     * 
+     *
      * @param args
      */
     public static void main(String[] args) {
@@ -615,7 +1563,7 @@ public class BPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V> {
         Double[] dd = {0.0d, 0.5d, 0.2d, 0.8d};
 
         // build an ArrayList of those value and add to BPTree also
-        // allows for comparing the contents of the ArrayList 
+        // allows for comparing the contents of the ArrayList
         // against the contents and functionality of the BPTree
         // does not ensure BPTree is implemented correctly
         // just that it functions as a data structure with
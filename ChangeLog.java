@@ -0,0 +1,681 @@
+package application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a FoodData, so a single edit is
+ * made durable by appending one small record instead of rewriting the whole
+ * catalog.
+ *
+ * Every record holds a sequence number, the operation and the food (or, for
+ * a removal, just the id), framed by its length and a CRC-32.  When the log
+ * is opened its records are replayed in order, skipping the ones a snapshot
+ * already includes, and anything after the last complete record (left by a
+ * crash in the middle of a write) is cut off.
+ *
+ * Appends use group commit: a thread that finds no write in progress writes
+ * every record appended so far, with a single fsync, while the threads that
+ * arrive during that write queue up behind it and go out together in the
+ * next one.  The SyncPolicy decides how often the log is forced to disk.
+ * A writer that holds a lock of its own while it logs a change can split
+ * the append in two, queueing the record with enqueue() under its lock and
+ * calling awaitDurable() once it has let go, so the writers that were
+ * waiting on its lock get their records into the same batch.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class ChangeLog implements Closeable {
+
+    /**
+     * How often appended records are forced to disk
+     */
+    public enum SyncPolicy {
+        // Every append waits until its record is on disk (appends that arrive together share an fsync)
+        ALWAYS,
+        // Appends are written to the OS right away and forced to disk on a timer, so a power failure can
+        // lose the last interval of changes but a crash of the program can't
+        PERIODIC,
+        // Appends are written to the OS right away and only forced to disk when the log is closed or
+        // checkpointed
+        NEVER
+    }
+
+    /**
+     * The kinds of change a record can hold
+     */
+    public enum Operation {
+        ADD(1), UPDATE(2), REMOVE(3);
+
+        // Byte identifying the operation in a record
+        private final byte code;
+
+        /**
+         * Constructor
+         *
+         * @param code the byte identifying the operation in a record
+         */
+        Operation(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Finds the operation a record byte stands for
+         *
+         * @param code the byte from a record
+         * @return the operation, or null if no operation has that code
+         */
+        static Operation forCode(byte code) {
+            for (Operation operation : values()) {
+                if (operation.code == code) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Receives the changes read back from the log when it is opened
+     */
+    public interface Replayer {
+
+        /**
+         * Applies one change
+         *
+         * @param sequence the sequence number of the change
+         * @param operation what the change does
+         * @param id the id of the food that changed
+         * @param food the food that was added or updated, or null for a removal
+         * @throws IOException if the change can't be applied
+         */
+        void replay(long sequence, Operation operation, String id, FoodItem food) throws IOException;
+    }
+
+    // First four bytes of every log file ("FDCL")
+    private static final int MAGIC = 0x4644434C;
+
+    // Version of the record layout
+    private static final int VERSION = 1;
+
+    // Number of bytes before the first record
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    // Number of bytes framing each record: its length and its checksum
+    private static final int FRAME_SIZE = 2 * Integer.BYTES;
+
+    // Default time between forced writes under SyncPolicy.PERIODIC
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 200;
+
+    // The log file
+    private final FileChannel channel;
+
+    // How often appended records are forced to disk
+    private final SyncPolicy policy;
+
+    // Forces the log to disk on a timer under SyncPolicy.PERIODIC, null otherwise
+    private final ScheduledExecutorService syncTimer;
+
+    // Guards everything below, and is waited on by appends queued behind a write
+    private final Object lock = new Object();
+
+    // Records appended but not written yet
+    private ByteArrayOutputStream pending;
+
+    // Sequence number of the last record appended
+    private long lastSequence;
+
+    // Sequence number of the last record written to the file
+    private long writtenSequence;
+
+    // Sequence number of the last record forced to disk
+    private long syncedSequence;
+
+    // Whether a thread is writing right now
+    private boolean writing;
+
+    // Number of bytes in the file, including records being written
+    private long size;
+
+    // The error that broke the log, after which nothing more can be appended
+    private IOException failure;
+
+    // Whether the log has been closed
+    private boolean closed;
+
+    /**
+     * Private constructor, logs are opened with open()
+     */
+    private ChangeLog(FileChannel channel, SyncPolicy policy, long syncIntervalMillis,
+        long lastSequence, long size) {
+        this.channel = channel;
+        this.policy = policy;
+        this.pending = new ByteArrayOutputStream();
+        this.lastSequence = lastSequence;
+        this.writtenSequence = lastSequence;
+        this.syncedSequence = lastSequence;
+        this.size = size;
+        if (policy == SyncPolicy.PERIODIC) {
+            syncTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "change-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncTimer.scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                }
+                catch (IOException e) {
+                    //The failure is kept and reported to the next append
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            syncTimer = null;
+        }
+    }
+
+    /**
+     * Opens a log, creating it if it doesn't exist, and replays the changes
+     * made after the given sequence number
+     *
+     * @param file the log file
+     * @param policy how often appended records are forced to disk
+     * @param appliedSequence the sequence number of the last change already applied (0 if none)
+     * @param replayer receives each change after appliedSequence, in order
+     * @return the log, ready for appends
+     * @throws IOException if the file can't be read or isn't a change log, or
+     *         the replayer fails
+     */
+    public static ChangeLog open(Path file, SyncPolicy policy, long appliedSequence,
+        Replayer replayer) throws IOException {
+        return open(file, policy, DEFAULT_SYNC_INTERVAL_MILLIS, appliedSequence, replayer);
+    }
+
+    /**
+     * Opens a log, creating it if it doesn't exist, and replays the changes
+     * made after the given sequence number
+     *
+     * @param file the log file
+     * @param policy how often appended records are forced to disk
+     * @param syncIntervalMillis time between forced writes under SyncPolicy.PERIODIC
+     * @param appliedSequence the sequence number of the last change already applied (0 if none)
+     * @param replayer receives each change after appliedSequence, in order
+     * @return the log, ready for appends
+     * @throws IOException if the file can't be read or isn't a change log, or
+     *         the replayer fails
+     */
+    public static ChangeLog open(Path file, SyncPolicy policy, long syncIntervalMillis,
+        long appliedSequence, Replayer replayer) throws IOException {
+        if (policy == SyncPolicy.PERIODIC && syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Illegal sync interval: " + syncIntervalMillis);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long lastSequence = appliedSequence;
+            long end;
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(channel, header, 0);
+                channel.force(true);
+                end = HEADER_SIZE;
+            }
+            else {
+                //Read rather than map the file, since a mapped file can't be truncated on every platform
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+                if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                    throw new IOException("Not a change log: " + file);
+                }
+                int version = header.getInt(Integer.BYTES);
+                if (version != VERSION) {
+                    throw new IOException("Unsupported change log version " + version + ": " + file);
+                }
+                end = HEADER_SIZE;
+                RecordReader in = new RecordReader(channel, HEADER_SIZE);
+                ByteBuffer payload;
+                while ((payload = in.next()) != null) {
+                    long sequence = payload.getLong();
+                    Operation operation = Operation.forCode(payload.get());
+                    if (operation == null) {
+                        throw new IOException("Unknown operation in change log: " + file);
+                    }
+                    String id;
+                    FoodItem food = null;
+                    try {
+                        if (operation == Operation.REMOVE) {
+                            id = SnapshotCodec.readString(payload);
+                        }
+                        else {
+                            food = FoodItem.CODEC.read(payload);
+                            id = food.getID();
+                        }
+                    }
+                    catch (BufferUnderflowException e) {
+                        throw new IOException("Malformed record in change log: " + file, e);
+                    }
+                    if (sequence > appliedSequence) {
+                        replayer.replay(sequence, operation, id, food);
+                    }
+                    lastSequence = Math.max(lastSequence, sequence);
+                    end = in.getPosition();
+                }
+                if (end < channel.size()) {
+                    channel.truncate(end); //Drop the torn record a crash left behind
+                    channel.force(true);
+                }
+            }
+            return new ChangeLog(channel, policy, syncIntervalMillis, lastSequence, end);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the records of a log one after another.  The file is read in
+     * blocks into a heap buffer, which is grown when a record doesn't fit.
+     */
+    private static class RecordReader {
+
+        // Bytes read from the file at a time, unless a record is larger
+        private static final int BLOCK_SIZE = 64 * 1024;
+
+        // The log file
+        private final FileChannel channel;
+
+        // Size of the log file
+        private final long fileSize;
+
+        // Bytes of the file from bufferStart, up to the buffer's limit
+        private ByteBuffer buffer;
+
+        // Position in the file of the buffer's first byte
+        private long bufferStart;
+
+        // Position in the file of the next record
+        private long position;
+
+        /**
+         * Private constructor
+         *
+         * @param channel the log file
+         * @param position position in the file of the first record
+         * @throws IOException if the file's size can't be read
+         */
+        private RecordReader(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            this.buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            this.buffer.limit(0);
+            this.bufferStart = position;
+            this.position = position;
+        }
+
+        /**
+         * Accessor for position
+         *
+         * @return the position in the file just after the last good record
+         */
+        private long getPosition() {
+            return position;
+        }
+
+        /**
+         * Reads the next complete record, checking its length and checksum
+         *
+         * @return the record's payload, which is only valid until the next
+         *         call, or null if there are no more complete records (the
+         *         reader is left at the end of the last good one)
+         * @throws IOException if the file can't be read
+         */
+        private ByteBuffer next() throws IOException {
+            if (!fill(FRAME_SIZE)) {
+                return null;
+            }
+            int offset = (int) (position - bufferStart);
+            int length = buffer.getInt(offset);
+            int checksum = buffer.getInt(offset + Integer.BYTES);
+            if (length <= 0 || length > fileSize - position - FRAME_SIZE
+                || length > Integer.MAX_VALUE - FRAME_SIZE || !fill(FRAME_SIZE + length)) {
+                return null;
+            }
+            offset = (int) (position - bufferStart); //Filling may have moved the buffer along
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(offset + FRAME_SIZE + length).position(offset + FRAME_SIZE);
+            payload = payload.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            position += FRAME_SIZE + length;
+            return payload;
+        }
+
+        /**
+         * Makes sure the buffer holds the given number of bytes from the
+         * next record on, reading them from the file if it doesn't yet
+         *
+         * @param count the number of bytes needed
+         * @return true if they are in the buffer, false if the file ends first
+         * @throws IOException if the file can't be read
+         */
+        private boolean fill(int count) throws IOException {
+            if (fileSize - position < count) {
+                return false;
+            }
+            if (position - bufferStart + count <= buffer.limit()) {
+                return true;
+            }
+            if (count > buffer.capacity()) {
+                buffer = ByteBuffer.allocate(count);
+            }
+            buffer.clear();
+            bufferStart = position;
+            readFully(channel, buffer, position);
+            buffer.flip();
+            return buffer.limit() >= count;
+        }
+    }
+
+    /**
+     * Gets the size of the log file, including records not written yet
+     *
+     * @return the number of bytes in the log
+     */
+    public long size() {
+        synchronized (lock) {
+            return size + pending.size();
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last record appended
+     *
+     * @return the last sequence number, or the one the log was opened after if nothing has been appended
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Appends a change and waits until it is as durable as the sync policy
+     * promises: on disk under ALWAYS, written to the OS otherwise
+     *
+     * @param operation what the change does
+     * @param id the id of the food that changed
+     * @param food the food that was added or updated, or null for a removal
+     * @return the sequence number of the change
+     * @throws IOException if the change can't be written, or an earlier write broke the log
+     */
+    public long append(Operation operation, String id, FoodItem food) throws IOException {
+        long sequence = enqueue(operation, id, food);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Queues a change to be written by the next batch without waiting for
+     * it.  The change isn't durable until awaitDurable() returns for its
+     * sequence number, or the log is synced.
+     *
+     * @param operation what the change does
+     * @param id the id of the food that changed
+     * @param food the food that was added or updated, or null for a removal
+     * @return the sequence number of the change
+     * @throws IOException if the log is closed, or an earlier write broke it
+     */
+    public long enqueue(Operation operation, String id, FoodItem food) throws IOException {
+        long sequence;
+        synchronized (lock) {
+            checkUsable();
+            sequence = ++lastSequence;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); //Length and checksum, filled in once the payload is known
+            out.writeInt(0);
+            out.writeLong(sequence);
+            out.writeByte(operation.code);
+            if (operation == Operation.REMOVE) {
+                SnapshotCodec.writeString(out, id);
+            }
+            else {
+                FoodItem.CODEC.write(out, food);
+            }
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, FRAME_SIZE, record.length - FRAME_SIZE);
+            ByteBuffer.wrap(record).putInt(0, record.length - FRAME_SIZE).putInt(4, (int) crc.getValue());
+            pending.write(record);
+        }
+        return sequence;
+    }
+
+    /**
+     * Waits until a queued change is as durable as the sync policy promises:
+     * on disk under ALWAYS, written to the OS otherwise.  Every change queued
+     * by then goes out in the same write.
+     *
+     * @param sequence the sequence number enqueue() returned for the change
+     * @throws IOException if the change can't be written, or an earlier write broke the log
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        flush(sequence, policy == SyncPolicy.ALWAYS);
+    }
+
+    /**
+     * Writes every record appended so far and forces the log to disk
+     *
+     * @throws IOException if the log can't be written
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            sequence = lastSequence;
+        }
+        flush(sequence, true);
+    }
+
+    /**
+     * Empties the log once everything in it has been saved elsewhere (in a
+     * snapshot).  Sequence numbers carry on from where they were, so a
+     * snapshot that was saved before a crash cut this short still knows
+     * which records it already holds.
+     *
+     * @throws IOException if the log can't be truncated
+     */
+    public void truncate() throws IOException {
+        sync();
+        synchronized (lock) {
+            checkUsable();
+            while (writing) {
+                waitForWriter();
+            }
+            if (pending.size() > 0) {
+                throw new IllegalStateException("Records were appended while the log was being truncated");
+            }
+            channel.truncate(HEADER_SIZE);
+            channel.force(true);
+            size = HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Forces every record to disk and closes the log
+     *
+     * @throws IOException if the log can't be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncTimer != null) {
+            syncTimer.shutdown(); //Not shutdownNow(), interrupting a thread in the middle of a write closes the channel
+            try {
+                syncTimer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean broken;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            broken = failure != null;
+        }
+        try {
+            if (!broken) {
+                sync();
+            }
+        }
+        finally {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes sure a record is written, and forced to disk if asked.  If
+     * another thread is already writing, this waits for it and then checks
+     * again, since that write may have covered the record; otherwise this
+     * thread writes everything pending in one go.
+     *
+     * @param sequence the sequence number of the record
+     * @param force whether the record has to be on disk
+     * @throws IOException if the log can't be written
+     */
+    private void flush(long sequence, boolean force) throws IOException {
+        byte[] batch;
+        long batchSequence;
+        long position;
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (force ? syncedSequence >= sequence : writtenSequence >= sequence) {
+                    return;
+                }
+                if (!writing) {
+                    break;
+                }
+                waitForWriter();
+            }
+            writing = true;
+            batch = pending.toByteArray();
+            pending.reset();
+            batchSequence = lastSequence;
+            position = size;
+            size += batch.length;
+        }
+        try {
+            writeFully(channel, ByteBuffer.wrap(batch), position);
+            if (force) {
+                channel.force(false);
+            }
+        }
+        catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+                writing = false;
+                lock.notifyAll();
+            }
+            throw e;
+        }
+        synchronized (lock) {
+            writtenSequence = batchSequence;
+            if (force) {
+                syncedSequence = batchSequence;
+            }
+            writing = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the thread that is writing to finish, called holding the lock
+     *
+     * @throws IOException if the wait is interrupted
+     */
+    private void waitForWriter() throws IOException {
+        try {
+            lock.wait();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the change log", e);
+        }
+    }
+
+    /**
+     * Checks that records can still be appended, called holding the lock
+     *
+     * @throws IOException if the log is closed or broken
+     */
+    private void checkUsable() throws IOException {
+        if (closed) {
+            throw new IOException("Change log is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes all of a buffer at a position in a file
+     *
+     * @param channel the file
+     * @param buffer the bytes to write
+     * @param position where to write them
+     * @throws IOException if the bytes can't be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Reads a file from a position into a buffer until the buffer is full
+     * or the file ends
+     *
+     * @param channel the file
+     * @param buffer the buffer to fill
+     * @param position where to start reading
+     * @throws IOException if the file can't be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * A FoodData that can be shared by many threads, such as the workers of a
+ * request handler serving one catalog.
+ *
+ * Edits, loads and checkpoints take the write side of a StampedLock, one
+ * at a time; a load only takes it once its file has been parsed.  Lookups
+ * that only touch the id map (getFoodItem() and size()) start with an
+ * optimistic read: they run without taking the lock and keep their answer
+ * only if no edit started in the meantime, falling back to the read lock
+ * otherwise, so the most common reads never even write to the lock.
+ *
+ * Every other query runs on a published snapshot of the foods (see
+ * FoodData.snapshot()) held in a volatile field, without taking any lock,
+ * so queries never keep edits waiting, nor wait for them, and results are
+ * never read while another thread changes the indexes under them.  The
+ * snapshot is taken lazily: an edit or load only clears the published
+ * snapshot, and the first query after it takes a new one under the write
+ * lock, which costs the same however many foods there are.  A run of edits
+ * with no query in between therefore takes no snapshots at all, and after a
+ * snapshot each edit copies only the tree nodes on its path and the chunks
+ * of the other structures it changes.  As with FoodData, a food item must
+ * not be changed after it has been added.
+ *
+ * A catalog opened with openDurable() logs every edit under the write lock
+ * but only waits for the log write once it has let go of the lock, so the
+ * edits that were waiting for the lock queue their records in the meantime
+ * and the change log writes and forces them together (group commit).  An
+ * edit is therefore visible to queries a moment before it is durable, and
+ * if that write fails the edit stays applied in memory, while the log
+ * refuses every edit after it.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class ConcurrentFoodData extends FoodData {
+
+    // Guards every index; edits take the write side and queries on the live indexes the read side
+    private final StampedLock lock = new StampedLock();
+
+    // Snapshot of the foods as they are now, or null if they have changed since the last one
+    private volatile FoodSnapshot published;
+
+    // Change log and sequence number of the change logged by the edit holding the write lock, which
+    // it waits for once it has let go of the lock; the log is null if the edit logged nothing
+    private ChangeLog unsyncedLog;
+    private long unsyncedSequence;
+
+
+    /**
+     * Public constructor
+     */
+    public ConcurrentFoodData() {
+        super();
+    }
+
+    /**
+     * Public constructor that stores the nutrient index keys as fixed point
+     * integers
+     *
+     * @param nutrientDecimalPlaces the number of decimal places to keep for
+     *        nutrient index keys, or -1 to store them as floating point
+     */
+    public ConcurrentFoodData(int nutrientDecimalPlaces) {
+        super(nutrientDecimalPlaces);
+    }
+
+    /**
+     * Opens a catalog shared between threads whose edits are kept durable
+     * in a directory, as FoodData.openDurable() does
+     *
+     * @param directory the directory holding the snapshot and the log
+     * @param policy how often the log is forced to disk
+     * @return the catalog, holding every change that made it into the log
+     * @throws IOException if the snapshot or the log can't be read
+     * @see FoodData#openDurable(Path, ChangeLog.SyncPolicy)
+     */
+    public static ConcurrentFoodData openDurable(Path directory, ChangeLog.SyncPolicy policy)
+        throws IOException {
+        return openDurable(directory, policy, DEFAULT_CHECKPOINT_LOG_BYTES);
+    }
+
+    /**
+     * Opens a catalog shared between threads whose edits are kept durable
+     * in a directory, checkpointing the change log once it grows past the
+     * given size
+     *
+     * @param directory the directory holding the snapshot and the log
+     * @param policy how often the log is forced to disk
+     * @param checkpointLogBytes size the log can grow to before it is folded into a new snapshot
+     * @return the catalog, holding every change that made it into the log
+     * @throws IOException if the snapshot or the log can't be read
+     * @see FoodData#openDurable(Path, ChangeLog.SyncPolicy, long)
+     */
+    public static ConcurrentFoodData openDurable(Path directory, ChangeLog.SyncPolicy policy,
+        long checkpointLogBytes) throws IOException {
+        return FoodData.openDurable(directory, policy, checkpointLogBytes, ConcurrentFoodData::new);
+    }
+
+
+    /**
+     * Runs a query under the read lock
+     *
+     * @param query the query to run
+     * @return what the query returns
+     */
+    @Override
+    <T> T read(Supplier<T> query) {
+        long stamp = lock.readLock();
+        try {
+            return query.get();
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs a short query without locking, then runs it again under the read
+     * lock if an edit overlapped it.  The query may see the indexes halfway
+     * through an edit, so it must not loop over them or hand out anything it
+     * read before the stamp is validated.
+     *
+     * @param query the query to run
+     * @return what the query returns
+     */
+    private <T> T readOptimistically(Supplier<T> query) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) { //Zero means an edit holds the write lock right now
+            try {
+                T result = query.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+            catch (RuntimeException e) {
+                //An edit changed the map under the read; the read lock below gives a consistent answer
+            }
+        }
+        return read(query);
+    }
+
+    /**
+     * Runs an edit under the write lock, then clears the published snapshot
+     * before letting go of the lock, so the next query takes a new one.  If
+     * the edit logged a change, this waits for the log write only after
+     * letting go, so other edits can queue theirs for the same write.
+     *
+     * @param edit the edit to run
+     * @return what the edit returns
+     */
+    private <T> T write(Supplier<T> edit) {
+        long stamp = lock.writeLock();
+        T result;
+        ChangeLog changeLog;
+        long sequence;
+        try {
+            result = edit.get();
+        }
+        finally {
+            changeLog = unsyncedLog;
+            sequence = unsyncedSequence;
+            unsyncedLog = null;
+            published = null;
+            lock.unlockWrite(stamp);
+        }
+        if (changeLog != null) {
+            super.awaitLogged(changeLog, sequence);
+        }
+        return result;
+    }
+
+    /**
+     * Notes the change an edit logged instead of waiting for it, since the
+     * edit still holds the write lock; write() waits for it once it has let
+     * go of the lock
+     *
+     * @see FoodData#awaitLogged(ChangeLog, long)
+     */
+    @Override
+    void awaitLogged(ChangeLog changeLog, long sequence) {
+        unsyncedLog = changeLog;
+        unsyncedSequence = sequence;
+    }
+
+
+    /**
+     * Installs the foods of a load under the write lock.  The file has
+     * already been parsed by then, without the lock, so queries only wait
+     * while the indexes are built.
+     *
+     * @see FoodData#replaceFoods(java.util.List, java.util.concurrent.ForkJoinPool)
+     */
+    @Override
+    void replaceFoods(List<FoodItem> loadedFoods, ForkJoinPool pool) {
+        write(() -> {
+            super.replaceFoods(loadedFoods, pool);
+            return null;
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#filterByName(java.lang.String)
+     */
+    @Override
+    public List<FoodItem> filterByName(String substring) {
+        return snapshot().filterByName(substring);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#filterByNutrients(java.util.List, long, long)
+     */
+    @Override
+    public List<FoodItem> filterByNutrients(List<String> rules, long skip, long limit) {
+        return snapshot().filterByNutrients(rules, skip, limit);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#addFoodItem(FoodItem)
+     */
+    @Override
+    public void addFoodItem(FoodItem foodItem) {
+        write(() -> {
+            super.addFoodItem(foodItem);
+            return null;
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#removeFoodItem(java.lang.String)
+     */
+    @Override
+    public FoodItem removeFoodItem(String id) {
+        return write(() -> super.removeFoodItem(id));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#updateFoodItem(FoodItem)
+     */
+    @Override
+    public void updateFoodItem(FoodItem foodItem) {
+        write(() -> {
+            super.updateFoodItem(foodItem);
+            return null;
+        });
+    }
+
+    /**
+     * Gets the published snapshot, without locking unless the foods have
+     * changed since it was taken.  Then a new snapshot is taken under the
+     * write lock, since taking one marks the live structures as shared, and
+     * published for the queries that follow.  Reading the snapshot needs
+     * no lock either.
+     *
+     * @see FoodData#snapshot()
+     */
+    @Override
+    public FoodSnapshot snapshot() {
+        FoodSnapshot snapshot = published;
+        if (snapshot == null) {
+            long stamp = lock.writeLock();
+            try {
+                snapshot = published;
+                if (snapshot == null) { //Another query may have taken it while this one waited
+                    snapshot = super.snapshot(); //Cached by FoodData if the last edit changed nothing
+                    published = snapshot;
+                }
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets all the food items, ordered by name and then by id.  The list is
+     * a view of a snapshot, so it can be used freely while other threads
+     * edit the foods, and shows the foods as they were when it was taken.
+     *
+     * @return a read-only list of all the food items
+     */
+    @Override
+    public List<FoodItem> getAllFoodItems() {
+        return snapshot().getAllFoodItems();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#getFoodItem(java.lang.String)
+     */
+    @Override
+    public FoodItem getFoodItem(String id) {
+        return readOptimistically(() -> super.getFoodItem(id));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#size()
+     */
+    @Override
+    public int size() {
+        return readOptimistically(() -> super.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#getFoodItemsAfter(java.lang.String, java.lang.String, long)
+     */
+    @Override
+    public List<FoodItem> getFoodItemsAfter(String name, String id, long limit) {
+        return snapshot().getFoodItemsAfter(name, id, limit);
+    }
+
+    /**
+     * Gets a cursor over the food items whose name starts with the given
+     * prefix.  The cursor reads a snapshot lazily, so it needs no lock and
+     * is not affected by edits made after it was opened.
+     *
+     * @param prefix the start of the names to find
+     * @return a cursor over the matching food items
+     */
+    @Override
+    public Cursor<FoodItem> scanNamePrefix(String prefix) {
+        return snapshot().scanNamePrefix(prefix);
+    }
+
+    /**
+     * Saves every food item from a snapshot, so no lock is held while the
+     * file is written
+     *
+     * @see FoodData#saveFoodItems(java.lang.String)
+     */
+    @Override
+    public void saveFoodItems(String filename) {
+        snapshot().saveFoodItems(filename);
+    }
+
+    /**
+     * Exports every food item, sorted by name, from a snapshot, so no lock
+     * is held while the file is written
+     *
+     * @see FoodData#exportFoodItems(java.nio.file.Path, FoodExporter.Format, boolean)
+     */
+    @Override
+    public long exportFoodItems(Path path, FoodExporter.Format format, boolean gzip)
+        throws IOException {
+        return snapshot().exportFoodItems(path, format, gzip);
+    }
+
+    /**
+     * Writes a binary snapshot file from a snapshot, so no lock is held
+     * while the file is written
+     *
+     * @see FoodData#saveSnapshot(java.nio.file.Path)
+     */
+    @Override
+    public void saveSnapshot(Path path) throws IOException {
+        snapshot().saveSnapshot(path);
+    }
+
+    /**
+     * Folds the change log into a new snapshot and empties it, holding the
+     * write lock so no edit is logged between the two
+     *
+     * @see FoodData#checkpoint()
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            super.checkpoint();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see FoodData#close()
+     */
+    @Override
+    public void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            super.close();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+
+    /**
+     * Runs nutrient queries on every core while one thread keeps adding and
+     * removing foods, then checks the catalog ends up as it started.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        ConcurrentFoodData foods = new ConcurrentFoodData();
+        foods.loadFoodItems("foodItems.csv");
+        int startingSize = foods.size();
+        int numReaders = Runtime.getRuntime().availableProcessors();
+        ExecutorService threads = Executors.newFixedThreadPool(numReaders + 1);
+        AtomicLong queries = new AtomicLong();
+        long start = System.nanoTime();
+
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < numReaders; t++) {
+            readers.add(threads.submit(() -> {
+                while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+                    foods.filterByNutrients(Arrays.asList("calories >= 100", "protein >= 5"));
+                    foods.getFoodItem("edit0");
+                    queries.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        Future<Long> writer = threads.submit(() -> {
+            long edits = 0;
+            while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+                FoodItem food = new FoodItem("edit" + (edits % 10), "Edited food");
+                food.addNutrient(Nutrients.CALORIES, 150.0);
+                food.addNutrient(Nutrients.PROTEIN, 10.0);
+                foods.addFoodItem(food);
+                foods.removeFoodItem(food.getID());
+                edits++;
+            }
+            return edits;
+        });
+
+        long edits;
+        try {
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+            edits = writer.get();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        finally {
+            threads.shutdown();
+        }
+        System.out.println(numReaders + " reader threads ran " + queries.get() + " queries while "
+            + edits + " foods were added and removed");
+        System.out.println("Foods at the start: " + startingSize + ", at the end: " + foods.size());
+    }
+
+} // End of class ConcurrentFoodData
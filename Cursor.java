@@ -0,0 +1,129 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazy, forward-only cursor over the values of a range scan.
+ *
+ * Values are produced one at a time straight from the leaves of the tree
+ * being scanned, so a caller that only needs the first few values, or
+ * only needs to know how many there are, never copies the whole range.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <V> the type of value produced by the scan
+ */
+public interface Cursor<V> extends Iterator<V> {
+
+    /**
+     * Moves past the next n values without returning them.  Skipped values
+     * count against any limit that has been set.
+     *
+     * @param n the number of values to skip
+     * @return this cursor, so calls can be chained
+     */
+    public Cursor<V> skip(long n);
+
+
+    /**
+     * Stops the cursor after at most n more values
+     *
+     * @param n the maximum number of values still to produce
+     * @return this cursor, so calls can be chained
+     */
+    public Cursor<V> limit(long n);
+
+
+    /**
+     * Counts the values left in the cursor (respecting any limit),
+     * leaving the cursor exhausted
+     *
+     * @return the number of values that were left
+     */
+    public long count();
+
+
+    /**
+     * Collects the values left in the cursor into a list
+     *
+     * @return a list of the remaining values, in scan order
+     */
+    public default List<V> toList() {
+        List<V> values = new ArrayList<V>();
+        while (hasNext()) {
+            values.add(next());
+        }
+        return values;
+    }
+
+
+    /**
+     * Wraps the values left in the cursor in a sequential stream
+     *
+     * @return a stream over the remaining values, in scan order
+     */
+    public default Stream<V> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false);
+    }
+
+
+    /**
+     * Opens a cursor over values that have already been collected, such as
+     * a scan copied out while a lock was held
+     *
+     * @param values the values to hand out, in order
+     * @return a cursor over the values
+     */
+    public static <V> Cursor<V> of(final List<V> values) {
+        return new Cursor<V>() {
+            // Position of the next value to hand out
+            private int index;
+
+            // Position the cursor stops at
+            private int end = values.size();
+
+            @Override
+            public boolean hasNext() {
+                return index < end;
+            }
+
+            @Override
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values.get(index++);
+            }
+
+            @Override
+            public Cursor<V> skip(long n) {
+                index += (int) Math.min(Math.max(n, 0), end - index);
+                return this;
+            }
+
+            @Override
+            public Cursor<V> limit(long n) {
+                if (n < 0) {
+                    throw new IllegalArgumentException("Illegal limit: " + n);
+                }
+                end = index + (int) Math.min(n, values.size() - index);
+                return this;
+            }
+
+            @Override
+            public long count() {
+                long numValues = end - index;
+                index = end;
+                return numValues;
+            }
+        };
+    }
+}
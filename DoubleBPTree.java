@@ -0,0 +1,1822 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * A B+ tree specialized for double keys, used for the nutrient indexes.
+ *
+ * It has the same shape as BPTree, but the keys are held in primitive
+ * long arrays and compared with primitive operations, so inserting and
+ * searching never boxes a Double or goes through Comparable.compareTo.
+ *
+ * Keys can be stored in one of two ways:
+ *   - floating point (the default): the long is the bit pattern of the
+ *     double, rearranged so that comparing the longs orders the keys the
+ *     same way Double.compare does
+ *   - fixed point: the long is the value scaled by 10^decimalPlaces and
+ *     rounded, which suits data with a known number of decimal places
+ *     (nutrient amounts only have a couple).  NaN, and keys too large to
+ *     fit in a long once scaled, can't be stored this way and are
+ *     rejected with an IllegalArgumentException
+ *
+ * As in BPTree, each distinct stored key takes a single leaf slot and the
+ * values inserted under it are kept in a PostingList in insertion order.
+ * In fixed point mode keys that round to the same stored key share a slot.
+ * A tree can also be given a value order, in which case each posting list
+ * is kept sorted by it and a value is found among the others under its key
+ * by binary search, so removing one of a million foods with 0 grams of
+ * fiber doesn't scan the other 999,999.
+ *
+ * Like BPTree, the tree hands out constant time, read-only snapshots with
+ * snapshot(): nodes are copied on write once they are shared, leaves are
+ * not linked, and cursors step between leaves through the path they came
+ * down.  A snapshot keeps a copy of the statistics it was taken with.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <V> value - expect a user-defined type that stores all data for a food item
+ */
+public class DoubleBPTree<V> implements BPTreeADT<Double, V> {
+
+    // Tolerance used to decide if a scaled search key is really a whole number
+    // (e.g. 0.29 * 100 evaluates to 28.999999999999996)
+    private static final double FIXED_POINT_TOLERANCE = 1e-6;
+
+    // Root of the tree
+    private Node root;
+
+    // Branching factor is the number of children nodes
+    // for internal nodes of the tree
+    private int branchingFactor;
+
+    // Number of decimal places kept for fixed point keys, or -1 for floating point keys
+    private int decimalPlaces;
+
+    // Multiplier applied to fixed point keys (10^decimalPlaces)
+    private double scale;
+
+    // Entry count, key bounds and histogram of the keys, kept up to date on every change
+    private IndexStatistics statistics;
+
+    // Version that nodes created or copied from now on belong to.  Nodes
+    // (and posting lists) from an older version may be shared with a snapshot
+    private int writeVersion;
+
+    // True if this tree is a snapshot, which can't be changed
+    private boolean readOnly;
+
+    // Order of the values stored under the same key, or null to keep them in insertion order
+    private Comparator<Object> valueOrder;
+
+
+    /**
+     * Public constructor for a tree with floating point keys
+     *
+     * @param branchingFactor the number of children each node can have
+     */
+    public DoubleBPTree(int branchingFactor) {
+        this(branchingFactor, -1);
+    }
+
+    /**
+     * Public constructor
+     *
+     * @param branchingFactor the number of children each node can have
+     * @param decimalPlaces the number of decimal places to keep when storing keys as
+     *        fixed point integers, or -1 to store them as floating point
+     */
+    public DoubleBPTree(int branchingFactor, int decimalPlaces) {
+        this(branchingFactor, decimalPlaces, null);
+    }
+
+    /**
+     * Public constructor for a tree that keeps the values stored under each
+     * key in the given order.  The order must tell apart any two values
+     * stored under the same key (unless they are equal), and must not change
+     * for a value while the tree holds it.
+     *
+     * @param branchingFactor the number of children each node can have
+     * @param decimalPlaces the number of decimal places to keep when storing keys as
+     *        fixed point integers, or -1 to store them as floating point
+     * @param valueOrder the order of the values under each key, or null for insertion order
+     */
+    @SuppressWarnings("unchecked")
+    public DoubleBPTree(int branchingFactor, int decimalPlaces, Comparator<? super V> valueOrder) {
+        if (branchingFactor <= 2) {
+            throw new IllegalArgumentException(
+               "Illegal branching factor: " + branchingFactor);
+        }
+        if (decimalPlaces < -1 || decimalPlaces > 15) {
+            throw new IllegalArgumentException(
+               "Illegal number of decimal places: " + decimalPlaces);
+        }
+        this.branchingFactor = branchingFactor;
+        this.decimalPlaces = decimalPlaces;
+        this.scale = Math.pow(10, Math.max(decimalPlaces, 0));
+        this.statistics = new IndexStatistics();
+        this.valueOrder = (Comparator<Object>) valueOrder; //Only ever compares values of type V
+        root = null;
+    }
+
+    /**
+     * Determines if this tree stores its keys as fixed point integers
+     *
+     * @return true if keys are fixed point, false if they are floating point
+     */
+    public boolean isFixedPoint() {
+        return decimalPlaces >= 0;
+    }
+
+
+    /**
+     * Converts a key to the long that is stored in the tree
+     *
+     * @param key the key to encode
+     * @return the stored form of key
+     * @throws IllegalArgumentException if the tree is fixed point and can't store the key
+     */
+    private long encode(double key) {
+        if (isFixedPoint()) {
+            return toFixedPoint(key, decimalPlaces, scale);
+        }
+        long bits = Double.doubleToLongBits(key == 0 ? 0.0 : key); //-0.0 == 0.0, so store both as 0.0
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE); //Negative doubles sort backwards as raw bits, so flip everything but the sign
+    }
+
+    /**
+     * Scales and rounds a key to a fixed point long
+     *
+     * @param key the key to convert
+     * @param decimalPlaces the number of decimal places kept
+     * @param scale 10^decimalPlaces
+     * @return the key as a fixed point long
+     * @throws IllegalArgumentException if the key is NaN or too large to scale into a long, which
+     *         Math.round() would quietly turn into 0 or Long.MIN_VALUE/MAX_VALUE
+     */
+    private static long toFixedPoint(double key, int decimalPlaces, double scale) {
+        double scaled = key * scale;
+        if (!(Math.abs(scaled) < 0x1p63)) { //Also true for NaN and infinities
+            throw new IllegalArgumentException(
+               "Key can't be stored with " + decimalPlaces + " decimal places: " + key);
+        }
+        return Math.round(scaled);
+    }
+
+    /**
+     * Converts a stored long back to the key it represents
+     *
+     * @param stored the stored form of a key
+     * @return the key
+     */
+    private double decode(long stored) {
+        if (isFixedPoint()) {
+            return stored / scale;
+        }
+        return Double.longBitsToDouble(stored ^ ((stored >> 63) & Long.MAX_VALUE));
+    }
+
+    /**
+     * Gets the smallest stored key that is greater than or equal to the given key
+     *
+     * @param key the search key
+     * @return the encoded lower bound
+     */
+    private long encodeLowerBound(double key) {
+        if (!isFixedPoint()) {
+            return encode(key);
+        }
+        double scaled = key * scale;
+        long rounded = Math.round(scaled);
+        if (Math.abs(scaled - rounded) < FIXED_POINT_TOLERANCE) {
+            return rounded;
+        }
+        return (long) Math.ceil(scaled);
+    }
+
+    /**
+     * Gets the largest stored key that is less than or equal to the given key
+     *
+     * @param key the search key
+     * @return the encoded upper bound
+     */
+    private long encodeUpperBound(double key) {
+        if (!isFixedPoint()) {
+            return encode(key);
+        }
+        double scaled = key * scale;
+        long rounded = Math.round(scaled);
+        if (Math.abs(scaled - rounded) < FIXED_POINT_TOLERANCE) {
+            return rounded;
+        }
+        return (long) Math.floor(scaled);
+    }
+
+
+    /**
+     * Inserts the key and value in the appropriate nodes in the tree
+     *
+     * Note: key-value pairs with duplicate keys can be inserted into the tree.
+     * The value is added to the key's posting list after any values already
+     * stored under it, or at its place in the value order if the tree has
+     * one.  The method is named apart from insert(Double, V) so
+     * a call can't be ambiguous when the values are boxed numbers themselves.
+     *
+     * @param key the key to insert (for the food list, the amount of a given nutrient)
+     * @param value the value to insert at this key (for the food list, the food item)
+     * @throws IllegalArgumentException if the tree is fixed point and can't store the key
+     */
+    public void insertKey(double key, V value) {
+        checkWritable();
+        long storedKey = encode(key);
+        if (root == null) { //If we haven't added anything yet, make the first node
+            root = new LeafNode();
+        }
+        root = writable(root);
+        root.insert(storedKey, value);
+        if (root.isOverflow()) { //If adding the value makes the root too big, split it and grow the tree by a level
+            root = root.split();
+        }
+        statistics.add(decode(storedKey));
+        if (statistics.isStale()) {
+            rebuildStatistics();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#insert(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void insert(Double key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys can not be inserted");
+        }
+        insertKey(key.doubleValue(), value);
+    }
+
+
+    /**
+     * Removes one entry with the given key and value from the tree.  Nodes
+     * left with too few keys borrow from a sibling or are merged with one,
+     * and the tree shrinks by a level when the root runs out of keys.
+     *
+     * @param key the key of the entry to remove
+     * @param value the value of the entry to remove (compared with equals)
+     * @return true if an entry was removed, false if there was no such entry
+     * @throws IllegalArgumentException if the tree is fixed point and can't store the key
+     */
+    public boolean deleteKey(double key, V value) {
+        checkWritable();
+        long storedKey = encode(key);
+        if (root == null) {
+            return false;
+        }
+        root = writable(root);
+        if (!root.delete(storedKey, value)) {
+            return false;
+        }
+        if (root.numKeys == 0) {
+            root = (root instanceof DoubleBPTree.InternalNode) ? ((InternalNode) root).child(0) : null;
+        }
+        statistics.remove(decode(storedKey));
+        if (statistics.isStale()) {
+            rebuildStatistics();
+        }
+        return true;
+    }
+
+
+    /**
+     * Takes a read-only snapshot of the tree as it is now, sharing its nodes
+     * until the tree changes them.  The snapshot can be read from any thread
+     * without locking while the tree goes on changing.
+     *
+     * @return the snapshot, which throws UnsupportedOperationException if changed
+     * @see BPTree#snapshot()
+     */
+    public DoubleBPTree<V> snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        DoubleBPTree<V> snapshot = new DoubleBPTree<V>(branchingFactor, decimalPlaces);
+        snapshot.valueOrder = valueOrder;
+        snapshot.root = root;
+        snapshot.statistics = statistics.copy();
+        snapshot.readOnly = true;
+        writeVersion++; //Every node reachable now is shared from here on
+        return snapshot;
+    }
+
+    /**
+     * Determines if the tree is a snapshot, which can't be changed
+     *
+     * @return true if the tree is read-only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Rejects a change to a snapshot
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("A snapshot of a tree can not be changed");
+        }
+    }
+
+    /**
+     * Gets a node the tree can change in place: the node itself if it was
+     * created in the current version, otherwise a copy of it
+     *
+     * @param node the node about to be changed
+     * @return the node, or its copy if the node may be shared with a snapshot
+     */
+    private Node writable(Node node) {
+        return node.version == writeVersion ? node : node.copy();
+    }
+
+
+    /**
+     * Gets the values that satisfy the given range
+     * search arguments.
+     *
+     * Value of comparator can be one of these:
+     * "<=", "==", ">="
+     *
+     * If comparator is null, empty, or not according
+     * to required form, return empty list.
+     *
+     * @param key to be searched
+     * @param comparator is a string
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(double key, String comparator) {
+        return scan(key, comparator).toList();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public List<V> rangeSearch(Double key, String comparator) {
+        if (key == null) {
+            return new ArrayList<V>();
+        }
+        return rangeSearch(key.doubleValue(), comparator);
+    }
+
+    /**
+     * Replaces the contents of the tree with the given key-value pairs.
+     *
+     * The pairs are sorted by key once and the tree is built bottom-up:
+     * the leaves are packed in key order, then each level of internal nodes
+     * is built over the one below it until a single root remains.  Pairs
+     * with equal keys keep the order they were given in.
+     *
+     * @param keys the keys to load, keys[i] belongs with values.get(i)
+     * @param values the values to load
+     * @param fillFactor how full to pack each node, between 0 (exclusive) and 1
+     *        (inclusive); leaving room lets later inserts go in without splitting
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad(double[] keys, List<V> values, double fillFactor) {
+        checkWritable();
+        if (keys.length != values.size()) {
+            throw new IllegalArgumentException(
+               "Number of keys (" + keys.length + ") does not match number of values (" + values.size() + ")");
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Illegal fill factor: " + fillFactor);
+        }
+        long[] storedKeys = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            storedKeys[i] = encode(keys[i]);
+        }
+        Object[] valueArray = values.toArray();
+        int[] order = sortByKey(storedKeys);
+
+        root = null;
+        if (order.length == 0) {
+            rebuildStatistics();
+            return;
+        }
+
+        //Collapse each run of equal keys into one slot, wrapping the run's values in a posting list
+        Object[] sortedValues = new Object[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedValues[i] = valueArray[order[i]];
+        }
+        long[] slotKeys = new long[order.length];
+        Object[] slotValues = new Object[order.length];
+        int numEntries = 0;
+        int runStart = 0;
+        while (runStart < order.length) {
+            long storedKey = storedKeys[order[runStart]];
+            int runEnd = runStart + 1;
+            while (runEnd < order.length && storedKeys[order[runEnd]] == storedKey) {
+                runEnd++;
+            }
+            slotKeys[numEntries] = storedKey;
+            slotValues[numEntries] = runEnd - runStart == 1 ? sortedValues[runStart]
+                : new PostingList(sortedValues, runStart, runEnd - runStart, valueOrder, writeVersion);
+            numEntries++;
+            runStart = runEnd;
+        }
+
+        //Pack the leaves, spreading the entries evenly so the last leaf isn't left nearly empty
+        int leafSize = Math.max(1, Math.min(branchingFactor - 1, (int) Math.round((branchingFactor - 1) * fillFactor)));
+        int numLeaves = (numEntries + leafSize - 1) / leafSize;
+        Object[] level = new Object[numLeaves]; //Nodes of the level being built
+        long[] levelMaxKeys = new long[numLeaves]; //Largest key under each node, used as separators in the level above
+        int entry = 0;
+        for (int i = 0; i < numLeaves; i++) {
+            int numKeys = numEntries / numLeaves + (i < numEntries % numLeaves ? 1 : 0);
+            LeafNode leaf = new LeafNode();
+            for (int j = 0; j < numKeys; j++) {
+                leaf.keys[j] = slotKeys[entry];
+                leaf.values[j] = slotValues[entry];
+                entry++;
+            }
+            leaf.numKeys = numKeys;
+            level[i] = leaf;
+            levelMaxKeys[i] = leaf.keys[numKeys - 1];
+        }
+
+        //Build each internal level over the one below until only the root is left.  At least three
+        //children per parent guarantees the even spread never leaves a parent with a single child
+        int fanout = Math.max(3, Math.min(branchingFactor, (int) Math.round(branchingFactor * fillFactor)));
+        while (level.length > 1) {
+            int numChildren = level.length;
+            int numParents = (numChildren + fanout - 1) / fanout;
+            Object[] parents = new Object[numParents];
+            long[] parentMaxKeys = new long[numParents];
+            int child = 0;
+            for (int i = 0; i < numParents; i++) {
+                int numParentChildren = numChildren / numParents + (i < numChildren % numParents ? 1 : 0);
+                InternalNode parent = new InternalNode();
+                for (int j = 0; j < numParentChildren; j++) {
+                    parent.children[j] = level[child];
+                    if (j > 0) {
+                        parent.keys[j - 1] = levelMaxKeys[child - 1]; //Separators are the largest key on their left
+                    }
+                    child++;
+                }
+                parent.numKeys = numParentChildren - 1;
+                parents[i] = parent;
+                parentMaxKeys[i] = levelMaxKeys[child - 1];
+            }
+            level = parents;
+            levelMaxKeys = parentMaxKeys;
+        }
+        root = (Node) level[0];
+        rebuildStatistics();
+    }
+
+    /**
+     * Stable merge sort of the positions 0..n-1 by the stored key at each
+     * position, done on primitive arrays so no keys or indexes are boxed
+     *
+     * @param storedKeys the keys to sort by
+     * @return the positions in ascending key order
+     */
+    private static int[] sortByKey(long[] storedKeys) {
+        int n = storedKeys.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, n);
+                if (storedKeys[order[mid - 1]] <= storedKeys[order[mid]]) {
+                    continue; //The two runs are already in order (common for pre-sorted input)
+                }
+                int left = low;
+                int right = mid;
+                for (int k = low; k < high; k++) {
+                    if (right >= high || (left < mid && storedKeys[order[left]] <= storedKeys[order[right]])) {
+                        buffer[k] = order[left++];
+                    }
+                    else {
+                        buffer[k] = order[right++];
+                    }
+                }
+                System.arraycopy(buffer, low, order, low, high - low);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Opens a lazy cursor over the values that satisfy the given range
+     * search arguments, in key order.  Takes the same comparators as
+     * rangeSearch; an unknown comparator gives an empty cursor.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param key to be searched
+     * @param comparator is a string
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(double key, String comparator) {
+        if (comparator == null) {
+            return new RangeCursor(null, 0, Long.MAX_VALUE);
+        }
+        if (comparator.contentEquals(">=")) {
+            return scanStored(encodeLowerBound(key), Long.MAX_VALUE);
+        }
+        else if (comparator.contentEquals("<=")) {
+            return scanStored(Long.MIN_VALUE, encodeUpperBound(key));
+        }
+        else if (comparator.contentEquals("==")) {
+            return scanStored(encodeLowerBound(key), encodeUpperBound(key)); //Empty for a fixed point tree if the key has too many decimals
+        }
+        return new RangeCursor(null, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to (both inclusive), in key order.  Use Double.NEGATIVE_INFINITY and
+     * Double.POSITIVE_INFINITY for an open end.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lowest key to include
+     * @param to the highest key to include
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(double from, double to) {
+        return scan(from, true, to, true);
+    }
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to, in key order, with each bound either inclusive or exclusive.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lower bound
+     * @param fromInclusive true if keys equal to from are included
+     * @param to the upper bound
+     * @param toInclusive true if keys equal to to are included
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(double from, boolean fromInclusive, double to, boolean toInclusive) {
+        long low;
+        if (fromInclusive) {
+            low = encodeLowerBound(from);
+        }
+        else {
+            long atOrBelow = encodeUpperBound(from); //The first stored key above from is the one right after the last one at or below it
+            if (atOrBelow == Long.MAX_VALUE) {
+                return new RangeCursor(null, 0, Long.MAX_VALUE);
+            }
+            low = atOrBelow + 1;
+        }
+        long high;
+        if (toInclusive) {
+            high = encodeUpperBound(to);
+        }
+        else {
+            long atOrAbove = encodeLowerBound(to);
+            if (atOrAbove == Long.MIN_VALUE) {
+                return new RangeCursor(null, 0, Long.MIN_VALUE);
+            }
+            high = atOrAbove - 1;
+        }
+        return scanStored(low, high);
+    }
+
+    /**
+     * Gets the values whose keys lie between low and high, in key order.
+     * The tree is only descended once and only the leaves between the two
+     * bounds are read.
+     *
+     * @param low the lower bound
+     * @param lowInclusive true if keys equal to low are included
+     * @param high the upper bound
+     * @param highInclusive true if keys equal to high are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(double low, boolean lowInclusive, double high, boolean highInclusive) {
+        return scan(low, lowInclusive, high, highInclusive).toList();
+    }
+
+    /**
+     * Gets the statistics about the keys in the tree
+     *
+     * @return the tree's statistics, which stay up to date as the tree changes
+     */
+    public IndexStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Estimates how many values scan(low, high) would produce, without
+     * reading any of the tree's nodes
+     *
+     * @param low the lowest key to include
+     * @param high the highest key to include
+     * @return the estimated number of values with keys in the range
+     */
+    public long estimateCount(double low, double high) {
+        long storedLow = encodeLowerBound(low);
+        long storedHigh = encodeUpperBound(high);
+        if (storedLow > storedHigh) {
+            return 0;
+        }
+        return statistics.estimateCount(decode(storedLow), decode(storedHigh)); //Estimate over the same keys the scan would visit
+    }
+
+    /**
+     * Gets a key as the tree stores it, which for a fixed point tree is the
+     * key rounded to the tree's number of decimal places
+     *
+     * @param key the key
+     * @return the key the tree would store for it
+     * @throws IllegalArgumentException if the tree is fixed point and can't store the key
+     */
+    public double storableKey(double key) {
+        return decode(encode(key));
+    }
+
+    /**
+     * Gets a key as a tree with the given number of decimal places would
+     * store it, without needing such a tree
+     *
+     * @param key the key
+     * @param decimalPlaces the number of decimal places kept for fixed point
+     *        keys, or -1 for floating point keys
+     * @return the key the tree would store for it
+     * @throws IllegalArgumentException if decimalPlaces is out of range, or the key can't be
+     *         stored with that many decimal places
+     * @see #storableKey(double)
+     */
+    public static double storableKey(double key, int decimalPlaces) {
+        if (decimalPlaces < -1 || decimalPlaces > 15) {
+            throw new IllegalArgumentException(
+               "Illegal number of decimal places: " + decimalPlaces);
+        }
+        if (decimalPlaces < 0) {
+            return key == 0 ? 0.0 : key; //-0.0 is stored as 0.0
+        }
+        double scale = Math.pow(10, decimalPlaces);
+        return toFixedPoint(key, decimalPlaces, scale) / scale;
+    }
+
+    /**
+     * Gets the smallest key the tree can store that is greater than or
+     * equal to the given key.  Comparing storable keys against it gives the
+     * same answer as the lower bound of scan(low, high).
+     *
+     * @param low the lower bound of a range
+     * @return the lower bound as a storable key
+     */
+    public double storableCeiling(double low) {
+        return decode(encodeLowerBound(low));
+    }
+
+    /**
+     * Gets the largest key the tree can store that is less than or equal to
+     * the given key.  Comparing storable keys against it gives the same
+     * answer as the upper bound of scan(low, high).
+     *
+     * @param high the upper bound of a range
+     * @return the upper bound as a storable key
+     */
+    public double storableFloor(double high) {
+        return decode(encodeUpperBound(high));
+    }
+
+    /**
+     * Determines if a key would be included by scan(low, high).  For a fixed
+     * point tree the key is rounded the same way it would be when inserted.
+     *
+     * @param key the key to check
+     * @param low the lowest key in the range
+     * @param high the highest key in the range
+     * @return true if a value inserted with key would be in the range
+     * @throws IllegalArgumentException if the tree is fixed point and can't store the key
+     */
+    public boolean inRange(double key, double low, double high) {
+        long storedKey = encode(key);
+        return storedKey >= encodeLowerBound(low) && storedKey <= encodeUpperBound(high);
+    }
+
+    /**
+     * Opens a cursor over every entry whose stored key lies between the
+     * given stored keys (both inclusive)
+     *
+     * @param low the lowest stored key to include
+     * @param high the highest stored key to include
+     * @return a cursor over the matching values
+     */
+    private Cursor<V> scanStored(long low, long high) {
+        if (root == null || low > high) {
+            return new RangeCursor(null, 0, high);
+        }
+        return new RangeCursor(root, low, high);
+    }
+
+    /**
+     * Rebuilds the statistics by walking the leaves once
+     */
+    private void rebuildStatistics() {
+        int numSlots = root == null ? 0 : countSlots(root);
+        double[] keys = new double[numSlots];
+        int[] keyCounts = new int[numSlots];
+        if (root != null) {
+            collectSlots(root, keys, keyCounts, 0);
+        }
+        statistics.rebuild(keys, keyCounts, numSlots);
+    }
+
+    /**
+     * Counts the leaf slots below a node
+     *
+     * @param node the node to count under
+     * @return the number of distinct stored keys below node
+     */
+    private int countSlots(Node node) {
+        if (node instanceof DoubleBPTree.LeafNode) {
+            return node.numKeys;
+        }
+        InternalNode internal = (InternalNode) node;
+        int numSlots = 0;
+        for (int i = 0; i <= internal.numKeys; i++) {
+            numSlots += countSlots(internal.child(i));
+        }
+        return numSlots;
+    }
+
+    /**
+     * Copies each leaf slot's key and number of values below a node, in key
+     * order, into the given arrays
+     *
+     * @param node the node to read under
+     * @param keys where to put the keys
+     * @param keyCounts where to put the number of values under each key
+     * @param slot the position in the arrays of the node's first slot
+     * @return the position after the node's last slot
+     */
+    private int collectSlots(Node node, double[] keys, int[] keyCounts, int slot) {
+        if (node instanceof DoubleBPTree.LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < leaf.numKeys; i++) {
+                keys[slot] = decode(leaf.keys[i]);
+                keyCounts[slot] = leaf.postingSize(i);
+                slot++;
+            }
+            return slot;
+        }
+        InternalNode internal = (InternalNode) node;
+        for (int i = 0; i <= internal.numKeys; i++) {
+            slot = collectSlots(internal.child(i), keys, keyCounts, slot);
+        }
+        return slot;
+    }
+
+
+    /**
+     * Writes the tree to a snapshot: its settings, its statistics, then its
+     * nodes depth first from left to right, leaves holding their stored keys
+     * and values.  readSnapshot() rebuilds the same nodes from them without
+     * sorting or inserting anything.
+     *
+     * @param out where to write the tree
+     * @param valueCodec writes each value
+     * @throws IOException if the tree can't be written
+     */
+    public void writeSnapshot(DataOutput out, SnapshotCodec<V> valueCodec) throws IOException {
+        out.writeInt(branchingFactor);
+        out.writeInt(decimalPlaces);
+        statistics.writeSnapshot(out);
+        out.writeBoolean(root != null);
+        if (root != null) {
+            writeNode(out, root, valueCodec);
+        }
+    }
+
+    /**
+     * Writes a node and everything below it to a snapshot
+     *
+     * @param out where to write the node
+     * @param node the node to write
+     * @param valueCodec writes each value
+     * @throws IOException if the node can't be written
+     */
+    private void writeNode(DataOutput out, Node node, SnapshotCodec<V> valueCodec) throws IOException {
+        boolean isLeaf = node instanceof DoubleBPTree.LeafNode;
+        out.writeBoolean(isLeaf);
+        out.writeInt(node.numKeys);
+        for (int i = 0; i < node.numKeys; i++) {
+            out.writeLong(node.keys[i]);
+        }
+        if (isLeaf) {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < leaf.numKeys; i++) {
+                int numValues = leaf.postingSize(i);
+                out.writeInt(numValues);
+                for (int j = 0; j < numValues; j++) {
+                    valueCodec.write(out, leaf.valueAt(i, j));
+                }
+            }
+        }
+        else {
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i <= internal.numKeys; i++) {
+                writeNode(out, internal.child(i), valueCodec);
+            }
+        }
+    }
+
+    /**
+     * Reads a tree written by writeSnapshot()
+     *
+     * @param in the buffer to read from, positioned at the tree
+     * @param valueCodec reads each value
+     * @return the tree
+     * @throws IOException if the bytes don't hold a valid tree
+     */
+    public static <V> DoubleBPTree<V> readSnapshot(ByteBuffer in, SnapshotCodec<V> valueCodec)
+        throws IOException {
+        return readSnapshot(in, valueCodec, null);
+    }
+
+    /**
+     * Reads a tree written by writeSnapshot(), keeping the values under each
+     * key in the given order from then on
+     *
+     * @param in the buffer to read from, positioned at the tree
+     * @param valueCodec reads each value
+     * @param valueOrder the order of the values under each key, or null for insertion order
+     * @return the tree
+     * @throws IOException if the bytes don't hold a valid tree
+     */
+    public static <V> DoubleBPTree<V> readSnapshot(ByteBuffer in, SnapshotCodec<V> valueCodec,
+        Comparator<? super V> valueOrder) throws IOException {
+        int branchingFactor = in.getInt();
+        int decimalPlaces = in.getInt();
+        DoubleBPTree<V> tree;
+        try {
+            tree = new DoubleBPTree<>(branchingFactor, decimalPlaces, valueOrder);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Illegal tree in snapshot: " + e.getMessage());
+        }
+        tree.statistics = IndexStatistics.readSnapshot(in);
+        if (in.get() != 0) {
+            tree.root = tree.readNode(in, valueCodec);
+        }
+        return tree;
+    }
+
+    /**
+     * Reads a node written by writeNode() and everything below it
+     *
+     * @param in the buffer to read from, positioned at the node
+     * @param valueCodec reads each value
+     * @return the node
+     * @throws IOException if the bytes don't hold a valid node
+     */
+    private Node readNode(ByteBuffer in, SnapshotCodec<V> valueCodec) throws IOException {
+        boolean isLeaf = in.get() != 0;
+        int numKeys = in.getInt();
+        if (numKeys < 0 || numKeys >= branchingFactor || (!isLeaf && numKeys == 0)) {
+            throw new IOException("Illegal number of keys in snapshot node: " + numKeys);
+        }
+        Node node = isLeaf ? new LeafNode() : new InternalNode();
+        for (int i = 0; i < numKeys; i++) {
+            node.keys[i] = in.getLong();
+        }
+        node.numKeys = numKeys;
+        if (isLeaf) {
+            LeafNode leaf = (LeafNode) node;
+            for (int i = 0; i < numKeys; i++) {
+                int numValues = in.getInt();
+                if (numValues < 1) {
+                    throw new IOException("Illegal number of values in snapshot leaf: " + numValues);
+                }
+                Object[] values = new Object[numValues];
+                for (int j = 0; j < numValues; j++) {
+                    values[j] = valueCodec.read(in);
+                }
+                leaf.values[i] = numValues == 1 ? values[0]
+                    : new PostingList(values, 0, numValues, valueOrder, writeVersion);
+            }
+        }
+        else {
+            InternalNode internal = (InternalNode) node;
+            for (int i = 0; i <= numKeys; i++) {
+                internal.children[i] = readNode(in, valueCodec);
+            }
+        }
+        return node;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        Queue<List<Node>> queue = new LinkedList<List<Node>>();
+        queue.add(Arrays.asList(root));
+        StringBuilder sb = new StringBuilder();
+        while (!queue.isEmpty()) {
+            Queue<List<Node>> nextQueue = new LinkedList<List<Node>>();
+            while (!queue.isEmpty()) {
+                List<Node> nodes = queue.remove();
+                sb.append('{');
+                Iterator<Node> it = nodes.iterator();
+                while (it.hasNext()) {
+                    Node node = it.next();
+                    sb.append(node.toString());
+                    if (it.hasNext())
+                        sb.append(", ");
+                    if (node instanceof DoubleBPTree.InternalNode)
+                        nextQueue.add(((InternalNode) node).childList());
+                }
+                sb.append('}');
+                if (!queue.isEmpty())
+                    sb.append(", ");
+                else {
+                    sb.append('\n');
+                }
+            }
+            queue = nextQueue;
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * This abstract class represents any type of node in the tree
+     * This class is a super class of the LeafNode and InternalNode types.
+     */
+    private abstract class Node {
+
+        // Array of stored keys, only the first numKeys slots are in use.  It has
+        // one spare slot so a node can overflow by a single key before it is split
+        long[] keys;
+
+        // Number of keys currently stored in the node
+        int numKeys;
+
+        // Version of the tree the node was created in
+        final int version;
+
+        /**
+         * Package constructor
+         */
+        Node() {
+            this.keys = new long[branchingFactor];
+            this.numKeys = 0;
+            this.version = writeVersion;
+        }
+
+        /**
+         * Package constructor for a copy of a node, created in the tree's
+         * current version
+         *
+         * @param original the node to copy
+         */
+        Node(Node original) {
+            this.keys = original.keys.clone();
+            this.numKeys = original.numKeys;
+            this.version = writeVersion;
+        }
+
+        /**
+         * Binary searches the keys for the first slot whose key is greater than
+         * or equal to the given key
+         *
+         * @param storedKey the key to look for
+         * @return the number of keys strictly less than storedKey
+         */
+        int lowerBound(long storedKey) {
+            int low = 0;
+            int high = numKeys;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < storedKey) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Binary searches the keys for the first slot whose key is strictly
+         * greater than the given key
+         *
+         * @param storedKey the key to look for
+         * @return the number of keys less than or equal to storedKey
+         */
+        int upperBound(long storedKey) {
+            int low = 0;
+            int high = numKeys;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= storedKey) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Copies the node so the copy can be changed without affecting any
+         * snapshot that shares the original
+         *
+         * @return the copy
+         */
+        abstract Node copy();
+
+        /**
+         * Inserts key and value in the appropriate leaf node
+         * and balances the tree if required by splitting
+         *
+         * @param storedKey
+         * @param value
+         */
+        abstract void insert(long storedKey, V value);
+
+        /**
+         * Splits an overflowing node in two and returns a new parent holding
+         * the promoted key with the two halves as its children
+         *
+         * @return Node
+         */
+        abstract Node split();
+
+        /**
+         * Removes one entry with the given key and value from below this node,
+         * rebalancing any child that drops under the minimum number of keys
+         *
+         * @param storedKey the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        abstract boolean delete(long storedKey, V value);
+
+        /**
+         * Moves the last entry (or child) of the left sibling into this node
+         *
+         * @param leftSibling the node directly to the left of this one
+         * @param parent the parent of both nodes
+         * @param separatorIndex the slot of the parent key between the two nodes
+         */
+        abstract void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex);
+
+        /**
+         * Moves the first entry (or child) of the right sibling into this node
+         *
+         * @param rightSibling the node directly to the right of this one
+         * @param parent the parent of both nodes
+         * @param separatorIndex the slot of the parent key between the two nodes
+         */
+        abstract void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex);
+
+        /**
+         * Appends everything in the right sibling to this node.  The parent is
+         * left for the caller to fix up.
+         *
+         * @param rightSibling the node directly to the right of this one
+         * @param separator the parent key between the two nodes
+         */
+        abstract void mergeWithRight(Node rightSibling, long separator);
+
+        /**
+         * Gets the fewest keys a node other than the root may hold once
+         * entries start being deleted
+         *
+         * @return the minimum number of keys
+         */
+        int minKeys() {
+            return (branchingFactor - 1) / 2;
+        }
+
+        /**
+         * Determines if the current node has too many keys
+         *
+         * @return boolean- true if the node has too many keys, false otherwise
+         */
+        boolean isOverflow() {
+            return numKeys > (branchingFactor - 1);
+        }
+
+        /**
+         * Determines if the current node has too few keys, which happens
+         * when entries are deleted from it
+         *
+         * @return boolean- true if the node has too few keys, false otherwise
+         */
+        boolean isUnderflow() {
+            return numKeys < minKeys();
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < numKeys; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(decode(keys[i]));
+            }
+            return sb.append(']').toString();
+        }
+
+    } // End of abstract class Node
+
+    /**
+     * This class represents an internal node of the tree.
+     */
+    private class InternalNode extends Node {
+
+        // Array of children nodes, always one more in use than there are keys
+        Object[] children;
+
+        /**
+         * Package constructor
+         */
+        InternalNode() {
+            super();
+            this.children = new Object[branchingFactor + 1];
+        }
+
+        /**
+         * Package constructor for a copy of an internal node.  The copy shares
+         * the original's children until they are changed in turn.
+         *
+         * @param original the node to copy
+         */
+        InternalNode(InternalNode original) {
+            super(original);
+            this.children = original.children.clone();
+        }
+
+        /**
+         * Package constructor that adds a key and the two children on either side of it
+         */
+        InternalNode(long storedKey, Node left, Node right) {
+            this();
+            keys[0] = storedKey;
+            children[0] = left;
+            children[1] = right;
+            numKeys = 1;
+        }
+
+        /**
+         * Gets the child stored in the given slot
+         *
+         * @param index the slot to read
+         * @return the child at index
+         */
+        @SuppressWarnings("unchecked")
+        Node child(int index) {
+            return (Node) children[index];
+        }
+
+        /**
+         * Gets a child that is about to be changed, first replacing it with a
+         * copy if it may be shared with a snapshot
+         *
+         * @param index the slot of the child
+         * @return the child, safe to change in place
+         */
+        Node writableChild(int index) {
+            Node child = writable(child(index));
+            children[index] = child;
+            return child;
+        }
+
+        Node copy() {
+            return new InternalNode(this);
+        }
+
+        /**
+         * Gets the children in use as a list (used for printing the tree)
+         *
+         * @return the children of this node
+         */
+        List<Node> childList() {
+            List<Node> childList = new ArrayList<Node>(numKeys + 1);
+            for (int i = 0; i <= numKeys; i++) {
+                childList.add(child(i));
+            }
+            return childList;
+        }
+
+        /**
+         * Inserts key and value below the current node, splitting any child that overflows
+         *
+         * @param storedKey- the key to insert into the node (will determine the ordering)
+         * @param value- the value to associate with the given key
+         */
+        void insert(long storedKey, V value) {
+            int childIndex = lowerBound(storedKey);
+            Node child = writableChild(childIndex);
+            child.insert(storedKey, value);
+            if (child.isOverflow()) {
+                merge((InternalNode) child.split(), childIndex);
+            }
+        }
+
+        /**
+         * Gets the new parent created after splitting the node.  The current
+         * node keeps the lower half and becomes the left child.
+         *
+         * @return Node- the new parent created after splitting the node
+         */
+        Node split() {
+            int medianIndex = numKeys / 2;
+            long median = keys[medianIndex];
+            InternalNode right = new InternalNode();
+
+            int numRightKeys = numKeys - medianIndex - 1; //The median moves up, everything after it goes to the right
+            System.arraycopy(keys, medianIndex + 1, right.keys, 0, numRightKeys);
+            System.arraycopy(children, medianIndex + 1, right.children, 0, numRightKeys + 1);
+            right.numKeys = numRightKeys;
+
+            Arrays.fill(children, medianIndex + 1, numKeys + 1, null);
+            numKeys = medianIndex;
+
+            return new InternalNode(median, this, right);
+        }
+
+        /**
+         * Takes the single key parent returned by splitting a child and folds it into this node
+         *
+         * @param mergeNode- the node returned by splitting the child
+         * @param childIndex- the index of the child that was split
+         */
+        private void merge(InternalNode mergeNode, int childIndex) {
+            System.arraycopy(keys, childIndex, keys, childIndex + 1, numKeys - childIndex);
+            System.arraycopy(children, childIndex + 1, children, childIndex + 2, numKeys - childIndex);
+            keys[childIndex] = mergeNode.keys[0];
+            children[childIndex] = mergeNode.children[0];
+            children[childIndex + 1] = mergeNode.children[1];
+            numKeys++;
+        }
+
+        /**
+         * Removes one entry with the given key and value from below this node.
+         * Each key is stored only once, so only the child covering the key
+         * needs to be searched.
+         *
+         * @param storedKey the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        boolean delete(long storedKey, V value) {
+            int childIndex = lowerBound(storedKey);
+            Node child = writableChild(childIndex);
+            if (!child.delete(storedKey, value)) {
+                return false;
+            }
+            if (child.isUnderflow()) {
+                rebalance(childIndex);
+            }
+            return true;
+        }
+
+        /**
+         * Brings a child that has too few keys back up to the minimum, either
+         * by borrowing from a sibling that can spare a key or by merging it
+         * with a sibling
+         *
+         * @param childIndex the slot of the child that underflowed
+         */
+        private void rebalance(int childIndex) {
+            Node child = child(childIndex);
+            Node left = childIndex > 0 ? child(childIndex - 1) : null;
+            Node right = childIndex < numKeys ? child(childIndex + 1) : null;
+            if (left != null && left.numKeys > minKeys()) {
+                child.borrowFromLeft(writableChild(childIndex - 1), this, childIndex - 1);
+            }
+            else if (right != null && right.numKeys > minKeys()) {
+                child.borrowFromRight(writableChild(childIndex + 1), this, childIndex);
+            }
+            else if (left != null) { //Neither sibling can spare a key, so fold the child into one of them
+                writableChild(childIndex - 1).mergeWithRight(child, keys[childIndex - 1]);
+                removeSeparator(childIndex - 1);
+            }
+            else {
+                child.mergeWithRight(right, keys[childIndex]);
+                removeSeparator(childIndex);
+            }
+        }
+
+        /**
+         * Removes a key and the child to its right, after that child has been
+         * merged into its left sibling
+         *
+         * @param separatorIndex the slot of the key to remove
+         */
+        private void removeSeparator(int separatorIndex) {
+            int numMoved = numKeys - separatorIndex - 1;
+            System.arraycopy(keys, separatorIndex + 1, keys, separatorIndex, numMoved);
+            System.arraycopy(children, separatorIndex + 2, children, separatorIndex + 1, numMoved);
+            children[numKeys] = null;
+            numKeys--;
+        }
+
+        /**
+         * Rotates the left sibling's last child through the parent into the
+         * front of this node
+         *
+         * @see Node#borrowFromLeft
+         */
+        void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex) {
+            InternalNode left = (InternalNode) leftSibling;
+            System.arraycopy(keys, 0, keys, 1, numKeys);
+            System.arraycopy(children, 0, children, 1, numKeys + 1);
+            keys[0] = parent.keys[separatorIndex]; //The parent key comes down and the sibling's last key goes up
+            children[0] = left.children[left.numKeys];
+            numKeys++;
+            parent.keys[separatorIndex] = left.keys[left.numKeys - 1];
+            left.children[left.numKeys] = null;
+            left.numKeys--;
+        }
+
+        /**
+         * Rotates the right sibling's first child through the parent onto the
+         * end of this node
+         *
+         * @see Node#borrowFromRight
+         */
+        void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex) {
+            InternalNode right = (InternalNode) rightSibling;
+            keys[numKeys] = parent.keys[separatorIndex]; //The parent key comes down and the sibling's first key goes up
+            children[numKeys + 1] = right.children[0];
+            numKeys++;
+            parent.keys[separatorIndex] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.numKeys - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.numKeys);
+            right.children[right.numKeys] = null;
+            right.numKeys--;
+        }
+
+        /**
+         * Pulls the separator down and appends the right sibling's keys and
+         * children to this node
+         *
+         * @see Node#mergeWithRight
+         */
+        void mergeWithRight(Node rightSibling, long separator) {
+            InternalNode right = (InternalNode) rightSibling;
+            keys[numKeys] = separator;
+            System.arraycopy(right.keys, 0, keys, numKeys + 1, right.numKeys);
+            System.arraycopy(right.children, 0, children, numKeys + 1, right.numKeys + 1);
+            numKeys += right.numKeys + 1;
+        }
+
+    } // End of class InternalNode
+
+
+    /**
+     * This class represents a leaf node of the tree.
+     */
+    private class LeafNode extends Node {
+
+        // Array of values, parallel to the keys array.  A slot holds the value
+        // itself, or a PostingList when several values share the slot's key
+        Object[] values;
+
+        /**
+         * Package constructor
+         */
+        LeafNode() {
+            super();
+            values = new Object[branchingFactor];
+        }
+
+        /**
+         * Package constructor for a copy of a leaf.  Posting lists are shared
+         * with the original until one of them is changed.
+         *
+         * @param original the leaf to copy
+         */
+        LeafNode(LeafNode original) {
+            super(original);
+            values = original.values.clone();
+        }
+
+        Node copy() {
+            return new LeafNode(this);
+        }
+
+        /**
+         * Gets the posting list in a slot that is about to be changed, first
+         * replacing it with a copy if it may be shared with a snapshot
+         *
+         * @param index the slot holding the posting list
+         * @return the posting list, safe to change in place
+         */
+        PostingList writablePostings(int index) {
+            PostingList postings = (PostingList) values[index];
+            if (postings.getVersion() != writeVersion) {
+                postings = postings.copy(writeVersion);
+                values[index] = postings;
+            }
+            return postings;
+        }
+
+        /**
+         * Gets the number of values stored under the key in the given slot
+         *
+         * @param index the slot to read
+         * @return the number of values at index
+         */
+        int postingSize(int index) {
+            Object slot = values[index];
+            return slot instanceof PostingList ? ((PostingList) slot).size() : 1;
+        }
+
+        /**
+         * Gets one of the values stored under the key in the given slot
+         *
+         * @param index the slot to read
+         * @param position the position of the value among the slot's values
+         * @return the value
+         */
+        @SuppressWarnings("unchecked")
+        V valueAt(int index, int position) {
+            Object slot = values[index];
+            return (V) (slot instanceof PostingList ? ((PostingList) slot).get(position) : slot);
+        }
+
+        /**
+         * Inserts key and value in the appropriate slot of this leaf
+         *
+         * @param storedKey- the key to insert into the node (will determine the ordering)
+         * @param value- the value to associate with the given key
+         */
+        void insert(long storedKey, V value) {
+            int index = lowerBound(storedKey);
+            if (index < numKeys && keys[index] == storedKey) { //The key is already here, so add to its postings
+                Object slot = values[index];
+                if (slot instanceof PostingList) {
+                    writablePostings(index).add(value);
+                }
+                else {
+                    values[index] = new PostingList(slot, value, valueOrder, writeVersion);
+                }
+                return;
+            }
+            System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+            System.arraycopy(values, index, values, index + 1, numKeys - index);
+            keys[index] = storedKey;
+            values[index] = value;
+            numKeys++;
+        }
+
+        /**
+         * Gets the new parent created after splitting the node.  The current
+         * leaf keeps the lower half (including the median) and a new leaf to
+         * its right takes the rest.
+         *
+         * @return Node- the new parent created after splitting the node
+         */
+        Node split() {
+            int medianIndex = numKeys / 2;
+            long median = keys[medianIndex];
+            LeafNode right = new LeafNode();
+
+            int numRightKeys = numKeys - medianIndex - 1;
+            System.arraycopy(keys, medianIndex + 1, right.keys, 0, numRightKeys);
+            System.arraycopy(values, medianIndex + 1, right.values, 0, numRightKeys);
+            right.numKeys = numRightKeys;
+            Arrays.fill(values, medianIndex + 1, numKeys, null);
+            numKeys = medianIndex + 1;
+
+            return new InternalNode(median, this, right);
+        }
+
+        /**
+         * Removes one entry with the given key and value from this leaf
+         *
+         * @param storedKey the key of the entry to remove
+         * @param value the value of the entry to remove
+         * @return true if an entry was removed
+         */
+        boolean delete(long storedKey, V value) {
+            int index = lowerBound(storedKey);
+            if (index == numKeys || keys[index] != storedKey) {
+                return false;
+            }
+            Object slot = values[index];
+            if (slot instanceof PostingList) { //Other values share the key, so the slot stays
+                PostingList postings = writablePostings(index);
+                if (!postings.remove(value)) {
+                    return false;
+                }
+                if (postings.size() == 1) {
+                    values[index] = postings.get(0);
+                }
+                return true;
+            }
+            if (!Objects.equals(slot, value)) {
+                return false;
+            }
+            System.arraycopy(keys, index + 1, keys, index, numKeys - index - 1);
+            System.arraycopy(values, index + 1, values, index, numKeys - index - 1);
+            numKeys--;
+            values[numKeys] = null;
+            return true;
+        }
+
+        /**
+         * Moves the left sibling's last entry to the front of this leaf
+         *
+         * @see Node#borrowFromLeft
+         */
+        void borrowFromLeft(Node leftSibling, InternalNode parent, int separatorIndex) {
+            LeafNode left = (LeafNode) leftSibling;
+            System.arraycopy(keys, 0, keys, 1, numKeys);
+            System.arraycopy(values, 0, values, 1, numKeys);
+            left.numKeys--;
+            keys[0] = left.keys[left.numKeys];
+            values[0] = left.values[left.numKeys];
+            numKeys++;
+            left.values[left.numKeys] = null;
+            parent.keys[separatorIndex] = left.keys[left.numKeys - 1]; //The separator is always the largest key on its left
+        }
+
+        /**
+         * Moves the right sibling's first entry to the end of this leaf
+         *
+         * @see Node#borrowFromRight
+         */
+        void borrowFromRight(Node rightSibling, InternalNode parent, int separatorIndex) {
+            LeafNode right = (LeafNode) rightSibling;
+            keys[numKeys] = right.keys[0];
+            values[numKeys] = right.values[0];
+            numKeys++;
+            right.numKeys--;
+            System.arraycopy(right.keys, 1, right.keys, 0, right.numKeys);
+            System.arraycopy(right.values, 1, right.values, 0, right.numKeys);
+            right.values[right.numKeys] = null;
+            parent.keys[separatorIndex] = keys[numKeys - 1];
+        }
+
+        /**
+         * Appends the right sibling's entries to this leaf
+         *
+         * @see Node#mergeWithRight
+         */
+        void mergeWithRight(Node rightSibling, long separator) {
+            LeafNode right = (LeafNode) rightSibling;
+            System.arraycopy(right.keys, 0, keys, numKeys, right.numKeys);
+            System.arraycopy(right.values, 0, values, numKeys, right.numKeys);
+            numKeys += right.numKeys;
+        }
+
+    } // End of class LeafNode
+
+
+    /**
+     * Cursor that walks the leaves from a lower bound up to an upper bound,
+     * handing out one value at a time.  It keeps the path of internal nodes
+     * down to its leaf and climbs back up that path to reach the next one.
+     */
+    private class RangeCursor implements Cursor<V> {
+
+        // Internal nodes on the path from the root to the current leaf
+        private final List<InternalNode> path;
+
+        // Slot of the child followed at each internal node on the path
+        private final int[] slots;
+
+        // Leaf the cursor is reading, null once the range is used up
+        private LeafNode leaf;
+
+        // Slot in the leaf of the next value to hand out
+        private int index;
+
+        // Position of the next value among the values stored in that slot
+        private int position;
+
+        // Slot in the leaf where the range stops
+        private int end;
+
+        // True if the upper bound falls inside the current leaf, so nothing after it is in range
+        private boolean lastLeaf;
+
+        // Largest stored key in the range
+        private final long high;
+
+        // Number of values the cursor may still produce
+        private long remaining;
+
+        /**
+         * Package constructor
+         *
+         * @param start the root of the tree to read, or null for an empty cursor
+         * @param low the smallest stored key to include
+         * @param high the largest stored key to include
+         */
+        RangeCursor(Node start, long low, long high) {
+            this.high = high;
+            this.remaining = Long.MAX_VALUE;
+            int height = 0;
+            for (Node node = start; node instanceof DoubleBPTree.InternalNode; node = ((InternalNode) node).child(0)) {
+                height++; //Every leaf is at the same depth, so the leftmost path gives the height
+            }
+            this.path = new ArrayList<InternalNode>(height);
+            this.slots = new int[height];
+            if (start == null) {
+                return;
+            }
+
+            //Descend to the leaf where the range starts, remembering the way back up
+            Node node = start;
+            while (node instanceof DoubleBPTree.InternalNode) {
+                InternalNode internal = (InternalNode) node;
+                int slot = internal.lowerBound(low);
+                slots[path.size()] = slot;
+                path.add(internal);
+                node = internal.child(slot);
+            }
+            LeafNode startingLeaf = (LeafNode) node;
+            enterLeaf(startingLeaf, startingLeaf.lowerBound(low));
+        }
+
+        /**
+         * Finds the leaf after the current one by climbing the path until a
+         * node has a child further right, then descending along the leftmost
+         * children of that child
+         *
+         * @return the next leaf, or null if the current leaf is the last
+         */
+        private LeafNode nextLeaf() {
+            int depth = path.size();
+            while (depth > 0 && slots[depth - 1] == path.get(depth - 1).numKeys) {
+                depth--;
+            }
+            if (depth == 0) {
+                return null;
+            }
+            slots[depth - 1]++;
+            Node node = path.get(depth - 1).child(slots[depth - 1]);
+            while (depth < path.size()) {
+                InternalNode internal = (InternalNode) node;
+                path.set(depth, internal);
+                slots[depth] = 0;
+                node = internal.child(0);
+                depth++;
+            }
+            return (LeafNode) node;
+        }
+
+        /**
+         * Positions the cursor at the given slot, moving on through the leaves
+         * until it finds a slot that is still in range
+         *
+         * @param nextLeaf the leaf to move to
+         * @param startingIndex the slot to start at in that leaf
+         */
+        private void enterLeaf(LeafNode nextLeaf, int startingIndex) {
+            leaf = nextLeaf;
+            index = startingIndex;
+            position = 0;
+            while (leaf != null) {
+                end = leaf.numKeys;
+                lastLeaf = end > 0 && leaf.keys[end - 1] > high; //Only compare against the bound once per leaf
+                if (lastLeaf) {
+                    end = leaf.upperBound(high);
+                }
+                if (index < end) {
+                    return;
+                }
+                leaf = lastLeaf ? null : nextLeaf();
+                index = 0;
+            }
+        }
+
+        /**
+         * Moves by up to n values within the current leaf
+         *
+         * @param n the most values to move by
+         * @return the number of values actually moved by
+         */
+        private long advance(long n) {
+            long target = Math.min(n, remaining);
+            long step = 0;
+            while (step < target && index < end) {
+                int left = leaf.postingSize(index) - position; //Values left in the current slot
+                if (target - step < left) {
+                    position += (int) (target - step);
+                    step = target;
+                }
+                else {
+                    step += left;
+                    index++;
+                    position = 0;
+                }
+            }
+            remaining -= step;
+            if (index >= end) {
+                enterLeaf(lastLeaf ? null : nextLeaf(), 0);
+            }
+            return step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && remaining > 0;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V value = leaf.valueAt(index, position);
+            advance(1);
+            return value;
+        }
+
+        @Override
+        public Cursor<V> skip(long n) {
+            while (n > 0 && hasNext()) {
+                n -= advance(n); //Skips a whole leaf's worth of values at a time
+            }
+            return this;
+        }
+
+        @Override
+        public Cursor<V> limit(long n) {
+            if (n < 0) {
+                throw new IllegalArgumentException("Illegal limit: " + n);
+            }
+            remaining = n;
+            return this;
+        }
+
+        @Override
+        public long count() {
+            long numValues = 0;
+            while (hasNext()) {
+                numValues += advance(Long.MAX_VALUE);
+            }
+            return numValues;
+        }
+
+    } // End of class RangeCursor
+
+
+    /**
+     * Contains a basic test scenario for a DoubleBPTree instance, using
+     * both floating point and fixed point keys.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        Random rnd1 = new Random();
+        double[] dd = {-1.5d, 0.0d, 0.5d, 0.25d, 0.8d};
+
+        DoubleBPTree<String> floatTree = new DoubleBPTree<>(5);
+        DoubleBPTree<String> fixedTree = new DoubleBPTree<>(5, 2);
+        for (int i = 0; i < 20; i++) {
+            double j = dd[rnd1.nextInt(dd.length)];
+            floatTree.insertKey(j, Double.toString(j));
+            fixedTree.insertKey(j, Double.toString(j));
+        }
+        System.out.println("Tree structure:\n" + floatTree.toString());
+        System.out.println("Filtered values: " + floatTree.rangeSearch(0.0d, ">="));
+        System.out.println("Filtered values: " + floatTree.rangeSearch(0.5d, "<="));
+        System.out.println("Filtered values: " + floatTree.rangeSearch(0.8d, "=="));
+        System.out.println("Fixed point tree structure:\n" + fixedTree.toString());
+        System.out.println("Filtered values: " + fixedTree.rangeSearch(0.2d, ">="));
+        System.out.println("Filtered values: " + fixedTree.rangeSearch(0.25d, "=="));
+        System.out.println("Filtered values: " + fixedTree.rangeSearch(0.251d, "=="));
+    }
+
+} // End of class DoubleBPTree
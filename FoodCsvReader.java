@@ -0,0 +1,446 @@
+package application;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads food item lines from a CSV file in the format FoodData loads.
+ *
+ * The file is read through a FileChannel into a large byte buffer and each
+ * line is split into fields in place, by recording where every field starts
+ * and ends.  Nutrient labels are matched against their bytes and the values
+ * are parsed straight from the bytes, so the only Strings created per line
+ * are the id and name of a food that is accepted.
+ *
+ * A line is accepted or skipped exactly as when it is read with
+ * Scanner.nextLine() and split with String.split(","): it needs 12 fields
+ * once trailing empty fields are dropped, a non-empty id and name, all five
+ * nutrient labels, and five values Double.parseDouble() accepts.  Values in
+ * the common plain decimal form are parsed directly, anything else is handed
+ * to Double.parseDouble() so the results match it bit for bit.  The file is
+ * decoded as UTF-8.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class FoodCsvReader {
+
+    /**
+     * Receives each food line that is accepted
+     */
+    public interface RowHandler {
+
+        /**
+         * Handles one accepted line
+         *
+         * @param id the id of the food
+         * @param name the name of the food
+         * @param calories the calories of the food
+         * @param fat the fat grams of the food
+         * @param carbs the carbohydrate grams of the food
+         * @param fiber the fiber grams of the food
+         * @param protein the protein grams of the food
+         */
+        void row(String id, String name, double calories, double fat, double carbs,
+            double fiber, double protein);
+    }
+
+    // Number of fields in a food line
+    private static final int FIELDS = 12;
+
+    // Initial size of the read buffer, it doubles whenever a single line doesn't fit
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Number of bytes read at a time while looking for the end of a line to split a file at
+    private static final int BOUNDARY_SEARCH_SIZE = 8192;
+
+    // Most digits a plain decimal can have and still be exact in a long and a double
+    private static final int MAX_FAST_DIGITS = 15;
+
+    // Powers of ten that are exact as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Nutrient labels as bytes
+    private static final byte[] CALORIES = "calories".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FAT = "fat".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CARBOHYDRATE = "carbohydrate".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIBER = "fiber".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROTEIN = "protein".getBytes(StandardCharsets.US_ASCII);
+
+    // Receives the accepted lines
+    private final RowHandler handler;
+
+    // Start of each of the first FIELDS fields of the current line
+    private final int[] fieldStarts;
+
+    // End (exclusive) of each of the first FIELDS fields of the current line
+    private final int[] fieldEnds;
+
+    // Position of the last non-empty field of the current line, -1 if every field is empty
+    private int lastFilled;
+
+    /**
+     * Public constructor
+     *
+     * @param handler receives each accepted line
+     */
+    public FoodCsvReader(RowHandler handler) {
+        this.handler = handler;
+        this.fieldStarts = new int[FIELDS];
+        this.fieldEnds = new int[FIELDS];
+    }
+
+    /**
+     * Reads every line of a file, passing the accepted ones to the handler
+     *
+     * @param filePath path of the file to read
+     * @throws IOException if the file can't be opened or read
+     */
+    public void read(String filePath) throws IOException {
+        try (FileInputStream in = new FileInputStream(filePath);
+            FileChannel channel = in.getChannel()) {
+            read(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads the lines in part of a file, passing the accepted ones to the
+     * handler.  Reads don't move the channel's position, so readers on
+     * several threads can share one channel.
+     *
+     * @param channel the file to read
+     * @param from position of the first byte to read, which must start a line
+     * @param to position after the last byte to read, which must end a line or the file
+     * @throws IOException if the file can't be read
+     */
+    public void read(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (to - position)));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break; //The file got shorter since its size was taken
+            }
+            position += read;
+            byte[] bytes = buffer.array();
+            int end = buffer.position();
+            int consumed = parseLines(bytes, 0, end, false);
+            int carried = end - consumed;
+            if (carried == bytes.length) { //One line fills the whole buffer, make room for the rest of it
+                buffer = ByteBuffer.allocate(bytes.length * 2);
+                buffer.put(bytes, 0, carried);
+            }
+            else {
+                System.arraycopy(bytes, consumed, bytes, 0, carried); //Keep the unfinished line for the next read
+                buffer.clear();
+                buffer.position(carried);
+            }
+        }
+        parseLines(buffer.array(), 0, buffer.position(), true); //The last line may not end in a separator
+    }
+
+    /**
+     * Splits a file into chunks of about the given size that each start at
+     * the beginning of a line, so the chunks can be read independently.  A
+     * chunk ends just after a \n, which always ends a line and is never part
+     * of a longer character; a chunk with no \n after its target size runs
+     * on into the next one.
+     *
+     * @param channel the file to split
+     * @param chunkSize the size to aim for, in bytes
+     * @return the start of each chunk followed by the size of the file
+     * @throws IOException if the file can't be read
+     */
+    public static long[] chunkBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SEARCH_SIZE);
+        long position = chunkSize;
+        search:
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    long boundary = position + i + 1;
+                    if (boundary < size) {
+                        boundaries.add(boundary);
+                    }
+                    position = boundary + chunkSize;
+                    continue search;
+                }
+            }
+            position += read; //No line ends in this stretch, keep looking
+        }
+        long[] result = new long[boundaries.size() + 1];
+        for (int i = 0; i < boundaries.size(); i++) {
+            result[i] = boundaries.get(i);
+        }
+        result[boundaries.size()] = size;
+        return result;
+    }
+
+    /**
+     * Splits bytes into lines and handles every complete one.  Lines end at
+     * the same separators Scanner.nextLine() uses: \n, \r, and the Unicode
+     * next line, line separator and paragraph separator characters (a \r\n
+     * pair makes an extra empty line, which is skipped anyway).
+     *
+     * @param bytes the bytes to read
+     * @param from position of the first byte, which must start a line
+     * @param to position after the last byte
+     * @param atEnd whether the bytes end the input, so the last line is complete without a separator
+     * @return position after the last line handled, where the next read has to start
+     */
+    int parseLines(byte[] bytes, int from, int to, boolean atEnd) {
+        int lineStart = from;
+        int fieldStart = from;
+        int field = 0;
+        lastFilled = -1;
+        int i = from;
+        while (i < to) {
+            byte b = bytes[i];
+            if (b == ',') {
+                endField(field++, fieldStart, i);
+                fieldStart = ++i;
+            }
+            else if (b == '\n' || b == '\r' || b == (byte) 0xC2 || b == (byte) 0xE2) {
+                int length = separatorLength(bytes, i, to);
+                if (length < 0) {
+                    if (!atEnd) {
+                        return lineStart; //The separator might finish in the next read
+                    }
+                    length = 0;
+                }
+                if (length == 0) {
+                    i++;
+                    continue;
+                }
+                endField(field, fieldStart, i);
+                parseLine(bytes);
+                i += length;
+                lineStart = i;
+                fieldStart = i;
+                field = 0;
+                lastFilled = -1;
+            }
+            else {
+                i++;
+            }
+        }
+        if (atEnd && lineStart < to) {
+            endField(field, fieldStart, to);
+            parseLine(bytes);
+            return to;
+        }
+        return lineStart;
+    }
+
+    /**
+     * Gets the length of the line separator starting at a position
+     *
+     * @param bytes the bytes being read
+     * @param i the position to check
+     * @param to position after the last byte
+     * @return the length in bytes of the separator, 0 if there isn't one, or
+     *         -1 if the bytes end before it can be told
+     */
+    private static int separatorLength(byte[] bytes, int i, int to) {
+        byte b = bytes[i];
+        if (b == '\n' || b == '\r') {
+            return 1;
+        }
+        if (b == (byte) 0xC2) { //Next line (U+0085) is C2 85 in UTF-8
+            if (i + 1 >= to) {
+                return -1;
+            }
+            return bytes[i + 1] == (byte) 0x85 ? 2 : 0;
+        }
+        //Line and paragraph separators (U+2028, U+2029) are E2 80 A8 and E2 80 A9 in UTF-8
+        if (i + 1 < to && bytes[i + 1] != (byte) 0x80) {
+            return 0;
+        }
+        if (i + 2 >= to) {
+            return -1;
+        }
+        return bytes[i + 2] == (byte) 0xA8 || bytes[i + 2] == (byte) 0xA9 ? 3 : 0;
+    }
+
+    /**
+     * Records where a field of the current line starts and ends
+     *
+     * @param field the position of the field in the line
+     * @param start the position of its first byte
+     * @param end the position after its last byte
+     */
+    private void endField(int field, int start, int end) {
+        if (end > start) {
+            lastFilled = field;
+        }
+        if (field < FIELDS) {
+            fieldStarts[field] = start;
+            fieldEnds[field] = end;
+        }
+    }
+
+    /**
+     * Checks the fields of a complete line and passes it to the handler if
+     * it is a valid food
+     *
+     * @param bytes the bytes being read
+     */
+    private void parseLine(byte[] bytes) {
+        // split(",") drops trailing empty fields, so the line has 12 pieces exactly when the 12th
+        // field is the last non-empty one
+        if (lastFilled != FIELDS - 1) {
+            return;
+        }
+        // if id or name is blank, skip
+        if (fieldEnds[0] == fieldStarts[0] || fieldEnds[1] == fieldStarts[1]) {
+            return;
+        }
+
+        // find the value field for each nutrient, a repeated label uses the last one
+        int calorieField = 0;
+        int fatField = 0;
+        int carbField = 0;
+        int fiberField = 0;
+        int proteinField = 0;
+        for (int f = 2; f < FIELDS; f += 2) {
+            if (fieldEquals(bytes, f, CALORIES)) {
+                calorieField = f + 1;
+            }
+            else if (fieldEquals(bytes, f, FAT)) {
+                fatField = f + 1;
+            }
+            else if (fieldEquals(bytes, f, CARBOHYDRATE)) {
+                carbField = f + 1;
+            }
+            else if (fieldEquals(bytes, f, FIBER)) {
+                fiberField = f + 1;
+            }
+            else if (fieldEquals(bytes, f, PROTEIN)) {
+                proteinField = f + 1;
+            }
+        }
+        if (calorieField == 0 || fatField == 0 || carbField == 0 || fiberField == 0
+            || proteinField == 0) {
+            return;
+        }
+
+        double calories;
+        double fat;
+        double carbs;
+        double fiber;
+        double protein;
+        try {
+            calories = parseField(bytes, calorieField);
+            fat = parseField(bytes, fatField);
+            carbs = parseField(bytes, carbField);
+            fiber = parseField(bytes, fiberField);
+            protein = parseField(bytes, proteinField);
+        }
+        catch (NumberFormatException e) {
+            return;
+        }
+        String id = new String(bytes, fieldStarts[0], fieldEnds[0] - fieldStarts[0],
+            StandardCharsets.UTF_8);
+        String name = new String(bytes, fieldStarts[1], fieldEnds[1] - fieldStarts[1],
+            StandardCharsets.UTF_8);
+        handler.row(id, name, calories, fat, carbs, fiber, protein);
+    }
+
+    /**
+     * Checks whether a field of the current line holds exactly the given bytes
+     *
+     * @param bytes the bytes being read
+     * @param field the position of the field in the line
+     * @param label the bytes to compare with
+     * @return true if they are the same
+     */
+    private boolean fieldEquals(byte[] bytes, int field, byte[] label) {
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start != label.length) {
+            return false;
+        }
+        for (int i = 0; i < label.length; i++) {
+            if (bytes[start + i] != label[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field of the current line as a double
+     *
+     * @param bytes the bytes being read
+     * @param field the position of the field in the line
+     * @return the value of the field
+     * @throws NumberFormatException if Double.parseDouble() wouldn't accept the field
+     */
+    private double parseField(byte[] bytes, int field) {
+        return parseDouble(bytes, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parses bytes as a double, giving the same result as Double.parseDouble().
+     *
+     * A plain decimal (an optional sign, then digits with at most one point)
+     * of no more than 15 digits is turned into a whole number and divided by
+     * a power of ten.  Both are exact doubles, so the one rounding in the
+     * division gives the correctly rounded result.  Any other text is passed
+     * to Double.parseDouble().
+     *
+     * @param bytes the bytes to parse
+     * @param from position of the first byte
+     * @param to position after the last byte
+     * @return the parsed value
+     * @throws NumberFormatException if Double.parseDouble() wouldn't accept the text
+     */
+    static double parseDouble(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long digits = 0;
+        int numDigits = 0;
+        int fractionDigits = -1; //Stays -1 until a point is seen
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits = digits * 10 + (b - '0');
+                numDigits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            }
+            else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            }
+            else {
+                break;
+            }
+        }
+        if (i < to || numDigits == 0 || numDigits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        }
+        double value = fractionDigits > 0 ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+        return negative ? -value : value;
+    }
+}
@@ -1,15 +1,39 @@
 package application;
 
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * This class represents the backend for managing all the operations associated with FoodItems
@@ -18,26 +42,157 @@ import java.io.IOException;
  */
 public class FoodData implements FoodDataADT<FoodItem> {
 
-  // List of all the food items.
-  private TreeSet<FoodItem> foodItemList;
+  // All the food items, ordered by name and then by id, so foods that share a name are all kept.
+  private BPTree<FoodKey, FoodItem> sortedFoods;
 
   // Map of nutrients and their corresponding index
-  private HashMap<String, BPTree<Double, FoodItem>> indexes;
+  private HashMap<String, DoubleBPTree<FoodItem>> indexes;
 
-  // Set of all IDs, used to eliminate duplicates
-  private HashSet<String> ids;
+  // Map of all IDs to their food item, used to eliminate duplicates and to find foods by id
+  private HashMap<String, FoodItem> ids;
+
+  // Every food item at the position of its ordinal. A removed food leaves a null hole instead of
+  // renumbering the others, and the hole is filled by the next food added
+  private OrdinalTable<FoodItem> foodsByOrdinal;
+
+  // Ordinals whose food has been removed, the most recently freed on top, or null if none is free. An
+  // update removes the old food and adds the new one straight after, so the new one takes over the
+  // old one's ordinal. The stack is never changed in place, so snapshots share it as it is
+  private FreeOrdinal freeOrdinals;
+
+  // Every food's nutrient values, stored by ordinal in one column per nutrient
+  private NutrientColumns columns;
+
+  // Trigram index of every food's name, used for name searches
+  private NameIndex names;
+
+  // Number of times foods have been added, removed or loaded, so search sessions can tell when the
+  // results they kept are out of date
+  private long modificationCount;
+
+  // The last snapshot handed out, handed out again until foods are next added, removed or loaded
+  private FoodSnapshot latestSnapshot;
+
+  // Branching factor of the nutrient indexes. Nodes are array backed and binary searched, so a wide
+  // node keeps the trees shallow without making lookups inside a node expensive
+  private static final int BRANCHING_FACTOR = 64;
+
+  // How full to pack index nodes when they are bulk loaded from a file, leaving some room so foods
+  // added afterwards don't immediately split every node
+  private static final double BULK_LOAD_FILL_FACTOR = 0.75;
+
+  // Order of the foods that share a value in a nutrient index. Ordinals are unique among the foods
+  // held and don't change while a food is held, so a food is found among the many others with the
+  // same value by binary search when it is removed
+  private static final Comparator<FoodItem> ORDINAL_ORDER =
+      Comparator.comparingInt(FoodItem::getOrdinal);
+
+  // Number of decimal places nutrient keys are stored with as fixed point integers, or -1 to store
+  // them as floating point
+  private int nutrientDecimalPlaces;
+
+  // A range whose index scan is estimated to produce at most this many times as many foods as the
+  // most selective range is intersected as an ordinal set rather than checked on every candidate,
+  // since setting a bit is far cheaper than looking up a food's nutrient value
+  private static final long INTERSECT_SCAN_FACTOR = 8;
+
+  // Once even the most selective of several ranges is estimated to match this fraction of the foods,
+  // every food's values are checked in the columns instead, as the indexes would return most of the
+  // catalog anyway
+  private static final double COLUMN_SCAN_SELECTIVITY = 1.0 / 16;
+
+  // Smallest part of a file parsed as one import task, so small files aren't split into chunks that
+  // cost more to schedule than to parse
+  private static final long MIN_IMPORT_CHUNK_SIZE = 4 << 20;
+
+  // Number of chunks a file is split into per thread of the import pool, so a thread that finishes
+  // early can take over chunks from a slower one
+  private static final int IMPORT_CHUNKS_PER_THREAD = 4;
+
+  // First four bytes of every snapshot file ("FDSS")
+  private static final int SNAPSHOT_MAGIC = 0x46445353;
+
+  // Version of the snapshot layout, bumped whenever anything written to a snapshot changes
+  private static final int SNAPSHOT_VERSION = 3;
+
+  // Names of the files a durable FoodData keeps in its directory
+  private static final String SNAPSHOT_FILE = "foods.snapshot";
+  private static final String LOG_FILE = "foods.log";
+
+  // Size the change log of a durable FoodData can grow to before it is folded into a new snapshot
+  public static final long DEFAULT_CHECKPOINT_LOG_BYTES = 64L << 20;
+
+  // Change log every edit is appended to, or null if edits are only kept in memory
+  private ChangeLog log;
+
+  // Snapshot the change log is checkpointed into, or null if edits are only kept in memory
+  private Path checkpointPath;
+
+  // Size the change log can grow to before it is checkpointed
+  private long checkpointLogBytes;
+
+  // Sequence number of the last logged change this FoodData holds, 0 if it holds none
+  private long logSequence;
 
 
   /**
    * Public constructor
    */
   public FoodData() {
-    foodItemList = new TreeSet<>();
+    this(-1);
+  }
+
+  /**
+   * Public constructor that stores the nutrient index keys as fixed point integers. Nutrient values
+   * with more decimal places than requested are rounded in the indexes.
+   * 
+   * @param nutrientDecimalPlaces the number of decimal places to keep for nutrient index keys, or -1
+   *        to store them as floating point
+   */
+  public FoodData(int nutrientDecimalPlaces) {
+    this.nutrientDecimalPlaces = nutrientDecimalPlaces;
+    sortedFoods = new BPTree<>(BRANCHING_FACTOR);
     indexes = new HashMap<>();
     for (Nutrients n : Nutrients.values()) {
-      indexes.put(n.toString(), new BPTree<>(5));
+      indexes.put(n.toString(), newIndex());
     }
-    ids = new HashSet<>();
+    ids = new HashMap<>();
+    foodsByOrdinal = new OrdinalTable<>();
+    freeOrdinals = null;
+    columns = new NutrientColumns();
+    names = new NameIndex();
+  }
+
+  /**
+   * Private constructor for a frozen, read-only copy of a FoodData as it is now, which FoodSnapshot
+   * runs its queries on. Every structure the queries read is shared with the live FoodData through
+   * its snapshot(), so nothing is copied until the live FoodData changes it. The copy has no id map
+   * or change log, and must never be edited.
+   * 
+   * @param live the FoodData to copy
+   */
+  private FoodData(FoodData live) {
+    nutrientDecimalPlaces = live.nutrientDecimalPlaces;
+    sortedFoods = live.sortedFoods.snapshot();
+    indexes = new HashMap<>();
+    for (Map.Entry<String, DoubleBPTree<FoodItem>> index : live.indexes.entrySet()) {
+      indexes.put(index.getKey(), index.getValue().snapshot());
+    }
+    foodsByOrdinal = live.foodsByOrdinal.snapshot();
+    columns = live.columns.snapshot();
+    names = live.names.snapshot();
+    freeOrdinals = live.freeOrdinals;
+    modificationCount = live.modificationCount;
+    logSequence = live.logSequence;
+  }
+
+  /**
+   * Creates an empty nutrient index
+   * 
+   * @return a new index keyed by nutrient value, with the foods under each value in ordinal order
+   */
+  private DoubleBPTree<FoodItem> newIndex() {
+    return new DoubleBPTree<>(BRANCHING_FACTOR, nutrientDecimalPlaces, ORDINAL_ORDER);
   }
   
   /**
@@ -55,11 +210,11 @@ public class FoodData implements FoodDataADT<FoodItem> {
   private static FoodItem createFoodItem(String id, String name, double calories, double fat,
       double carbs, double fiber, double protein) {
     FoodItem food = new FoodItem(id, name);
-    food.addNutrient(Nutrients.CALORIES.toString(), calories);
-    food.addNutrient(Nutrients.FAT.toString(), fat);
-    food.addNutrient(Nutrients.CARBOHYDRATES.toString(), carbs);
-    food.addNutrient(Nutrients.FIBER.toString(), fiber);
-    food.addNutrient(Nutrients.PROTEIN.toString(), protein);
+    food.addNutrient(Nutrients.CALORIES, calories);
+    food.addNutrient(Nutrients.FAT, fat);
+    food.addNutrient(Nutrients.CARBOHYDRATES, carbs);
+    food.addNutrient(Nutrients.FIBER, fiber);
+    food.addNutrient(Nutrients.PROTEIN, protein);
     return food;
   }
 
@@ -70,78 +225,658 @@ public class FoodData implements FoodDataADT<FoodItem> {
    */
   @Override
   public void loadFoodItems(String filePath) {
+    try {
+      loadFoodItems(filePath, ForkJoinPool.commonPool());
+    } catch (UncheckedIOException e) {
+      // the interface has no way to report the failure, so a file that can't be read loads no foods
+      System.out.println(e.getCause().getMessage());
+      replaceFoods(new ArrayList<>(), ForkJoinPool.commonPool());
+    } catch (IllegalArgumentException e) {
+      // a value the fixed point indexes can't store is as unusable as a file that can't be read
+      System.out.println(e.getMessage());
+      replaceFoods(new ArrayList<>(), ForkJoinPool.commonPool());
+    }
+  }
+
+  /**
+   * Loads the food items in a file, running the import on the given pool. The file is split at line
+   * boundaries into chunks that are parsed in parallel, then each index is built by its own task.
+   * The same foods are loaded, in the same order, as when the file is read one line at a time: when
+   * an id appears more than once, the food on the first of those lines is kept.
+   * 
+   * @param filePath path of the file to load
+   * @param pool the pool to run the import on
+   * @throws UncheckedIOException if the file can't be read, in which case the foods already here are
+   *         kept
+   * @throws IllegalArgumentException if the indexes are fixed point and a food has a nutrient value
+   *         they can't store, in which case the foods already here are kept
+   */
+  public void loadFoodItems(String filePath, ForkJoinPool pool) {
+    loadFoodItems(filePath, pool, null);
+  }
+
+  /**
+   * Loads the food items in a file like loadFoodItems(String, ForkJoinPool), reporting how many bytes
+   * of the file have been parsed each time a chunk is done. The listener is called from the pool's
+   * threads, and may throw CancellationException to abandon the load, in which case the foods already
+   * here are kept.
+   * 
+   * @param filePath path of the file to load
+   * @param pool the pool to run the import on
+   * @param progress told how many bytes have been parsed out of the file's size, or null
+   * @throws CancellationException if the listener cancelled the load, or the thread was interrupted
+   *         while reading the file
+   * @throws UncheckedIOException if the file can't be read, in which case the foods already here are
+   *         kept
+   * @throws IllegalArgumentException if the indexes are fixed point and a food has a nutrient value
+   *         they can't store, in which case the foods already here are kept
+   */
+  public void loadFoodItems(String filePath, ForkJoinPool pool, ProgressListener progress) {
+    // the file is parsed before anything here is touched, so a failed or cancelled load changes
+    // nothing
+    List<FoodItem> loadedFoods;
+    try (FileInputStream in = new FileInputStream(filePath); FileChannel channel = in.getChannel()) {
+      loadedFoods = parseChunks(channel, pool, progress);
+    } catch (IOException | UncheckedIOException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        // the interrupt closed the file under the parse, which isn't a reason to drop every food
+        throw new CancellationException("Load of " + filePath + " was interrupted");
+      }
+      throw e instanceof IOException ? new UncheckedIOException((IOException) e)
+          : (UncheckedIOException) e;
+    }
+    for (FoodItem f : loadedFoods) {
+      checkStorable(f);
+    }
+    replaceFoods(loadedFoods, pool);
+  }
+
+  /**
+   * Replaces every food with the given ones and rebuilds the indexes over them. A subclass shared
+   * between threads can override this to keep other threads out while it runs, without holding them
+   * up while the file is parsed.
+   * 
+   * @param loadedFoods the foods that were loaded, in the order of their lines
+   * @param pool the pool to build the indexes on
+   */
+  void replaceFoods(List<FoodItem> loadedFoods, ForkJoinPool pool) {
     // when loading a new file, create a new FoodData object
-    foodItemList = new TreeSet<>();
+    sortedFoods = new BPTree<>(BRANCHING_FACTOR);
     for (Nutrients n : Nutrients.values()) {
-      indexes.put(n.toString(), new BPTree<>(5));
-    }
-    ids = new HashSet<>();
-    try (Scanner fileScanner = new Scanner(new File(filePath))) {
-      String line;
-      while (fileScanner.hasNextLine()) {
-        line = fileScanner.nextLine();
-        String[] foodItemData = line.split(",");
-
-        // if input line does not contain 12 pieces, skip this line
-        if (foodItemData.length != 12) {
-          continue;
-        }
+      indexes.put(n.toString(), newIndex());
+    }
+    ids = new HashMap<>();
+    foodsByOrdinal = new OrdinalTable<>();
+    freeOrdinals = null;
+    columns = new NutrientColumns();
+    names = new NameIndex();
+    modificationCount++;
 
-        // grab id and name for FoodItem
-        String id = foodItemData[0];
-        String name = foodItemData[1];
+    // the indexes are built in one pass once every food has been read
+    buildIndexes(loadedFoods, pool);
+    if (log != null) { // the change log only holds edits, so a load has to go straight to a snapshot
+      try {
+        checkpointLog();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Parses a food file in chunks on a pool, skipping every food whose id already appeared on an
+   * earlier line
+   * 
+   * @param channel the file to parse
+   * @param pool the pool to parse on
+   * @param progress told how many bytes have been parsed as each chunk is done, or null
+   * @return the foods that were read, in the order of their lines
+   * @throws IOException if the file can't be read
+   */
+  private static List<FoodItem> parseChunks(FileChannel channel, ForkJoinPool pool,
+      ProgressListener progress) throws IOException {
+    long fileSize = channel.size();
+    AtomicLong parsedBytes = new AtomicLong();
+    long chunkSize = Math.max(MIN_IMPORT_CHUNK_SIZE,
+        channel.size() / ((long) pool.getParallelism() * IMPORT_CHUNKS_PER_THREAD));
+    long[] boundaries = FoodCsvReader.chunkBoundaries(channel, chunkSize);
+    int numChunks = boundaries.length - 1;
 
-        // if id or name is blank, skip
-        if (id.equals("") || name.equals("")) {
-          continue;
+    // position of the first line each id is on, as the chunk number in the high 32 bits and the
+    // food's position in the chunk in the low 32 bits. Keeping the minimum means the first line wins
+    // no matter which chunk gets to the id first
+    ConcurrentHashMap<String, Long> firstLines = new ConcurrentHashMap<>();
+    List<ForkJoinTask<List<FoodItem>>> parses = new ArrayList<>(numChunks);
+    for (int c = 0; c < numChunks; c++) {
+      long from = boundaries[c];
+      long to = boundaries[c + 1];
+      long chunkPosition = (long) c << 32;
+      parses.add(pool.submit(() -> {
+        List<FoodItem> foods = new ArrayList<>();
+        new FoodCsvReader((id, name, calories, fat, carbs, fiber, protein) -> {
+          firstLines.merge(id, chunkPosition | foods.size(), Math::min);
+          foods.add(createFoodItem(id, name, calories, fat, carbs, fiber, protein));
+        }).read(channel, from, to);
+        if (progress != null) {
+          progress.progress(parsedBytes.addAndGet(to - from), fileSize);
         }
-        try { // parse nutrient information and add FoodItem to the foodItemList
-          // set up index variables for each nutrient
-          int calorieIndex = 0;
-          int fatIndex = 0;
-          int carbIndex = 0;
-          int fiberIndex = 0;
-          int proteinIndex = 0;
-
-          // find correct index for each nutrient
-          for (int i = 2; i < foodItemData.length; i += 2) {
-            if (foodItemData[i].equals("calories")) {
-              calorieIndex = i + 1;
-            } else if (foodItemData[i].equals("fat")) {
-              fatIndex = i + 1;
-            } else if (foodItemData[i].equals("carbohydrate")) {
-              carbIndex = i + 1;
-            } else if (foodItemData[i].equals("fiber")) {
-              fiberIndex = i + 1;
-            } else if (foodItemData[i].equals("protein")) {
-              proteinIndex = i + 1;
-            }
-          }
+        return foods;
+      }));
+    }
 
-          // if any of the indices are still 0, skip this line
-          if (calorieIndex == 0 || fatIndex == 0 || carbIndex == 0 || fiberIndex == 0
-              || proteinIndex == 0) {
-            continue;
+    // once every chunk is parsed each one can keep just the foods on their id's first line
+    List<ForkJoinTask<List<FoodItem>>> dedups = new ArrayList<>(numChunks);
+    for (int c = 0; c < numChunks; c++) {
+      List<FoodItem> chunkFoods = parses.get(c).join();
+      long chunkPosition = (long) c << 32;
+      dedups.add(pool.submit(() -> {
+        List<FoodItem> firstFoods = new ArrayList<>(chunkFoods.size());
+        for (int i = 0; i < chunkFoods.size(); i++) {
+          FoodItem f = chunkFoods.get(i);
+          if (firstLines.get(f.getID()) == (chunkPosition | i)) {
+            firstFoods.add(f);
           }
-          
-          // associate parsed values with the associated nutrient
-          Double calories = Double.parseDouble(foodItemData[calorieIndex]);
-          Double fat = Double.parseDouble(foodItemData[fatIndex]);
-          Double carbs = Double.parseDouble(foodItemData[carbIndex]);
-          Double fiber = Double.parseDouble(foodItemData[fiberIndex]);
-          Double protein = Double.parseDouble(foodItemData[proteinIndex]);
-          FoodItem newFood = createFoodItem(id, name, calories, fat, carbs, fiber, protein);
-          addFoodItem(newFood);
-
-        } catch (NumberFormatException ne) {
-          continue;
-        } catch (IllegalArgumentException ia) {
-          continue;
         }
+        return firstFoods;
+      }));
+    }
+    List<FoodItem> loadedFoods = new ArrayList<>(firstLines.size());
+    for (ForkJoinTask<List<FoodItem>> dedup : dedups) {
+      loadedFoods.addAll(dedup.join());
+    }
+    return loadedFoods;
+  }
+
+  /**
+   * Rebuilds the sorted food list, the nutrient indexes, the nutrient columns, the name index and the
+   * id map from scratch, one task each on the pool. The trees are bulk loaded bottom-up, which sorts
+   * each one's keys once instead of inserting the foods one at a time.
+   * 
+   * @param foods all the foods to load, in the order their ordinals are handed out
+   * @param pool the pool to build on
+   */
+  private void buildIndexes(List<FoodItem> foods, ForkJoinPool pool) {
+    foodsByOrdinal = new OrdinalTable<>();
+    for (int i = 0; i < foods.size(); i++) {
+      foods.get(i).setOrdinal(i);
+      foodsByOrdinal.add(foods.get(i));
+    }
+
+    ForkJoinTask<BPTree<FoodKey, FoodItem>> sortedBuild = pool.submit(() -> {
+      List<FoodKey> foodKeys = new ArrayList<>(foods.size());
+      for (FoodItem f : foods) {
+        foodKeys.add(FoodKey.of(f));
       }
-    } catch (Exception e) {
-      System.out.println(e.getMessage());
+      BPTree<FoodKey, FoodItem> tree = new BPTree<>(BRANCHING_FACTOR);
+      tree.bulkLoad(foodKeys, foods, BULK_LOAD_FILL_FACTOR);
+      return tree;
+    });
+    Map<Nutrients, ForkJoinTask<DoubleBPTree<FoodItem>>> indexBuilds = new LinkedHashMap<>();
+    for (Nutrients n : Nutrients.values()) {
+      indexBuilds.put(n, pool.submit(() -> {
+        double[] keys = new double[foods.size()];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = foods.get(i).getNutrientValue(n);
+        }
+        DoubleBPTree<FoodItem> index = newIndex();
+        index.bulkLoad(keys, foods, BULK_LOAD_FILL_FACTOR);
+        return index;
+      }));
+    }
+    ForkJoinTask<NutrientColumns> columnBuild = pool.submit(() -> {
+      NutrientColumns foodColumns = new NutrientColumns();
+      double[] values = new double[Nutrients.values().length];
+      for (FoodItem f : foods) {
+        for (Nutrients n : Nutrients.values()) {
+          // round the values the same way as the indexes do
+          values[n.ordinal()] =
+              DoubleBPTree.storableKey(f.getNutrientValue(n), nutrientDecimalPlaces);
+        }
+        foodColumns.add(f.getOrdinal(), values);
+      }
+      return foodColumns;
+    });
+    ForkJoinTask<NameIndex> nameBuild = pool.submit(() -> {
+      NameIndex nameIndex = new NameIndex();
+      for (FoodItem f : foods) {
+        nameIndex.add(f.getOrdinal(), f.getName());
+      }
+      return nameIndex;
+    });
+    ForkJoinTask<HashMap<String, FoodItem>> idBuild = pool.submit(() -> {
+      HashMap<String, FoodItem> idMap = new HashMap<>(foods.size() * 2);
+      for (FoodItem f : foods) {
+        idMap.put(f.getID(), f);
+      }
+      return idMap;
+    });
+
+    sortedFoods = sortedBuild.join();
+    for (Map.Entry<Nutrients, ForkJoinTask<DoubleBPTree<FoodItem>>> build : indexBuilds.entrySet()) {
+      indexes.put(build.getKey().toString(), build.getValue().join());
+    }
+    columns = columnBuild.join();
+    names = nameBuild.join();
+    ids = idBuild.join();
+  }
+
+  /**
+   * Opens a FoodData whose edits are kept durable in a directory, creating the directory if needed.
+   * The directory holds a snapshot and a change log: every add, update and remove is appended to the
+   * log before it is applied, and once the log grows past its limit it is folded into a new snapshot.
+   * Opening loads the snapshot and replays the changes logged after it.
+   * 
+   * @param directory the directory holding the snapshot and the log
+   * @param policy how often the log is forced to disk
+   * @return the FoodData, holding every change that made it into the log
+   * @throws IOException if the snapshot or the log can't be read
+   */
+  public static FoodData openDurable(Path directory, ChangeLog.SyncPolicy policy)
+      throws IOException {
+    return openDurable(directory, policy, DEFAULT_CHECKPOINT_LOG_BYTES);
+  }
+
+  /**
+   * Opens a FoodData whose edits are kept durable in a directory, checkpointing the change log once
+   * it grows past the given size
+   * 
+   * @param directory the directory holding the snapshot and the log
+   * @param policy how often the log is forced to disk
+   * @param checkpointLogBytes size the log can grow to before it is folded into a new snapshot
+   * @return the FoodData, holding every change that made it into the log
+   * @throws IOException if the snapshot or the log can't be read
+   */
+  public static FoodData openDurable(Path directory, ChangeLog.SyncPolicy policy,
+      long checkpointLogBytes) throws IOException {
+    return openDurable(directory, policy, checkpointLogBytes, FoodData::new);
+  }
+
+  /**
+   * Opens a durable FoodData of a given class, such as a ConcurrentFoodData
+   * 
+   * @param directory the directory holding the snapshot and the log
+   * @param policy how often the log is forced to disk
+   * @param checkpointLogBytes size the log can grow to before it is folded into a new snapshot
+   * @param factory creates an empty FoodData from the number of decimal places of its nutrient keys
+   * @return the FoodData, holding every change that made it into the log
+   * @throws IOException if the snapshot or the log can't be read
+   */
+  static <T extends FoodData> T openDurable(Path directory, ChangeLog.SyncPolicy policy,
+      long checkpointLogBytes, IntFunction<T> factory) throws IOException {
+    Files.createDirectories(directory);
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    T opened = Files.exists(snapshot) ? openSnapshot(snapshot, factory) : factory.apply(-1);
+    FoodData foodData = opened; // a type variable can't reach the private fields
+    foodData.log = ChangeLog.open(directory.resolve(LOG_FILE), policy, foodData.logSequence,
+        foodData::replayChange);
+    foodData.checkpointPath = snapshot;
+    foodData.checkpointLogBytes = checkpointLogBytes;
+    return opened;
+  }
+
+  /**
+   * Applies a change read back from the change log
+   * 
+   * @param sequence the sequence number of the change
+   * @param operation what the change does
+   * @param id the id of the food that changed
+   * @param food the food that was added or updated, or null for a removal
+   * @throws IOException if the change doesn't fit the foods it is applied to
+   */
+  private void replayChange(long sequence, ChangeLog.Operation operation, String id, FoodItem food)
+      throws IOException {
+    boolean exists = ids.containsKey(id);
+    if (operation == ChangeLog.Operation.ADD ? exists : !exists) {
+      throw new IOException("Change log does not match the snapshot at change " + sequence + " ("
+          + operation + " " + id + ")");
+    }
+    if (operation != ChangeLog.Operation.ADD) {
+      deleteFood(id);
+    }
+    if (operation != ChangeLog.Operation.REMOVE) {
+      insertFood(food);
+    }
+    logSequence = sequence;
+  }
+
+  /**
+   * Folds the change log into a new snapshot and empties it. The snapshot is saved first, and knows
+   * the last change it holds, so a crash before the log is emptied only means those changes are
+   * skipped when the log is replayed.
+   * 
+   * @throws IOException if the snapshot can't be saved or the log can't be emptied
+   * @throws IllegalStateException if this FoodData wasn't opened with openDurable()
+   */
+  public void checkpoint() throws IOException {
+    if (log == null) {
+      throw new IllegalStateException("Only a FoodData opened with openDurable() has a change log");
+    }
+    checkpointLog();
+  }
+
+  /**
+   * Saves the checkpoint snapshot and empties the change log. Loads and edits that checkpoint call
+   * this rather than checkpoint() or saveSnapshot(), so a subclass that locks those public methods
+   * is never re-entered from inside its own lock.
+   * 
+   * @throws IOException if the snapshot can't be saved or the log can't be emptied
+   */
+  private void checkpointLog() throws IOException {
+    replaceSnapshot(checkpointPath);
+    log.truncate();
+  }
+
+  /**
+   * Forces every logged change to disk and closes the change log. Nothing happens if this FoodData
+   * wasn't opened with openDurable(), and after closing, edits are only kept in memory.
+   * 
+   * @throws IOException if the log can't be written or closed
+   */
+  public void close() throws IOException {
+    if (log != null) {
+      ChangeLog closing = log;
+      log = null;
+      checkpointPath = null;
+      closing.close();
+    }
+  }
+
+  /**
+   * Appends a change to the change log, if there is one, before it is applied, and waits for it
+   * through awaitLogged()
+   * 
+   * @param operation what the change does
+   * @param id the id of the food that changes
+   * @param food the food being added or updated, or null for a removal
+   * @throws UncheckedIOException if the change can't be logged, in which case it must not be applied
+   */
+  private void logChange(ChangeLog.Operation operation, String id, FoodItem food) {
+    if (log == null) {
+      return;
+    }
+    try {
+      logSequence = log.enqueue(operation, id, food);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    awaitLogged(log, logSequence);
+  }
+
+  /**
+   * Waits until a change queued in the change log is as durable as the log's sync policy promises.
+   * A FoodData waits before it applies the change. A subclass shared between threads can instead
+   * wait once it has let other threads in, so the changes they queue meanwhile go out in the same
+   * write.
+   * 
+   * @param changeLog the log the change was queued in
+   * @param sequence the sequence number of the change
+   * @throws UncheckedIOException if the change can't be written
+   */
+  void awaitLogged(ChangeLog changeLog, long sequence) {
+    try {
+      changeLog.awaitDurable(sequence);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Checkpoints the change log, if there is one, once it has grown past its limit
+   * 
+   * @throws UncheckedIOException if the checkpoint fails (the change it follows is already logged)
+   */
+  private void checkpointIfFull() {
+    if (log != null && log.size() >= checkpointLogBytes) {
+      try {
+        checkpointLog();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Writes everything this FoodData holds to a binary snapshot that openSnapshot() can map back in
+   * without parsing or sorting anything: the food records by ordinal, the free ordinals in the order
+   * they will be reused, the nutrient columns, the name index, and the nodes of the sorted food list
+   * and of every nutrient index, with foods referred to by their ordinal, along with the sequence
+   * number of the last logged change they include. The file starts with a magic number and a format version and ends with a CRC-32 of
+   * everything before it. It is written to a temporary file first and moved into place, so a crash
+   * never leaves a half written snapshot behind.
+   * 
+   * @param path the file to write
+   * @throws IOException if the snapshot can't be written
+   */
+  public void saveSnapshot(Path path) throws IOException {
+    replaceSnapshot(path);
+  }
+
+  /**
+   * Writes a snapshot to a temporary file and moves it over the given file
+   * 
+   * @param path the file to write
+   * @throws IOException if the snapshot can't be written
+   */
+  private void replaceSnapshot(Path path) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    CRC32 checksum = new CRC32();
+    try {
+      writeSnapshot(temp, checksum);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes the snapshot file
+   * 
+   * @param file the file to write
+   * @param checksum receives every byte written before the checksum itself
+   * @throws IOException if the snapshot can't be written
+   */
+  private void writeSnapshot(Path file, CRC32 checksum) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new CheckedOutputStream(Files.newOutputStream(file), checksum), 1 << 16))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeInt(nutrientDecimalPlaces);
+      out.writeLong(logSequence);
+
+      out.writeInt(foodsByOrdinal.size());
+      for (int ordinal = 0; ordinal < foodsByOrdinal.size(); ordinal++) {
+        FoodItem f = foodsByOrdinal.get(ordinal);
+        out.writeBoolean(f != null); // removed foods leave a hole so the other ordinals stay put
+        if (f != null) {
+          FoodItem.CODEC.write(out, f);
+        }
+      }
+      // the holes in the order they will be filled, so foods added after the snapshot is opened get
+      // the same ordinals as they did here, which is what a change log replayed over it expects
+      int numFree = 0;
+      for (FreeOrdinal free = freeOrdinals; free != null; free = free.next) {
+        numFree++;
+      }
+      out.writeInt(numFree);
+      for (FreeOrdinal free = freeOrdinals; free != null; free = free.next) {
+        out.writeInt(free.ordinal);
+      }
+      columns.writeSnapshot(out);
+      names.writeSnapshot(out);
+
+      SnapshotCodec<FoodItem> foodCodec = ordinalCodec();
+      sortedFoods.writeSnapshot(out, FoodKey.CODEC, foodCodec);
+      out.writeInt(indexes.size());
+      for (Nutrients n : Nutrients.values()) {
+        SnapshotCodec.writeString(out, n.toString());
+        indexes.get(n.toString()).writeSnapshot(out, foodCodec);
+      }
+
+      out.flush(); // the checksum only covers bytes that have made it through the buffer
+      out.writeLong(checksum.getValue());
+    }
+  }
+
+  /**
+   * Opens a snapshot written by saveSnapshot(). The file is memory-mapped and checked against its
+   * checksum, then every structure is read back in its saved shape, so nothing is parsed as text,
+   * sorted or inserted.
+   * 
+   * @param path the snapshot file
+   * @return a FoodData holding the foods and indexes in the snapshot
+   * @throws IOException if the file can't be read, isn't a snapshot, was written by a different
+   *         version, or is corrupt
+   */
+  public static FoodData openSnapshot(Path path) throws IOException {
+    return openSnapshot(path, FoodData::new);
+  }
+
+  /**
+   * Opens a snapshot into a FoodData of a given class
+   * 
+   * @param path the snapshot file
+   * @param factory creates an empty FoodData from the number of decimal places of its nutrient keys
+   * @return a FoodData holding the foods and indexes in the snapshot
+   * @throws IOException if the file can't be read, isn't a snapshot, was written by a different
+   *         version, or is corrupt
+   */
+  static <T extends FoodData> T openSnapshot(Path path, IntFunction<T> factory)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot is too large to map: " + path);
+      }
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < 3 * Integer.BYTES + Long.BYTES || in.getInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Not a food data snapshot: " + path);
+      }
+      int version = in.getInt();
+      if (version != SNAPSHOT_VERSION) {
+        throw new IOException("Unsupported snapshot version " + version + ": " + path);
+      }
+      ByteBuffer body = in.duplicate();
+      body.position(0);
+      body.limit((int) size - Long.BYTES);
+      CRC32 checksum = new CRC32();
+      checksum.update(body);
+      if (checksum.getValue() != in.getLong((int) size - Long.BYTES)) {
+        throw new IOException("Snapshot is corrupt, its checksum does not match: " + path);
+      }
+      in.limit((int) size - Long.BYTES);
+
+      try {
+        return readSnapshot(in, factory);
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+        throw new IOException("Snapshot is corrupt: " + path, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the structures in a snapshot, after its header
+   * 
+   * @param in the snapshot, positioned just after the version
+   * @param factory creates an empty FoodData from the number of decimal places of its nutrient keys
+   * @return a FoodData holding the foods and indexes in the snapshot
+   * @throws IOException if the snapshot doesn't hold valid structures
+   */
+  private static <T extends FoodData> T readSnapshot(ByteBuffer in, IntFunction<T> factory)
+      throws IOException {
+    T created = factory.apply(in.getInt());
+    FoodData foodData = created; // a type variable can't reach the private fields
+    foodData.logSequence = in.getLong();
+    int numOrdinals = in.getInt();
+    if (numOrdinals < 0) {
+      throw new IOException("Illegal number of foods in snapshot: " + numOrdinals);
+    }
+    for (int ordinal = 0; ordinal < numOrdinals; ordinal++) {
+      FoodItem food = null;
+      if (in.get() != 0) {
+        food = FoodItem.CODEC.read(in);
+        food.setOrdinal(ordinal);
+        foodData.ids.put(food.getID(), food);
+      }
+      foodData.foodsByOrdinal.add(food);
+    }
+    foodData.freeOrdinals = readFreeOrdinals(in, foodData.foodsByOrdinal);
+    foodData.columns = NutrientColumns.readSnapshot(in);
+    foodData.names = NameIndex.readSnapshot(in);
+
+    SnapshotCodec<FoodItem> foodCodec = foodData.ordinalCodec();
+    foodData.sortedFoods = BPTree.readSnapshot(in, FoodKey.CODEC, foodCodec);
+    int numIndexes = in.getInt();
+    for (int i = 0; i < numIndexes; i++) {
+      String nutrient = SnapshotCodec.readString(in);
+      if (!foodData.indexes.containsKey(nutrient)) {
+        throw new IOException("Unknown nutrient in snapshot: " + nutrient);
+      }
+      foodData.indexes.put(nutrient, DoubleBPTree.readSnapshot(in, foodCodec, ORDINAL_ORDER));
+    }
+    if (in.hasRemaining()) {
+      throw new IOException("Unexpected data at the end of the snapshot");
+    }
+    return created;
+  }
+
+  /**
+   * Reads the free ordinals of a snapshot back into a stack with the same one on top
+   * 
+   * @param in the snapshot, positioned at the free ordinals
+   * @param foodsByOrdinal the foods already read from the snapshot
+   * @return the stack of free ordinals, or null if none is free
+   * @throws IOException if the free ordinals aren't exactly the holes among the foods
+   */
+  private static FreeOrdinal readFreeOrdinals(ByteBuffer in, OrdinalTable<FoodItem> foodsByOrdinal)
+      throws IOException {
+    int numFree = in.getInt();
+    int numHoles = 0;
+    for (int ordinal = 0; ordinal < foodsByOrdinal.size(); ordinal++) {
+      if (foodsByOrdinal.get(ordinal) == null) {
+        numHoles++;
+      }
+    }
+    if (numFree != numHoles) {
+      throw new IOException("Snapshot has " + numFree + " free ordinals for " + numHoles + " holes");
     }
+    int[] free = new int[numFree];
+    boolean[] listed = new boolean[foodsByOrdinal.size()];
+    for (int i = 0; i < numFree; i++) {
+      free[i] = in.getInt();
+      if (free[i] < 0 || free[i] >= listed.length || foodsByOrdinal.get(free[i]) != null
+          || listed[free[i]]) {
+        throw new IOException("Illegal free ordinal in snapshot: " + free[i]);
+      }
+      listed[free[i]] = true;
+    }
+    FreeOrdinal top = null;
+    for (int i = numFree - 1; i >= 0; i--) { // the top of the stack was written first
+      top = new FreeOrdinal(free[i], top);
+    }
+    return top;
+  }
+
+  /**
+   * Creates the codec that writes foods into a snapshot as their ordinal, and reads them back from
+   * this FoodData's ordinal table
+   * 
+   * @return the codec
+   */
+  private SnapshotCodec<FoodItem> ordinalCodec() {
+    return new SnapshotCodec<FoodItem>() {
+      public void write(DataOutput out, FoodItem food) throws IOException {
+        out.writeInt(food.getOrdinal());
+      }
+
+      public FoodItem read(ByteBuffer in) throws IOException {
+        int ordinal = in.getInt();
+        if (ordinal < 0 || ordinal >= foodsByOrdinal.size() || foodsByOrdinal.get(ordinal) == null) {
+          throw new IOException("Snapshot refers to a missing food: " + ordinal);
+        }
+        return foodsByOrdinal.get(ordinal);
+      }
+    };
   }
 
   /*
@@ -152,7 +887,64 @@ public class FoodData implements FoodDataADT<FoodItem> {
   @Override
   public List<FoodItem> filterByName(String substring) {
     NameFilter nmFilt = new NameFilter(substring);
-    return nmFilt.executeFilter(new ArrayList<>(foodItemList));
+    return foodsByName(nmFilt.executeFilter(names));
+  }
+
+  /**
+   * Starts a type-ahead name search session. Each search in the session reuses the matches of the
+   * one before it when the new text extends the old text, instead of searching the whole index.
+   * 
+   * @return a new search session over this FoodData
+   */
+  public SearchSession newSearchSession() {
+    return new SearchSession(this);
+  }
+
+  /**
+   * Accessor for the name index, used by search sessions
+   * 
+   * @return the name index
+   */
+  NameIndex getNameIndex() {
+    return names;
+  }
+
+  /**
+   * Accessor for modificationCount, used by search sessions
+   * 
+   * @return the number of times foods have been added, removed or loaded
+   */
+  long getModificationCount() {
+    return modificationCount;
+  }
+
+  /**
+   * Runs a query that reads several of the indexes, such as a search session's search. A FoodData
+   * just runs it; a subclass shared between threads runs it where no edit can happen halfway
+   * through.
+   * 
+   * @param query the query to run
+   * @return what the query returns
+   */
+  <T> T read(Supplier<T> query) {
+    return query.get();
+  }
+
+  /**
+   * Looks up the foods with the given ordinals
+   * 
+   * @param ordinals the ordinals of foods held by this FoodData
+   * @return the foods, ordered by name
+   */
+  List<FoodItem> foodsByName(OrdinalSet ordinals) {
+    List<FoodItem> targetFoods = new ArrayList<>(ordinals.cardinality());
+    PrimitiveIterator.OfInt it = ordinals.iterator();
+    while (it.hasNext()) {
+      targetFoods.add(foodsByOrdinal.get(it.nextInt()));
+    }
+    // the set gives the foods in ordinal order, but callers expect them by name
+    targetFoods.sort(FoodKey.FOOD_ORDER);
+    return targetFoods;
   }
 
   /*
@@ -162,40 +954,198 @@ public class FoodData implements FoodDataADT<FoodItem> {
    */
   @Override
   public List<FoodItem> filterByNutrients(List<String> rules) {
+    return filterByNutrients(rules, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Gets one page of the food items that fulfill ALL the provided rules. The rules have the same
+   * format as in filterByNutrients(List). All the rules on a nutrient are merged into one bounded
+   * range. When that leaves a single range, its index is scanned lazily and the scan stops as soon
+   * as the page is full, so a page costs the foods skipped and returned however many match; the
+   * foods come back in order of their value for the nutrient, and in ordinal order among foods with
+   * the same value. With several ranges, the index statistics are used to estimate how many foods
+   * each range matches:
+   * <ul>
+   * <li>the range expected to match the fewest foods is always scanned through its index</li>
+   * <li>other ranges that are nearly as selective are also scanned, each into a compressed set of
+   * food ordinals, and the sets are intersected word by word</li>
+   * <li>the remaining ranges are checked directly against the nutrient values of each candidate</li>
+   * </ul>
+   * If there are several ranges and even the most selective one matches a large part of the
+   * catalog, the indexes are skipped and all the ranges are checked in one pass over the nutrient
+   * columns instead. FoodItems are only looked up for the candidates that survive. Whichever of
+   * these plans runs, foods come back in ordinal order, so the pages of a query line up with each
+   * other even when an edit in between changes which plan a later page gets. Which order a query
+   * uses only depends on how many nutrients its rules restrict, never on the statistics.
+   * 
+   * @param rules list of rules
+   * @param skip number of matching food items to skip before the page starts
+   * @param limit maximum number of food items to return
+   * @return list of filtered food items; if no food item matched, return empty list
+   */
+  public List<FoodItem> filterByNutrients(List<String> rules, long skip, long limit) {
+    List<NutrientRange> ranges = mergeRules(parseRules(rules, indexes.keySet()));
+    if (ranges.isEmpty()) {
+      return new ArrayList<>();
+    }
+    for (NutrientRange range : ranges) {
+      if (range.isEmpty()) {
+        return new ArrayList<>(); // contradictory rules, nothing can match
+      }
+    }
+    if (ranges.size() == 1) { // nothing to intersect, so stream the index in value order
+      NutrientRange range = ranges.get(0);
+      return range.executeFilter(indexes.get(range.getNutrient())).skip(skip).limit(limit).toList();
+    }
+
+    // order the ranges from most to least selective, then split off the ranges worth scanning
+    final Map<NutrientRange, Long> estimates = new HashMap<>();
+    for (NutrientRange range : ranges) {
+      estimates.put(range, range.estimateCount(indexes.get(range.getNutrient())));
+    }
+    ranges.sort((a, b) -> Long.compare(estimates.get(a), estimates.get(b)));
+    if (estimates.get(ranges.get(0)) >= COLUMN_SCAN_SELECTIVITY * size()) {
+      return scanColumns(ranges, skip, limit);
+    }
+    long scanBudget = Math.max(1, estimates.get(ranges.get(0))) * INTERSECT_SCAN_FACTOR;
+    List<NutrientRange> scanned = new ArrayList<>();
+    List<NutrientRange> residuals = new ArrayList<>();
+    for (NutrientRange range : ranges) {
+      if (scanned.isEmpty() || estimates.get(range) <= scanBudget) {
+        scanned.add(range);
+      } else {
+        residuals.add(range);
+      }
+    }
+
+    // even a single scanned range goes through an ordinal set, so every plan with several ranges
+    // gives the same order
+    List<FoodItem> resultList = new ArrayList<>();
+    OrdinalSet matches = null;
+    for (NutrientRange range : scanned) {
+      OrdinalSet rangeMatches = range.executeOrdinalFilter(indexes.get(range.getNutrient()));
+      matches = matches == null ? rangeMatches : matches.and(rangeMatches);
+      if (matches.isEmpty()) {
+        return resultList; // no food can fulfill the remaining rules as well
+      }
+    }
+    PrimitiveIterator.OfInt ordinals = matches.iterator();
+    while (resultList.size() < limit && ordinals.hasNext()) {
+      FoodItem f = foodsByOrdinal.get(ordinals.nextInt());
+      if (matchesAll(f, residuals)) {
+        if (skip > 0) {
+          skip--;
+        } else {
+          resultList.add(f);
+        }
+      }
+    }
+    return resultList;
+  }
+
+  /**
+   * Gets one page of the foods that fall in all the given ranges by checking every food's values in
+   * the nutrient columns
+   * 
+   * @param ranges the ranges to check
+   * @param skip number of matching food items to skip before the page starts
+   * @param limit maximum number of food items to return
+   * @return the matching food items, in ordinal order
+   */
+  private List<FoodItem> scanColumns(List<NutrientRange> ranges, long skip, long limit) {
+    Nutrients[] nutrients = new Nutrients[ranges.size()];
+    double[] lows = new double[ranges.size()];
+    double[] highs = new double[ranges.size()];
+    for (int i = 0; i < ranges.size(); i++) {
+      NutrientRange range = ranges.get(i);
+      DoubleBPTree<FoodItem> index = indexes.get(range.getNutrient());
+      nutrients[i] = range.getNutrientType();
+      lows[i] = index.storableCeiling(range.getLow());
+      highs[i] = index.storableFloor(range.getHigh());
+    }
+    long[] matches = columns.scan(nutrients, lows, highs);
+
     List<FoodItem> resultList = new ArrayList<>();
+    for (int word = 0; word < matches.length && resultList.size() < limit; word++) {
+      long bits = matches[word];
+      while (bits != 0 && resultList.size() < limit) {
+        int ordinal = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1; // clear the lowest set bit
+        if (skip > 0) {
+          skip--;
+        } else {
+          resultList.add(foodsByOrdinal.get(ordinal));
+        }
+      }
+    }
+    return resultList;
+  }
+
+  /**
+   * Determines if a food's nutrient values fall in every one of the given ranges
+   * 
+   * @param food the food to check
+   * @param ranges the ranges to check it against
+   * @return true if the food matches all the ranges
+   */
+  private boolean matchesAll(FoodItem food, List<NutrientRange> ranges) {
+    for (NutrientRange range : ranges) {
+      if (!range.matches(food, indexes.get(range.getNutrient()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Turns rule strings into nutrient filters. Rules that are not in the "<nutrient> <comparator>
+   * <value>" format, name an unknown nutrient or comparator, or have a value that can't be parsed are
+   * ignored.
+   * 
+   * @param rules list of rules
+   * @param nutrients the names of the nutrients that have an index
+   * @return a filter for each valid rule
+   */
+  static List<NutrientFilter> parseRules(List<String> rules, Set<String> nutrients) {
+    List<NutrientFilter> filters = new ArrayList<>();
     for (String r : rules) {
       String[] pieces = r.split(" ");
       if (pieces.length != 3) {
         continue; // ignore invalid rule input, just continue to the next one
       }
+      String nutrient = pieces[0].toUpperCase(); // nutrient names are case-insensitive
+      if (!nutrients.contains(nutrient)) {
+        continue;
+      }
+      if (!pieces[1].equals("<=") && !pieces[1].equals(">=") && !pieces[1].equals("==")) {
+        continue;
+      }
       try {
-        NutrientFilter nutFilt =
-            new NutrientFilter(pieces[0], pieces[1], Double.parseDouble(pieces[2])); // create a
-                                                                                     // filter based
-                                                                                     // on the
-                                                                                     // current rule
-        List<FoodItem> tempList = new ArrayList<>();
-
-        // execute the current filter, store in temporary list
-        tempList = nutFilt.executeFilter(indexes.get(pieces[0]));
-
-        // for the first rule, just add all the matching food
-        if (resultList.size() == 0) {
-          resultList.addAll(tempList);
-        } else {
-          for (FoodItem f : resultList) {
-
-            // remove every food in resultList that is not in tempList
-            if (!tempList.contains(f)) {
-              resultList.remove(f);
-            }
-          }
-        }
+        filters.add(new NutrientFilter(nutrient, pieces[1], Double.parseDouble(pieces[2])));
       } catch (NumberFormatException e) {
         continue; // if we can't parse the input rule, skip it
       }
     }
-    return resultList;
+    return filters;
+  }
+
+  /**
+   * Merges the filters on each nutrient into a single range for that nutrient
+   * 
+   * @param filters the filters to merge
+   * @return one range per nutrient that has a filter, in the order the nutrients first appear
+   */
+  static List<NutrientRange> mergeRules(List<NutrientFilter> filters) {
+    Map<String, NutrientRange> ranges = new LinkedHashMap<>();
+    for (NutrientFilter nutFilt : filters) {
+      NutrientRange range = ranges.get(nutFilt.getNutrient());
+      if (range == null) {
+        range = new NutrientRange(nutFilt.getNutrient());
+        ranges.put(nutFilt.getNutrient(), range);
+      }
+      range.restrict(nutFilt);
+    }
+    return new ArrayList<>(ranges.values());
   }
 
   /*
@@ -206,28 +1156,271 @@ public class FoodData implements FoodDataADT<FoodItem> {
   @Override
   public void addFoodItem(FoodItem foodItem) {
     // only add if there is no matching id present
-    if (!ids.contains(foodItem.getID())) {
-      // update all instance variables with new item
-      foodItemList.add(foodItem);
-      ids.add(foodItem.getID());
-      for (Nutrients n : Nutrients.values()) {
-        indexes.get(n.toString()).insert(foodItem.getNutrientValue(n.toString()), foodItem);
-      }
+    if (!ids.containsKey(foodItem.getID())) {
+      checkNew(foodItem);
+      checkStorable(foodItem);
+      logChange(ChangeLog.Operation.ADD, foodItem.getID(), foodItem);
+      insertFood(foodItem);
+      checkpointIfFull();
     } else { // throw exception if there is a duplicate
       throw new IllegalArgumentException();
     }
   }
 
-  /*
-   * (non-Javadoc)
+  /**
+   * Checks that a food has never been added to a FoodData. A food keeps its ordinal after it is
+   * removed, because snapshots taken while it was held still find it by that ordinal, so it can't be
+   * given another one.
+   * 
+   * @param food the food about to be added
+   * @throws IllegalArgumentException if the food has been added to a FoodData before
+   */
+  private void checkNew(FoodItem food) {
+    if (food.getOrdinal() >= 0) {
+      throw new IllegalArgumentException("Food item " + food.getID()
+          + " already belongs to a FoodData; add a new FoodItem instead");
+    }
+  }
+
+  /**
+   * Checks that the nutrient indexes can store every value of a food, before anything is logged or
+   * changed, so a value a fixed point index would reject never leaves a food half added
    * 
-   * @see skeleton.FoodDataADT#getAllFoodItems()
+   * @param food the food about to be added
+   * @throws IllegalArgumentException if the indexes are fixed point and one of the food's values is
+   *         NaN or too large for them
+   */
+  private void checkStorable(FoodItem food) {
+    for (Nutrients n : Nutrients.values()) {
+      try {
+        DoubleBPTree.storableKey(food.getNutrientValue(n), nutrientDecimalPlaces);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Food item " + food.getID() + " has a " + n
+            + " value the indexes can't store: " + food.getNutrientValue(n), e);
+      }
+    }
+  }
+
+  /**
+   * Adds a food item to the sorted food list and every index, without logging it
+   * 
+   * @param foodItem the food item to add, whose id must not be present yet
+   */
+  private void insertFood(FoodItem foodItem) {
+    // update all instance variables with new item
+    sortedFoods.insert(FoodKey.of(foodItem), foodItem);
+    ids.put(foodItem.getID(), foodItem);
+    assignOrdinal(foodItem);
+    modificationCount++;
+    for (Nutrients n : Nutrients.values()) {
+      indexes.get(n.toString()).insertKey(foodItem.getNutrientValue(n), foodItem);
+    }
+  }
+
+  /**
+   * Removes the food item with the given id. Only that food's entries are removed from the indexes,
+   * nothing is rebuilt.
+   * 
+   * @param id the id of the food item to remove
+   * @return the food item that was removed
+   * @throws IllegalArgumentException if no food item has the given id
+   */
+  public FoodItem removeFoodItem(String id) {
+    if (!ids.containsKey(id)) {
+      throw new IllegalArgumentException("No food item with id " + id);
+    }
+    logChange(ChangeLog.Operation.REMOVE, id, null);
+    FoodItem food = deleteFood(id);
+    checkpointIfFull();
+    return food;
+  }
+
+  /**
+   * Removes a food item from the sorted food list and every index, without logging it
+   * 
+   * @param id the id of the food item to remove, which must be present
+   * @return the food item that was removed
+   */
+  private FoodItem deleteFood(String id) {
+    FoodItem food = ids.remove(id);
+    sortedFoods.delete(FoodKey.of(food), food);
+    for (Nutrients n : Nutrients.values()) {
+      indexes.get(n.toString()).deleteKey(food.getNutrientValue(n), food);
+    }
+    foodsByOrdinal.set(food.getOrdinal(), null);
+    columns.remove(food.getOrdinal());
+    names.remove(food.getOrdinal());
+    freeOrdinals = new FreeOrdinal(food.getOrdinal(), freeOrdinals); // the food keeps its ordinal too
+    modificationCount++;
+    return food;
+  }
+
+  /**
+   * Gives a food the most recently freed ordinal, or the next new one if none is free, and stores its
+   * nutrient values in the columns and its name in the name index. Reusing ordinals keeps the ordinal
+   * table, the columns and the ordinal sets from growing with every edit. A food item can only ever
+   * be held by one FoodData, once, since the ordinal is stored on the food itself and kept after
+   * the food is removed.
+   * 
+   * @param food the food being added
+   */
+  private void assignOrdinal(FoodItem food) {
+    if (freeOrdinals == null) {
+      food.setOrdinal(foodsByOrdinal.size());
+      foodsByOrdinal.add(food);
+    } else {
+      food.setOrdinal(freeOrdinals.ordinal);
+      freeOrdinals = freeOrdinals.next;
+      foodsByOrdinal.set(food.getOrdinal(), food);
+    }
+    double[] values = new double[Nutrients.values().length];
+    for (Nutrients n : Nutrients.values()) {
+      // store the values rounded the same way as in the indexes, so both give the same answers
+      values[n.ordinal()] =
+          DoubleBPTree.storableKey(food.getNutrientValue(n), nutrientDecimalPlaces);
+    }
+    columns.add(food.getOrdinal(), values);
+    names.add(food.getOrdinal(), food.getName());
+  }
+
+  /**
+   * Replaces the food item that has the same id as the given one. The old food's index entries are
+   * removed and the new food's are inserted, nothing is rebuilt.
+   * 
+   * The replacement must be a new FoodItem object: a food that has already been added must not be
+   * changed in place, since its index entries are keyed by the values it was added with.
+   * 
+   * @param foodItem the new version of the food item
+   * @throws IllegalArgumentException if no food item has the same id, foodItem is the food item
+   *         that is already stored or was added to a FoodData before, or it has a nutrient value
+   *         the indexes can't store
+   */
+  public void updateFoodItem(FoodItem foodItem) {
+    FoodItem oldFood = ids.get(foodItem.getID());
+    if (oldFood == null) {
+      throw new IllegalArgumentException("No food item with id " + foodItem.getID());
+    }
+    if (oldFood == foodItem) {
+      throw new IllegalArgumentException("Food item " + foodItem.getID() + " is already stored");
+    }
+    checkNew(foodItem);
+    checkStorable(foodItem);
+    logChange(ChangeLog.Operation.UPDATE, foodItem.getID(), foodItem);
+    deleteFood(foodItem.getID());
+    insertFood(foodItem);
+    checkpointIfFull();
+  }
+
+  /**
+   * Gets all the food items, ordered by name and then by id. The list is a read-only view of the
+   * sorted food index rather than a copy, so it is cheap to get but must be copied before it is
+   * changed, and must not be iterated while foods are being added or removed.
+   * 
+   * @return a read-only list of all the food items
    */
   @Override
   public List<FoodItem> getAllFoodItems() {
-    return new ArrayList<>(foodItemList);
+    return sortedFoods.values();
   }
 
+  /**
+   * Gets the food item with the given id
+   * 
+   * @param id the id to look up
+   * @return the food item, or null if no food item has that id
+   */
+  public FoodItem getFoodItem(String id) {
+    return ids.get(id);
+  }
+
+  /**
+   * Gets the number of food items, without building a list of them
+   * 
+   * @return the number of food items
+   */
+  public int size() {
+    return sortedFoods.size();
+  }
+
+  /**
+   * Gets the page of food items that come right after the given food, in the same order as
+   * getAllFoodItems(). Passing the name and id of the last food on one page gets the next page, and
+   * no food is skipped or repeated even if foods are added or removed between pages.
+   * 
+   * @param name the name of the last food on the previous page, or null to start at the beginning
+   * @param id the id of the last food on the previous page
+   * @param limit maximum number of food items to return
+   * @return the next page of food items
+   */
+  public List<FoodItem> getFoodItemsAfter(String name, String id, long limit) {
+    return scanAfter(sortedFoods, name, id).limit(limit).toList();
+  }
+
+  /**
+   * Opens a cursor over the foods in a sorted food index that come right after the given food
+   * 
+   * @param sortedFoods the foods ordered by name and then by id
+   * @param name the name of the food to start after, or null to start at the beginning
+   * @param id the id of the food to start after
+   * @return a cursor over the following food items
+   */
+  static Cursor<FoodItem> scanAfter(BPTree<FoodKey, FoodItem> sortedFoods, String name, String id) {
+    if (name == null) {
+      return sortedFoods.scan(null, null);
+    }
+    return sortedFoods.scan(new FoodKey(name, id), false, null, true);
+  }
+
+  /**
+   * Opens a lazy cursor over the food items whose name starts with the given prefix (case-sensitive),
+   * in the same order as getAllFoodItems(). Only the part of the sorted food index holding those
+   * names is read.
+   * 
+   * @param prefix the start of the names to find
+   * @return a cursor over the matching food items
+   */
+  public Cursor<FoodItem> scanNamePrefix(String prefix) {
+    return scanPrefix(sortedFoods, prefix);
+  }
+
+  /**
+   * Opens a cursor over the foods in a sorted food index whose name starts with the given prefix
+   * 
+   * @param sortedFoods the foods ordered by name and then by id
+   * @param prefix the start of the names to find
+   * @return a cursor over the matching food items
+   */
+  static Cursor<FoodItem> scanPrefix(BPTree<FoodKey, FoodItem> sortedFoods, String prefix) {
+    // every name starting with the prefix sorts below the prefix with its last character bumped up
+    int last = prefix.length() - 1;
+    while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+      last--;
+    }
+    if (last < 0) {
+      return sortedFoods.scan(FoodKey.first(prefix), true, null, true);
+    }
+    String end = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    return sortedFoods.scan(FoodKey.first(prefix), true, FoodKey.first(end), false);
+  }
+
+
+  /**
+   * Takes a read-only, point-in-time snapshot of the food items, the indexes, the nutrient columns
+   * and the name index. Nothing is copied: the snapshot shares the trees' nodes and the chunks of
+   * the other structures, and from then on this FoodData copies a node or chunk before changing one
+   * the snapshot can still reach, so an edit copies a few small pieces however many foods there are.
+   * Queries on the snapshot keep seeing the foods as they were when it was taken, without locking,
+   * from any thread and for as long as they like, while foods go on being added and removed here.
+   * Old versions are reclaimed by the garbage collector once no snapshot refers to them.
+   * 
+   * @return the snapshot
+   */
+  public FoodSnapshot snapshot() {
+    if (latestSnapshot == null || latestSnapshot.getModificationCount() != modificationCount) {
+      latestSnapshot = new FoodSnapshot(new FoodData(this));
+    }
+    return latestSnapshot;
+  }
 
   /*
    * (non-Javadoc)
@@ -237,23 +1430,9 @@ public class FoodData implements FoodDataADT<FoodItem> {
   @Override
   public void saveFoodItems(String filename) {
     try {
-      FileWriter fw = new FileWriter(new File(filename));
-      PrintWriter pw = new PrintWriter(fw);
-
-      // construct TreeSet of the contents of foodItemList
-      TreeSet<FoodItem> foodSet = new TreeSet<>(foodItemList);
-
-      for (FoodItem f : foodSet) { // write out one line for each FoodItem
-        pw.println(f.getID() + "," + f.getName() + ",calories," + f.getNutrientValue("CALORIES")
-            + ",fat," + f.getNutrientValue("FAT") + ",carbohydrate,"
-            + f.getNutrientValue("CARBOHYDRATES") + ",fiber," + f.getNutrientValue("FIBER")
-            + ",protein," + f.getNutrientValue("PROTEIN"));
-      }
-
-      // close file resources
-      pw.close();
-      fw.close();
-
+      // write out one line for each FoodItem, in name order
+      FoodExporter.export(sortedFoods.values().iterator(), new File(filename).toPath(),
+          FoodExporter.Format.CSV, false);
     } catch (IOException ioe) {
       System.out.println(ioe.getMessage());
     } catch (Exception e) {
@@ -261,6 +1440,36 @@ public class FoodData implements FoodDataADT<FoodItem> {
     }
   }
 
+  /**
+   * Exports every food item, sorted by name, to a file
+   * 
+   * @param path the file to write, replaced if it exists
+   * @param format the format to write
+   * @param gzip whether to compress the file with gzip
+   * @return the number of food items written
+   * @throws IOException if the file can't be written
+   */
+  public long exportFoodItems(Path path, FoodExporter.Format format, boolean gzip)
+      throws IOException {
+    return FoodExporter.export(sortedFoods.values().iterator(), path, format, gzip);
+  }
+
+  /**
+   * Exports the food items a query produced, such as a cursor from
+   * scanNamePrefix(), without collecting them into a list first
+   * 
+   * @param foods the food items to write
+   * @param path the file to write, replaced if it exists
+   * @param format the format to write
+   * @param gzip whether to compress the file with gzip
+   * @return the number of food items written
+   * @throws IOException if the file can't be written
+   */
+  public long exportFoodItems(Iterator<? extends FoodItem> foods, Path path,
+      FoodExporter.Format format, boolean gzip) throws IOException {
+    return FoodExporter.export(foods, path, format, gzip);
+  }
+
   public static void main(String[] args) {
     // read a data file
     // call other methods
@@ -278,7 +1487,31 @@ public class FoodData implements FoodDataADT<FoodItem> {
     }
     List<FoodItem> filteredFoods = testFoods.filterByNutrients(testFilters);
     for (FoodItem food : filteredFoods) {
-      System.out.println(food.getNutrientValue("CALORIES"));
+      System.out.println(food.getNutrientValue(Nutrients.CALORIES));
+    }
+  }
+
+  /**
+   * One entry of the stack of free ordinals. Entries are never changed once made, so a snapshot can
+   * keep the stack as it was just by keeping its top entry.
+   */
+  private static final class FreeOrdinal {
+
+    // The free ordinal
+    final int ordinal;
+
+    // The entry below this one, freed earlier, or null at the bottom of the stack
+    final FreeOrdinal next;
+
+    /**
+     * Package constructor
+     * 
+     * @param ordinal the free ordinal
+     * @param next the entry below this one, or null
+     */
+    FreeOrdinal(int ordinal, FreeOrdinal next) {
+      this.ordinal = ordinal;
+      this.next = next;
     }
   }
 }
@@ -0,0 +1,526 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams food items out to a file or stream as CSV, JSON Lines or compact
+ * binary rows.
+ *
+ * Rows are encoded straight into one large byte buffer that is handed to
+ * the output stream whenever it fills up, so no String is built per row:
+ * labels are written from pre-encoded bytes, names and ids are encoded to
+ * UTF-8 character by character, and whole-number nutrient values (the
+ * common case) are written digit by digit.  The foods can come from any
+ * iterator, so a cursor over a query result is exported the same way as
+ * the whole catalog, without collecting it into a list first.
+ *
+ * The binary format is a header (the magic number "FDBX" and a version)
+ * followed by one row per food: the id and name, each as a length and its
+ * UTF-8 bytes, then the calories, fat, carbohydrate, fiber and protein as
+ * doubles, all big-endian.  readBinary() reads it back.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class FoodExporter implements Closeable {
+
+    /**
+     * The formats foods can be exported in
+     */
+    public enum Format {
+        // The format loadFoodItems() reads: id,name,calories,<value>,fat,<value>,...
+        CSV,
+        // One JSON object per line
+        JSON_LINES,
+        // Length-prefixed strings and raw doubles
+        BINARY
+    }
+
+    // Size of the output buffer
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Most bytes a single character can take in UTF-8, once surrogate pairs are combined
+    private static final int MAX_CHAR_BYTES = 4;
+
+    // Largest whole number written digit by digit; Double.toString() switches to an exponent from 10^7
+    private static final double MAX_PLAIN_WHOLE_NUMBER = 1e7;
+
+    // First four bytes of a binary export ("FDBX")
+    private static final int BINARY_MAGIC = 0x46444258;
+
+    // Version of the binary row layout
+    private static final int BINARY_VERSION = 1;
+
+    // Nutrients in the order every format writes them
+    private static final Nutrients[] NUTRIENTS = {Nutrients.CALORIES, Nutrients.FAT,
+        Nutrients.CARBOHYDRATES, Nutrients.FIBER, Nutrients.PROTEIN};
+
+    // Bytes written before each nutrient value in a CSV row
+    private static final byte[][] CSV_LABELS = new byte[NUTRIENTS.length][];
+
+    // Bytes written before each nutrient value in a JSON row
+    private static final byte[][] JSON_LABELS = new byte[NUTRIENTS.length][];
+
+    static {
+        String[] csvNames = {"calories", "fat", "carbohydrate", "fiber", "protein"};
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            CSV_LABELS[i] = ("," + csvNames[i] + ",").getBytes(StandardCharsets.US_ASCII);
+            JSON_LABELS[i] = (",\"" + csvNames[i] + "\":").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Bytes that start a JSON row, up to the id's value
+    private static final byte[] JSON_ID = "{\"id\":".getBytes(StandardCharsets.US_ASCII);
+
+    // Bytes between the id and name values of a JSON row
+    private static final byte[] JSON_NAME = ",\"name\":".getBytes(StandardCharsets.US_ASCII);
+
+    // JSON has no NaN or infinities, so they are written as null
+    private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    // Hex digits for escaped control characters in JSON strings
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Where the rows go
+    private final OutputStream out;
+
+    // Format of the rows
+    private final Format format;
+
+    // Line separator written after each CSV row, the same one saveFoodItems() always used
+    private final byte[] csvLineSeparator;
+
+    // Rows encoded but not handed to the output stream yet
+    private final byte[] buffer;
+
+    // Number of bytes in use in the buffer
+    private int count;
+
+    // Number of rows written
+    private long rows;
+
+    /**
+     * Public constructor.  The binary header, if any, is written right away.
+     *
+     * @param out where to write the rows, closed along with the exporter
+     * @param format the format to write
+     * @throws IOException if the header can't be written
+     */
+    public FoodExporter(OutputStream out, Format format) throws IOException {
+        this.out = out;
+        this.format = format;
+        this.csvLineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        this.buffer = new byte[BUFFER_SIZE];
+        if (format == Format.BINARY) {
+            writeInt(BINARY_MAGIC);
+            writeInt(BINARY_VERSION);
+        }
+    }
+
+    /**
+     * Exports foods to a file, replacing it if it exists
+     *
+     * @param foods the foods to export, such as a cursor over a query result
+     * @param path the file to write
+     * @param format the format to write
+     * @param gzip whether to compress the file with gzip
+     * @return the number of foods written
+     * @throws IOException if the file can't be written
+     */
+    public static long export(Iterator<? extends FoodItem> foods, Path path, Format format, boolean gzip)
+        throws IOException {
+        //Each stream has its own resource, so the file is closed even if a wrapper can't be created
+        try (OutputStream file = Files.newOutputStream(path);
+            OutputStream body = gzip ? new GZIPOutputStream(file, BUFFER_SIZE) : file;
+            FoodExporter exporter = new FoodExporter(body, format)) {
+            return exporter.writeAll(foods);
+        }
+    }
+
+    /**
+     * Reads back a binary export, passing each row to the handler
+     *
+     * @param path the file to read
+     * @param gzip whether the file is compressed with gzip
+     * @param handler receives each row
+     * @return the number of rows read
+     * @throws IOException if the file can't be read or isn't a binary export
+     */
+    public static long readBinary(Path path, boolean gzip, FoodCsvReader.RowHandler handler)
+        throws IOException {
+        InputStream file = Files.newInputStream(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            gzip ? new GZIPInputStream(file, BUFFER_SIZE) : file, BUFFER_SIZE))) {
+            if (in.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not a binary food export: " + path);
+            }
+            int version = in.readInt();
+            if (version != BINARY_VERSION) {
+                throw new IOException("Unsupported binary food export version " + version + ": " + path);
+            }
+            long numRows = 0;
+            while (true) {
+                int idLength;
+                try {
+                    idLength = in.readInt();
+                }
+                catch (EOFException e) {
+                    return numRows; //Rows only end at the end of the file
+                }
+                String id = readString(in, idLength);
+                String name = readString(in, in.readInt());
+                handler.row(id, name, in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble());
+                numRows++;
+            }
+        }
+    }
+
+    /**
+     * Reads a string of a known length from a binary export
+     *
+     * @param in the stream to read from
+     * @param length the length of the string in bytes
+     * @return the string
+     * @throws IOException if the string can't be read
+     */
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Illegal string length in binary food export: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Accessor for rows
+     *
+     * @return the number of foods written so far
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes every food an iterator returns
+     *
+     * @param foods the foods to write
+     * @return the number of foods written
+     * @throws IOException if the foods can't be written
+     */
+    public long writeAll(Iterator<? extends FoodItem> foods) throws IOException {
+        long written = 0;
+        while (foods.hasNext()) {
+            write(foods.next());
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Writes one food
+     *
+     * @param food the food to write
+     * @throws IOException if the food can't be written
+     */
+    public void write(FoodItem food) throws IOException {
+        switch (format) {
+        case CSV:
+            writeUtf8(food.getID());
+            writeByte(',');
+            writeUtf8(food.getName());
+            for (int i = 0; i < NUTRIENTS.length; i++) {
+                writeBytes(CSV_LABELS[i]);
+                writeDouble(food.getNutrientValue(NUTRIENTS[i]));
+            }
+            writeBytes(csvLineSeparator);
+            break;
+        case JSON_LINES:
+            writeBytes(JSON_ID);
+            writeJsonString(food.getID());
+            writeBytes(JSON_NAME);
+            writeJsonString(food.getName());
+            for (int i = 0; i < NUTRIENTS.length; i++) {
+                writeBytes(JSON_LABELS[i]);
+                double value = food.getNutrientValue(NUTRIENTS[i]);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    writeBytes(JSON_NULL);
+                }
+                else {
+                    writeDouble(value);
+                }
+            }
+            writeByte('}');
+            writeByte('\n');
+            break;
+        case BINARY:
+            writeLengthPrefixedUtf8(food.getID());
+            writeLengthPrefixedUtf8(food.getName());
+            for (int i = 0; i < NUTRIENTS.length; i++) {
+                writeLong(Double.doubleToRawLongBits(food.getNutrientValue(NUTRIENTS[i])));
+            }
+            break;
+        }
+        rows++;
+    }
+
+    /**
+     * Hands everything buffered to the output stream and flushes it
+     *
+     * @throws IOException if the bytes can't be written
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Writes out everything buffered and closes the output stream, which
+     * finishes a gzip stream
+     *
+     * @throws IOException if the bytes can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the output stream
+     *
+     * @throws IOException if the bytes can't be written
+     */
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Makes sure the buffer has room for some more bytes
+     *
+     * @param numBytes the number of bytes about to be written, at most BUFFER_SIZE
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void ensureRoom(int numBytes) throws IOException {
+        if (count + numBytes > buffer.length) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes one byte
+     *
+     * @param b the byte
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeByte(int b) throws IOException {
+        ensureRoom(1);
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Writes pre-encoded bytes
+     *
+     * @param bytes the bytes, fewer than BUFFER_SIZE
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeBytes(byte[] bytes) throws IOException {
+        ensureRoom(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Writes an int, big-endian
+     *
+     * @param v the value
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeInt(int v) throws IOException {
+        ensureRoom(Integer.BYTES);
+        buffer[count++] = (byte) (v >>> 24);
+        buffer[count++] = (byte) (v >>> 16);
+        buffer[count++] = (byte) (v >>> 8);
+        buffer[count++] = (byte) v;
+    }
+
+    /**
+     * Writes a long, big-endian
+     *
+     * @param v the value
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * Writes a double the way Double.toString() would, writing whole
+     * numbers digit by digit instead of creating a String
+     *
+     * @param value the value
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeDouble(double value) throws IOException {
+        long whole = (long) value;
+        if (whole != value || Math.abs(value) >= MAX_PLAIN_WHOLE_NUMBER
+            || (value == 0 && 1 / value < 0)) { //-0.0 is whole but prints its sign
+            writeAscii(Double.toString(value));
+            return;
+        }
+        ensureRoom(20 + 2);
+        if (whole < 0) {
+            buffer[count++] = '-';
+            whole = -whole;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) { //Digits came out lowest first
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        buffer[count++] = '.';
+        buffer[count++] = '0';
+    }
+
+    /**
+     * Writes a string known to be ASCII
+     *
+     * @param s the string
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeAscii(String s) throws IOException {
+        ensureRoom(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes a string as UTF-8, the same bytes String.getBytes() would give
+     *
+     * @param s the string
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeUtf8(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ensureRoom(MAX_CHAR_BYTES);
+            i = encodeChar(s, i);
+        }
+    }
+
+    /**
+     * Writes a string as UTF-8 preceded by its length in bytes
+     *
+     * @param s the string
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeLengthPrefixedUtf8(String s) throws IOException {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.codePointAt(i);
+            if (c >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                i++;
+                length += 4;
+            }
+            else {
+                length += c < 0x80 || Character.isSurrogate((char) c) ? 1 : c < 0x800 ? 2 : 3; //Unpaired surrogates become '?'
+            }
+        }
+        writeInt(length);
+        writeUtf8(s);
+    }
+
+    /**
+     * Writes a string as a quoted JSON string, escaping quotes, backslashes
+     * and control characters
+     *
+     * @param s the string
+     * @throws IOException if the buffer had to be drained and that failed
+     */
+    private void writeJsonString(String s) throws IOException {
+        writeByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            ensureRoom(6); //Longest escape is a backslash, a u and four hex digits
+            if (c == '"' || c == '\\') {
+                buffer[count++] = '\\';
+                buffer[count++] = (byte) c;
+            }
+            else if (c < 0x20) {
+                buffer[count++] = '\\';
+                buffer[count++] = 'u';
+                buffer[count++] = '0';
+                buffer[count++] = '0';
+                buffer[count++] = HEX_DIGITS[c >> 4];
+                buffer[count++] = HEX_DIGITS[c & 0xF];
+            }
+            else {
+                i = encodeChar(s, i);
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Encodes one character (or surrogate pair) into the buffer as UTF-8.
+     * An unpaired surrogate is written as '?', like String.getBytes() does.
+     * The caller makes sure there is room for MAX_CHAR_BYTES.
+     *
+     * @param s the string
+     * @param i the position of the character
+     * @return the position of the last char used, i + 1 for a surrogate pair
+     */
+    private int encodeChar(String s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            buffer[count++] = (byte) c;
+        }
+        else if (c < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (c >> 6));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return i + 1;
+            }
+            buffer[count++] = '?';
+        }
+        else {
+            buffer[count++] = (byte) (0xE0 | (c >> 12));
+            buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+}
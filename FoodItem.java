@@ -1,8 +1,11 @@
 package application;
 
-import java.util.ArrayList;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
 
 /**
  * This class represents a food item with all its properties.
@@ -10,14 +13,59 @@ import java.util.List;
  * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
  */
 public class FoodItem implements Comparable {
+    // Writes food items into snapshots and change logs as their id, name and nutrients.
+    public static final SnapshotCodec<FoodItem> CODEC = new SnapshotCodec<FoodItem>() {
+        public void write(DataOutput out, FoodItem food) throws IOException {
+            SnapshotCodec.writeString(out, food.id);
+            SnapshotCodec.writeString(out, food.name);
+            out.writeInt(NUTRIENTS.length);
+            for (Nutrients nutrient : NUTRIENTS) {
+                SnapshotCodec.writeString(out, nutrient.toString());
+                out.writeDouble(food.nutrients[nutrient.ordinal()]);
+            }
+        }
+
+        public FoodItem read(ByteBuffer in) throws IOException {
+            String id = SnapshotCodec.readString(in);
+            FoodItem food = new FoodItem(id, SnapshotCodec.readString(in));
+            int numNutrients = in.getInt();
+            if (numNutrients < 0) {
+                throw new IOException("Illegal number of nutrients: " + numNutrients);
+            }
+            for (int i = 0; i < numNutrients; i++) {
+                Nutrients nutrient = NUTRIENTS_BY_NAME.get(SnapshotCodec.readString(in));
+                double value = in.getDouble();
+                if (nutrient != null) { //Older files may hold other names, which were always read as 0
+                    food.nutrients[nutrient.ordinal()] = value;
+                }
+            }
+            return food;
+        }
+    };
+
+    // Every nutrient, in ordinal order; values() makes a new array on each call.
+    private static final Nutrients[] NUTRIENTS = Nutrients.values();
+
+    // Nutrients by the name they were kept under when food items held a map of them.
+    private static final Map<String, Nutrients> NUTRIENTS_BY_NAME = new HashMap<String, Nutrients>();
+
+    static {
+        for (Nutrients nutrient : NUTRIENTS) {
+            NUTRIENTS_BY_NAME.put(nutrient.toString(), nutrient);
+        }
+    }
+
     // The name of the food item.
     private String name;
 
     // The id of the food item.
     private String id;
 
-    // Map of nutrients and value.
-    private HashMap<String, Double> nutrients;
+    // Value of each nutrient, indexed by Nutrients.ordinal(); nutrients never set are 0.
+    private final double[] nutrients;
+
+    // Dense number given to the food item by the FoodData it was added to, or -1 if it never was.
+    private int ordinal;
     
     /**
      * Constructor
@@ -27,7 +75,8 @@ public class FoodItem implements Comparable {
     public FoodItem(String id, String name) {
     	this.id = id;
     	this.name = name;
-    	this.nutrients = new HashMap<String, Double>();
+    	this.nutrients = new double[NUTRIENTS.length];
+    	this.ordinal = -1;
     }
     
     /**
@@ -49,20 +98,72 @@ public class FoodItem implements Comparable {
     }
     
     /**
-     * Gets the nutrients of the food item
+     * Gets the ordinal the FoodData holding this food item gave it. The food item keeps it after it
+     * is removed, for the snapshots that still hold it.
      * 
-     * @return nutrients of the food item
+     * @return ordinal of the food item, or -1 if it has never been added to a FoodData
      */
-    public HashMap<String, Double> getNutrients() {
-        return nutrients;
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Sets the ordinal of the food item, only called by the FoodData adding or loading it
+     * 
+     * @param ordinal the new ordinal
+     */
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+    
+    /**
+     * Gets the nutrients of the food item. The map is a copy, so changing it
+     * doesn't change the food.
+     * 
+     * @return value of every nutrient of the food item
+     */
+    public EnumMap<Nutrients, Double> getNutrients() {
+        EnumMap<Nutrients, Double> map = new EnumMap<Nutrients, Double>(Nutrients.class);
+        for (Nutrients nutrient : NUTRIENTS) {
+            map.put(nutrient, nutrients[nutrient.ordinal()]);
+        }
+        return map;
+    }
+
+    /**
+     * Sets the value of a nutrient for this food.
+     * 
+     * @param nutrient the nutrient to set
+     * @param value the new value of the nutrient
+     */
+    public void addNutrient(Nutrients nutrient, double value) {
+        nutrients[nutrient.ordinal()] = value;
     }
 
     /**
      * Adds a nutrient and its value to this food. 
      * If nutrient already exists, updates its value.
+     * 
+     * @param name the nutrient's name, as given by Nutrients.toString()
+     * @param value the new value of the nutrient
+     * @throws IllegalArgumentException if name isn't the name of a nutrient
      */
     public void addNutrient(String name, Double value) {
-        nutrients.put(name, value);
+        Nutrients nutrient = NUTRIENTS_BY_NAME.get(name);
+        if (nutrient == null) {
+            throw new IllegalArgumentException("Not a nutrient: " + name);
+        }
+        nutrients[nutrient.ordinal()] = value;
+    }
+
+    /**
+     * Returns the value of the given nutrient for this food item.
+     * 
+     * @param nutrient the nutrient to get
+     * @return the nutrient's value, or 0 if it was never set
+     */
+    public double getNutrientValue(Nutrients nutrient) {
+        return nutrients[nutrient.ordinal()];
     }
 
     /**
@@ -70,12 +171,12 @@ public class FoodItem implements Comparable {
      * If not present, then returns 0.
      */
     public double getNutrientValue(String name) {
-        Double value = nutrients.get(name);
-        if (value == null) {
+        Nutrients nutrient = NUTRIENTS_BY_NAME.get(name);
+        if (nutrient == null) {
         	return 0;
         }
         else {
-        	return (double)value;
+        	return nutrients[nutrient.ordinal()];
         }
     }
     
@@ -102,11 +203,11 @@ public class FoodItem implements Comparable {
      */
 	@Override
 	public String toString() {
-		Double calories = this.getNutrientValue(Nutrients.CALORIES.toString());
-    	Double carbs = this.getNutrientValue(Nutrients.CARBOHYDRATES.toString());
-    	Double fat = this.getNutrientValue(Nutrients.FAT.toString());
-    	Double fiber = this.getNutrientValue(Nutrients.FIBER.toString());
-    	Double protein = this.getNutrientValue(Nutrients.PROTEIN.toString());
+		double calories = this.getNutrientValue(Nutrients.CALORIES);
+    	double carbs = this.getNutrientValue(Nutrients.CARBOHYDRATES);
+    	double fat = this.getNutrientValue(Nutrients.FAT);
+    	double fiber = this.getNutrientValue(Nutrients.FIBER);
+    	double protein = this.getNutrientValue(Nutrients.PROTEIN);
     	return (name + "\nCalories: " + Double.toString(calories) + "\nCarbohydrates: " + Double.toString(carbs) + " g\nFat " + Double.toString(fat) + " g\nFiber " + Double.toString(fiber) + " g\nProtein " + Double.toString(protein) + " g");
 	}
 }
@@ -0,0 +1,130 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * The key FoodItems are ordered by when browsing the catalog: the name
+ * first, then the id to tell apart foods that share a name.
+ *
+ * FoodItem.compareTo only looks at the name, so a sorted set of FoodItems
+ * treats two foods with the same name as duplicates and keeps only one of
+ * them.  Ids are unique, so no two foods ever share a FoodKey.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class FoodKey implements Comparable<FoodKey> {
+
+    // Orders FoodItems the same way as their keys, without creating any keys
+    public static final Comparator<FoodItem> FOOD_ORDER = new Comparator<FoodItem>() {
+        public int compare(FoodItem a, FoodItem b) {
+            return FoodKey.compare(a.getName(), a.getID(), b.getName(), b.getID());
+        }
+    };
+
+    // Writes keys into snapshots as their name and id
+    public static final SnapshotCodec<FoodKey> CODEC = new SnapshotCodec<FoodKey>() {
+        public void write(DataOutput out, FoodKey key) throws IOException {
+            SnapshotCodec.writeString(out, key.name);
+            SnapshotCodec.writeString(out, key.id);
+        }
+
+        public FoodKey read(ByteBuffer in) throws IOException {
+            String name = SnapshotCodec.readString(in);
+            return new FoodKey(name, SnapshotCodec.readString(in));
+        }
+    };
+
+    // Name of the food
+    private final String name;
+
+    // Id of the food
+    private final String id;
+
+    /**
+     * Public constructor
+     *
+     * @param name the name of the food
+     * @param id the id of the food
+     */
+    public FoodKey(String name, String id) {
+        if (name == null || id == null) {
+            throw new IllegalArgumentException("Food keys need both a name and an id");
+        }
+        this.name = name;
+        this.id = id;
+    }
+
+    /**
+     * Gets the key of a food
+     *
+     * @param food the food
+     * @return the food's key
+     */
+    public static FoodKey of(FoodItem food) {
+        return new FoodKey(food.getName(), food.getID());
+    }
+
+    /**
+     * Gets the smallest key with the given name, which sorts before every
+     * food with that name
+     *
+     * @param name the name
+     * @return the first key for the name
+     */
+    public static FoodKey first(String name) {
+        return new FoodKey(name, "");
+    }
+
+    /**
+     * Accessor for name
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Accessor for id
+     *
+     * @return id
+     */
+    public String getID() {
+        return id;
+    }
+
+    @Override
+    public int compareTo(FoodKey other) {
+        return compare(name, id, other.name, other.id);
+    }
+
+    /**
+     * Compares two (name, id) pairs by name, then by id
+     */
+    private static int compare(String name1, String id1, String name2, String id2) {
+        int order = name1.compareTo(name2);
+        return order != 0 ? order : id1.compareTo(id2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FoodKey)) {
+            return false;
+        }
+        FoodKey other = (FoodKey) o;
+        return name.equals(other.name) && id.equals(other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "(" + name + ", " + id + ")";
+    }
+}
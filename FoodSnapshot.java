@@ -0,0 +1,168 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A read-only view of a FoodData's food items as they were at one moment,
+ * taken with FoodData.snapshot().
+ *
+ * The snapshot holds a frozen FoodData made of snapshots of the live one's
+ * trees, ordinal table, nutrient columns and name index, which share their
+ * nodes and chunks with the live structures, so taking one costs the same
+ * however many foods there are.  Since nothing the snapshot can reach is
+ * ever changed again, any number of threads can query it at the same time
+ * without locking, and a long query (an export, or paging through every
+ * food) never holds up edits to the FoodData, nor sees them.
+ *
+ * Queries run exactly as they do on the live FoodData, with the same plans
+ * and the same result order: nutrient queries choose between the indexes,
+ * ordinal set intersections and a column scan, and name searches use the
+ * trigram index.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class FoodSnapshot {
+
+    // Frozen copy of the FoodData as it was when the snapshot was taken
+    private final FoodData foods;
+
+
+    /**
+     * Package constructor
+     *
+     * @param foods a frozen copy of the FoodData, which nothing changes again
+     */
+    FoodSnapshot(FoodData foods) {
+        this.foods = foods;
+    }
+
+    /**
+     * Accessor for modificationCount
+     *
+     * @return the modification count of the FoodData when the snapshot was taken
+     */
+    long getModificationCount() {
+        return foods.getModificationCount();
+    }
+
+
+    /**
+     * Gets all the food items, ordered by name and then by id.  The list is a
+     * read-only view of the snapshot, so it is cheap to get and never changes.
+     *
+     * @return a read-only list of all the food items
+     */
+    public List<FoodItem> getAllFoodItems() {
+        return foods.getAllFoodItems();
+    }
+
+    /**
+     * Gets the number of food items in the snapshot
+     *
+     * @return the number of food items
+     */
+    public int size() {
+        return foods.size();
+    }
+
+    /**
+     * Gets the page of food items that come right after the given food, in
+     * the same order as getAllFoodItems()
+     *
+     * @param name the name of the last food on the previous page, or null to start at the beginning
+     * @param id the id of the last food on the previous page
+     * @param limit maximum number of food items to return
+     * @return the next page of food items
+     * @see FoodData#getFoodItemsAfter(String, String, long)
+     */
+    public List<FoodItem> getFoodItemsAfter(String name, String id, long limit) {
+        return foods.getFoodItemsAfter(name, id, limit);
+    }
+
+    /**
+     * Opens a lazy cursor over the food items whose name starts with the
+     * given prefix (case-sensitive), in the same order as getAllFoodItems()
+     *
+     * @param prefix the start of the names to find
+     * @return a cursor over the matching food items
+     */
+    public Cursor<FoodItem> scanNamePrefix(String prefix) {
+        return foods.scanNamePrefix(prefix);
+    }
+
+    /**
+     * Gets all the food items whose name contains the given text, ignoring
+     * case, ordered by name
+     *
+     * @param substring the text to search for
+     * @return the matching food items
+     * @see FoodData#filterByName(String)
+     */
+    public List<FoodItem> filterByName(String substring) {
+        return foods.filterByName(substring);
+    }
+
+    /**
+     * Gets all the food items that fulfill ALL the provided rules
+     *
+     * @param rules list of rules, in the same format as for FoodData
+     * @return list of filtered food items; if no food item matched, return empty list
+     * @see FoodData#filterByNutrients(List)
+     */
+    public List<FoodItem> filterByNutrients(List<String> rules) {
+        return foods.filterByNutrients(rules);
+    }
+
+    /**
+     * Gets one page of the food items that fulfill ALL the provided rules
+     *
+     * @param rules list of rules, in the same format as for FoodData
+     * @param skip number of matching food items to skip before the page starts
+     * @param limit maximum number of food items to return
+     * @return list of filtered food items; if no food item matched, return empty list
+     * @see FoodData#filterByNutrients(List, long, long)
+     */
+    public List<FoodItem> filterByNutrients(List<String> rules, long skip, long limit) {
+        return foods.filterByNutrients(rules, skip, limit);
+    }
+
+    /**
+     * Exports every food item in the snapshot, sorted by name, to a file
+     *
+     * @param path the file to write, replaced if it exists
+     * @param format the format to write
+     * @param gzip whether to compress the file with gzip
+     * @return the number of food items written
+     * @throws IOException if the file can't be written
+     */
+    public long exportFoodItems(Path path, FoodExporter.Format format, boolean gzip)
+        throws IOException {
+        return foods.exportFoodItems(path, format, gzip);
+    }
+
+    /**
+     * Saves every food item in the snapshot to a CSV file, in the same
+     * format loadFoodItems() reads
+     *
+     * @param filename name of the file to write
+     * @see FoodData#saveFoodItems(String)
+     */
+    public void saveFoodItems(String filename) {
+        foods.saveFoodItems(filename);
+    }
+
+    /**
+     * Writes the snapshot to a binary snapshot file that
+     * FoodData.openSnapshot() can map back in
+     *
+     * @param path the file to write
+     * @throws IOException if the snapshot can't be written
+     * @see FoodData#saveSnapshot(Path)
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        foods.saveSnapshot(path);
+    }
+
+} // End of class FoodSnapshot
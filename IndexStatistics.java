@@ -0,0 +1,366 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Statistics about the keys in a nutrient index, used to estimate how many
+ * foods a range of nutrient values will match before any index is scanned.
+ *
+ * Besides the number of entries and the smallest and largest key, the
+ * statistics keep an equi-depth histogram: the keys are split into buckets
+ * that each hold about the same number of entries, so crowded parts of the
+ * key space get narrow buckets and sparse parts get wide ones.  Inserts and
+ * deletes update the bucket counts as they happen, and once enough of them
+ * have piled up the index rebuilds the buckets from its leaves.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class IndexStatistics {
+
+    // Most buckets the histogram is split into
+    private static final int MAX_BUCKETS = 32;
+
+    // Fewest inserts and deletes before the buckets are worth rebuilding
+    private static final long MIN_CHANGES_BEFORE_REBUILD = 64;
+
+    // Number of entries in the index
+    private long count;
+
+    // Smallest key in the index (may be too small after deletes until the next rebuild)
+    private double min;
+
+    // Largest key in the index (may be too large after deletes until the next rebuild)
+    private double max;
+
+    // Number of buckets in use, 0 until the first rebuild
+    private int numBuckets;
+
+    // Largest key of each bucket, bucket i holds the keys in (upperBounds[i - 1], upperBounds[i]]
+    private double[] upperBounds;
+
+    // Number of entries in each bucket
+    private long[] bucketCounts;
+
+    // Number of distinct keys in each bucket when the buckets were built
+    private long[] bucketDistinctKeys;
+
+    // Inserts and deletes since the buckets were built
+    private long changesSinceRebuild;
+
+    // Number of entries when the buckets were built
+    private long countAtRebuild;
+
+    /**
+     * Public constructor for the statistics of an empty index
+     */
+    public IndexStatistics() {
+        upperBounds = new double[MAX_BUCKETS];
+        bucketCounts = new long[MAX_BUCKETS];
+        bucketDistinctKeys = new long[MAX_BUCKETS];
+    }
+
+    /**
+     * Copies the statistics, so a snapshot of an index keeps the statistics
+     * it was taken with while the index goes on changing its own
+     *
+     * @return the copy
+     */
+    public IndexStatistics copy() {
+        IndexStatistics copy = new IndexStatistics();
+        copy.count = count;
+        copy.min = min;
+        copy.max = max;
+        copy.numBuckets = numBuckets;
+        System.arraycopy(upperBounds, 0, copy.upperBounds, 0, numBuckets);
+        System.arraycopy(bucketCounts, 0, copy.bucketCounts, 0, numBuckets);
+        System.arraycopy(bucketDistinctKeys, 0, copy.bucketDistinctKeys, 0, numBuckets);
+        copy.changesSinceRebuild = changesSinceRebuild;
+        copy.countAtRebuild = countAtRebuild;
+        return copy;
+    }
+
+    /**
+     * Accessor for count
+     *
+     * @return the number of entries in the index
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Accessor for min
+     *
+     * @return the smallest key in the index, or NaN if it is empty
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Accessor for max
+     *
+     * @return the largest key in the index, or NaN if it is empty
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Records an entry inserted into the index
+     *
+     * @param key the key of the new entry
+     */
+    void add(double key) {
+        if (count == 0) {
+            min = key;
+            max = key;
+        }
+        else {
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        count++;
+        changesSinceRebuild++;
+        if (numBuckets > 0) {
+            int bucket = bucketFor(key);
+            if (key > upperBounds[bucket]) {
+                upperBounds[bucket] = key; //Only happens for the last bucket, which stretches to cover new largest keys
+            }
+            bucketCounts[bucket]++;
+        }
+    }
+
+    /**
+     * Records an entry deleted from the index
+     *
+     * @param key the key of the deleted entry
+     */
+    void remove(double key) {
+        count--;
+        changesSinceRebuild++;
+        if (numBuckets > 0) {
+            int bucket = bucketFor(key);
+            if (bucketCounts[bucket] > 0) {
+                bucketCounts[bucket]--;
+            }
+        }
+    }
+
+    /**
+     * Determines if enough entries have changed since the buckets were
+     * built that they should be rebuilt
+     *
+     * @return true if the buckets are out of date
+     */
+    boolean isStale() {
+        return changesSinceRebuild >= Math.max(MIN_CHANGES_BEFORE_REBUILD, countAtRebuild / 2);
+    }
+
+    /**
+     * Rebuilds the statistics from every distinct key in the index
+     *
+     * @param keys the distinct keys, in ascending order
+     * @param keyCounts the number of entries stored under each key
+     * @param numKeys the number of distinct keys
+     */
+    void rebuild(double[] keys, int[] keyCounts, int numKeys) {
+        count = 0;
+        for (int i = 0; i < numKeys; i++) {
+            count += keyCounts[i];
+        }
+        Arrays.fill(bucketCounts, 0);
+        Arrays.fill(bucketDistinctKeys, 0);
+        changesSinceRebuild = 0;
+        countAtRebuild = count;
+        if (numKeys == 0) {
+            numBuckets = 0;
+            return;
+        }
+        min = keys[0];
+        max = keys[numKeys - 1];
+
+        //Close a bucket each time another 1/targetBuckets of the entries have been seen.  A key that
+        //alone holds that many entries (like a nutrient amount of 0) gets a bucket to itself, so point
+        //lookups on it are estimated exactly instead of being averaged with its neighbours
+        int targetBuckets = Math.min(MAX_BUCKETS, numKeys);
+        int bucket = 0;
+        long seen = 0;
+        long nextClose = 1; //Close the bucket once seen reaches nextClose / targetBuckets of count
+        for (int i = 0; i < numKeys; i++) {
+            boolean common = (long) keyCounts[i] * targetBuckets >= count;
+            if (common && bucketDistinctKeys[bucket] > 0 && bucket < MAX_BUCKETS - 1) {
+                upperBounds[bucket] = keys[i - 1];
+                bucket++;
+            }
+            bucketCounts[bucket] += keyCounts[i];
+            bucketDistinctKeys[bucket]++;
+            seen += keyCounts[i];
+            if (i < numKeys - 1 && bucket < MAX_BUCKETS - 1
+                && (common || seen * targetBuckets >= nextClose * count)) {
+                upperBounds[bucket] = keys[i];
+                bucket++;
+                nextClose = seen * targetBuckets / count + 1;
+            }
+        }
+        upperBounds[bucket] = keys[numKeys - 1];
+        numBuckets = bucket + 1;
+    }
+
+    /**
+     * Estimates how many entries have a key between low and high (both
+     * inclusive).  Buckets that lie completely inside the range count in
+     * full, and a bucket the range only partly covers counts in proportion
+     * to how much of the bucket's key span is covered, assuming its keys are
+     * spread evenly.
+     *
+     * @param low the lowest key in the range
+     * @param high the highest key in the range
+     * @return the estimated number of entries in the range
+     */
+    public long estimateCount(double low, double high) {
+        if (count <= 0 || !(low <= high) || high < min || low > max) {
+            return 0;
+        }
+        if (numBuckets == 0) { //No histogram yet, so treat the whole index as one bucket
+            return Math.round(count * coveredFraction(low, high, min, max, count));
+        }
+        double estimate = 0;
+        double bucketLow = min;
+        for (int i = 0; i < numBuckets; i++) {
+            double bucketHigh = upperBounds[i];
+            boolean overlaps = low <= bucketHigh && (i == 0 ? high >= bucketLow : high > bucketLow); //Only the first bucket includes its low end
+            if (bucketCounts[i] > 0 && overlaps) {
+                estimate += bucketCounts[i]
+                    * coveredFraction(low, high, bucketLow, bucketHigh, bucketDistinctKeys[i]);
+            }
+            bucketLow = bucketHigh;
+        }
+        return Math.min(count, Math.round(estimate));
+    }
+
+    /**
+     * Estimates the fraction of the index's entries that have a key between
+     * low and high (both inclusive)
+     *
+     * @param low the lowest key in the range
+     * @param high the highest key in the range
+     * @return the estimated fraction of entries in the range, between 0 and 1
+     */
+    public double selectivity(double low, double high) {
+        return count <= 0 ? 0 : (double) estimateCount(low, high) / count;
+    }
+
+    /**
+     * Estimates the fraction of a bucket's entries that fall in a range that
+     * overlaps it.  The range is assumed to catch at least one of the
+     * bucket's distinct keys, which keeps point lookups like "fiber == 0"
+     * from being estimated at zero.
+     *
+     * @param low the lowest key in the range
+     * @param high the highest key in the range
+     * @param bucketLow the smallest key the bucket covers
+     * @param bucketHigh the largest key the bucket covers
+     * @param distinctKeys the number of distinct keys in the bucket
+     * @return the fraction of the bucket covered by the range
+     */
+    private static double coveredFraction(double low, double high, double bucketLow,
+        double bucketHigh, long distinctKeys) {
+        if (low <= bucketLow && high >= bucketHigh) {
+            return 1;
+        }
+        double fraction = 0;
+        if (bucketHigh > bucketLow) {
+            fraction = (Math.min(high, bucketHigh) - Math.max(low, bucketLow)) / (bucketHigh - bucketLow);
+        }
+        return Math.min(1, Math.max(fraction, 1.0 / Math.max(1, distinctKeys)));
+    }
+
+    /**
+     * Binary searches for the bucket that covers a key
+     *
+     * @param key the key to look for
+     * @return the first bucket whose largest key is greater than or equal to
+     *         key, or the last bucket if key is larger than all of them
+     */
+    private int bucketFor(double key) {
+        int low = 0;
+        int high = numBuckets - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (upperBounds[mid] < key) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(count).append(" min=").append(getMin()).append(" max=").append(getMax());
+        double bucketLow = min;
+        for (int i = 0; i < numBuckets; i++) {
+            sb.append("\n  [").append(bucketLow).append(", ").append(upperBounds[i]).append("]: ")
+                .append(bucketCounts[i]).append(" entries, ").append(bucketDistinctKeys[i]).append(" keys");
+            bucketLow = upperBounds[i];
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the statistics to a snapshot
+     *
+     * @param out where to write the statistics
+     * @throws IOException if they can't be written
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeLong(changesSinceRebuild);
+        out.writeLong(countAtRebuild);
+        out.writeInt(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            out.writeDouble(upperBounds[i]);
+            out.writeLong(bucketCounts[i]);
+            out.writeLong(bucketDistinctKeys[i]);
+        }
+    }
+
+    /**
+     * Reads statistics written by writeSnapshot()
+     *
+     * @param in the buffer to read from, positioned at the statistics
+     * @return the statistics
+     * @throws IOException if the bytes don't hold valid statistics
+     */
+    public static IndexStatistics readSnapshot(ByteBuffer in) throws IOException {
+        IndexStatistics statistics = new IndexStatistics();
+        statistics.count = in.getLong();
+        statistics.min = in.getDouble();
+        statistics.max = in.getDouble();
+        statistics.changesSinceRebuild = in.getLong();
+        statistics.countAtRebuild = in.getLong();
+        statistics.numBuckets = in.getInt();
+        if (statistics.numBuckets < 0 || statistics.numBuckets > MAX_BUCKETS) {
+            throw new IOException("Illegal number of buckets in snapshot: " + statistics.numBuckets);
+        }
+        for (int i = 0; i < statistics.numBuckets; i++) {
+            statistics.upperBounds[i] = in.getDouble();
+            statistics.bucketCounts[i] = in.getLong();
+            statistics.bucketDistinctKeys[i] = in.getLong();
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,114 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Brings a list up to date with a new version of it by removing and
+ * inserting only the runs of items that differ, rather than clearing it
+ * and adding every item again.
+ *
+ * Both lists are expected to be sorted in the same order, such as the food
+ * list before and after a filter, so the two can be merged in one pass.
+ * Each run of neighbouring removals or insertions is applied as a single
+ * change, so an observable list (a ListView's items) fires one change event
+ * per run and keeps its selection and scroll position for the items that
+ * stay.  When the lists differ in too many places, the caller is better off
+ * replacing every item at once, so nothing is changed then.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class ListDiff {
+
+    /**
+     * Private constructor; the class only has static methods
+     */
+    private ListDiff() {
+    }
+
+
+    /**
+     * Makes a list equal to the target by applying the runs of removals and
+     * insertions between them, as long as there are at most maxEdits runs.
+     * An item that compares equal to the target's but is a different object
+     * (an updated food) is replaced, which also counts as one edit.
+     *
+     * @param current the list to bring up to date
+     * @param target the items current should hold, in the same order
+     * @param order the order both lists are sorted in
+     * @param maxEdits most runs to apply one at a time
+     * @return true if current now equals the target, false if there were
+     *         more than maxEdits runs and current was left unchanged
+     */
+    public static <T> boolean update(List<T> current, List<? extends T> target,
+        Comparator<? super T> order, int maxEdits) {
+        if (merge(current, target, order, maxEdits, null) > maxEdits) {
+            return false;
+        }
+        merge(new ArrayList<T>(current), target, order, Integer.MAX_VALUE, current);
+        return true;
+    }
+
+    /**
+     * Merges the old and new versions of a list, counting the runs that
+     * differ and applying them to a list if one is given
+     *
+     * @param before the old version, which is only read
+     * @param target the new version
+     * @param order the order both versions are sorted in
+     * @param maxEdits stops counting once there are more runs than this
+     * @param current the list holding the old version to apply the runs to,
+     *        or null to only count them
+     * @return the number of runs, or maxEdits + 1 if there are more
+     */
+    private static <T> int merge(List<T> before, List<? extends T> target,
+        Comparator<? super T> order, int maxEdits, List<T> current) {
+        int edits = 0;
+        int i = 0; //Next item of before
+        int j = 0; //Next item of target
+        int position = 0; //Where the next item of before is now in current
+        while ((i < before.size() || j < target.size()) && edits <= maxEdits) {
+            int comparison = i == before.size() ? 1
+                : j == target.size() ? -1 : order.compare(before.get(i), target.get(j));
+            if (comparison < 0) { //Remove the old items that sort before the next new one
+                int end = i + 1;
+                while (end < before.size()
+                    && (j == target.size() || order.compare(before.get(end), target.get(j)) < 0)) {
+                    end++;
+                }
+                if (current != null) {
+                    current.subList(position, position + end - i).clear();
+                }
+                i = end;
+                edits++;
+            }
+            else if (comparison > 0) { //Insert the new items that sort before the next old one
+                int end = j + 1;
+                while (end < target.size()
+                    && (i == before.size() || order.compare(before.get(i), target.get(end)) > 0)) {
+                    end++;
+                }
+                if (current != null) {
+                    current.addAll(position, target.subList(j, end));
+                }
+                position += end - j;
+                j = end;
+                edits++;
+            }
+            else {
+                if (before.get(i) != target.get(j)) {
+                    if (current != null) {
+                        current.set(position, target.get(j));
+                    }
+                    edits++;
+                }
+                i++;
+                j++;
+                position++;
+            }
+        }
+        return edits;
+    }
+
+} // End of class ListDiff
@@ -4,7 +4,12 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
@@ -29,6 +34,7 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.Labeled;
 import javafx.scene.control.ListView;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.SplitPane;
@@ -45,8 +51,17 @@ import javafx.scene.control.TextField;
  */
 public class Main extends Application {
   public static FoodData foodList; // Stores the complete list of food items
+  private static AsyncFoodData asyncFoods; // Runs loads, saves and filters off the FX thread
+  // Filters still running in the background, cancelled when the filters are reset
+  private static final List<CompletableFuture<List<FoodItem>>> pendingFilters =
+      new ArrayList<CompletableFuture<List<FoodItem>>>();
+  // The type-ahead preview search still running, cancelled by the next keystroke
+  private static CompletableFuture<List<FoodItem>> pendingPreview;
   private static ListView<FoodItem> foodListView; // Stores the food list that we're viewing
   private static List<FoodItem> filteredFoods; // Stores the filtered list of foods
+  private static List<FoodItem> shownFoods; // The foods the list view shows, or is about to show
+  private static boolean listUpdateScheduled; // Whether the list view is due to catch up with them
+  private static final int MAX_LIST_EDITS = 16; // Most runs of changes made to the list view one by one
   private static final Label totalName = new Label("Total");
   private static final Label totalCalories = new Label(Double.toString(0.0));
   private static final Label totalCarbs = new Label(Double.toString(0.0));
@@ -58,14 +73,16 @@ public class Main extends Application {
   @Override
   public void start(Stage primaryStage) {
     try {
-      foodList = new FoodData(); // Instantiate the foodList
+      // Instantiate the foodList; loads, filters and searches run on other threads
+      ConcurrentFoodData sharedFoods = new ConcurrentFoodData();
+      foodList = sharedFoods;
+      asyncFoods = new AsyncFoodData(sharedFoods);
       Meal meal = new Meal();
       filteredFoods = new ArrayList<FoodItem>();
       Label foodCountLbl = new Label();
       foodCountLbl.getStyleClass().add("label-italics");
-      filteredFoods = foodList.getAllFoodItems(); // Set the filtered list to the full list
+      filteredFoods = new ArrayList<FoodItem>(foodList.getAllFoodItems()); // Set the filtered list to the full list
                                                   // initially
-      updateListLabel(foodCountLbl, filteredFoods);
 
       // Scene will consist of a VBox. The top node of the box will just be the exit button, and the
       // bottom object will be a split pane
@@ -129,6 +146,44 @@ public class Main extends Application {
         }
       });
 
+      // Preview a "Name contains" filter while it is typed. The search session only rechecks the last
+      // keystroke's matches when the text grows, and runs in the background so typing never waits on
+      // it; each keystroke cancels the search for the one before
+      SearchSession nameSearch = foodList.newSearchSession();
+      tf3.textProperty().addListener((ov, oldValue, newValue) -> {
+        if (pendingPreview != null) {
+          pendingPreview.cancel(true);
+          pendingPreview = null;
+        }
+        if ("Name".equals(type.getValue()) && "contains".equals(operator.getValue())
+            && !newValue.isEmpty()) {
+          CompletableFuture<List<FoodItem>> searching = asyncFoods.search(nameSearch, newValue);
+          pendingPreview = searching;
+          searching.whenComplete((found, failure) -> Platform.runLater(() -> {
+            if (pendingPreview != searching) {
+              return; // a newer keystroke is already being searched
+            }
+            pendingPreview = null;
+            if (failure != null) {
+              if (!(failure instanceof CancellationException)) {
+                showFailure("Search Failed", failure);
+              }
+              return;
+            }
+            Set<FoodItem> matches = new HashSet<FoodItem>(found);
+            List<FoodItem> preview = new ArrayList<FoodItem>();
+            for (FoodItem food : filteredFoods) { // keep the filters that are already applied
+              if (matches.contains(food)) {
+                preview.add(food);
+              }
+            }
+            showFoods(preview, foodCountLbl);
+          }));
+        } else if (shownFoods != filteredFoods) { // put back the list the preview replaced
+          showFoods(filteredFoods, foodCountLbl);
+        }
+      });
+
       // Add the filter selection objects to a grid pane
       addFilter.getStyleClass().add("custom-button");
       addFilt.add(type, 0, 0);
@@ -282,27 +337,37 @@ public class Main extends Application {
                                                              // appropriately
           filterVBox.getChildren().addAll(appliedFilters);
           filterVBox.getChildren().addAll(removeFilt);
-          List<FoodItem> tempList = new ArrayList<FoodItem>();
+          CompletableFuture<List<FoodItem>> filtering =
+              CompletableFuture.completedFuture(new ArrayList<FoodItem>());
           if (filterName == "Name" && valueName != null) {
-            tempList = foodList.filterByName(valueName); // If the user chooses to filter on name,
-                                                         // use that to find our temporary list
-            filteredFoods.retainAll(tempList); // Use the retain all method to find an intersection
+            filtering = asyncFoods.filterByName(valueName); // If the user chooses to filter on
+                                                            // name, use that to find our list
           } else if (valueName != null) {
             List<String> filters = new ArrayList<String>();
             if (operatorName.contentEquals("=")) {
               operatorName = "=="; // Update the operator name to ==
             }
             filters.add(filterName.toUpperCase() + " " + operatorName + " " + valueName);
-            if (foodListView.getItems().size() > 0) {
-              tempList = foodList.filterByNutrients(filters);
+            if (!filteredFoods.isEmpty()) {
+              filtering = asyncFoods.filterByNutrients(filters);
             }
-            filteredFoods.retainAll(tempList);
           }
-          foodListView.getItems().clear(); // Reprint the filtered list
-          for (FoodItem food : filteredFoods) {
-            addFoodToFilterList(foodListView, food);
-          }
-          updateListLabel(foodCountLbl, filteredFoods);
+          // the filter runs in the background; its result is applied on the FX thread unless the
+          // filters were reset in the meantime
+          CompletableFuture<List<FoodItem>> pending = filtering;
+          pendingFilters.add(pending);
+          pending.whenComplete((tempList, failure) -> Platform.runLater(() -> {
+            if (!pendingFilters.remove(pending) || pending.isCancelled()) {
+              return;
+            }
+            if (failure != null) {
+              showFailure("Filter Failed", failure);
+              return;
+            }
+            // Use the retain all method to find an intersection; a set keeps it linear
+            filteredFoods.retainAll(new HashSet<FoodItem>(tempList));
+            showFoods(filteredFoods, foodCountLbl); // Reprint the filtered list
+          }));
           // disable button after applying since we clear out fields
           addFilter.setDisable(true);
         }
@@ -311,6 +376,7 @@ public class Main extends Application {
       // Remove Filters action event that occurs when the Remove Filters button is pressed
       EventHandler<ActionEvent> removeFilters = new EventHandler<ActionEvent>() {
         public void handle(ActionEvent e) {
+          cancelPendingFilters();
           appliedFilters.clear(); // Remove all the filters from the list
           filterVBox.getChildren().clear();
           filterVBox.getChildren().addAll(addFilt, filters); // Add all the labels back to the
@@ -318,12 +384,8 @@ public class Main extends Application {
                                                              // appropriately
           filterVBox.getChildren().addAll(appliedFilters);
           filterVBox.getChildren().addAll(removeFilt);
-          foodListView.getItems().clear(); // Reprint the full list of foods
-          for (FoodItem food : foodList.getAllFoodItems()) {
-            addFoodToFilterList(foodListView, food);
-          }
-          filteredFoods = foodList.getAllFoodItems(); // Reset the filtered list to everything
-          updateListLabel(foodCountLbl, filteredFoods);
+          filteredFoods = new ArrayList<FoodItem>(foodList.getAllFoodItems()); // Reset the filtered list to everything
+          showFoods(filteredFoods, foodCountLbl); // Reprint the full list of foods
         }
       };
 
@@ -343,9 +405,7 @@ public class Main extends Application {
       // Add foods that met the filter
       VBox foodListVBox = new VBox();
       foodListView = new ListView<>();
-      for (FoodItem food : foodList.getAllFoodItems()) {
-        addFoodToFilterList(foodListView, food);
-      }
+      showFoods(filteredFoods, foodCountLbl);
       foodListView.focusedProperty().addListener(new ChangeListener<Boolean>() {
         @Override
         public void changed(ObservableValue<? extends Boolean> observable, Boolean wasFocused,
@@ -551,11 +611,6 @@ public class Main extends Application {
                 newFood = createFoodItem(id, name, calsD, fatD, carbsD, fiberD, proteinD);
                 try {
                   foodList.addFoodItem(newFood);
-                  // Once the food has been saved, re-sort the available foods list
-                  foodListView.getItems().clear();
-                  for (FoodItem food : foodList.getAllFoodItems()) {
-                    addFoodToFilterList(foodListView, food);
-                  }
 
                   // Clear the grid dialog
                   foodName.clear();
@@ -567,6 +622,7 @@ public class Main extends Application {
 
                   // Update the total foods in list count
                   // Also, I've decided we're going to reset the filters when you add a food
+                  cancelPendingFilters();
                   appliedFilters.clear(); // Remove all the filters from the list
                   filterVBox.getChildren().clear();
                   filterVBox.getChildren().addAll(addFilt, filters); // Add all the labels back to
@@ -574,13 +630,10 @@ public class Main extends Application {
                                                                      // appear appropriately
                   filterVBox.getChildren().addAll(appliedFilters);
                   filterVBox.getChildren().addAll(removeFilt);
-                  foodListView.getItems().clear(); // Reprint the full list of foods
-                  for (FoodItem food : foodList.getAllFoodItems()) {
-                    addFoodToFilterList(foodListView, food);
-                  }
-                  filteredFoods = foodList.getAllFoodItems(); // Reset the filtered list to
+                  // Once the food has been saved, re-sort the available foods list
+                  filteredFoods = new ArrayList<FoodItem>(foodList.getAllFoodItems()); // Reset the filtered list to
                                                               // everything
-                  updateListLabel(foodCountLbl, filteredFoods);
+                  showFoods(filteredFoods, foodCountLbl); // Reprint the full list of foods
                 } catch (IllegalArgumentException e) {
                   // If the user-entered food is already in the list, give them a pop up that
                   // indicates it's a duplicate
@@ -637,7 +690,16 @@ public class Main extends Application {
           File newFoodFile = saveFile.showSaveDialog(primaryStage);
 
           if (newFoodFile != null) {
-            foodList.saveFoodItems(newFoodFile.getPath());
+            // the file is written in the background, with the progress shown on the button
+            saveList.setDisable(true);
+            asyncFoods.saveFoodItems(newFoodFile.getPath(), showProgress(saveList, "Saving"))
+                .whenComplete((saved, failure) -> Platform.runLater(() -> {
+                  saveList.setText("Save list");
+                  saveList.setDisable(false);
+                  if (failure != null) {
+                    showFailure("Save Failed", failure);
+                  }
+                }));
           }
         }
       });
@@ -665,22 +727,30 @@ public class Main extends Application {
           importFile.setTitle("Import");
           File newFoodList = importFile.showOpenDialog(primaryStage);
           if (newFoodList != null) {
-            foodList.loadFoodItems(newFoodList.getPath());
-            filepath.setText(newFoodList.getPath());
-            foodListView.getItems().clear();
-            for (FoodItem food : foodList.getAllFoodItems()) {
-              addFoodToFilterList(foodListView, food);
-            }
-            filteredFoods = foodList.getAllFoodItems(); // Reset the filtered list to the new food
-                                                        // items
-            appliedFilters.clear(); // Remove all the filters from the list
-            filterVBox.getChildren().clear();
-            filterVBox.getChildren().addAll(addFilt, filters); // Add all the labels back to the
-                                                               // filter section so it appear
-                                                               // appropriately
-            filterVBox.getChildren().addAll(appliedFilters);
-            filterVBox.getChildren().addAll(removeFilt);
-            updateListLabel(foodCountLbl, filteredFoods);
+            // the file is loaded in the background, with the progress shown in place of its path
+            String shownPath = filepath.getText();
+            loadFile.setDisable(true);
+            asyncFoods.loadFoodItems(newFoodList.getPath(), showProgress(filepath, "Loading"))
+                .whenComplete((loaded, failure) -> Platform.runLater(() -> {
+                  loadFile.setDisable(false);
+                  if (failure != null) {
+                    filepath.setText(shownPath);
+                    showFailure("Import Failed", failure);
+                    return;
+                  }
+                  filepath.setText(newFoodList.getPath());
+                  cancelPendingFilters(); // they were run against the foods from before the load
+                  filteredFoods = new ArrayList<FoodItem>(foodList.getAllFoodItems()); // Reset the filtered list to the new
+                                                                                      // food items
+                  appliedFilters.clear(); // Remove all the filters from the list
+                  filterVBox.getChildren().clear();
+                  filterVBox.getChildren().addAll(addFilt, filters); // Add all the labels back to
+                                                                     // the filter section so it
+                                                                     // appear appropriately
+                  filterVBox.getChildren().addAll(appliedFilters);
+                  filterVBox.getChildren().addAll(removeFilt);
+                  showFoods(filteredFoods, foodCountLbl);
+                }));
           }
         }
       };
@@ -784,32 +854,6 @@ public class Main extends Application {
     // return grid;
   }
 
-  /**
-   * Add a food to the list of available foods FoodsList that meet the filter requirements, if any
-   * 
-   * @param foodList - the FoodList to add the food to
-   * @param food - the name of the food to add
-   * @param cal - the number of calories in the food
-   * @param carbs - the number of carbohydrates in the food
-   * @param fat - the amount of fat in the food
-   * @param fiber - the amount of fiber in the food
-   * @param protein - the amount of protein in the food
-   * @return the foodList ListView after the food has been added
-   */
-  private void addFoodToFilterList(ListView<FoodItem> foodListView, FoodItem food) {
-    // String name = food.getName();
-    // Double calories = food.getNutrientValue(Nutrients.CALORIES.toString());
-    // Double carbs = food.getNutrientValue(Nutrients.CARBOHYDRATES.toString());
-    // Double fat = food.getNutrientValue(Nutrients.FAT.toString());
-    // Double fiber = food.getNutrientValue(Nutrients.FIBER.toString());
-    // Double protein = food.getNutrientValue(Nutrients.PROTEIN.toString());
-    foodListView.getItems().add(food);
-    // foodListView.getItems().add(name + "\nCalories: " + Double.toString(calories) +
-    // "\nCarbohydrates: " + Double.toString(carbs) + " g\nFat " + Double.toString(fat) + " g\nFiber
-    // " + Double.toString(fiber) + " g\nProtein " + Double.toString(protein) + " g");
-    // return foodListView;
-  }
-
   /**
    * Add a food to the current meal grid
    * 
@@ -835,11 +879,11 @@ public class Main extends Application {
 
     // add row to nutrition grid
     addNutritionTableRow(index + 1, nutritionGrid, food.getName(),
-        food.getNutrientValue(Nutrients.CALORIES.toString()),
-        food.getNutrientValue(Nutrients.CARBOHYDRATES.toString()),
-        food.getNutrientValue(Nutrients.FAT.toString()),
-        food.getNutrientValue(Nutrients.FIBER.toString()),
-        food.getNutrientValue(Nutrients.PROTEIN.toString())); // , false);
+        food.getNutrientValue(Nutrients.CALORIES),
+        food.getNutrientValue(Nutrients.CARBOHYDRATES),
+        food.getNutrientValue(Nutrients.FAT),
+        food.getNutrientValue(Nutrients.FIBER),
+        food.getNutrientValue(Nutrients.PROTEIN)); // , false);
   }
 
   /**
@@ -907,11 +951,11 @@ public class Main extends Application {
   private static FoodItem createFoodItem(String id, String name, double calories, double fat,
       double carbs, double fiber, double protein) {
     FoodItem food = new FoodItem(id, name);
-    food.addNutrient(Nutrients.CALORIES.toString(), calories);
-    food.addNutrient(Nutrients.FAT.toString(), fat);
-    food.addNutrient(Nutrients.CARBOHYDRATES.toString(), carbs);
-    food.addNutrient(Nutrients.FIBER.toString(), fiber);
-    food.addNutrient(Nutrients.PROTEIN.toString(), protein);
+    food.addNutrient(Nutrients.CALORIES, calories);
+    food.addNutrient(Nutrients.FAT, fat);
+    food.addNutrient(Nutrients.CARBOHYDRATES, carbs);
+    food.addNutrient(Nutrients.FIBER, fiber);
+    food.addNutrient(Nutrients.PROTEIN, protein);
     return food;
   }
 
@@ -934,15 +978,83 @@ public class Main extends Application {
     grid.getChildren().removeAll(nodesToRemove);
   }
 
+  /**
+   * Cancels the filters still running in the background, so their results are never applied. Called
+   * on the FX thread whenever the applied filters are reset
+   */
+  private static void cancelPendingFilters() {
+    for (CompletableFuture<List<FoodItem>> pending : pendingFilters) {
+      pending.cancel(true);
+    }
+    pendingFilters.clear();
+  }
+
+  /**
+   * Makes a progress listener that shows the percentage done on a label or button. The text is only
+   * posted to the FX thread when the percentage changes
+   * 
+   * @param target label or button to show the progress on
+   * @param action what is being done, such as "Loading"
+   * @return the progress listener
+   */
+  private static ProgressListener showProgress(Labeled target, String action) {
+    AtomicInteger shownPercent = new AtomicInteger(-1);
+    return (done, total) -> {
+      int percent = total > 0 ? (int) (100 * done / total) : 0;
+      if (shownPercent.getAndSet(percent) != percent) {
+        Platform.runLater(() -> target.setText(action + " " + percent + "%"));
+      }
+    };
+  }
+
+  /**
+   * Shows a pop up saying a background load, save or filter failed
+   * 
+   * @param title title of the pop up
+   * @param failure what the operation threw
+   */
+  private static void showFailure(String title, Throwable failure) {
+    Alert fail = new Alert(AlertType.ERROR);
+    fail.setTitle(title);
+    fail.setContentText(failure.getMessage() != null ? failure.getMessage() : failure.toString());
+    fail.setHeaderText(null);
+    fail.setGraphic(null);
+    fail.showAndWait();
+  }
+
+  /**
+   * Shows a list of foods in the food list view, and their count below it. The list view isn't
+   * touched until the FX thread is next free, so when a handler shows several lists in a row only
+   * the last one is rendered. It is then brought up to date with the runs of foods that changed if
+   * there are only a few, or by replacing all its items in one change otherwise.
+   * 
+   * @param foods the foods to show, sorted by name and then id
+   * @param countFoods label to show the count on
+   */
+  private static void showFoods(List<FoodItem> foods, Label countFoods) {
+    shownFoods = foods;
+    updateListLabel(countFoods, foods.size());
+    if (listUpdateScheduled) {
+      return;
+    }
+    listUpdateScheduled = true;
+    Platform.runLater(() -> {
+      listUpdateScheduled = false;
+      List<FoodItem> target = new ArrayList<FoodItem>(shownFoods);
+      if (!ListDiff.update(foodListView.getItems(), target, FoodKey.FOOD_ORDER, MAX_LIST_EDITS)) {
+        foodListView.getItems().setAll(target);
+      }
+    });
+  }
+
   /***
    * Updates the label below the food list with how many items are in the list. Updated whenever a
    * food is added or a new label is applied
    * 
    * @param countFoods - Label to update
-   * @param foodListView - the List of food items that has been changed
+   * @param foodsInList - the number of food items in the list
    */
-  private static void updateListLabel(Label countFoods, List<FoodItem> filteredList) {
-    int foodsInList = filteredList.size();
+  private static void updateListLabel(Label countFoods, int foodsInList) {
     String numFoods;
     switch (foodsInList) {
       case 0:
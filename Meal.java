@@ -62,17 +62,17 @@ public class Meal {
 	 * @param food FoodItem to add, actually adds a copy of this food item
 	 */
 	public void addToMeal(FoodItem food) {
-	  totalCalories += food.getNutrientValue(Nutrients.CALORIES.toString());
-	  totalCarbs += food.getNutrientValue(Nutrients.CARBOHYDRATES.toString());
-      totalFat += food.getNutrientValue(Nutrients.FAT.toString());
-      totalProtein += food.getNutrientValue(Nutrients.PROTEIN.toString());
-      totalFiber += food.getNutrientValue(Nutrients.FIBER.toString());
+	  totalCalories += food.getNutrientValue(Nutrients.CALORIES);
+	  totalCarbs += food.getNutrientValue(Nutrients.CARBOHYDRATES);
+      totalFat += food.getNutrientValue(Nutrients.FAT);
+      totalProtein += food.getNutrientValue(Nutrients.PROTEIN);
+      totalFiber += food.getNutrientValue(Nutrients.FIBER);
       FoodItem foodCopy = new FoodItem(food.getID(), food.getName());
-      foodCopy.addNutrient(Nutrients.CALORIES.toString(), food.getNutrientValue(Nutrients.CALORIES.toString()));
-      foodCopy.addNutrient(Nutrients.CARBOHYDRATES.toString(), food.getNutrientValue(Nutrients.CARBOHYDRATES.toString()));
-      foodCopy.addNutrient(Nutrients.FAT.toString(), food.getNutrientValue(Nutrients.FAT.toString()));
-      foodCopy.addNutrient(Nutrients.PROTEIN.toString(), food.getNutrientValue(Nutrients.PROTEIN.toString()));
-      foodCopy.addNutrient(Nutrients.FIBER.toString(), food.getNutrientValue(Nutrients.FIBER.toString()));
+      foodCopy.addNutrient(Nutrients.CALORIES, food.getNutrientValue(Nutrients.CALORIES));
+      foodCopy.addNutrient(Nutrients.CARBOHYDRATES, food.getNutrientValue(Nutrients.CARBOHYDRATES));
+      foodCopy.addNutrient(Nutrients.FAT, food.getNutrientValue(Nutrients.FAT));
+      foodCopy.addNutrient(Nutrients.PROTEIN, food.getNutrientValue(Nutrients.PROTEIN));
+      foodCopy.addNutrient(Nutrients.FIBER, food.getNutrientValue(Nutrients.FIBER));
 	  mealList.add(foodCopy);
 	}
 	
@@ -84,17 +84,17 @@ public class Meal {
 	 * 
 	 */
 	public void addToMeal(int index, FoodItem food) {
-	  totalCalories += food.getNutrientValue(Nutrients.CALORIES.toString());
-	  totalCarbs += food.getNutrientValue(Nutrients.CARBOHYDRATES.toString());
-      totalFat += food.getNutrientValue(Nutrients.FAT.toString());
-      totalProtein += food.getNutrientValue(Nutrients.PROTEIN.toString());
-      totalFiber += food.getNutrientValue(Nutrients.FIBER.toString());
+	  totalCalories += food.getNutrientValue(Nutrients.CALORIES);
+	  totalCarbs += food.getNutrientValue(Nutrients.CARBOHYDRATES);
+      totalFat += food.getNutrientValue(Nutrients.FAT);
+      totalProtein += food.getNutrientValue(Nutrients.PROTEIN);
+      totalFiber += food.getNutrientValue(Nutrients.FIBER);
       FoodItem foodCopy = new FoodItem(food.getID(), food.getName());
-      foodCopy.addNutrient(Nutrients.CALORIES.toString(), food.getNutrientValue(Nutrients.CALORIES.toString()));
-      foodCopy.addNutrient(Nutrients.CARBOHYDRATES.toString(), food.getNutrientValue(Nutrients.CARBOHYDRATES.toString()));
-      foodCopy.addNutrient(Nutrients.FAT.toString(), food.getNutrientValue(Nutrients.FAT.toString()));
-      foodCopy.addNutrient(Nutrients.PROTEIN.toString(), food.getNutrientValue(Nutrients.PROTEIN.toString()));
-      foodCopy.addNutrient(Nutrients.FIBER.toString(), food.getNutrientValue(Nutrients.FIBER.toString()));
+      foodCopy.addNutrient(Nutrients.CALORIES, food.getNutrientValue(Nutrients.CALORIES));
+      foodCopy.addNutrient(Nutrients.CARBOHYDRATES, food.getNutrientValue(Nutrients.CARBOHYDRATES));
+      foodCopy.addNutrient(Nutrients.FAT, food.getNutrientValue(Nutrients.FAT));
+      foodCopy.addNutrient(Nutrients.PROTEIN, food.getNutrientValue(Nutrients.PROTEIN));
+      foodCopy.addNutrient(Nutrients.FIBER, food.getNutrientValue(Nutrients.FIBER));
 	  mealList.add(index, foodCopy);
 	}
 	
@@ -104,11 +104,11 @@ public class Meal {
 	 * @param food FoodItem to remove
 	 */
 	public void removeFromMeal(FoodItem food) {
-	  totalCalories -= food.getNutrientValue(Nutrients.CALORIES.toString());
-      totalCarbs -= food.getNutrientValue(Nutrients.CARBOHYDRATES.toString());
-      totalFat -= food.getNutrientValue(Nutrients.FAT.toString());
-      totalProtein -= food.getNutrientValue(Nutrients.PROTEIN.toString());
-      totalFiber -= food.getNutrientValue(Nutrients.FIBER.toString());
+	  totalCalories -= food.getNutrientValue(Nutrients.CALORIES);
+      totalCarbs -= food.getNutrientValue(Nutrients.CARBOHYDRATES);
+      totalFat -= food.getNutrientValue(Nutrients.FAT);
+      totalProtein -= food.getNutrientValue(Nutrients.PROTEIN);
+      totalFiber -= food.getNutrientValue(Nutrients.FIBER);
 	  mealList.remove(food);
 	}
 	
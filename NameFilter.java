@@ -19,7 +19,7 @@ public class NameFilter {
 	 * @param name the name we want to filter on
 	 */
 	public NameFilter(String name) {
-		nameToCompare = name.toLowerCase();
+		nameToCompare = NameIndex.fold(name);
 	}
 	
 	/**
@@ -49,10 +49,20 @@ public class NameFilter {
 	public List<FoodItem> executeFilter(List<FoodItem> allFoodsList) {
 		ArrayList<FoodItem> targetFoods = new ArrayList<>();
 		for (FoodItem f : allFoodsList) {
-			if (f.getName().toLowerCase().contains(nameToCompare)) {
+			if (NameIndex.fold(f.getName()).contains(nameToCompare)) {
 				targetFoods.add(f);
 			}
 		}
 		return targetFoods;
 	}
+
+	/**
+	 * Gets the ordinals of all the FoodItems that have the name we're looking for
+	 * 
+	 * @param index name index of all the FoodItems
+	 * @return the ordinals of all FoodItems with this name
+	 */
+	public OrdinalSet executeFilter(NameIndex index) {
+		return index.search(nameToCompare);
+	}
 }
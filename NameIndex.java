@@ -0,0 +1,373 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An index for case-insensitive substring searches on food names.
+ *
+ * Each name is lower-cased once when its food is added, and every three
+ * character sequence (trigram) in it maps to the set of food ordinals whose
+ * name contains that trigram.  A search for a substring of three or more
+ * characters only has to intersect the sets of the substring's trigrams and
+ * then check the few names that are left, instead of lower-casing and
+ * searching every name in the catalog.
+ *
+ * snapshot() hands out a read-only copy in constant time.  The trigrams are
+ * spread over SHARD_COUNT small maps, and the index copies a map, a posting
+ * set or a chunk of the folded names the first time it changes one that a
+ * snapshot can still reach, so an edit after a snapshot copies a few small
+ * pieces rather than the whole index.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class NameIndex {
+
+    // Length of the character sequences the names are indexed by
+    private static final int GRAM_LENGTH = 3;
+
+    // Number of candidate names checked between looks at whether the search was cancelled
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    // Cancellation check for searches that can't be cancelled
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+
+    // Number of maps the trigrams are spread over, a power of two
+    private static final int SHARD_BITS = 8;
+    private static final int SHARD_COUNT = 1 << SHARD_BITS;
+
+    // Lower-cased name of every food at the position of its ordinal, null for removed foods
+    private OrdinalTable<String> foldedNames;
+
+    // Ordinals of the foods whose name contains each trigram, spread over the shards by trigram
+    private Shard[] shards;
+
+    // Ordinals of every food in the index, used for searches too short to have a trigram
+    private OrdinalSet allOrdinals;
+
+    // Version that shards and posting sets created or copied from now on belong to
+    private int version;
+
+    /**
+     * Public constructor for an empty index
+     */
+    public NameIndex() {
+        this(new OrdinalTable<String>(), new Shard[SHARD_COUNT], new OrdinalSet(), 0);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(new HashMap<Long, OrdinalSet>(), 0);
+        }
+    }
+
+    /**
+     * Private constructor for an index made of the given parts
+     *
+     * @param foldedNames the folded name of each ordinal
+     * @param shards the trigram maps
+     * @param allOrdinals the ordinals of every food in the index
+     * @param version the version that new and copied parts belong to
+     */
+    private NameIndex(OrdinalTable<String> foldedNames, Shard[] shards, OrdinalSet allOrdinals, int version) {
+        this.foldedNames = foldedNames;
+        this.shards = shards;
+        this.allOrdinals = allOrdinals;
+        this.version = version;
+    }
+
+    /**
+     * Lower-cases a name or search string the same way for both.  The root
+     * locale is used so the folded names saved in a snapshot don't depend on
+     * the default locale of the machine that saved it.
+     *
+     * @param name the text to fold
+     * @return the folded text
+     */
+    public static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a food's name to the index
+     *
+     * @param ordinal the ordinal of the food
+     * @param name the name of the food
+     */
+    public void add(int ordinal, String name) {
+        String folded = fold(name);
+        while (foldedNames.size() <= ordinal) {
+            foldedNames.add(null);
+        }
+        foldedNames.set(ordinal, folded);
+        allOrdinals = allOrdinals.writable(version);
+        allOrdinals.add(ordinal);
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Long gram = gram(folded, i);
+            HashMap<Long, OrdinalSet> postings = writableShard(gram).postings;
+            OrdinalSet shared = postings.get(gram);
+            OrdinalSet ordinals = shared == null ? new OrdinalSet(version) : shared.writable(version);
+            if (ordinals != shared) {
+                postings.put(gram, ordinals);
+            }
+            ordinals.add(ordinal); //A repeated trigram in the same name is just added again, which is a no-op
+        }
+    }
+
+    /**
+     * Removes a food's name from the index
+     *
+     * @param ordinal the ordinal of the food
+     */
+    public void remove(int ordinal) {
+        if (ordinal < 0 || ordinal >= foldedNames.size() || foldedNames.get(ordinal) == null) {
+            return;
+        }
+        String folded = foldedNames.get(ordinal);
+        foldedNames.set(ordinal, null);
+        allOrdinals = allOrdinals.writable(version);
+        allOrdinals.remove(ordinal);
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Long gram = gram(folded, i);
+            HashMap<Long, OrdinalSet> postings = writableShard(gram).postings;
+            OrdinalSet shared = postings.get(gram);
+            if (shared != null) {
+                OrdinalSet ordinals = shared.writable(version);
+                if (ordinals != shared) {
+                    postings.put(gram, ordinals);
+                }
+                ordinals.remove(ordinal);
+                if (ordinals.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a read-only snapshot of the index as it is now, sharing its
+     * parts until the index changes them
+     *
+     * @return the snapshot, which must not be changed
+     */
+    NameIndex snapshot() {
+        NameIndex snapshot = new NameIndex(foldedNames.snapshot(), shards.clone(), allOrdinals, version);
+        version++; //Every shard and posting set reachable now is shared from here on
+        return snapshot;
+    }
+
+    /**
+     * Finds every food whose name contains the given text, ignoring case
+     *
+     * @param substring the text to search for
+     * @return the ordinals of the matching foods
+     */
+    public OrdinalSet search(String substring) {
+        return searchFolded(fold(substring), NEVER_CANCELLED);
+    }
+
+    /**
+     * Finds every food whose folded name contains the given folded text
+     *
+     * @param folded the folded text to search for
+     * @param cancelled checked every so often, the search gives up once it returns true
+     * @return the ordinals of the matching foods, or null if the search was cancelled
+     */
+    OrdinalSet searchFolded(String folded, BooleanSupplier cancelled) {
+        if (folded.isEmpty()) {
+            return allOrdinals.and(allOrdinals); //Every name contains the empty string, return a copy
+        }
+        if (folded.length() < GRAM_LENGTH) {
+            return narrow(allOrdinals, folded, cancelled); //Too short to have a trigram, so every name has to be checked
+        }
+        return narrow(intersectGrams(folded), folded, cancelled);
+    }
+
+    /**
+     * Keeps the candidates whose folded name contains the given folded text.
+     * When the text extends an earlier search (it contains the earlier
+     * search text), the earlier matches can be passed in as the candidates,
+     * since every name matching the new text also matched the old one.
+     *
+     * @param candidates the ordinals to check, which must all still be in the index
+     * @param folded the folded text to search for
+     * @param cancelled checked every so often, the search gives up once it returns true
+     * @return the ordinals of the matching candidates, or null if the search was cancelled
+     */
+    OrdinalSet narrow(OrdinalSet candidates, String folded, BooleanSupplier cancelled) {
+        OrdinalSet matches = new OrdinalSet();
+        PrimitiveIterator.OfInt it = candidates.iterator();
+        int checked = 0;
+        while (it.hasNext()) { //Sharing every trigram doesn't guarantee they appear in the right order
+            if (++checked % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                return null;
+            }
+            int ordinal = it.nextInt();
+            if (foldedNames.get(ordinal).contains(folded)) {
+                matches.add(ordinal);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Writes the index to a snapshot: the folded names, then the posting set
+     * of every trigram
+     *
+     * @param out where to write the index
+     * @throws IOException if the index can't be written
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(foldedNames.size());
+        for (int i = 0; i < foldedNames.size(); i++) {
+            String folded = foldedNames.get(i);
+            out.writeBoolean(folded != null);
+            if (folded != null) {
+                SnapshotCodec.writeString(out, folded);
+            }
+        }
+        allOrdinals.writeSnapshot(out);
+        int numGrams = 0;
+        for (Shard shard : shards) {
+            numGrams += shard.postings.size();
+        }
+        out.writeInt(numGrams);
+        for (Shard shard : shards) {
+            for (Map.Entry<Long, OrdinalSet> posting : shard.postings.entrySet()) {
+                out.writeLong(posting.getKey());
+                posting.getValue().writeSnapshot(out);
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by writeSnapshot()
+     *
+     * @param in the buffer to read from, positioned at the index
+     * @return the index
+     * @throws IOException if the bytes don't hold a valid index
+     */
+    public static NameIndex readSnapshot(ByteBuffer in) throws IOException {
+        NameIndex index = new NameIndex();
+        int numNames = in.getInt();
+        if (numNames < 0) {
+            throw new IOException("Illegal number of names in snapshot: " + numNames);
+        }
+        for (int i = 0; i < numNames; i++) {
+            index.foldedNames.add(in.get() != 0 ? SnapshotCodec.readString(in) : null);
+        }
+        index.allOrdinals = OrdinalSet.readSnapshot(in);
+        int numGrams = in.getInt();
+        if (numGrams < 0) {
+            throw new IOException("Illegal number of trigrams in snapshot: " + numGrams);
+        }
+        for (int i = 0; i < numGrams; i++) {
+            Long gram = in.getLong();
+            index.shards[shardOf(gram)].postings.put(gram, OrdinalSet.readSnapshot(in));
+        }
+        return index;
+    }
+
+    /**
+     * Intersects the posting sets of every trigram in the folded search
+     * text, smallest set first so the running intersection shrinks fast
+     *
+     * @param folded the folded search text, at least GRAM_LENGTH characters long
+     * @return the ordinals of the names containing every trigram
+     */
+    private OrdinalSet intersectGrams(String folded) {
+        int numGrams = folded.length() - GRAM_LENGTH + 1;
+        OrdinalSet[] sets = new OrdinalSet[numGrams];
+        for (int i = 0; i < numGrams; i++) {
+            Long gram = gram(folded, i);
+            sets[i] = shards[shardOf(gram)].postings.get(gram);
+            if (sets[i] == null) {
+                return new OrdinalSet(); //No name has this trigram, so none can contain the text
+            }
+        }
+        final int[] sizes = new int[numGrams];
+        Integer[] order = new Integer[numGrams];
+        for (int i = 0; i < numGrams; i++) {
+            sizes[i] = sets[i].cardinality();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(sizes[a], sizes[b]);
+            }
+        });
+        OrdinalSet candidates = sets[order[0]];
+        for (int i = 1; i < numGrams && !candidates.isEmpty(); i++) {
+            candidates = candidates.and(sets[order[i]]);
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets the map holding a trigram's posting set, first replacing it with a
+     * copy if it may be shared with a snapshot
+     *
+     * @param gram the trigram
+     * @return the map, safe to change in place
+     */
+    private Shard writableShard(Long gram) {
+        int shard = shardOf(gram);
+        if (shards[shard].version != version) {
+            shards[shard] = new Shard(new HashMap<>(shards[shard].postings), version);
+        }
+        return shards[shard];
+    }
+
+    /**
+     * Picks the map a trigram's posting set is kept in.  The bits of the
+     * trigram are mixed first, since neighbouring trigrams share most of
+     * theirs.
+     *
+     * @param gram the trigram
+     * @return the index of the map
+     */
+    private static int shardOf(Long gram) {
+        return (Long.hashCode(gram) * 0x9E3779B9) >>> (Integer.SIZE - SHARD_BITS);
+    }
+
+    /**
+     * Packs the trigram starting at a position into a single key
+     *
+     * @param folded the folded text
+     * @param start the position of the trigram's first character
+     * @return the key for the trigram
+     */
+    private static Long gram(String folded, int start) {
+        return ((long) folded.charAt(start) << 32) | ((long) folded.charAt(start + 1) << 16)
+            | folded.charAt(start + 2);
+    }
+
+
+    /**
+     * One of the maps the trigrams are spread over
+     */
+    private static class Shard {
+
+        // Ordinals of the foods whose name contains each trigram in this shard
+        final HashMap<Long, OrdinalSet> postings;
+
+        // Version the shard was created or copied in
+        final int version;
+
+        /**
+         * Package constructor for a shard holding the given map
+         *
+         * @param postings the posting set of each trigram
+         * @param version the version the shard belongs to
+         */
+        Shard(HashMap<Long, OrdinalSet> postings, int version) {
+            this.postings = postings;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A column-oriented copy of every food's nutrient values, kept by FoodData
+ * alongside the nutrient indexes.
+ *
+ * There is one double array per nutrient, and a food's values sit at the
+ * position of its ordinal in each of them.  Checking a rule against every
+ * food is then a sequential pass over one primitive array instead of a
+ * HashMap lookup and an unboxing per food, which makes a full scan cheaper
+ * than the indexes once the rules match a large part of the catalog.
+ *
+ * The ordinals are split into chunks of CHUNK_SIZE, each holding its part
+ * of every column.  snapshot() shares the chunks with the store, which
+ * copies a chunk the first time it changes one a snapshot can still reach,
+ * so an edit after a snapshot copies one chunk rather than the columns.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class NutrientColumns {
+
+    // Number of ordinals checked together, one bit each in a match word
+    private static final int BLOCK_SIZE = 64;
+
+    // Number of ordinals in each chunk, a power of two and a multiple of BLOCK_SIZE
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Number of match words in each chunk
+    private static final int WORDS_PER_CHUNK = CHUNK_SIZE / BLOCK_SIZE;
+
+    // Nutrient values by chunk, columns[chunk][nutrient ordinal][food ordinal within the chunk]
+    private double[][][] columns;
+
+    // One bit per food ordinal by chunk, set while the ordinal holds a food
+    private long[][] live;
+
+    // Version each chunk was created or copied in; a chunk from an older version may be shared
+    private int[] chunkVersions;
+
+    // Number of ordinals handed out, including ones whose food has been removed
+    private int size;
+
+    // Version that chunks created or copied from now on belong to
+    private int version;
+
+    /**
+     * Public constructor for an empty store
+     */
+    public NutrientColumns() {
+        columns = new double[1][][];
+        live = new long[1][];
+        chunkVersions = new int[1];
+        size = 0;
+    }
+
+    /**
+     * Accessor for size
+     *
+     * @return the number of ordinals in the store, including removed ones
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores the nutrient values of a food
+     *
+     * @param ordinal the ordinal of the food, at most one past the largest ordinal stored so far
+     * @param values the food's value for each nutrient, indexed by Nutrients.ordinal()
+     */
+    public void add(int ordinal, double[] values) {
+        if (ordinal < 0 || ordinal > size) {
+            throw new IllegalArgumentException("Illegal ordinal: " + ordinal);
+        }
+        int chunk = ordinal >>> CHUNK_BITS;
+        if (ordinal == size && (ordinal & (CHUNK_SIZE - 1)) == 0) {
+            newChunk(chunk);
+        }
+        writableChunk(chunk);
+        int offset = ordinal & (CHUNK_SIZE - 1);
+        for (int n = 0; n < values.length; n++) {
+            columns[chunk][n][offset] = values[n];
+        }
+        live[chunk][offset >>> 6] |= 1L << offset;
+        size = Math.max(size, ordinal + 1);
+    }
+
+    /**
+     * Marks a food as removed.  Its values stay in the columns but it no
+     * longer matches any scan.
+     *
+     * @param ordinal the ordinal of the food
+     */
+    public void remove(int ordinal) {
+        if (ordinal >= 0 && ordinal < size) {
+            int chunk = ordinal >>> CHUNK_BITS;
+            writableChunk(chunk);
+            live[chunk][(ordinal & (CHUNK_SIZE - 1)) >>> 6] &= ~(1L << ordinal);
+        }
+    }
+
+    /**
+     * Gets the value a food has stored for a nutrient
+     *
+     * @param ordinal the ordinal of the food
+     * @param nutrient the nutrient to read
+     * @return the stored value
+     */
+    public double get(int ordinal, Nutrients nutrient) {
+        return columns[ordinal >>> CHUNK_BITS][nutrient.ordinal()][ordinal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Takes a read-only snapshot of the store as it is now, sharing its
+     * chunks until the store changes them
+     *
+     * @return the snapshot, which must not be changed
+     */
+    NutrientColumns snapshot() {
+        NutrientColumns snapshot = new NutrientColumns();
+        snapshot.columns = columns.clone();
+        snapshot.live = live.clone();
+        snapshot.chunkVersions = chunkVersions.clone();
+        snapshot.size = size;
+        snapshot.version = version;
+        version++; //Every chunk reachable now is shared from here on
+        return snapshot;
+    }
+
+    /**
+     * Finds every food whose values fall in all the given ranges, in a
+     * single pass over the columns.
+     *
+     * The ordinals are worked through in blocks of 64.  For each block every
+     * range is checked in turn, building a 64 bit word with one bit per food
+     * that is still a match, and the block is abandoned as soon as the word
+     * is empty.  The inner loop has no branches, reads a single column
+     * sequentially, and a block of one column fits in a few cache lines, so
+     * the JIT is free to unroll and vectorize it.
+     *
+     * @param nutrients the nutrient each range applies to
+     * @param lows the lowest value in each range (inclusive)
+     * @param highs the highest value in each range (inclusive)
+     * @return one bit per ordinal, set for the foods that match every range
+     */
+    public long[] scan(Nutrients[] nutrients, double[] lows, double[] highs) {
+        int numWords = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] matches = new long[numWords];
+        for (int word = 0; word < numWords; word++) {
+            double[][] chunkColumns = columns[word / WORDS_PER_CHUNK];
+            long bits = live[word / WORDS_PER_CHUNK][word % WORDS_PER_CHUNK];
+            int base = (word % WORDS_PER_CHUNK) * BLOCK_SIZE;
+            int blockSize = Math.min(BLOCK_SIZE, size - word * BLOCK_SIZE);
+            for (int r = 0; r < nutrients.length && bits != 0; r++) {
+                double[] column = chunkColumns[nutrients[r].ordinal()];
+                double low = lows[r];
+                double high = highs[r];
+                long inRange = 0;
+                for (int i = 0; i < blockSize; i++) {
+                    double value = column[base + i];
+                    inRange |= ((value >= low) & (value <= high) ? 1L : 0L) << i; //Non short-circuit & keeps the loop free of branches
+                }
+                bits &= inRange;
+            }
+            matches[word] = bits;
+        }
+        return matches;
+    }
+
+    /**
+     * Writes the store to a snapshot, one column after another
+     *
+     * @param out where to write the store
+     * @throws IOException if the store can't be written
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        int numNutrients = Nutrients.values().length;
+        out.writeInt(numNutrients);
+        out.writeInt(size);
+        for (int n = 0; n < numNutrients; n++) {
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(columns[i >>> CHUNK_BITS][n][i & (CHUNK_SIZE - 1)]);
+            }
+        }
+        for (int word = 0; word < (size + BLOCK_SIZE - 1) / BLOCK_SIZE; word++) {
+            out.writeLong(live[word / WORDS_PER_CHUNK][word % WORDS_PER_CHUNK]);
+        }
+    }
+
+    /**
+     * Reads a store written by writeSnapshot().  Each chunk of a column is
+     * copied out of the buffer in one bulk get.
+     *
+     * @param in the buffer to read from, positioned at the store
+     * @return the store
+     * @throws IOException if the bytes don't hold a valid store
+     */
+    public static NutrientColumns readSnapshot(ByteBuffer in) throws IOException {
+        int numColumns = in.getInt();
+        int size = in.getInt();
+        if (numColumns != Nutrients.values().length || size < 0) {
+            throw new IOException("Illegal nutrient columns in snapshot: " + numColumns + " x " + size);
+        }
+        NutrientColumns store = new NutrientColumns();
+        int numChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            store.newChunk(chunk);
+        }
+        for (int n = 0; n < numColumns; n++) {
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                int count = Math.min(CHUNK_SIZE, size - chunk * CHUNK_SIZE);
+                in.asDoubleBuffer().get(store.columns[chunk][n], 0, count);
+                in.position(in.position() + count * Double.BYTES);
+            }
+        }
+        int numWords = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            int count = Math.min(WORDS_PER_CHUNK, numWords - chunk * WORDS_PER_CHUNK);
+            in.asLongBuffer().get(store.live[chunk], 0, count);
+            in.position(in.position() + count * Long.BYTES);
+        }
+        store.size = size;
+        return store;
+    }
+
+    /**
+     * Allocates an empty chunk at the end of the store
+     *
+     * @param chunk the index of the new chunk
+     */
+    private void newChunk(int chunk) {
+        if (chunk == columns.length) {
+            columns = Arrays.copyOf(columns, chunk * 2);
+            live = Arrays.copyOf(live, chunk * 2);
+            chunkVersions = Arrays.copyOf(chunkVersions, chunk * 2);
+        }
+        columns[chunk] = new double[Nutrients.values().length][CHUNK_SIZE];
+        live[chunk] = new long[WORDS_PER_CHUNK];
+        chunkVersions[chunk] = version;
+    }
+
+    /**
+     * Makes sure a chunk that is about to be changed isn't shared with a
+     * snapshot, replacing it with a copy if it may be
+     *
+     * @param chunk the index of the chunk
+     */
+    private void writableChunk(int chunk) {
+        if (chunkVersions[chunk] != version) {
+            double[][] copy = new double[columns[chunk].length][];
+            for (int n = 0; n < copy.length; n++) {
+                copy[n] = columns[chunk][n].clone();
+            }
+            columns[chunk] = copy;
+            live[chunk] = live[chunk].clone();
+            chunkVersions[chunk] = version;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package application;
 
-import java.util.List;
-
 /**
  * This class defines a rule used to filter out FoodItems that meet criteria related to the
  * nutrients in the food
@@ -76,12 +74,13 @@ public class NutrientFilter {
 	}
 	
 	/**
-	 * Puts FoodItems meeting the criteria of this filter into a list
+	 * Opens a lazy cursor over the FoodItems meeting the criteria of this filter. Nothing is copied
+	 * out of the tree until the cursor is advanced.
 	 * 
-	 * @param tree - the BPTree whose key is the value for nutrientToCompare for each FoodItem
-	 * @return a List containing all the FoodItems that meet this filter's criterion
+	 * @param tree - the DoubleBPTree whose key is the value for nutrientToCompare for each FoodItem
+	 * @return a Cursor over all the FoodItems that meet this filter's criterion
 	 */
-	public List<FoodItem> executeFilter(BPTree<Double, FoodItem> tree) {
-		return tree.rangeSearch(value, comparator);
+	public Cursor<FoodItem> executeFilter(DoubleBPTree<FoodItem> tree) {
+		return tree.scan(value.doubleValue(), comparator);
 	}
 }
@@ -0,0 +1,151 @@
+package application;
+
+/**
+ * This class represents the window of values a single nutrient has to fall in to satisfy every
+ * rule on that nutrient. Rules like "calories >= 50" and "calories <= 200" are merged into one
+ * range so the nutrient's index only has to be scanned once between the two bounds.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ */
+public class NutrientRange {
+	// Nutrient the range applies to
+	private String nutrientName;
+	// The same nutrient as an enum, so a FoodItem's value is read by ordinal
+	private Nutrients nutrientType;
+	// Lowest value in the range (inclusive)
+	private double low;
+	// Highest value in the range (inclusive)
+	private double high;
+
+	/**
+	 * Constructor for a range that does not restrict the nutrient at all yet
+	 *
+	 * @param nut nutrient the range applies to
+	 * @throws IllegalArgumentException if nut isn't the name of a Nutrients constant
+	 */
+	public NutrientRange(String nut) {
+		nutrientName = nut;
+		nutrientType = Nutrients.valueOf(nut);
+		low = Double.NEGATIVE_INFINITY;
+		high = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Accessor for nutrientName
+	 *
+	 * @return nutrientName
+	 */
+	public String getNutrient() {
+		return nutrientName;
+	}
+
+	/**
+	 * Accessor for nutrientType
+	 *
+	 * @return the nutrient the range applies to
+	 */
+	public Nutrients getNutrientType() {
+		return nutrientType;
+	}
+
+	/**
+	 * Accessor for low
+	 *
+	 * @return the lowest value in the range
+	 */
+	public double getLow() {
+		return low;
+	}
+
+	/**
+	 * Accessor for high
+	 *
+	 * @return the highest value in the range
+	 */
+	public double getHigh() {
+		return high;
+	}
+
+	/**
+	 * Narrows the range so it also satisfies the given filter
+	 *
+	 * @param filter a filter on the same nutrient as this range, with a comparator of <=, >=, or ==
+	 */
+	public void restrict(NutrientFilter filter) {
+		String comparator = filter.getComparator();
+		double value = filter.getValue();
+		if (comparator.equals(">=") || comparator.equals("==")) {
+			low = Math.max(low, value);
+		}
+		if (comparator.equals("<=") || comparator.equals("==")) {
+			high = Math.min(high, value);
+		}
+	}
+
+	/**
+	 * Determines if no value can fall in the range (for example "fat >= 10" and "fat <= 5")
+	 *
+	 * @return true if the range is empty
+	 */
+	public boolean isEmpty() {
+		return !(low <= high);
+	}
+
+	/**
+	 * Determines if a value falls in the range
+	 *
+	 * @param value the nutrient value to check
+	 * @return true if the value is in the range
+	 */
+	public boolean matches(double value) {
+		return value >= low && value <= high;
+	}
+
+	/**
+	 * Determines if a FoodItem's value for the nutrient falls in the range, deciding the same way a
+	 * scan of the nutrient's index would (so fixed point rounding is applied to the value first)
+	 *
+	 * @param food the FoodItem to check
+	 * @param tree - the DoubleBPTree whose key is the value for nutrientName for each FoodItem
+	 * @return true if executeFilter(tree) would produce food
+	 */
+	public boolean matches(FoodItem food, DoubleBPTree<FoodItem> tree) {
+		return tree.inRange(food.getNutrientValue(nutrientType), low, high);
+	}
+
+	/**
+	 * Estimates how many FoodItems the range matches from the index's statistics
+	 *
+	 * @param tree - the DoubleBPTree whose key is the value for nutrientName for each FoodItem
+	 * @return the estimated number of FoodItems executeFilter(tree) would produce
+	 */
+	public long estimateCount(DoubleBPTree<FoodItem> tree) {
+		return tree.estimateCount(low, high);
+	}
+
+	/**
+	 * Opens a lazy cursor over the FoodItems whose nutrient value falls in the range
+	 *
+	 * @param tree - the DoubleBPTree whose key is the value for nutrientName for each FoodItem
+	 * @return a Cursor over all the FoodItems in the range
+	 */
+	public Cursor<FoodItem> executeFilter(DoubleBPTree<FoodItem> tree) {
+		return tree.scan(low, true, high, true);
+	}
+
+	/**
+	 * Scans the FoodItems whose nutrient value falls in the range into a set of their ordinals
+	 *
+	 * @param tree - the DoubleBPTree whose key is the value for nutrientName for each FoodItem
+	 * @return the ordinals of all the FoodItems in the range
+	 */
+	public OrdinalSet executeOrdinalFilter(DoubleBPTree<FoodItem> tree) {
+		OrdinalSet ordinals = new OrdinalSet();
+		Cursor<FoodItem> foods = executeFilter(tree);
+		while (foods.hasNext()) {
+			ordinals.add(foods.next().getOrdinal());
+		}
+		return ordinals;
+	}
+}
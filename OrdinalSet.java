@@ -0,0 +1,653 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed set of food item ordinals, used to intersect the results of
+ * several nutrient index scans without touching the FoodItems themselves.
+ *
+ * The ordinals are split into chunks of 65536 by their upper 16 bits and
+ * each chunk is stored in whichever container is smaller for it: a sorted
+ * array of the lower 16 bits while the chunk holds at most 4096 ordinals,
+ * or a 1024 word bitmap once it holds more.  Intersecting two bitmaps is a
+ * word by word AND, and a sparse chunk never costs more than two bytes per
+ * ordinal.
+ *
+ * A set that something else takes snapshots of, like NameIndex's posting
+ * sets, is copied on write the same way as the trees' nodes: writable()
+ * copies the container arrays of a set from an older version, and each
+ * container is copied the first time it changes after that.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class OrdinalSet {
+
+    // Most ordinals an array container holds before it is turned into a bitmap
+    // (at that size both take 8KB)
+    private static final int ARRAY_CONTAINER_MAX = 4096;
+
+    // Upper 16 bits of the ordinals in each container, in ascending order
+    private char[] keys;
+
+    // Containers holding the lower 16 bits, parallel to the keys array
+    private Container[] containers;
+
+    // Number of containers in use
+    private int numContainers;
+
+    // Version the set was created or copied in; containers from an older version may be shared
+    private int version;
+
+    /**
+     * Public constructor for an empty set
+     */
+    public OrdinalSet() {
+        this(0);
+    }
+
+    /**
+     * Package constructor for an empty set belonging to a version
+     *
+     * @param version the version the set and its new containers belong to
+     */
+    OrdinalSet(int version) {
+        keys = new char[4];
+        containers = new Container[4];
+        numContainers = 0;
+        this.version = version;
+    }
+
+    /**
+     * Gets a set that can be changed in the given version.  A set from an
+     * older version may be shared with a snapshot, so it is copied, sharing
+     * its containers until they change.
+     *
+     * @param newVersion the version about to change the set
+     * @return this set if it already belongs to newVersion, otherwise a copy that does
+     */
+    OrdinalSet writable(int newVersion) {
+        if (version == newVersion) {
+            return this;
+        }
+        OrdinalSet copy = new OrdinalSet(newVersion);
+        copy.keys = keys.clone();
+        copy.containers = containers.clone();
+        copy.numContainers = numContainers;
+        return copy;
+    }
+
+    /**
+     * Adds an ordinal to the set
+     *
+     * @param ordinal the ordinal to add
+     */
+    public void add(int ordinal) {
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Illegal ordinal: " + ordinal);
+        }
+        char key = (char) (ordinal >>> 16);
+        int index = findContainer(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new ArrayContainer());
+            containers[index].version = version;
+        }
+        containers[index] = writableContainer(index).add((char) ordinal);
+    }
+
+    /**
+     * Removes an ordinal from the set
+     *
+     * @param ordinal the ordinal to remove
+     */
+    public void remove(int ordinal) {
+        if (ordinal < 0) {
+            return;
+        }
+        int index = findContainer((char) (ordinal >>> 16));
+        if (index < 0) {
+            return;
+        }
+        writableContainer(index).remove((char) ordinal);
+        if (containers[index].cardinality() == 0) { //Drop empty chunks so isEmpty stays cheap
+            numContainers--;
+            System.arraycopy(keys, index + 1, keys, index, numContainers - index);
+            System.arraycopy(containers, index + 1, containers, index, numContainers - index);
+            containers[numContainers] = null;
+        }
+    }
+
+    /**
+     * Determines if the set holds an ordinal
+     *
+     * @param ordinal the ordinal to look for
+     * @return true if the ordinal is in the set
+     */
+    public boolean contains(int ordinal) {
+        if (ordinal < 0) {
+            return false;
+        }
+        int index = findContainer((char) (ordinal >>> 16));
+        return index >= 0 && containers[index].contains((char) ordinal);
+    }
+
+    /**
+     * Counts the ordinals in the set
+     *
+     * @return the number of ordinals
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < numContainers; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Determines if the set is empty
+     *
+     * @return true if the set holds no ordinals
+     */
+    public boolean isEmpty() {
+        return numContainers == 0;
+    }
+
+    /**
+     * Intersects this set with another.  Only chunks present in both sets
+     * are visited, and neither set is changed.
+     *
+     * @param other the set to intersect with
+     * @return a new set holding the ordinals that are in both sets
+     */
+    public OrdinalSet and(OrdinalSet other) {
+        OrdinalSet result = new OrdinalSet();
+        int i = 0;
+        int j = 0;
+        while (i < numContainers && j < other.numContainers) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            }
+            else if (keys[i] > other.keys[j]) {
+                j++;
+            }
+            else {
+                Container both = containers[i].and(other.containers[j]);
+                if (both.cardinality() > 0) { //Drop chunks that come out empty so isEmpty stays cheap
+                    result.insertContainer(result.numContainers, keys[i], both);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets an iterator over the ordinals in ascending order
+     *
+     * @return an iterator over the set
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+
+            // Container holding the next ordinal
+            private int container = 0;
+
+            // Lower 16 bits of the next ordinal, or -1 once the set is used up
+            private int low = advanceTo(0, 0);
+
+            /**
+             * Finds the first ordinal at or after the given position
+             *
+             * @param startContainer the container to start in
+             * @param startLow the lower 16 bits to start at within that container
+             * @return the lower 16 bits of the ordinal found, or -1 if there is none
+             */
+            private int advanceTo(int startContainer, int startLow) {
+                container = startContainer;
+                int from = startLow;
+                while (container < numContainers) {
+                    int found = from <= Character.MAX_VALUE ? containers[container].nextValue(from) : -1;
+                    if (found >= 0) {
+                        return found;
+                    }
+                    container++;
+                    from = 0;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return low >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (low < 0) {
+                    throw new NoSuchElementException();
+                }
+                int ordinal = (keys[container] << 16) | low;
+                low = advanceTo(container, low + 1);
+                return ordinal;
+            }
+        };
+    }
+
+    /**
+     * Binary searches for the container with the given upper 16 bits
+     *
+     * @param key the upper 16 bits to look for
+     * @return the index of the container, or (-(insertion point) - 1) if there is none
+     */
+    private int findContainer(char key) {
+        return Arrays.binarySearch(keys, 0, numContainers, key);
+    }
+
+    /**
+     * Gets a container that is about to be changed, first replacing it with
+     * a copy if it comes from an older version and may be shared
+     *
+     * @param index the slot of the container
+     * @return the container, safe to change in place
+     */
+    private Container writableContainer(int index) {
+        if (containers[index].version != version) {
+            containers[index] = containers[index].copy();
+            containers[index].version = version;
+        }
+        return containers[index];
+    }
+
+    /**
+     * Inserts a container, keeping the keys in ascending order
+     *
+     * @param index the slot to insert at
+     * @param key the upper 16 bits of the container's ordinals
+     * @param container the container to insert
+     */
+    private void insertContainer(int index, char key, Container container) {
+        if (numContainers == keys.length) {
+            keys = Arrays.copyOf(keys, numContainers * 2);
+            containers = Arrays.copyOf(containers, numContainers * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, numContainers - index);
+        System.arraycopy(containers, index, containers, index + 1, numContainers - index);
+        keys[index] = key;
+        containers[index] = container;
+        numContainers++;
+    }
+
+    /**
+     * Writes the set to a snapshot, container by container, so readSnapshot()
+     * can rebuild the containers as they are
+     *
+     * @param out where to write the set
+     * @throws IOException if the set can't be written
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(numContainers);
+        for (int i = 0; i < numContainers; i++) {
+            out.writeChar(keys[i]);
+            if (containers[i] instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) containers[i];
+                out.writeBoolean(false);
+                out.writeInt(array.size);
+                for (int j = 0; j < array.size; j++) {
+                    out.writeChar(array.values[j]);
+                }
+            }
+            else {
+                BitmapContainer bitmap = (BitmapContainer) containers[i];
+                out.writeBoolean(true);
+                for (long word : bitmap.words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a set written by writeSnapshot()
+     *
+     * @param in the buffer to read from, positioned at the set
+     * @return the set
+     * @throws IOException if the bytes don't hold a valid set
+     */
+    public static OrdinalSet readSnapshot(ByteBuffer in) throws IOException {
+        int numContainers = in.getInt();
+        if (numContainers < 0 || numContainers > Character.MAX_VALUE + 1) {
+            throw new IOException("Illegal number of containers in snapshot: " + numContainers);
+        }
+        OrdinalSet set = new OrdinalSet();
+        set.keys = new char[Math.max(4, numContainers)];
+        set.containers = new Container[Math.max(4, numContainers)];
+        for (int i = 0; i < numContainers; i++) {
+            set.keys[i] = in.getChar();
+            if (in.get() == 0) {
+                int size = in.getInt();
+                if (size < 1 || size > ARRAY_CONTAINER_MAX) {
+                    throw new IOException("Illegal container size in snapshot: " + size);
+                }
+                char[] values = new char[size];
+                in.asCharBuffer().get(values);
+                in.position(in.position() + size * Character.BYTES);
+                set.containers[i] = new ArrayContainer(values, size);
+            }
+            else {
+                BitmapContainer bitmap = new BitmapContainer();
+                in.asLongBuffer().get(bitmap.words);
+                in.position(in.position() + bitmap.words.length * Long.BYTES);
+                for (long word : bitmap.words) {
+                    bitmap.cardinality += Long.bitCount(word);
+                }
+                set.containers[i] = bitmap;
+            }
+        }
+        set.numContainers = numContainers;
+        return set;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        PrimitiveIterator.OfInt it = iterator();
+        while (it.hasNext()) {
+            sb.append(it.nextInt());
+            if (it.hasNext()) {
+                sb.append(", ");
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+
+    /**
+     * The lower 16 bits of the ordinals in one chunk of the set
+     */
+    private abstract static class Container {
+
+        // Version of the set the container was created or copied in
+        int version;
+
+        /**
+         * Copies the container, for a set that is about to change it while
+         * a snapshot still shares it
+         *
+         * @return a container holding the same values
+         */
+        abstract Container copy();
+
+        /**
+         * Adds a value to the container
+         *
+         * @param value the lower 16 bits of the ordinal
+         * @return the container now holding the value, which is a new bitmap
+         *         container if this array container was full
+         */
+        abstract Container add(char value);
+
+        /**
+         * Removes a value from the container.  A bitmap container stays a
+         * bitmap even if it becomes sparse.
+         *
+         * @param value the lower 16 bits of the ordinal
+         */
+        abstract void remove(char value);
+
+        /**
+         * Determines if the container holds a value
+         *
+         * @param value the lower 16 bits of the ordinal
+         * @return true if the value is present
+         */
+        abstract boolean contains(char value);
+
+        /**
+         * Counts the values in the container
+         *
+         * @return the number of values
+         */
+        abstract int cardinality();
+
+        /**
+         * Intersects this container with another one for the same chunk
+         *
+         * @param other the container to intersect with
+         * @return a new container holding the values in both
+         */
+        abstract Container and(Container other);
+
+        /**
+         * Finds the smallest value in the container that is at least from
+         *
+         * @param from the value to start at, between 0 and 65535
+         * @return the value found, or -1 if there is none
+         */
+        abstract int nextValue(int from);
+    }
+
+
+    /**
+     * Container for a sparse chunk, holding its values in a sorted array
+     */
+    private static class ArrayContainer extends Container {
+
+        // Values in ascending order, only the first size slots are in use
+        char[] values;
+
+        // Number of values in the container
+        int size;
+
+        /**
+         * Package constructor for an empty container
+         */
+        ArrayContainer() {
+            values = new char[8];
+            size = 0;
+        }
+
+        /**
+         * Package constructor for a container holding the given sorted values
+         *
+         * @param values the values, in ascending order
+         * @param size the number of values in use
+         */
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        Container copy() {
+            return new ArrayContainer(values.clone(), size);
+        }
+
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_CONTAINER_MAX) { //Full, so switch to a bitmap
+                BitmapContainer bitmap = new BitmapContainer();
+                bitmap.version = version;
+                for (int i = 0; i < size; i++) {
+                    bitmap.add(values[i]);
+                }
+                return bitmap.add(value);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_CONTAINER_MAX, Math.max(8, size * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        void remove(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+        }
+
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        int cardinality() {
+            return size;
+        }
+
+        Container and(Container other) {
+            char[] both = new char[size];
+            int numBoth = 0;
+            if (other instanceof ArrayContainer) { //Merge the two sorted arrays
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    }
+                    else if (values[i] > array.values[j]) {
+                        j++;
+                    }
+                    else {
+                        both[numBoth++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        both[numBoth++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(both, numBoth);
+        }
+
+        int nextValue(int from) {
+            int index = Arrays.binarySearch(values, 0, size, (char) from);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < size ? values[index] : -1;
+        }
+    }
+
+
+    /**
+     * Container for a dense chunk, holding one bit for each of its 65536 values
+     */
+    private static class BitmapContainer extends Container {
+
+        // One bit per value
+        long[] words;
+
+        // Number of bits set
+        int cardinality;
+
+        /**
+         * Package constructor for an empty container
+         */
+        BitmapContainer() {
+            words = new long[1024];
+            cardinality = 0;
+        }
+
+        /**
+         * Package constructor for a container holding the given bits
+         *
+         * @param words one bit per value
+         * @param cardinality the number of bits set
+         */
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        Container add(char value) {
+            long bit = 1L << value; //Shifts only use the low 6 bits, so this picks the bit within the word
+            int word = value >>> 6;
+            if ((words[word] & bit) == 0) {
+                words[word] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        void remove(char value) {
+            long bit = 1L << value;
+            int word = value >>> 6;
+            if ((words[word] & bit) != 0) {
+                words[word] &= ~bit;
+                cardinality--;
+            }
+        }
+
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            BitmapContainer both = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                both.words[i] = words[i] & bitmap.words[i];
+                both.cardinality += Long.bitCount(both.words[i]);
+            }
+            if (both.cardinality > ARRAY_CONTAINER_MAX) {
+                return both;
+            }
+            char[] values = new char[both.cardinality]; //Sparse enough to be smaller as an array
+            int numValues = 0;
+            for (int i = 0; i < both.words.length; i++) {
+                long word = both.words[i];
+                while (word != 0) {
+                    values[numValues++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, numValues);
+        }
+
+        int nextValue(int from) {
+            int word = from >>> 6;
+            long bits = words[word] & (-1L << from);
+            while (bits == 0) {
+                if (++word == words.length) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package application;
+
+import java.util.Arrays;
+
+/**
+ * A growable table of values indexed by food ordinal, such as FoodData's
+ * food of each ordinal or NameIndex's folded name of each ordinal, that
+ * can hand out constant time read-only snapshots of itself.
+ *
+ * The values are held in fixed-size chunks.  snapshot() copies the array
+ * of chunks and shares the chunks themselves, and from then on the table
+ * copies a chunk the first time it changes one that a snapshot can still
+ * reach, the same way the trees copy their nodes.  An edit after a
+ * snapshot therefore copies one chunk of CHUNK_SIZE values, however large
+ * the table is.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <T> the type of the values
+ */
+final class OrdinalTable<T> {
+
+    // Number of values in each chunk, a power of two so an ordinal splits into chunk and offset with shifts
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // The chunks, each holding CHUNK_SIZE values
+    private Object[][] chunks;
+
+    // Version each chunk was created or copied in; a chunk from an older version may be shared
+    private int[] chunkVersions;
+
+    // Number of values in the table
+    private int size;
+
+    // Version that chunks created or copied from now on belong to
+    private int version;
+
+    /**
+     * Package constructor for an empty table
+     */
+    OrdinalTable() {
+        chunks = new Object[4][];
+        chunkVersions = new int[4];
+        size = 0;
+    }
+
+    /**
+     * Gets the number of values in the table
+     *
+     * @return the number of values, including null ones
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value of an ordinal
+     *
+     * @param ordinal the ordinal to read, less than size()
+     * @return the value, which may be null
+     */
+    @SuppressWarnings("unchecked")
+    T get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " of " + size);
+        }
+        return (T) chunks[ordinal >>> CHUNK_BITS][ordinal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Sets the value of an ordinal
+     *
+     * @param ordinal the ordinal to set, less than size()
+     * @param value the value, which may be null
+     */
+    void set(int ordinal, T value) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("Ordinal " + ordinal + " of " + size);
+        }
+        writableChunk(ordinal >>> CHUNK_BITS)[ordinal & (CHUNK_SIZE - 1)] = value;
+    }
+
+    /**
+     * Adds a value at the next ordinal
+     *
+     * @param value the value, which may be null
+     */
+    void add(T value) {
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            chunkVersions = Arrays.copyOf(chunkVersions, chunks.length);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Object[CHUNK_SIZE];
+            chunkVersions[chunk] = version;
+        }
+        size++;
+        set(size - 1, value);
+    }
+
+    /**
+     * Takes a read-only snapshot of the table as it is now, sharing its
+     * chunks until the table changes them
+     *
+     * @return the snapshot, which must not be changed
+     */
+    OrdinalTable<T> snapshot() {
+        OrdinalTable<T> snapshot = new OrdinalTable<>();
+        snapshot.chunks = chunks.clone();
+        snapshot.chunkVersions = chunkVersions.clone();
+        snapshot.size = size;
+        snapshot.version = version;
+        version++; //Every chunk reachable now is shared from here on
+        return snapshot;
+    }
+
+    /**
+     * Gets a chunk that is about to be changed, first replacing it with a
+     * copy if it may be shared with a snapshot
+     *
+     * @param chunk the index of the chunk
+     * @return the chunk, safe to change in place
+     */
+    private Object[] writableChunk(int chunk) {
+        if (chunkVersions[chunk] != version) {
+            chunks[chunk] = chunks[chunk].clone();
+            chunkVersions[chunk] = version;
+        }
+        return chunks[chunk];
+    }
+}
@@ -0,0 +1,1290 @@
+package application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * A B+ tree whose nodes live in fixed-size pages of a file instead of on
+ * the heap, so an index can be several times larger than memory.
+ *
+ * Each node is stored in one page.  Pages are read through a buffer pool
+ * that holds a fixed number of decoded nodes and picks which one to evict
+ * with the clock algorithm: every use of a page sets its reference bit,
+ * and the clock hand clears bits until it finds a page that hasn't been
+ * used since the last sweep.  The root and upper levels are used by every
+ * lookup, so they stay cached while leaves come and go.  A page is pinned
+ * while a traversal is using it so it can't be evicted underneath it, and
+ * a changed page is only written back to the file when it is evicted or
+ * the tree is flushed.
+ *
+ * Keys and values are written with SnapshotCodecs and can be any size, so
+ * nodes split when their encoded entries no longer fit in a page rather
+ * than at a fixed number of keys.  Duplicate keys are stored as separate
+ * entries in insertion order.
+ *
+ * The file is only consistent after flush() or close(); there is no log,
+ * so a crash in between can leave it unreadable.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class PagedBPTree<K extends Comparable<K>, V> implements BPTreeADT<K, V>, Closeable {
+
+    // First four bytes of the file ("FDBP")
+    private static final int MAGIC = 0x46444250;
+
+    // Version of the page layout
+    private static final int VERSION = 1;
+
+    // Page 0 holds the header, nodes start at page 1
+    private static final int FIRST_NODE_PAGE = 1;
+
+    // Page number used for "no page", such as the next leaf of the last leaf
+    private static final int NO_PAGE = -1;
+
+    // Bytes in the header page that are used
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+    // Type byte of a leaf page
+    private static final byte LEAF = 0;
+
+    // Type byte of an internal page
+    private static final byte INTERNAL = 1;
+
+    // Bytes every node page starts with: its type, its number of keys, and its next leaf or first child
+    private static final int NODE_HEADER_BYTES = 1 + Integer.BYTES + Integer.BYTES;
+
+    // Smallest page size allowed
+    public static final int MIN_PAGE_SIZE = 256;
+
+    // Fewest pages the buffer pool can hold; an insert pins one page per level plus the pages it splits off
+    public static final int MIN_POOL_PAGES = 16;
+
+    // The file the pages are stored in
+    private final FileChannel channel;
+
+    // Size of each page in bytes
+    private final int pageSize;
+
+    // Largest entry that can be stored, small enough that an overfull node always splits into two that fit
+    private final int maxEntryBytes;
+
+    // Writes and reads the keys
+    private final SnapshotCodec<K> keyCodec;
+
+    // Writes and reads the values
+    private final SnapshotCodec<V> valueCodec;
+
+    // Nodes currently held in memory
+    private final BufferPool pool;
+
+    // Buffer that entries and pages are encoded into
+    private final ByteArrayOutputStream scratch;
+
+    // Writes into scratch
+    private final DataOutputStream scratchOut;
+
+    // Page of the root node, or NO_PAGE if the tree is empty
+    private int rootPage;
+
+    // Number of pages in the file, including the header page
+    private int pageCount;
+
+    // Number of key-value pairs in the tree
+    private int size;
+
+
+    /**
+     * Private constructor, use create() or open()
+     *
+     * @param channel the file the pages are stored in
+     * @param pageSize the size of each page in bytes
+     * @param poolPages the number of pages the buffer pool holds
+     * @param keyCodec writes and reads the keys
+     * @param valueCodec writes and reads the values
+     */
+    private PagedBPTree(FileChannel channel, int pageSize, int poolPages,
+        SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.maxEntryBytes = (pageSize - NODE_HEADER_BYTES) / 4;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.pool = new BufferPool(poolPages);
+        this.scratch = new ByteArrayOutputStream(pageSize);
+        this.scratchOut = new DataOutputStream(scratch);
+        this.rootPage = NO_PAGE;
+        this.pageCount = FIRST_NODE_PAGE;
+    }
+
+
+    /**
+     * Creates an empty tree in a file, replacing the file if it exists
+     *
+     * @param path the file to store the tree in
+     * @param pageSize the size of each page in bytes, at least MIN_PAGE_SIZE
+     * @param poolPages the number of pages kept in memory, at least MIN_POOL_PAGES
+     * @param keyCodec writes and reads the keys
+     * @param valueCodec writes and reads the values
+     * @return the empty tree
+     * @throws IOException if the file can't be created
+     */
+    public static <K extends Comparable<K>, V> PagedBPTree<K, V> create(Path path, int pageSize,
+        int poolPages, SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        if (pageSize < MIN_PAGE_SIZE) {
+            throw new IllegalArgumentException("Illegal page size: " + pageSize);
+        }
+        checkPoolPages(poolPages);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PagedBPTree<K, V> tree = new PagedBPTree<K, V>(channel, pageSize, poolPages, keyCodec, valueCodec);
+        try {
+            tree.writeHeader();
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return tree;
+    }
+
+
+    /**
+     * Opens a tree that was created by create() and then flushed or closed
+     *
+     * @param path the file the tree is stored in
+     * @param poolPages the number of pages kept in memory, at least MIN_POOL_PAGES
+     * @param keyCodec reads and writes the keys, the same as the tree was created with
+     * @param valueCodec reads and writes the values, the same as the tree was created with
+     * @return the tree
+     * @throws IOException if the file can't be read or doesn't hold a tree
+     */
+    public static <K extends Comparable<K>, V> PagedBPTree<K, V> open(Path path, int poolPages,
+        SnapshotCodec<K> keyCodec, SnapshotCodec<V> valueCodec) throws IOException {
+        checkPoolPages(poolPages);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a paged B+ tree: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported paged B+ tree version " + version + ": " + path);
+            }
+            int pageSize = header.getInt();
+            if (pageSize < MIN_PAGE_SIZE) {
+                throw new IOException("Illegal page size " + pageSize + ": " + path);
+            }
+            PagedBPTree<K, V> tree = new PagedBPTree<K, V>(channel, pageSize, poolPages, keyCodec, valueCodec);
+            tree.rootPage = header.getInt();
+            tree.pageCount = header.getInt();
+            tree.size = header.getInt();
+            if (tree.pageCount < FIRST_NODE_PAGE || tree.size < 0
+                || (tree.rootPage != NO_PAGE && (tree.rootPage < FIRST_NODE_PAGE || tree.rootPage >= tree.pageCount))) {
+                throw new IOException("Corrupt paged B+ tree header: " + path);
+            }
+            return tree;
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Rejects a buffer pool too small for an insert to pin what it needs
+     *
+     * @param poolPages the number of pages the buffer pool would hold
+     */
+    private static void checkPoolPages(int poolPages) {
+        if (poolPages < MIN_POOL_PAGES) {
+            throw new IllegalArgumentException("Illegal buffer pool size: " + poolPages);
+        }
+    }
+
+
+    /*
+     * Inserts the key and value in the appropriate nodes in the tree
+     *
+     * Note: key-value pairs with duplicate keys can be inserted into the tree.
+     * The value is stored after any values already stored under the key.
+     *
+     * @param key the key to insert
+     * @param value the value to insert at this key
+     */
+    @Override
+    public void insert(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Null keys can not be inserted");
+        }
+        List<Frame> path = new ArrayList<Frame>(); //Pages from the root down to the leaf, pinned until the insert is done
+        List<Integer> childIndexes = new ArrayList<Integer>(); //Child followed out of each internal page on the path
+        try {
+            int keyBytes = encodedSize(keyCodec, key);
+            int entryBytes = keyBytes + encodedSize(valueCodec, value);
+            if (entryBytes > maxEntryBytes || keyBytes + Integer.BYTES > maxEntryBytes) {
+                throw new IllegalArgumentException("Entry of " + entryBytes
+                    + " bytes is too large for pages of " + pageSize + " bytes");
+            }
+            if (rootPage == NO_PAGE) { //If we haven't added anything yet, make the first leaf
+                Frame rootFrame = pool.pinNew(new LeafNode());
+                rootPage = rootFrame.node.page;
+                pool.unpin(rootFrame);
+            }
+            Frame frame = pool.pin(rootPage);
+            path.add(frame);
+            while (frame.node instanceof PagedBPTree.InternalNode) {
+                InternalNode internal = (InternalNode) frame.node;
+                int childIndex = internal.upperBound(key); //Past any equal keys, so duplicates stay in insertion order
+                childIndexes.add(childIndex);
+                frame = pool.pin(internal.child(childIndex));
+                path.add(frame);
+            }
+            ((LeafNode) frame.node).insert(key, value, entryBytes);
+            frame.dirty = true;
+
+            //Split overfull pages from the leaf upwards, growing the tree by a level if the root splits
+            for (int level = path.size() - 1; level >= 0 && path.get(level).node.isOverflow(); level--) {
+                Node node = path.get(level).node;
+                Frame rightFrame = pool.pinNew(node.newSibling());
+                K separator = node.splitInto(rightFrame.node);
+                pool.unpin(rightFrame);
+                int separatorBytes = encodedSize(keyCodec, separator) + Integer.BYTES;
+                if (level == 0) {
+                    InternalNode newRoot = new InternalNode();
+                    newRoot.children.add(node.page);
+                    newRoot.insertChild(0, separator, rightFrame.node.page, separatorBytes);
+                    Frame rootFrame = pool.pinNew(newRoot);
+                    rootPage = newRoot.page;
+                    pool.unpin(rootFrame);
+                }
+                else {
+                    Frame parentFrame = path.get(level - 1);
+                    ((InternalNode) parentFrame.node).insertChild(childIndexes.get(level - 1),
+                        separator, rightFrame.node.page, separatorBytes);
+                    parentFrame.dirty = true;
+                }
+            }
+            size++;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            for (Frame frame : path) {
+                pool.unpin(frame);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of key-value pairs in the tree
+     *
+     * @return the number of pairs
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Gets the number of pages in the file, including the header page
+     *
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+
+    /**
+     * Gets the number of pages read from the file since the tree was opened,
+     * which is the number of times a page wasn't in the buffer pool
+     *
+     * @return the number of page reads
+     */
+    public long getPageReads() {
+        return pool.reads;
+    }
+
+
+    /**
+     * Gets the number of pages written to the file since the tree was opened
+     *
+     * @return the number of page writes
+     */
+    public long getPageWrites() {
+        return pool.writes;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see BPTreeADT#rangeSearch(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public List<V> rangeSearch(K key, String comparator) {
+        if (key == null || comparator == null) {
+            return new ArrayList<V>();
+        }
+        if (comparator.contentEquals(">=")) {
+            return scan(key, null).toList();
+        }
+        else if (comparator.contentEquals("<=")) {
+            return scan(null, key).toList();
+        }
+        else if (comparator.contentEquals("==")) {
+            return scan(key, key).toList();
+        }
+        return new ArrayList<V>();
+    }
+
+
+    /**
+     * Gets the values whose keys lie between low and high, in key order.
+     *
+     * @param low the lower bound, or null for no lower bound
+     * @param lowInclusive true if keys equal to low are included
+     * @param high the upper bound, or null for no upper bound
+     * @param highInclusive true if keys equal to high are included
+     * @return list of values that are the result of the
+     * range search; if nothing found, return empty list
+     */
+    public List<V> rangeSearch(K low, boolean lowInclusive, K high, boolean highInclusive) {
+        return scan(low, lowInclusive, high, highInclusive).toList();
+    }
+
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to (both inclusive), in key order.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lowest key to include, or null to start at the smallest key
+     * @param to the highest key to include, or null to run to the largest key
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(K from, K to) {
+        return scan(from, true, to, true);
+    }
+
+
+    /**
+     * Opens a lazy cursor over the values whose keys lie between from and
+     * to, in key order, with each bound either inclusive or exclusive.
+     * Leaves are read through the buffer pool one at a time as the cursor
+     * reaches them, and none of them stay pinned while it waits.
+     *
+     * The tree must not be modified while the cursor is in use.
+     *
+     * @param from the lower bound, or null to start at the smallest key
+     * @param fromInclusive true if keys equal to from are included
+     * @param to the upper bound, or null to run to the largest key
+     * @param toInclusive true if keys equal to to are included
+     * @return a cursor over the matching values
+     */
+    public Cursor<V> scan(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (rootPage == NO_PAGE) {
+            return new PageCursor(null, 0, to, toInclusive);
+        }
+        if (from != null && to != null) {
+            int order = from.compareTo(to);
+            if (order > 0 || (order == 0 && !(fromInclusive && toInclusive))) {
+                return new PageCursor(null, 0, to, toInclusive); //The bounds don't leave any keys in between
+            }
+        }
+        try {
+            LeafNode startingLeaf = findLeaf(from, !fromInclusive);
+            int startingIndex = from == null ? 0
+                : fromInclusive ? startingLeaf.lowerBound(from) : startingLeaf.upperBound(from);
+            return new PageCursor(startingLeaf, startingIndex, to, toInclusive);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Writes every changed page and the header to the file and forces them
+     * to disk, after which the file can be opened again
+     *
+     * @throws IOException if the pages can't be written
+     */
+    public void flush() throws IOException {
+        pool.writeDirtyPages();
+        writeHeader();
+        channel.force(false);
+    }
+
+
+    /**
+     * Flushes the tree and closes the file
+     *
+     * @throws IOException if the pages can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        if (rootPage == NO_PAGE) {
+            return "{[]}\n";
+        }
+        try {
+            Queue<List<Integer>> queue = new LinkedList<List<Integer>>();
+            queue.add(Collections.singletonList(rootPage));
+            StringBuilder sb = new StringBuilder();
+            while (!queue.isEmpty()) {
+                Queue<List<Integer>> nextQueue = new LinkedList<List<Integer>>();
+                while (!queue.isEmpty()) {
+                    List<Integer> pages = queue.remove();
+                    sb.append('{');
+                    Iterator<Integer> it = pages.iterator();
+                    while (it.hasNext()) {
+                        Node node = readNode(it.next());
+                        sb.append(node.keys.toString());
+                        if (it.hasNext())
+                            sb.append(", ");
+                        if (node instanceof PagedBPTree.InternalNode)
+                            nextQueue.add(new ArrayList<Integer>(((InternalNode) node).children));
+                    }
+                    sb.append('}');
+                    if (!queue.isEmpty())
+                        sb.append(", ");
+                    else {
+                        sb.append('\n');
+                    }
+                }
+                queue = nextQueue;
+            }
+            return sb.toString();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Finds the leaf a scan starts in, pinning each page on the way down
+     * only until its child is pinned
+     *
+     * @param key the key the scan starts at, or null to start at the smallest key
+     * @param after true to find the first leaf that could hold a key greater than key,
+     *        false to find the first leaf that could hold key itself
+     * @return the leaf where the scan should start
+     * @throws IOException if a page can't be read
+     */
+    private LeafNode findLeaf(K key, boolean after) throws IOException {
+        Frame frame = pool.pin(rootPage);
+        try {
+            while (frame.node instanceof PagedBPTree.InternalNode) {
+                InternalNode internal = (InternalNode) frame.node;
+                int childIndex = key == null ? 0 : after ? internal.upperBound(key) : internal.lowerBound(key);
+                Frame child = pool.pin(internal.child(childIndex));
+                pool.unpin(frame);
+                frame = child;
+            }
+            return (LeafNode) frame.node;
+        }
+        finally {
+            pool.unpin(frame);
+        }
+    }
+
+    /**
+     * Gets the node stored in a page through the buffer pool
+     *
+     * @param page the page of the node
+     * @return the node
+     * @throws IOException if the page can't be read
+     */
+    private Node readNode(int page) throws IOException {
+        Frame frame = pool.pin(page);
+        pool.unpin(frame);
+        return frame.node;
+    }
+
+    /**
+     * Measures how many bytes a codec writes for a value
+     *
+     * @param codec the codec
+     * @param value the value
+     * @return the encoded size of the value
+     * @throws IOException if the codec fails
+     */
+    private <T> int encodedSize(SnapshotCodec<T> codec, T value) throws IOException {
+        scratch.reset();
+        codec.write(scratchOut, value);
+        return scratch.size();
+    }
+
+    /**
+     * Writes the header page: the magic number, version, page size, root
+     * page, page count and size
+     *
+     * @throws IOException if the header can't be written
+     */
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(rootPage).putInt(pageCount).putInt(size);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    /**
+     * Encodes a node into its page of the file
+     *
+     * @param node the node to write
+     * @throws IOException if the page can't be written
+     */
+    private void writePage(Node node) throws IOException {
+        scratch.reset();
+        node.write(scratchOut);
+        if (scratch.size() > pageSize) {
+            throw new IllegalStateException("Page " + node.page + " holds " + scratch.size()
+                + " bytes, more than the page size of " + pageSize);
+        }
+        writeFully(ByteBuffer.wrap(Arrays.copyOf(scratch.toByteArray(), pageSize)), (long) node.page * pageSize);
+    }
+
+    /**
+     * Reads a page of the file and decodes the node stored in it
+     *
+     * @param page the page to read
+     * @return the node
+     * @throws IOException if the page can't be read or doesn't hold a node
+     */
+    private Node readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(pageSize);
+        readFully(channel, buffer, (long) page * pageSize);
+        buffer.flip();
+        try {
+            byte type = buffer.get();
+            int numKeys = buffer.getInt();
+            int link = buffer.getInt();
+            if (numKeys < 0 || (type != LEAF && type != INTERNAL)) {
+                throw new IOException("Corrupt page " + page);
+            }
+            Node node;
+            if (type == LEAF) {
+                LeafNode leaf = new LeafNode();
+                leaf.next = link;
+                for (int i = 0; i < numKeys; i++) {
+                    int start = buffer.position();
+                    leaf.keys.add(keyCodec.read(buffer));
+                    leaf.values.add(valueCodec.read(buffer));
+                    leaf.addEntryBytes(buffer.position() - start);
+                }
+                node = leaf;
+            }
+            else {
+                InternalNode internal = new InternalNode();
+                internal.children.add(link);
+                for (int i = 0; i < numKeys; i++) {
+                    int start = buffer.position();
+                    internal.keys.add(keyCodec.read(buffer));
+                    internal.children.add(buffer.getInt());
+                    internal.addEntryBytes(buffer.position() - start);
+                }
+                node = internal;
+            }
+            node.page = page;
+            return node;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt page " + page, e);
+        }
+    }
+
+    /**
+     * Writes all of a buffer at a position in the file
+     *
+     * @param buffer the bytes to write
+     * @param position where in the file to write them
+     * @throws IOException if the bytes can't be written
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Fills a buffer from a position in a file, stopping early at the end
+     * of the file
+     *
+     * @param channel the file to read
+     * @param buffer the buffer to fill
+     * @param position where in the file to start reading
+     * @throws IOException if the file can't be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+
+
+    /**
+     * A slot of the buffer pool, holding one page's node while it is in memory
+     */
+    private class Frame {
+
+        // Node held in the frame, null if the frame is empty
+        private Node node;
+
+        // Number of traversals using the page; a pinned page is never evicted
+        private int pins;
+
+        // True if the node has changed since it was last written to its page
+        private boolean dirty;
+
+        // True if the page has been used since the clock hand last passed it
+        private boolean referenced;
+
+    } // End of class Frame
+
+
+    /**
+     * A fixed number of frames holding the pages in memory, with the clock
+     * algorithm choosing which page to evict when a new one is needed
+     */
+    private class BufferPool {
+
+        // The frames, in the order the clock hand visits them
+        private final List<Frame> frames;
+
+        // Frame holding each page that is in memory
+        private final Map<Integer, Frame> pageTable;
+
+        // Next frame the clock hand looks at
+        private int hand;
+
+        // Number of pages read from the file
+        private long reads;
+
+        // Number of pages written to the file
+        private long writes;
+
+        /**
+         * Package constructor
+         *
+         * @param numFrames the number of pages the pool holds
+         */
+        BufferPool(int numFrames) {
+            frames = new ArrayList<Frame>(numFrames);
+            for (int i = 0; i < numFrames; i++) {
+                frames.add(new Frame());
+            }
+            pageTable = new HashMap<Integer, Frame>();
+        }
+
+        /**
+         * Pins a page, reading it from the file if it isn't in memory
+         *
+         * @param page the page to pin
+         * @return the frame holding the page
+         * @throws IOException if the page can't be read, or a page evicted to
+         *         make room for it can't be written
+         */
+        Frame pin(int page) throws IOException {
+            Frame frame = pageTable.get(page);
+            if (frame == null) {
+                frame = claimFrame();
+                frame.node = readPage(page);
+                reads++;
+                pageTable.put(page, frame);
+            }
+            frame.pins++;
+            frame.referenced = true;
+            return frame;
+        }
+
+        /**
+         * Gives a new node the next page at the end of the file and pins it.
+         * The page is written when it is evicted or flushed.
+         *
+         * @param node the node to store
+         * @return the frame holding the node
+         * @throws IOException if a page evicted to make room can't be written
+         */
+        Frame pinNew(Node node) throws IOException {
+            Frame frame = claimFrame();
+            node.page = pageCount++;
+            frame.node = node;
+            frame.dirty = true;
+            frame.pins = 1;
+            frame.referenced = true;
+            pageTable.put(node.page, frame);
+            return frame;
+        }
+
+        /**
+         * Releases a pin taken by pin() or pinNew()
+         *
+         * @param frame the frame holding the page
+         */
+        void unpin(Frame frame) {
+            frame.pins--;
+        }
+
+        /**
+         * Finds a frame for a page that is about to be loaded.  The clock hand
+         * gives each unpinned page a second chance by clearing its reference
+         * bit, and takes the first unpinned page whose bit is already clear,
+         * writing it back first if it has changed.
+         *
+         * @return an empty frame
+         * @throws IOException if the evicted page can't be written
+         */
+        private Frame claimFrame() throws IOException {
+            for (int step = 0; step < 2 * frames.size(); step++) { //Two sweeps clear every reference bit
+                Frame frame = frames.get(hand);
+                hand = (hand + 1) % frames.size();
+                if (frame.pins > 0) {
+                    continue;
+                }
+                if (frame.referenced) {
+                    frame.referenced = false;
+                    continue;
+                }
+                if (frame.node != null) {
+                    if (frame.dirty) {
+                        writePage(frame.node);
+                        writes++;
+                    }
+                    pageTable.remove(frame.node.page);
+                }
+                frame.node = null;
+                frame.dirty = false;
+                return frame;
+            }
+            throw new IllegalStateException("Every page in the buffer pool is pinned");
+        }
+
+        /**
+         * Writes every changed page back to the file, keeping them in memory
+         *
+         * @throws IOException if a page can't be written
+         */
+        void writeDirtyPages() throws IOException {
+            for (Frame frame : frames) {
+                if (frame.dirty) {
+                    writePage(frame.node);
+                    writes++;
+                    frame.dirty = false;
+                }
+            }
+        }
+
+    } // End of class BufferPool
+
+
+    /**
+     * A node as it is held in memory.  Its keys are kept in lists since the
+     * number that fit in a page depends on their encoded sizes.
+     */
+    private abstract class Node {
+
+        // Page the node is stored in
+        int page = NO_PAGE;
+
+        // Keys of the node in order
+        final List<K> keys = new ArrayList<K>();
+
+        // Encoded size of each entry, an entry being a key and what is stored beside it
+        final List<Integer> entryBytes = new ArrayList<Integer>();
+
+        // Encoded size of the whole node
+        int bytes = NODE_HEADER_BYTES;
+
+        /**
+         * Records the encoded size of an entry read from the page
+         *
+         * @param numBytes the size of the entry
+         */
+        void addEntryBytes(int numBytes) {
+            entryBytes.add(numBytes);
+            bytes += numBytes;
+        }
+
+        /**
+         * Gets the first position whose key is greater than or equal to key
+         *
+         * @param key the key to look for
+         * @return the position
+         */
+        int lowerBound(K key) {
+            int low = 0;
+            int high = keys.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys.get(mid).compareTo(key) < 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Gets the first position whose key is greater than key
+         *
+         * @param key the key to look past
+         * @return the position
+         */
+        int upperBound(K key) {
+            int low = 0;
+            int high = keys.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys.get(mid).compareTo(key) <= 0) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Determines if the node no longer fits in a page
+         *
+         * @return true if the node must be split
+         */
+        boolean isOverflow() {
+            return bytes > pageSize;
+        }
+
+        /**
+         * Picks where to split the node so each half holds about half of
+         * its bytes
+         *
+         * @param lowest the lowest position allowed
+         * @param highest the highest position allowed
+         * @return the number of entries before the split position
+         */
+        int splitIndex(int lowest, int highest) {
+            int half = (bytes - NODE_HEADER_BYTES) / 2;
+            int prefix = 0;
+            int index = 0;
+            while (index < entryBytes.size() && prefix < half) {
+                prefix += entryBytes.get(index++);
+            }
+            return Math.max(lowest, Math.min(highest, index));
+        }
+
+        /**
+         * Adds up the encoded sizes of the entries again after a split
+         */
+        void recountBytes() {
+            bytes = NODE_HEADER_BYTES;
+            for (int numBytes : entryBytes) {
+                bytes += numBytes;
+            }
+        }
+
+        /**
+         * Makes an empty node of the same kind
+         *
+         * @return the new node
+         */
+        abstract Node newSibling();
+
+        /**
+         * Moves the upper half of the node into an empty sibling that has
+         * already been given a page
+         *
+         * @param sibling the node to move the entries into
+         * @return the separator key for the parent
+         */
+        abstract K splitInto(Node sibling);
+
+        /**
+         * Encodes the node the way readPage() decodes it
+         *
+         * @param out where to write the node
+         * @throws IOException if a codec fails
+         */
+        abstract void write(DataOutputStream out) throws IOException;
+
+    } // End of class Node
+
+
+    /**
+     * An internal node, holding the pages of its children.  Each key is the
+     * largest key in the child to its left.
+     */
+    private class InternalNode extends Node {
+
+        // Pages of the children, one more than the number of keys
+        final List<Integer> children = new ArrayList<Integer>();
+
+        /**
+         * Gets the page of a child
+         *
+         * @param index the position of the child
+         * @return the page of the child
+         */
+        int child(int index) {
+            return children.get(index);
+        }
+
+        /**
+         * Adds a child that split off from the child at a position
+         *
+         * @param index the position of the child that split
+         * @param separator the largest key left in the child that split
+         * @param page the page of the new child
+         * @param numBytes the encoded size of the separator and page
+         */
+        void insertChild(int index, K separator, int page, int numBytes) {
+            keys.add(index, separator);
+            children.add(index + 1, page);
+            entryBytes.add(index, numBytes);
+            bytes += numBytes;
+        }
+
+        @Override
+        Node newSibling() {
+            return new InternalNode();
+        }
+
+        @Override
+        K splitInto(Node sibling) {
+            InternalNode right = (InternalNode) sibling;
+            int numKeys = keys.size();
+            int middle = splitIndex(1, numKeys - 2); //The middle key moves up, leaving at least one key on each side
+            K separator = keys.get(middle);
+            right.keys.addAll(keys.subList(middle + 1, numKeys));
+            right.entryBytes.addAll(entryBytes.subList(middle + 1, numKeys));
+            right.children.addAll(children.subList(middle + 1, numKeys + 1));
+            keys.subList(middle, numKeys).clear();
+            entryBytes.subList(middle, numKeys).clear();
+            children.subList(middle + 1, numKeys + 1).clear();
+            recountBytes();
+            right.recountBytes();
+            return separator;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(INTERNAL);
+            out.writeInt(keys.size());
+            out.writeInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keyCodec.write(out, keys.get(i));
+                out.writeInt(children.get(i + 1));
+            }
+        }
+
+    } // End of class InternalNode
+
+
+    /**
+     * A leaf node, holding the values and the page of the next leaf
+     */
+    private class LeafNode extends Node {
+
+        // Values of the node, values.get(i) belongs with keys.get(i)
+        final List<V> values = new ArrayList<V>();
+
+        // Page of the next leaf, or NO_PAGE for the last leaf
+        int next = NO_PAGE;
+
+        /**
+         * Adds an entry after any entries with equal keys
+         *
+         * @param key the key
+         * @param value the value
+         * @param numBytes the encoded size of the key and value
+         */
+        void insert(K key, V value, int numBytes) {
+            int index = upperBound(key);
+            keys.add(index, key);
+            values.add(index, value);
+            entryBytes.add(index, numBytes);
+            bytes += numBytes;
+        }
+
+        @Override
+        Node newSibling() {
+            return new LeafNode();
+        }
+
+        @Override
+        K splitInto(Node sibling) {
+            LeafNode right = (LeafNode) sibling;
+            int numKeys = keys.size();
+            int middle = splitIndex(1, numKeys - 1);
+            right.keys.addAll(keys.subList(middle, numKeys));
+            right.values.addAll(values.subList(middle, numKeys));
+            right.entryBytes.addAll(entryBytes.subList(middle, numKeys));
+            keys.subList(middle, numKeys).clear();
+            values.subList(middle, numKeys).clear();
+            entryBytes.subList(middle, numKeys).clear();
+            recountBytes();
+            right.recountBytes();
+            right.next = next;
+            next = right.page;
+            return keys.get(middle - 1);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(LEAF);
+            out.writeInt(keys.size());
+            out.writeInt(next);
+            for (int i = 0; i < keys.size(); i++) {
+                keyCodec.write(out, keys.get(i));
+                valueCodec.write(out, values.get(i));
+            }
+        }
+
+    } // End of class LeafNode
+
+
+    /**
+     * Cursor that walks the leaf chain from a starting entry up to an
+     * optional upper bound.  Each leaf is pinned only while it is looked up;
+     * the cursor keeps the decoded node, which stays valid as long as the
+     * tree isn't modified, even if its page is evicted.
+     */
+    private class PageCursor implements Cursor<V> {
+
+        // Leaf the cursor is reading, null once the range is used up
+        private LeafNode leaf;
+
+        // Position in the leaf of the next value to hand out
+        private int index;
+
+        // Position in the leaf where the range stops
+        private int end;
+
+        // True if the upper bound falls inside the current leaf, so nothing after it is in range
+        private boolean lastLeaf;
+
+        // Upper bound of the range, or null if the range has no upper bound
+        private final K high;
+
+        // True if keys equal to high are in the range
+        private final boolean highInclusive;
+
+        // Number of values the cursor may still produce
+        private long remaining;
+
+        /**
+         * Package constructor
+         *
+         * @param startingLeaf the leaf holding the first value, or null for an empty cursor
+         * @param startingIndex the position of the first value in startingLeaf
+         * @param high the upper bound, or null for no upper bound
+         * @param highInclusive true if keys equal to high are included
+         */
+        PageCursor(LeafNode startingLeaf, int startingIndex, K high, boolean highInclusive) {
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.remaining = Long.MAX_VALUE;
+            enterLeaf(startingLeaf, startingIndex);
+        }
+
+        /**
+         * Positions the cursor at the given entry, moving along the leaf chain
+         * until it finds an entry that is still in range
+         *
+         * @param nextLeaf the leaf to move to
+         * @param startingIndex the position to start at in that leaf
+         */
+        private void enterLeaf(LeafNode nextLeaf, int startingIndex) {
+            leaf = nextLeaf;
+            index = startingIndex;
+            while (leaf != null) {
+                end = leaf.keys.size();
+                lastLeaf = high != null && end > 0 && isPastHigh(leaf.keys.get(end - 1)); //Only compare against the bound once per leaf
+                if (lastLeaf) {
+                    end = highInclusive ? leaf.upperBound(high) : leaf.lowerBound(high);
+                }
+                if (index < end) {
+                    return;
+                }
+                leaf = lastLeaf ? null : nextLeaf(leaf);
+                index = 0;
+            }
+        }
+
+        /**
+         * Reads the leaf after the given one
+         *
+         * @param current the current leaf
+         * @return the next leaf, or null if current is the last leaf
+         */
+        private LeafNode nextLeaf(LeafNode current) {
+            if (current.next == NO_PAGE) {
+                return null;
+            }
+            try {
+                return (LeafNode) readNode(current.next);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Determines if a key is beyond the upper bound of the range
+         *
+         * @param key the key to check
+         * @return true if key is out of range
+         */
+        private boolean isPastHigh(K key) {
+            int order = key.compareTo(high);
+            return highInclusive ? order > 0 : order >= 0;
+        }
+
+        /**
+         * Moves by up to n values within the current leaf
+         *
+         * @param n the most values to move by
+         * @return the number of values actually moved by
+         */
+        private long advance(long n) {
+            int step = (int) Math.min(Math.min(n, remaining), end - index);
+            index += step;
+            remaining -= step;
+            if (index >= end) {
+                enterLeaf(lastLeaf ? null : nextLeaf(leaf), 0);
+            }
+            return step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && remaining > 0;
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V value = leaf.values.get(index);
+            advance(1);
+            return value;
+        }
+
+        @Override
+        public Cursor<V> skip(long n) {
+            while (n > 0 && hasNext()) {
+                n -= advance(n); //Skips the rest of a leaf at a time
+            }
+            return this;
+        }
+
+        @Override
+        public Cursor<V> limit(long n) {
+            if (n < 0) {
+                throw new IllegalArgumentException("Illegal limit: " + n);
+            }
+            remaining = n;
+            return this;
+        }
+
+        @Override
+        public long count() {
+            long numValues = 0;
+            while (hasNext()) {
+                numValues += advance(Long.MAX_VALUE);
+            }
+            return numValues;
+        }
+
+    } // End of class PageCursor
+
+
+    /**
+     * Builds a tree much larger than its buffer pool, reopens it from the
+     * file and checks a few range searches against a plain list.
+     *
+     * @param args
+     * @throws IOException if the temporary file can't be used
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("paged-bptree", ".db");
+        Random rnd = new Random();
+        List<Double> keys = new ArrayList<>();
+        try (PagedBPTree<Double, String> tree = PagedBPTree.create(file, 4096, 64,
+            SnapshotCodec.DOUBLE, SnapshotCodec.STRING)) {
+            for (int i = 0; i < 200000; i++) {
+                Double key = rnd.nextInt(100000) / 10.0;
+                keys.add(key);
+                tree.insert(key, "food" + i);
+            }
+            System.out.println(tree.size() + " values in " + tree.getPageCount() + " pages of 4096 bytes, "
+                + tree.getPageReads() + " page reads, " + tree.getPageWrites() + " page writes");
+        }
+        try (PagedBPTree<Double, String> tree = PagedBPTree.open(file, 64,
+            SnapshotCodec.DOUBLE, SnapshotCodec.STRING)) {
+            int expected = 0;
+            for (Double key : keys) {
+                if (key >= 5000.0) {
+                    expected++;
+                }
+            }
+            System.out.println("Values with keys >= 5000.0: " + tree.rangeSearch(5000.0, ">=").size()
+                + " (expected " + expected + ")");
+            System.out.println("Values with key == 42.0: " + tree.rangeSearch(42.0, "=="));
+            System.out.println("Page reads after reopening: " + tree.getPageReads());
+        }
+        Files.delete(file);
+    }
+
+} // End of class PagedBPTree
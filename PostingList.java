@@ -0,0 +1,494 @@
+package application;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * The values that share a single key in a B+ tree leaf, kept in the order
+ * they were inserted, or sorted by the tree's value order if it has one.
+ *
+ * A leaf slot holds its value directly while the key is unique and only
+ * switches to a PostingList once a second value arrives with the same key,
+ * so unique keys cost nothing extra and a duplicated key takes up one slot
+ * in the leaf no matter how many values it has.
+ *
+ * The values are held in chunks of at most CHUNK_SIZE, so adding or
+ * removing one only shifts the values of its own chunk.  When the list is
+ * sorted, the value to remove (or the place to add one) is found by binary
+ * search, first over the last value of each chunk and then inside the
+ * chunk, so a key shared by a million values costs no more to change than
+ * one shared by a hundred.  Without a value order, values are added at the
+ * end and found for removal by a linear scan.
+ *
+ * A list remembers the version of the tree it was created in, and each
+ * chunk the version it was created or copied in.  Once a snapshot of the
+ * tree has been taken the list may be shared with it, so the tree copies a
+ * list from an older version before changing it.  The copy shares every
+ * chunk with the original, and a chunk is only copied itself when the new
+ * list first changes it, so an edit copies the chunk index and one chunk
+ * rather than every value.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+final class PostingList {
+
+    // Most values a chunk holds; a full chunk is split in two to make room
+    private static final int CHUNK_SIZE = 512;
+
+    // Order the values are kept in, or null to keep them in insertion order
+    private final Comparator<Object> order;
+
+    // The chunks of values, in list order; only the first numChunks are in use
+    private Object[][] chunks;
+
+    // Number of values in each chunk
+    private int[] chunkSizes;
+
+    // Position in the list of the first value of each chunk
+    private int[] chunkStarts;
+
+    // Version each chunk was created or copied in; one older than the list's may be shared
+    private int[] chunkVersions;
+
+    // Number of chunks in use
+    private int numChunks;
+
+    // Number of values in the list
+    private int size;
+
+    // Version of the tree the list was created in
+    private final int version;
+
+    /**
+     * Package constructor for a list holding the first two values of a key,
+     * in insertion order
+     *
+     * @param first the value already stored under the key
+     * @param second the value being added under the key
+     * @param version the tree's current version
+     */
+    PostingList(Object first, Object second, int version) {
+        this(first, second, null, version);
+    }
+
+    /**
+     * Package constructor for a list holding the first two values of a key
+     *
+     * @param first the value already stored under the key
+     * @param second the value being added under the key
+     * @param order the order to keep the values in, or null for insertion order
+     * @param version the tree's current version
+     */
+    PostingList(Object first, Object second, Comparator<Object> order, int version) {
+        this(order, version, 1);
+        boolean swap = order != null && order.compare(second, first) < 0;
+        Object[] chunk = new Object[4];
+        chunk[0] = swap ? second : first;
+        chunk[1] = swap ? first : second;
+        appendChunk(chunk, 2);
+    }
+
+    /**
+     * Package constructor for a list holding a run of values, in insertion
+     * order
+     *
+     * @param values the array holding the values
+     * @param from the first slot of the run
+     * @param count the number of values in the run
+     * @param version the tree's current version
+     */
+    PostingList(Object[] values, int from, int count, int version) {
+        this(values, from, count, null, version);
+    }
+
+    /**
+     * Package constructor for a list holding a run of values.  With a value
+     * order the run is sorted first, which costs a single pass if it is
+     * already in order (as it is when read back from a snapshot).
+     *
+     * @param values the array holding the values
+     * @param from the first slot of the run
+     * @param count the number of values in the run
+     * @param order the order to keep the values in, or null for insertion order
+     * @param version the tree's current version
+     */
+    PostingList(Object[] values, int from, int count, Comparator<Object> order, int version) {
+        this(order, version, (count + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        Object[] run = values;
+        if (order != null) {
+            run = Arrays.copyOfRange(values, from, from + count);
+            Arrays.sort(run, order); //Stable, so values that compare equal keep their insertion order
+            from = 0;
+        }
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            int chunkSize = Math.min(CHUNK_SIZE, count - start);
+            Object[] chunk = new Object[Math.max(4, chunkSize)];
+            System.arraycopy(run, from + start, chunk, 0, chunkSize);
+            appendChunk(chunk, chunkSize);
+        }
+    }
+
+    /**
+     * Private constructor for an empty list
+     *
+     * @param order the order to keep the values in, or null for insertion order
+     * @param version the tree's current version
+     * @param chunkCapacity the number of chunks to make room for
+     */
+    private PostingList(Comparator<Object> order, int version, int chunkCapacity) {
+        this.order = order;
+        this.version = version;
+        chunkCapacity = Math.max(1, chunkCapacity);
+        chunks = new Object[chunkCapacity][];
+        chunkSizes = new int[chunkCapacity];
+        chunkStarts = new int[chunkCapacity];
+        chunkVersions = new int[chunkCapacity];
+    }
+
+    /**
+     * Gets the version of the tree the list was created in
+     *
+     * @return the version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Copies the list for a newer version of the tree, leaving this list
+     * unchanged for any snapshot that still holds it.  Only the chunk index
+     * is copied; the chunks themselves are copied as the new list changes
+     * them.
+     *
+     * @param newVersion the tree's current version
+     * @return the copy
+     */
+    PostingList copy(int newVersion) {
+        PostingList copy = new PostingList(order, newVersion, chunks.length);
+        System.arraycopy(chunks, 0, copy.chunks, 0, numChunks);
+        System.arraycopy(chunkSizes, 0, copy.chunkSizes, 0, numChunks);
+        System.arraycopy(chunkStarts, 0, copy.chunkStarts, 0, numChunks);
+        System.arraycopy(chunkVersions, 0, copy.chunkVersions, 0, numChunks);
+        copy.numChunks = numChunks;
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Gets the number of values in the list
+     *
+     * @return the number of values
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value at a position in the list
+     *
+     * @param position the position to read
+     * @return the value
+     */
+    Object get(int position) {
+        int chunk = chunkOf(position);
+        return chunks[chunk][position - chunkStarts[chunk]];
+    }
+
+    /**
+     * Adds a value to the list: at the end, or after the values that don't
+     * come after it in the value order
+     *
+     * @param value the value to add
+     */
+    void add(Object value) {
+        if (numChunks == 0) {
+            Object[] chunk = new Object[4];
+            chunk[0] = value;
+            appendChunk(chunk, 1);
+            return;
+        }
+        int chunk = numChunks - 1;
+        int at = chunkSizes[chunk];
+        if (order != null) {
+            chunk = firstChunkAfter(value, false);
+            if (chunk == numChunks) { //Nothing comes after it, so it goes at the very end
+                chunk = numChunks - 1;
+                at = chunkSizes[chunk];
+            }
+            else {
+                at = searchChunk(chunk, value, false);
+            }
+        }
+        insertAt(chunk, at, value);
+    }
+
+    /**
+     * Removes the first value equal to the given one.  With a value order,
+     * only the values that compare equal to it are checked.
+     *
+     * @param value the value to remove
+     * @return true if a value was removed
+     */
+    boolean remove(Object value) {
+        if (order == null) {
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                Object[] values = chunks[chunk];
+                for (int i = 0; i < chunkSizes[chunk]; i++) {
+                    if (Objects.equals(values[i], value)) {
+                        removeAt(chunk, i);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        for (int chunk = firstChunkAfter(value, true); chunk < numChunks; chunk++) {
+            Object[] values = chunks[chunk];
+            for (int i = searchChunk(chunk, value, true); i < chunkSizes[chunk]; i++) {
+                if (order.compare(values[i], value) != 0) {
+                    return false; //Past every value that could be equal to it
+                }
+                if (Objects.equals(values[i], value)) {
+                    removeAt(chunk, i);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the chunk holding a position
+     *
+     * @param position a position in the list
+     * @return the index of the chunk
+     */
+    private int chunkOf(int position) {
+        int low = 0;
+        int high = numChunks - 1;
+        while (low < high) { //Last chunk starting at or before position
+            int mid = (low + high + 1) >>> 1;
+            if (chunkStarts[mid] <= position) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first chunk whose last value comes after the given value in
+     * the value order (or, if inclusive, does not come before it)
+     *
+     * @param value the value to look for
+     * @param inclusive true to also stop at a last value that compares equal
+     * @return the index of the chunk, or numChunks if there is none
+     */
+    private int firstChunkAfter(Object value, boolean inclusive) {
+        int low = 0;
+        int high = numChunks;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = order.compare(chunks[mid][chunkSizes[mid] - 1], value);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first value in a chunk that comes after the given value in
+     * the value order (or, if inclusive, does not come before it)
+     *
+     * @param chunk the chunk to search
+     * @param value the value to look for
+     * @param inclusive true to also stop at a value that compares equal
+     * @return the position in the chunk, or the chunk's size if there is none
+     */
+    private int searchChunk(int chunk, Object value, boolean inclusive) {
+        Object[] values = chunks[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = order.compare(values[mid], value);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Inserts a value into a chunk, splitting the chunk first if it is full
+     *
+     * @param chunk the chunk to insert into
+     * @param at the position in the chunk to insert at
+     * @param value the value to insert
+     */
+    private void insertAt(int chunk, int at, Object value) {
+        if (chunkSizes[chunk] == CHUNK_SIZE) {
+            int half = CHUNK_SIZE / 2;
+            splitChunk(chunk, half);
+            if (at > half) {
+                chunk++;
+                at -= half;
+            }
+        }
+        Object[] values = writableChunk(chunk, chunkSizes[chunk] + 1);
+        System.arraycopy(values, at, values, at + 1, chunkSizes[chunk] - at);
+        values[at] = value;
+        chunkSizes[chunk]++;
+        size++;
+        for (int i = chunk + 1; i < numChunks; i++) {
+            chunkStarts[i]++;
+        }
+    }
+
+    /**
+     * Removes a value from a chunk, then drops the chunk if it is empty or
+     * merges it into a neighbour if it has become small
+     *
+     * @param chunk the chunk to remove from
+     * @param at the position of the value in the chunk
+     */
+    private void removeAt(int chunk, int at) {
+        Object[] values = writableChunk(chunk, 0);
+        System.arraycopy(values, at + 1, values, at, chunkSizes[chunk] - at - 1);
+        values[--chunkSizes[chunk]] = null;
+        size--;
+        for (int i = chunk + 1; i < numChunks; i++) {
+            chunkStarts[i]--;
+        }
+        if (chunkSizes[chunk] == 0) {
+            removeChunk(chunk);
+        }
+        else if (chunkSizes[chunk] < CHUNK_SIZE / 4) { //Keep chunks from thinning out into a long index
+            if (chunk + 1 < numChunks && chunkSizes[chunk] + chunkSizes[chunk + 1] <= CHUNK_SIZE) {
+                mergeChunks(chunk);
+            }
+            else if (chunk > 0 && chunkSizes[chunk - 1] + chunkSizes[chunk] <= CHUNK_SIZE) {
+                mergeChunks(chunk - 1);
+            }
+        }
+    }
+
+    /**
+     * Gets a chunk that is about to be changed, first replacing it with a
+     * copy if it may be shared with an older list, and making sure it has
+     * room for the given number of values
+     *
+     * @param chunk the chunk to change
+     * @param capacity the number of values it must have room for
+     * @return the chunk, safe to change in place
+     */
+    private Object[] writableChunk(int chunk, int capacity) {
+        Object[] values = chunks[chunk];
+        if (chunkVersions[chunk] != version || values.length < capacity) {
+            int length = values.length;
+            while (length < capacity) {
+                length = Math.min(CHUNK_SIZE, length * 2);
+            }
+            values = Arrays.copyOf(values, length);
+            chunks[chunk] = values;
+            chunkVersions[chunk] = version;
+        }
+        return values;
+    }
+
+    /**
+     * Moves the values of a chunk from a position on into a new chunk
+     * right after it
+     *
+     * @param chunk the chunk to split
+     * @param at the position of the first value to move
+     */
+    private void splitChunk(int chunk, int at) {
+        Object[] values = writableChunk(chunk, 0);
+        int moved = chunkSizes[chunk] - at;
+        Object[] right = new Object[CHUNK_SIZE];
+        System.arraycopy(values, at, right, 0, moved);
+        Arrays.fill(values, at, chunkSizes[chunk], null);
+        chunkSizes[chunk] = at;
+        insertChunk(chunk + 1, right, moved, chunkStarts[chunk] + at);
+    }
+
+    /**
+     * Moves every value of the chunk after the given one into it and drops
+     * the emptied chunk
+     *
+     * @param chunk the chunk to merge into, which must have room for both
+     */
+    private void mergeChunks(int chunk) {
+        int moved = chunkSizes[chunk + 1];
+        Object[] values = writableChunk(chunk, chunkSizes[chunk] + moved);
+        System.arraycopy(chunks[chunk + 1], 0, values, chunkSizes[chunk], moved);
+        chunkSizes[chunk] += moved;
+        removeChunk(chunk + 1);
+    }
+
+    /**
+     * Adds a chunk after the last one
+     *
+     * @param values the chunk
+     * @param count the number of values in it
+     */
+    private void appendChunk(Object[] values, int count) {
+        insertChunk(numChunks, values, count, size);
+        size += count;
+    }
+
+    /**
+     * Inserts a chunk into the chunk index
+     *
+     * @param chunk the index the chunk will have
+     * @param values the chunk
+     * @param count the number of values in it
+     * @param start the position in the list of its first value
+     */
+    private void insertChunk(int chunk, Object[] values, int count, int start) {
+        if (numChunks == chunks.length) {
+            int capacity = numChunks * 2;
+            chunks = Arrays.copyOf(chunks, capacity);
+            chunkSizes = Arrays.copyOf(chunkSizes, capacity);
+            chunkStarts = Arrays.copyOf(chunkStarts, capacity);
+            chunkVersions = Arrays.copyOf(chunkVersions, capacity);
+        }
+        int moved = numChunks - chunk;
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, moved);
+        System.arraycopy(chunkSizes, chunk, chunkSizes, chunk + 1, moved);
+        System.arraycopy(chunkStarts, chunk, chunkStarts, chunk + 1, moved);
+        System.arraycopy(chunkVersions, chunk, chunkVersions, chunk + 1, moved);
+        chunks[chunk] = values;
+        chunkSizes[chunk] = count;
+        chunkStarts[chunk] = start;
+        chunkVersions[chunk] = version;
+        numChunks++;
+    }
+
+    /**
+     * Removes a chunk from the chunk index.  The positions of the chunks
+     * after it must already account for its values being gone.
+     *
+     * @param chunk the index of the chunk to remove
+     */
+    private void removeChunk(int chunk) {
+        int moved = numChunks - chunk - 1;
+        System.arraycopy(chunks, chunk + 1, chunks, chunk, moved);
+        System.arraycopy(chunkSizes, chunk + 1, chunkSizes, chunk, moved);
+        System.arraycopy(chunkStarts, chunk + 1, chunkStarts, chunk, moved);
+        System.arraycopy(chunkVersions, chunk + 1, chunkVersions, chunk, moved);
+        numChunks--;
+        chunks[numChunks] = null;
+    }
+}
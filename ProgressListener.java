@@ -0,0 +1,23 @@
+package application;
+
+/**
+ * Told how far a long load or save has got.
+ *
+ * The listener may be called from whichever threads do the work, several
+ * at once, so it must be thread safe, and it should return quickly.  It can
+ * stop the work by throwing a CancellationException, which the load or save
+ * passes on to its caller.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public interface ProgressListener {
+
+    /**
+     * Reports how much of the work is done
+     *
+     * @param done the amount done so far, such as bytes parsed or rows written
+     * @param total the whole amount, or -1 if it isn't known
+     */
+    public void progress(long done, long total);
+
+} // End of interface ProgressListener
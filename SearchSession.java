@@ -0,0 +1,150 @@
+package application;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A type-ahead name search over a FoodData, for a search box that runs a
+ * new search on every keystroke.
+ *
+ * The session remembers the matches of its last search.  When the next
+ * search text contains the last one (typing "yog" after "yo"), every name
+ * that matches must already be among those matches, so only they are
+ * checked.  Any other change, or a change to the foods in the FoodData,
+ * falls back to a search of the whole name index.
+ *
+ * Starting a search cancels any search from the same session that is still
+ * running on another thread, so a slow search for stale text never
+ * overwrites the results for newer text.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ */
+public class SearchSession {
+
+    // FoodData being searched
+    private final FoodData foodData;
+
+    // Number of the newest search started, a running search is cancelled once this moves past it
+    private final AtomicLong latestSearch;
+
+    // Folded text of the last search that finished, or null if there hasn't been one
+    private String lastText;
+
+    // Ordinals that matched the last search that finished
+    private OrdinalSet lastMatches;
+
+    // FoodData modification count when the last search ran
+    private long lastModificationCount;
+
+    /**
+     * Package constructor, sessions are started with FoodData.newSearchSession()
+     *
+     * @param foodData the FoodData to search
+     */
+    SearchSession(FoodData foodData) {
+        this.foodData = foodData;
+        this.latestSearch = new AtomicLong();
+    }
+
+    /**
+     * Finds every food whose name contains the given text, ignoring case,
+     * narrowing the last search's matches when the text extends it
+     *
+     * @param substring the text to search for
+     * @return the matching foods, ordered by name
+     * @throws CancellationException if a newer search was started in this
+     *         session (or cancel() was called) before this one finished, or
+     *         the thread running it was interrupted
+     */
+    public List<FoodItem> search(String substring) {
+        return searchLater(substring).get();
+    }
+
+    /**
+     * Starts a search now that is run later, possibly on another thread.
+     * The search counts as started from this call, so it cancels the
+     * searches started before it and is cancelled by the ones started
+     * after it, whatever order they end up running in.  Interrupting the
+     * thread running it cancels it too.
+     *
+     * @param substring the text to search for
+     * @return runs the search, returning the matching foods ordered by name
+     *         or throwing a CancellationException if it has been superseded
+     */
+    Supplier<List<FoodItem>> searchLater(String substring) {
+        final long searchNumber = latestSearch.incrementAndGet();
+        BooleanSupplier cancelled = () -> latestSearch.get() != searchNumber
+            || Thread.currentThread().isInterrupted();
+        String folded = NameIndex.fold(substring);
+        return () -> {
+            if (cancelled.getAsBoolean()) { //Superseded before it got to run
+                throw new CancellationException("Search for \"" + substring + "\" was superseded");
+            }
+            return foodData.read(() -> runSearch(substring, folded, cancelled));
+        };
+    }
+
+    /**
+     * Runs a search against the FoodData's name index
+     *
+     * @param substring the text to search for
+     * @param folded the text folded the way the name index stores names
+     * @param cancelled tells whether the search has been superseded
+     * @return the matching foods, ordered by name
+     * @throws CancellationException if the search was superseded before it finished
+     */
+    private List<FoodItem> runSearch(String substring, String folded, BooleanSupplier cancelled) {
+        String previousText;
+        OrdinalSet previousMatches;
+        long previousModificationCount;
+        synchronized (this) {
+            previousText = lastText;
+            previousMatches = lastMatches;
+            previousModificationCount = lastModificationCount;
+        }
+        long modificationCount = foodData.getModificationCount();
+        NameIndex names = foodData.getNameIndex();
+        OrdinalSet matches;
+        if (previousText != null && previousModificationCount == modificationCount
+            && folded.contains(previousText)) {
+            matches = names.narrow(previousMatches, folded, cancelled);
+        }
+        else {
+            matches = names.searchFolded(folded, cancelled);
+        }
+        if (matches == null) {
+            throw new CancellationException("Search for \"" + substring + "\" was superseded");
+        }
+
+        synchronized (this) {
+            if (!cancelled.getAsBoolean()) { //Only the newest search gets to be narrowed next time
+                lastText = folded;
+                lastMatches = matches;
+                lastModificationCount = modificationCount;
+            }
+        }
+        List<FoodItem> foods = foodData.foodsByName(matches);
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Search for \"" + substring + "\" was superseded");
+        }
+        return foods;
+    }
+
+    /**
+     * Cancels any search from this session that is still running
+     */
+    public void cancel() {
+        latestSearch.incrementAndGet();
+    }
+
+    /**
+     * Forgets the last search, so the next one searches the whole name index
+     */
+    public synchronized void reset() {
+        lastText = null;
+        lastMatches = null;
+    }
+}
@@ -0,0 +1,95 @@
+package application;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes values of one type into a FoodData snapshot and reads them back.
+ *
+ * Snapshots are written through a DataOutput and read from a (usually
+ * memory-mapped) ByteBuffer.  Both are big-endian, so whatever a codec
+ * writes with DataOutput it reads back with the matching ByteBuffer get.
+ *
+ * @author Shannon Morison, Grant Perry, Kevin Boening, Billy Kirk
+ *
+ * @param <T> the type of the values
+ */
+public interface SnapshotCodec<T> {
+
+    /**
+     * Codec for strings, written by writeString()
+     */
+    public static final SnapshotCodec<String> STRING = new SnapshotCodec<String>() {
+        public void write(DataOutput out, String s) throws IOException {
+            writeString(out, s);
+        }
+
+        public String read(ByteBuffer in) throws IOException {
+            return readString(in);
+        }
+    };
+
+    /**
+     * Codec for doubles, written as their eight bytes
+     */
+    public static final SnapshotCodec<Double> DOUBLE = new SnapshotCodec<Double>() {
+        public void write(DataOutput out, Double value) throws IOException {
+            out.writeDouble(value);
+        }
+
+        public Double read(ByteBuffer in) {
+            return in.getDouble();
+        }
+    };
+
+    /**
+     * Writes a value
+     *
+     * @param out where to write the value
+     * @param value the value to write
+     * @throws IOException if the value can't be written
+     */
+    void write(DataOutput out, T value) throws IOException;
+
+    /**
+     * Reads a value written by write()
+     *
+     * @param in the buffer to read from, positioned at the value
+     * @return the value
+     * @throws IOException if the bytes don't hold a valid value
+     */
+    T read(ByteBuffer in) throws IOException;
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes.
+     * Unlike DataOutput.writeUTF() there is no 64KB limit.
+     *
+     * @param out where to write the string
+     * @param s the string to write
+     * @throws IOException if the string can't be written
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString()
+     *
+     * @param in the buffer to read from, positioned at the string
+     * @return the string
+     * @throws IOException if the length is not valid
+     */
+    static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Illegal string length in snapshot: " + length);
+        }
+        byte[] bytes = new byte[length]; //A mapped buffer has no backing array, so the bytes are copied out
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}